@@ -0,0 +1,23 @@
+#!/bin/zsh
+
+JAVAFX_LIB_PATH="/Users/mdurcan/java-utils/javafx"
+JAVAFX_CP=$(find "$JAVAFX_LIB_PATH" -name "*.jar" | paste -sd ":" -)
+
+BIN_DIR="bin-test"
+SRC_DIR="src/chess"
+TEST_DIR="test"
+
+mkdir -p "$BIN_DIR"
+
+# every test is a class named *Test with a main method that throws when a check fails
+JAVA_FILES=($SRC_DIR/**/*.java $TEST_DIR/**/*.java)
+TESTS=($TEST_DIR/**/*Test.java)
+echo "Compiling Java files..."
+javac -d "$BIN_DIR" -cp "$BIN_DIR:$JAVAFX_CP" $JAVA_FILES || exit 1
+
+FAILED=0
+for TEST in $TESTS; do
+    CLASS=${${TEST#$TEST_DIR/}%.java}
+    java -ea -cp "$BIN_DIR:$JAVAFX_CP" ${CLASS//\//.} || FAILED=1
+done
+exit $FAILED
@@ -1,11 +1,16 @@
 package chess.controller;
 
+import chess.engine.EvalCache;
+import chess.engine.Search;
 import chess.view.MainFrame;
 import chess.model.pieceData.Piece;
 
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 import chess.model.*;
 import chess.model.util.*;
+import chess.model.boardData.Position;
+import chess.model.boardData.Zobrist;
 import java.util.*;
 import java.awt.event.KeyEvent;
 import java.io.*;
@@ -15,6 +20,8 @@ public class ChessController {
     private GameNode currentPosition; // node within the current Game
     private GameLibrary gameLibrary;
     private MainFrame view;
+    private PolyglotBook openingBook;
+    private EvalCache evalCache;
 
     private ImmutXY selectedSquare = null;
     private Piece draggedPiece = null;
@@ -26,6 +33,10 @@ public class ChessController {
         startNewGame();
         gameLibrary = new GameLibrary();
         view = new MainFrame(this);
+        gameLibrary.startWatching(SwingUtilities::invokeLater);
+        buildMissingIndexes();
+        // a bitbase generated in the background may settle the verdict shown for the current position
+        EndgameBitbase.addListener(signature -> SwingUtilities.invokeLater(this::refresh));
 
         // initialize the sound playing to remove delay
         SoundManager.playSound(SoundManager.SoundType.APP_LOAD);
@@ -39,7 +50,8 @@ public class ChessController {
         }
     }
 
-    private void refresh() { view.updateBoard(); view.updateLibrary(); view.updateHistory(); }
+    // the library tree follows the library through its listener, so it is not rebuilt here
+    private void refresh() { view.updateBoard(); view.updateHistory(); }
     public void focusBoard() { view.focusBoard(); }
 
     public ChessGame getCurrentGame() { return currentGame; }
@@ -122,6 +134,189 @@ public class ChessController {
         }
     }
 
+    // exact endgame result for the current position when it is covered by a bitbase
+    public String getEndgameVerdict() {
+        EndgameBitbase.Verdict verdict = EndgameBitbase.probe(currentPosition);
+        if (verdict == null) return null;
+        if (verdict == EndgameBitbase.Verdict.DRAW) return "Draw";
+        boolean whiteWins = (verdict == EndgameBitbase.Verdict.WIN) == currentPosition.isWhiteToPlay();
+        return whiteWins ? "White wins" : "Black wins";
+    }
+
+    // stored analysis of the current position from white's point of view, e.g. "+0.35 (depth 10)"
+    public String getCachedEvaluation() {
+        if (evalCache == null) {
+            try {
+                evalCache = EvalCache.load(new File(EvalCache.DEFAULT_PATH).toPath());
+            } catch (IOException e) {
+                System.err.println("Error loading evaluation cache: " + e.getMessage());
+                evalCache = new EvalCache();
+            }
+        }
+        EvalCache.Entry entry = evalCache.get(Zobrist.hash(currentPosition));
+        if (entry == null) return null;
+        int score = currentPosition.isWhiteToPlay() ? entry.score() : -entry.score();
+        if (Math.abs(score) >= Search.MATE - 128) {
+            int plies = Search.MATE - Math.abs(score);
+            return (score > 0 ? "White" : "Black") + " mates in " + (plies + 1) / 2 + " (depth " + entry.depth() + ")";
+        }
+        return String.format("%+.2f (depth %d)", score / 100.0, entry.depth());
+    }
+
+    // book moves for the current position as "SAN weight%" strings, best first
+    public List<String> getBookMoves() {
+        List<String> result = new ArrayList<>();
+        PolyglotBook book = getOpeningBook();
+        if (book == null) return result;
+
+        List<PolyglotBook.BookMove> moves = book.getMoves(currentPosition);
+        long total = 0;
+        for (PolyglotBook.BookMove m : moves) total += m.weight();
+        for (PolyglotBook.BookMove m : moves) {
+            long percent = total == 0 ? 0 : Math.round(100.0 * m.weight() / total);
+            result.add(NotationParser.convertToNotation(m.move(), currentPosition) + " " + percent + "%");
+        }
+        return result;
+    }
+
+    private PolyglotBook getOpeningBook() {
+        if (openingBook == null && new File(PolyglotBook.DEFAULT_PATH).exists()) {
+            try {
+                openingBook = new PolyglotBook(new File(PolyglotBook.DEFAULT_PATH).toPath());
+            } catch (IOException e) {
+                System.err.println("Error opening book: " + e.getMessage());
+            }
+        }
+        return openingBook;
+    }
+
+    // Builds the opening book from the games of the library files (getLibraryGameFiles(), taken on
+    // the event thread) and returns its entry count. It reads every game, so it is meant to run off
+    // the event thread; openingBookBuilt() then opens the new book on it.
+    public int buildOpeningBook(List<String> libraryFiles) throws IOException {
+        return PolyglotBook.build(java.nio.file.Paths.get(gameLibrary.getLib()), libraryFiles,
+                new File(PolyglotBook.DEFAULT_PATH).toPath());
+    }
+
+    public void openingBookBuilt() {
+        openingBook = null; // reopen the new file on next lookup
+        refresh();
+    }
+
+    // Builds the position index and opening tree on a background thread when they are missing; until
+    // then their lookups find nothing. Saves and outside changes keep them up to date afterwards.
+    private void buildMissingIndexes() {
+        PositionIndex positionIndex = gameLibrary.getPositionIndex();
+        OpeningTree openingTree = gameLibrary.getOpeningTree();
+        if (positionIndex.isBuilt() && openingTree.isBuilt()) return;
+        List<String> files = gameLibrary.getGameFiles();
+        Thread builder = new Thread(() -> {
+            try {
+                if (!positionIndex.isBuilt()) positionIndex.build(files);
+                if (!openingTree.isBuilt()) openingTree.build(files);
+            } catch (IOException e) {
+                System.err.println("Error building game indexes: " + e.getMessage());
+            }
+            SwingUtilities.invokeLater(this::refresh);
+        }, "game-indexes");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    // library moves from the current position with their statistics, most played first, by SAN
+    public Map<String, OpeningTree.MoveStats> getOpeningMoves() {
+        Map<String, OpeningTree.MoveStats> result = new LinkedHashMap<>();
+        List<OpeningTree.MoveStats> moves = gameLibrary.getOpeningTree().getMoves(Zobrist.hash(currentPosition));
+        if (moves.isEmpty()) return result;
+        SanResolver resolver = new SanResolver(Position.fromBoardState(currentPosition));
+        for (OpeningTree.MoveStats stats : moves) {
+            if (!resolver.isLegalMove(stats.move())) continue; // only from a hash collision
+            result.put(resolver.notation(stats.move(), resolver.isCapture(stats.move())), stats);
+        }
+        return result;
+    }
+
+    // plays a move given in SAN from the current position, as if it was made on the board
+    public void playMove(String san) {
+        Move m = NotationParser.parseMove(san, currentPosition);
+        if (m == null) return;
+        currentPosition = currentPosition.addNode(m);
+        autoDetectEcoCode();
+        refresh();
+    }
+
+    // How library games continued from the current position, transpositions included, e.g.
+    // "12 games: e4 (9), d4 (3)", or null when no game reaches it.
+    public String getLibraryContinuations() {
+        List<PositionIndex.Hit> hits = gameLibrary.getPositionIndex().lookup(Zobrist.hash(currentPosition));
+        if (hits.isEmpty()) return null;
+        Set<Integer> games = new HashSet<>();
+        Map<Integer, Set<Integer>> gamesByMove = new HashMap<>();
+        for (PositionIndex.Hit hit : hits) {
+            games.add(hit.game());
+            if (hit.nextMove() != 0) gamesByMove.computeIfAbsent(hit.nextMove(), k -> new HashSet<>()).add(hit.game());
+        }
+        List<Map.Entry<Integer, Set<Integer>>> moves = new ArrayList<>(gamesByMove.entrySet());
+        moves.sort((a, b) -> Integer.compare(b.getValue().size(), a.getValue().size()));
+
+        SanResolver resolver = new SanResolver(Position.fromBoardState(currentPosition));
+        StringBuilder summary = new StringBuilder();
+        summary.append(games.size()).append(games.size() == 1 ? " game" : " games");
+        String separator = ": ";
+        int shown = 0;
+        for (Map.Entry<Integer, Set<Integer>> entry : moves) {
+            if (shown++ == 8) break;
+            if (!resolver.isLegalMove(entry.getKey())) continue; // only from a hash collision
+            summary.append(separator).append(resolver.notation(entry.getKey(), resolver.isCapture(entry.getKey())))
+                    .append(" (").append(entry.getValue().size()).append(")");
+            separator = ", ";
+        }
+        return summary.toString();
+    }
+
+    // library games reaching the current position at any point, transpositions included
+    public Set<String> findLibraryGamesWithPosition() {
+        PositionIndex index = gameLibrary.getPositionIndex();
+        Set<Integer> games = new HashSet<>();
+        Set<String> paths = new LinkedHashSet<>();
+        for (PositionIndex.Hit hit : index.lookup(Zobrist.hash(currentPosition))) {
+            if (!games.add(hit.game())) continue;
+            String path = index.gamePath(hit.game());
+            if (path != null) paths.add(path); // edited or removed since the lookup
+        }
+        return paths;
+    }
+
+    // The library games most like the open one by the positions they pass through, best first, with
+    // the estimated share of positions they have in common; the open game itself is left out.
+    public Map<String, Double> findSimilarLibraryGames(int count) {
+        PositionIndex index = gameLibrary.getPositionIndex();
+        Map<String, Double> games = new LinkedHashMap<>();
+        for (PositionIndex.Similar similar : index.similar(PositionIndex.signature(currentGame), count + 1)) {
+            String path = index.gamePath(similar.game());
+            if (path != null && games.size() < count && !path.equals(currentGame.getFilename())) games.put(path, similar.similarity());
+        }
+        return games;
+    }
+
+    // Checks the games of the library files (getLibraryGameFiles(), taken on the event thread) other
+    // than the repertoire files themselves against them, see RepertoireReport. It reads every game,
+    // so it is meant to run off the event thread.
+    public RepertoireReport buildRepertoireReport(List<File> repertoire, List<String> libraryFiles) throws IOException {
+        File libDir = new File(gameLibrary.getLib()).getCanonicalFile();
+        Set<File> repertoireFiles = new HashSet<>();
+        List<java.nio.file.Path> paths = new ArrayList<>();
+        for (File file : repertoire) {
+            repertoireFiles.add(file.getCanonicalFile());
+            paths.add(file.toPath());
+        }
+        List<String> games = new ArrayList<>();
+        for (String file : libraryFiles) {
+            if (!repertoireFiles.contains(new File(libDir, file).getCanonicalFile())) games.add(file);
+        }
+        return RepertoireReport.run(paths, libDir.toPath(), games);
+    }
+
     public String detectEcoFromMoves(ChessGame game) {
         // get the moves of the mainline
         StringBuilder sb = new StringBuilder();
@@ -190,8 +385,15 @@ public class ChessController {
 
     // Game library methods
     public String getLibPath() { return gameLibrary.getLib(); }
+    public List<String> getLibraryGameFiles() { return gameLibrary.getGameFiles(); }
     public List<String> getLibrarySavedGames() { return gameLibrary.getSavedGames(); }
     public GameLibraryNode getLibraryRootNode() { return gameLibrary.getRootNode(); }
+    public LibraryIndex.GameRecord getLibraryGameRecord(String path) { return gameLibrary.getGameRecord(path); }
+
+    // paths of the library games matching a search such as "white:carlsen eco:B2*" or "material:KRPvKR"
+    public Set<String> searchLibrary(String query) { return gameLibrary.searchGames(query); }
+    public void addLibraryListener(GameLibrary.Listener listener) { gameLibrary.addListener(listener); }
+    public void syncLibraryPath(String path) { gameLibrary.syncPath(path); }
     public void deleteGameFromLibrary(String name) { gameLibrary.deleteGame(name); }
     public void deleteDirectoryFromLibrary(String path) { gameLibrary.deleteDirectory(path); }
 
@@ -205,10 +407,58 @@ public class ChessController {
         }
     }
 
+    // importer for large collections, parsing on every core
+    public PgnImporter createImporter() {
+        return new PgnImporter(gameLibrary, Runtime.getRuntime().availableProcessors());
+    }
+
     public void createDirectoryInLibrary(String path) throws IOException {
         gameLibrary.createDirectory(path);
     }
 
+    // Merges PGN files into one game tree, see GameMerger. It reads every game of every file, so it is
+    // meant to run off the event thread; openGame shows the result.
+    public GameMerger mergePgnFiles(List<File> files) throws IOException {
+        GameMerger merger = new GameMerger();
+        for (File file : files) merger.addFile(file.toPath());
+        return merger;
+    }
+
+    // Every game of the library files (getLibraryGameFiles(), taken on the event thread) held more
+    // than once, see DuplicateFinder. It reads every game, so it is meant to run off the event
+    // thread, as is checkImportedGames.
+    public List<DuplicateFinder.Group> findDuplicateGames(List<String> libraryFiles, boolean matchTags) throws IOException {
+        return DuplicateFinder.sweep(java.nio.file.Paths.get(gameLibrary.getLib()), libraryFiles, matchTags);
+    }
+
+    // the games of a file just imported into the library (its path relative to it) that the library
+    // files already had
+    public List<DuplicateFinder.Group> checkImportedGames(String filePath, List<String> libraryFiles) throws IOException {
+        try {
+            gameLibrary.awaitGameIndexes();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the position index");
+        }
+        return DuplicateFinder.checkImport(java.nio.file.Paths.get(gameLibrary.getLib()), filePath,
+                gameLibrary.getPositionIndex(), libraryFiles, false);
+    }
+
+    // Removes the duplicates of each group, keeping its first game. It only writes the files, so it is
+    // meant to run off the event thread; the files it returns are synced back on it (syncLibraryPath).
+    public Set<String> removeDuplicateGames(List<DuplicateFinder.Group> groups) throws IOException {
+        return DuplicateFinder.removeDuplicates(gameLibrary, groups);
+    }
+
+    // shows a game that is not in the library, such as a merge, from its first position; saving it
+    // asks for a name
+    public void openGame(ChessGame game) {
+        currentGame = game;
+        currentPosition = game.getFirstPosition();
+        view.focusBoard();
+        refresh();
+    }
+
     public void loadGameFromLibrary(String name) {
         try {
             ChessGame loadedGame = gameLibrary.loadGame(name);
@@ -0,0 +1,354 @@
+package chess.engine;
+
+import chess.engine.AnalysisProtocol.Job;
+import chess.engine.AnalysisProtocol.Result;
+import chess.model.ChessGame;
+import chess.model.GameLibrary;
+import chess.model.GameNode;
+import chess.model.boardData.Position;
+import chess.model.boardData.Zobrist;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Shards library positions across worker JVMs (AnalysisWorker) over localhost sockets and merges
+// their results into the evaluation cache.
+//  - workers pull jobs, so faster workers simply take more
+//  - when the queue runs dry, an idle worker steals the newest prefetched job of the busiest worker
+//  - workers heartbeat; a worker that disconnects or goes quiet has its unfinished jobs requeued
+//  - local worker processes that die are restarted while work remains
+// Workers on other machines can connect too when bound to a non-loopback address.
+//   java -cp bin chess.engine.AnalysisCoordinator [--workers N] [--depth D] [--movetime MS]
+//        [--port P] [--bind ADDR] [--cache PATH]
+public class AnalysisCoordinator {
+    private static final long CHECKPOINT_MILLIS = 60_000;
+
+    private final EvalCache cache;
+    private final Path cachePath;
+    private final List<Job> jobs = new ArrayList<>();
+    private final ArrayDeque<Job> pending = new ArrayDeque<>();
+    private final BitSet done = new BitSet();
+    private int remaining; // jobs not done yet
+    private final Set<Connection> connections = new LinkedHashSet<>();
+    private final List<Process> localWorkers = new ArrayList<>();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "analysis-timer");
+        t.setDaemon(true);
+        return t;
+    });
+    private ServerSocket server;
+    private long totalNodes, steals, requeued;
+    private int restartsLeft;
+
+    public AnalysisCoordinator(EvalCache cache, Path cachePath) {
+        this.cache = cache;
+        this.cachePath = cachePath;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        int depth = 10, movetime = 0, port = 0;
+        String bind = "127.0.0.1";
+        Path cachePath = Paths.get(EvalCache.DEFAULT_PATH);
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--workers": workers = Integer.parseInt(args[i + 1]); break;
+                case "--depth": depth = Integer.parseInt(args[i + 1]); break;
+                case "--movetime": movetime = Integer.parseInt(args[i + 1]); break;
+                case "--port": port = Integer.parseInt(args[i + 1]); break;
+                case "--bind": bind = args[i + 1]; break;
+                case "--cache": cachePath = Paths.get(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        EvalCache cache = EvalCache.load(cachePath);
+        AnalysisCoordinator coordinator = new AnalysisCoordinator(cache, cachePath);
+        int added = coordinator.addLibraryPositions(new GameLibrary(), depth, movetime);
+        System.out.println("Analysing " + added + " positions to depth " + depth + " with " + workers + " workers");
+        if (added == 0) return;
+
+        coordinator.start(new InetSocketAddress(bind, port));
+        coordinator.spawnLocalWorkers(workers);
+        coordinator.awaitCompletion();
+        coordinator.shutdown();
+    }
+
+    // queue every distinct position in the library not already cached at the requested depth
+    public int addLibraryPositions(GameLibrary library, int depth, int movetime) throws IOException {
+        Set<Long> seen = new HashSet<>();
+        int added = 0;
+        for (String name : library.getSavedGames()) {
+            ChessGame game = library.loadGame(name);
+            Deque<GameNode> stack = new ArrayDeque<>();
+            stack.push(game.getFirstPosition());
+            while (!stack.isEmpty()) {
+                GameNode node = stack.pop();
+                for (GameNode child : node.getChildren()) stack.push(child);
+                long key = Zobrist.hash(node);
+                if (!seen.add(key)) continue;
+                EvalCache.Entry cached = cache.get(key);
+                if (cached != null && cached.depth() >= depth) continue;
+                addJob(Position.toFen(node), depth, movetime);
+                ++added;
+            }
+        }
+        return added;
+    }
+
+    public synchronized void addJob(String fen, int depth, int movetime) {
+        Job job = new Job(jobs.size(), fen, depth, movetime);
+        jobs.add(job);
+        pending.add(job);
+        ++remaining;
+    }
+
+    public void start(InetSocketAddress address) throws IOException {
+        server = new ServerSocket();
+        server.bind(address);
+        Thread acceptor = new Thread(this::acceptLoop, "analysis-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        timer.scheduleAtFixedRate(this::reapSilentWorkers, AnalysisProtocol.HEARTBEAT_MILLIS,
+                AnalysisProtocol.HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+        timer.scheduleAtFixedRate(this::checkpoint, CHECKPOINT_MILLIS, CHECKPOINT_MILLIS, TimeUnit.MILLISECONDS);
+        timer.scheduleAtFixedRate(this::printProgress, 5, 5, TimeUnit.SECONDS);
+        System.out.println("Coordinator listening on " + server.getLocalSocketAddress());
+    }
+
+    public int getPort() { return server.getLocalPort(); }
+
+    public void spawnLocalWorkers(int count) throws IOException {
+        synchronized (this) {
+            restartsLeft = count * 3;
+        }
+        for (int i = 0; i < count; ++i) spawnWorker();
+    }
+
+    private void spawnWorker() throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                AnalysisWorker.class.getName(), "127.0.0.1", Integer.toString(getPort()));
+        pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        Process process = pb.start();
+        synchronized (this) {
+            localWorkers.add(process);
+        }
+        process.onExit().thenRun(() -> workerExited(process));
+    }
+
+    private void workerExited(Process process) {
+        synchronized (this) {
+            localWorkers.remove(process);
+            if (finished.getCount() == 0 || process.exitValue() == 0 || restartsLeft <= 0) return;
+            --restartsLeft;
+        }
+        System.err.println("Worker exited with code " + process.exitValue() + ", restarting");
+        try {
+            spawnWorker();
+        } catch (IOException e) {
+            System.err.println("Error restarting worker: " + e.getMessage());
+        }
+    }
+
+    public void awaitCompletion() throws InterruptedException {
+        finished.await();
+    }
+
+    public void shutdown() throws IOException {
+        List<Connection> open;
+        synchronized (this) {
+            open = new ArrayList<>(connections);
+        }
+        for (Connection c : open) c.trySend(o -> o.writeByte(AnalysisProtocol.SHUTDOWN));
+        timer.shutdownNow();
+        server.close();
+        checkpoint();
+        printProgress();
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                Connection c = new Connection(socket);
+                Thread t = new Thread(c::serve, "analysis-conn-" + socket.getPort());
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                if (!server.isClosed()) System.err.println("Error accepting worker: " + e.getMessage());
+            }
+        }
+    }
+
+    // Hand out up to count jobs; steal from the busiest worker when nothing is queued. The victim is
+    // told after the lock is released, so a worker that stopped reading holds up no one else.
+    private List<Job> assign(Connection to, int count) {
+        List<Job> given = new ArrayList<>();
+        Connection victim = null;
+        synchronized (this) {
+            while (given.size() < count && !pending.isEmpty()) {
+                Job job = pending.poll();
+                if (done.get((int) job.id())) continue;
+                to.outstanding.put(job.id(), job);
+                given.add(job);
+            }
+            if (given.isEmpty()) {
+                for (Connection c : connections) {
+                    // the oldest outstanding job is the one being searched, only queued ones are stolen
+                    if (c != to && c.outstanding.size() > 1 && (victim == null || c.outstanding.size() > victim.outstanding.size())) {
+                        victim = c;
+                    }
+                }
+                if (victim != null) {
+                    Job job = null;
+                    for (Job j : victim.outstanding.values()) job = j; // newest
+                    victim.outstanding.remove(job.id());
+                    to.outstanding.put(job.id(), job);
+                    given.add(job);
+                    ++steals;
+                }
+            }
+        }
+        if (victim != null) {
+            long id = given.get(0).id();
+            victim.trySend(o -> {
+                o.writeByte(AnalysisProtocol.CANCEL);
+                o.writeLong(id);
+            });
+        }
+        return given;
+    }
+
+    private synchronized void complete(Connection from, Result result) {
+        int id = (int) result.jobId();
+        from.outstanding.remove(result.jobId());
+        totalNodes += result.nodes();
+        if (id < 0 || id >= jobs.size() || done.get(id)) return; // a stolen job finished twice
+        done.set(id);
+        cache.merge(result.key(), result.move(), result.score(), result.depth());
+        if (--remaining == 0) finished.countDown();
+    }
+
+    private synchronized void disconnected(Connection c) {
+        connections.remove(c);
+        List<Job> lost = new ArrayList<>(c.outstanding.values());
+        for (int i = lost.size() - 1; i >= 0; --i) {
+            Job job = lost.get(i);
+            if (!done.get((int) job.id())) {
+                pending.addFirst(job);
+                ++requeued;
+            }
+        }
+        c.outstanding.clear();
+    }
+
+    private void reapSilentWorkers() {
+        long now = System.currentTimeMillis();
+        List<Connection> open;
+        synchronized (this) {
+            open = new ArrayList<>(connections);
+        }
+        for (Connection c : open) {
+            if (now - c.lastSeen > AnalysisProtocol.TIMEOUT_MILLIS) {
+                System.err.println("Worker " + c.socket.getRemoteSocketAddress() + " timed out");
+                c.close();
+            }
+        }
+    }
+
+    private void checkpoint() {
+        try {
+            cache.save(cachePath);
+        } catch (IOException e) {
+            System.err.println("Error saving evaluation cache: " + e.getMessage());
+        }
+    }
+
+    private synchronized void printProgress() {
+        System.out.println(String.format("%d/%d positions, %d workers, %d nodes, %d stolen, %d requeued",
+                jobs.size() - remaining, jobs.size(), connections.size(), totalNodes, steals, requeued));
+    }
+
+    private interface Message {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private class Connection {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final LinkedHashMap<Long, Job> outstanding = new LinkedHashMap<>(); // guarded by the coordinator
+        volatile long lastSeen = System.currentTimeMillis();
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void serve() {
+            try {
+                if (in.readByte() != AnalysisProtocol.HELLO || in.readInt() != AnalysisProtocol.VERSION) {
+                    throw new IOException("Bad handshake");
+                }
+                synchronized (AnalysisCoordinator.this) {
+                    connections.add(this);
+                }
+                while (true) {
+                    byte type = in.readByte();
+                    lastSeen = System.currentTimeMillis();
+                    if (type == AnalysisProtocol.REQUEST) {
+                        int count = in.readUnsignedByte();
+                        List<Job> given = assign(this, count);
+                        if (!given.isEmpty()) {
+                            send(o -> {
+                                for (Job job : given) AnalysisProtocol.writeJob(o, job);
+                            });
+                        } else {
+                            send(o -> o.writeByte(finished.getCount() == 0 ? AnalysisProtocol.SHUTDOWN : AnalysisProtocol.IDLE));
+                        }
+                    } else if (type == AnalysisProtocol.RESULT) {
+                        complete(this, AnalysisProtocol.readResult(in));
+                    } else if (type != AnalysisProtocol.HEARTBEAT) {
+                        throw new IOException("Unexpected message type " + type);
+                    }
+                }
+            } catch (IOException e) {
+                // worker crashed, was killed or timed out
+            } finally {
+                close();
+                disconnected(this);
+            }
+        }
+
+        void send(Message message) throws IOException {
+            synchronized (out) {
+                message.write(out);
+                out.flush();
+            }
+        }
+
+        void trySend(Message message) {
+            try {
+                send(message);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+}
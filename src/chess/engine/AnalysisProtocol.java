@@ -0,0 +1,63 @@
+package chess.engine;
+
+import java.io.*;
+
+// Binary messages exchanged between the analysis coordinator and its workers.
+// Every message is a one byte type followed by fixed fields:
+//   worker -> coordinator
+//     HELLO      int protocol version
+//     REQUEST    byte number of jobs wanted
+//     RESULT     long job id, long position key, short move, short score, byte depth, long nodes
+//     HEARTBEAT  (no fields)
+//   coordinator -> worker
+//     JOB        long job id, utf fen, byte depth, int move time in ms (0 = depth only)
+//     IDLE       (no fields) nothing to hand out right now, ask again later
+//     CANCEL     long job id, drop it if not started (it was handed to another worker)
+//     SHUTDOWN   (no fields)
+public final class AnalysisProtocol {
+    public static final int VERSION = 1;
+
+    public static final byte HELLO = 1;
+    public static final byte REQUEST = 2;
+    public static final byte RESULT = 3;
+    public static final byte HEARTBEAT = 4;
+    public static final byte JOB = 10;
+    public static final byte IDLE = 11;
+    public static final byte SHUTDOWN = 12;
+    public static final byte CANCEL = 13;
+
+    public static final long HEARTBEAT_MILLIS = 1000;
+    public static final long TIMEOUT_MILLIS = 10_000;
+
+    public record Job(long id, String fen, int depth, int movetime) {}
+    public record Result(long jobId, long key, int move, int score, int depth, long nodes) {}
+
+    private AnalysisProtocol() {}
+
+    public static void writeJob(DataOutputStream out, Job job) throws IOException {
+        out.writeByte(JOB);
+        out.writeLong(job.id());
+        out.writeUTF(job.fen());
+        out.writeByte(job.depth());
+        out.writeInt(job.movetime());
+    }
+
+    public static Job readJob(DataInputStream in) throws IOException {
+        return new Job(in.readLong(), in.readUTF(), in.readUnsignedByte(), in.readInt());
+    }
+
+    public static void writeResult(DataOutputStream out, Result result) throws IOException {
+        out.writeByte(RESULT);
+        out.writeLong(result.jobId());
+        out.writeLong(result.key());
+        out.writeShort(result.move());
+        out.writeShort(result.score());
+        out.writeByte(result.depth());
+        out.writeLong(result.nodes());
+    }
+
+    public static Result readResult(DataInputStream in) throws IOException {
+        return new Result(in.readLong(), in.readLong(), in.readUnsignedShort(), in.readShort(),
+                in.readUnsignedByte(), in.readLong());
+    }
+}
@@ -0,0 +1,146 @@
+package chess.engine;
+
+import chess.engine.AnalysisProtocol.Job;
+import chess.engine.AnalysisProtocol.Result;
+import chess.model.boardData.Position;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Worker process for distributed analysis. Connects to a coordinator, pulls jobs a couple at a time,
+// searches each with its own engine and sends the results back:
+//   java -cp bin chess.engine.AnalysisWorker <host> <port> [hashMB]
+public class AnalysisWorker {
+    private static final int PREFETCH = 2;
+    private static final Job STOP = new Job(-1, "", 0, 0);
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final LinkedBlockingDeque<Job> queue = new LinkedBlockingDeque<>();
+    private final Search search;
+
+    public AnalysisWorker(String host, int port, int hashMb) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        search = new Search(new TranspositionTable(hashMb), Evaluation.loadTunedOrDefault());
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: AnalysisWorker <host> <port> [hashMB]");
+            System.exit(1);
+        }
+        int hash = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        new AnalysisWorker(args[0], Integer.parseInt(args[1]), hash).run();
+    }
+
+    public void run() throws IOException {
+        send(o -> {
+            o.writeByte(AnalysisProtocol.HELLO);
+            o.writeInt(AnalysisProtocol.VERSION);
+        });
+        startReader();
+        startHeartbeat();
+        request(PREFETCH);
+
+        try {
+            while (true) {
+                Job job = queue.poll(AnalysisProtocol.HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                if (job == null) {
+                    request(PREFETCH); // idle: ask again
+                    continue;
+                }
+                if (job == STOP) break;
+                // keep one job queued behind the running one so there is no round trip between jobs
+                if (queue.size() < PREFETCH - 1) request(1);
+                Result result = analyse(job);
+                send(o -> AnalysisProtocol.writeResult(o, result));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private Result analyse(Job job) {
+        Position pos = new Position(job.fen());
+        Search.Limits limits = new Search.Limits();
+        limits.depth = Math.max(1, job.depth());
+        limits.movetime = job.movetime();
+        List<Search.Line> lines = search.search(pos, limits, null);
+        int move = 0, score = 0, depth = 0;
+        if (!lines.isEmpty()) {
+            Search.Line best = lines.get(0);
+            move = best.pv()[0];
+            score = best.score();
+            depth = best.depth();
+        } else if (pos.inCheck()) {
+            score = -Search.MATE;
+        }
+        return new Result(job.id(), pos.getKey(), move, score, depth, search.getNodes());
+    }
+
+    private void request(int count) throws IOException {
+        send(o -> {
+            o.writeByte(AnalysisProtocol.REQUEST);
+            o.writeByte(count);
+        });
+    }
+
+    private interface Message {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private void send(Message message) throws IOException {
+        synchronized (out) {
+            message.write(out);
+            out.flush();
+        }
+    }
+
+    private void startReader() {
+        Thread reader = new Thread(() -> {
+            try {
+                while (true) {
+                    byte type = in.readByte();
+                    if (type == AnalysisProtocol.JOB) {
+                        queue.add(AnalysisProtocol.readJob(in));
+                    } else if (type == AnalysisProtocol.CANCEL) {
+                        long id = in.readLong();
+                        queue.removeIf(j -> j.id() == id);
+                    } else if (type == AnalysisProtocol.SHUTDOWN) {
+                        break;
+                    } else if (type != AnalysisProtocol.IDLE) {
+                        throw new IOException("Unexpected message type " + type);
+                    }
+                }
+            } catch (IOException e) {
+                // coordinator gone, nothing left to do
+            }
+            queue.addFirst(STOP);
+        }, "analysis-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void startHeartbeat() {
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "analysis-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeat.scheduleAtFixedRate(() -> {
+            try {
+                send(o -> o.writeByte(AnalysisProtocol.HEARTBEAT));
+            } catch (IOException e) {
+                heartbeat.shutdown();
+            }
+        }, AnalysisProtocol.HEARTBEAT_MILLIS, AnalysisProtocol.HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+}
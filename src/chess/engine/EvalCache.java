@@ -0,0 +1,107 @@
+package chess.engine;
+
+import java.io.*;
+import java.nio.file.*;
+
+// Persistent store of analysed positions keyed by Zobrist hash: best move, score and search depth.
+// Open addressing over two primitive arrays so millions of positions stay cheap to hold.
+// Scores are from the side to move's point of view, like the search.
+public class EvalCache {
+    public static final String DEFAULT_PATH = "analysis/evalcache.bin";
+    private static final int MAGIC = 0x43534543; // "CSEC"
+    private static final int VERSION = 2;
+
+    public record Entry(int move, int score, int depth) {}
+
+    private long[] keys;
+    private long[] data; // move (16) | score + 32768 (16) | depth (8), 0 = empty slot
+    private int size;
+
+    public EvalCache() {
+        keys = new long[1024];
+        data = new long[1024];
+    }
+
+    public synchronized int size() { return size; }
+
+    public synchronized Entry get(long key) {
+        int i = find(key);
+        return data[i] == 0 ? null : unpack(data[i]);
+    }
+
+    // keeps whichever result was searched deeper; returns true if the cache changed
+    public synchronized boolean merge(long key, int move, int score, int depth) {
+        long packed = pack(move, score, depth);
+        int i = find(key);
+        if (data[i] != 0) {
+            if (unpack(data[i]).depth() >= depth) return false;
+            data[i] = packed;
+            return true;
+        }
+        keys[i] = key;
+        data[i] = packed;
+        if (++size * 2 > keys.length) grow();
+        return true;
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int i = (int) (key ^ (key >>> 32)) & mask;
+        while (data[i] != 0 && keys[i] != key) i = (i + 1) & mask;
+        return i;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys, oldData = data;
+        keys = new long[oldKeys.length * 2];
+        data = new long[oldData.length * 2];
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldData[i] == 0) continue;
+            int j = find(oldKeys[i]);
+            keys[j] = oldKeys[i];
+            data[j] = oldData[i];
+        }
+    }
+
+    private static long pack(int move, int score, int depth) {
+        // depth is stored + 1 so a depth 0 entry is still non-empty
+        return (move & 0xffffL) | ((long) ((score + 32768) & 0xffff) << 16) | ((long) (Math.min(depth, 254) + 1) << 32);
+    }
+
+    private static Entry unpack(long d) {
+        return new Entry((int) (d & 0xffff), (int) ((d >>> 16) & 0xffff) - 32768, (int) ((d >>> 32) & 0xff) - 1);
+    }
+
+    public static EvalCache load(Path path) throws IOException {
+        EvalCache cache = new EvalCache();
+        if (!Files.exists(path)) return cache;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not an evaluation cache: " + path);
+            if (in.readInt() != VERSION) return cache; // keyed by an older Zobrist table, analysed again
+            int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                long key = in.readLong();
+                Entry e = unpack(in.readLong());
+                cache.merge(key, e.move(), e.score(), e.depth());
+            }
+        }
+        return cache;
+    }
+
+    // written to a temporary file first so a crash mid-save never loses the previous cache
+    public synchronized void save(Path path) throws IOException {
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            for (int i = 0; i < keys.length; ++i) {
+                if (data[i] == 0) continue;
+                out.writeLong(keys[i]);
+                out.writeLong(data[i]);
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
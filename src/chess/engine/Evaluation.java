@@ -0,0 +1,234 @@
+package chess.engine;
+
+import chess.model.boardData.Position;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Static evaluation: material, piece-square tables (king tapered between middlegame and endgame),
+// bishop pair and tempo. Every term lives in one flat parameter array so it can be tuned.
+// Tables are written from white's point of view with rank 8 first, black pieces mirror them.
+public class Evaluation {
+    public static final String TUNED_PATH = "engine/eval.txt";
+    public static final int MATERIAL = 0; // pawn, knight, bishop, rook, queen
+    public static final int PST = 5;      // pawn, knight, bishop, rook, queen, king middlegame, king endgame
+    public static final int BISHOP_PAIR = PST + 7 * 64;
+    public static final int TEMPO = BISHOP_PAIR + 1;
+    public static final int SIZE = TEMPO + 1;
+
+    private static final int KING_ENDGAME = 6;
+    private static final int MAX_PHASE = 24;
+    private static final int[] PHASE_WEIGHT = {0, 0, 1, 1, 2, 4, 0};
+
+    private static final int[][] DEFAULT_TABLES = {
+        { // pawn
+             0,  0,  0,  0,  0,  0,  0,  0,
+            50, 50, 50, 50, 50, 50, 50, 50,
+            10, 10, 20, 30, 30, 20, 10, 10,
+             5,  5, 10, 25, 25, 10,  5,  5,
+             0,  0,  0, 20, 20,  0,  0,  0,
+             5, -5,-10,  0,  0,-10, -5,  5,
+             5, 10, 10,-20,-20, 10, 10,  5,
+             0,  0,  0,  0,  0,  0,  0,  0
+        },
+        { // knight
+            -50,-40,-30,-30,-30,-30,-40,-50,
+            -40,-20,  0,  0,  0,  0,-20,-40,
+            -30,  0, 10, 15, 15, 10,  0,-30,
+            -30,  5, 15, 20, 20, 15,  5,-30,
+            -30,  0, 15, 20, 20, 15,  0,-30,
+            -30,  5, 10, 15, 15, 10,  5,-30,
+            -40,-20,  0,  5,  5,  0,-20,-40,
+            -50,-40,-30,-30,-30,-30,-40,-50
+        },
+        { // bishop
+            -20,-10,-10,-10,-10,-10,-10,-20,
+            -10,  0,  0,  0,  0,  0,  0,-10,
+            -10,  0,  5, 10, 10,  5,  0,-10,
+            -10,  5,  5, 10, 10,  5,  5,-10,
+            -10,  0, 10, 10, 10, 10,  0,-10,
+            -10, 10, 10, 10, 10, 10, 10,-10,
+            -10,  5,  0,  0,  0,  0,  5,-10,
+            -20,-10,-10,-10,-10,-10,-10,-20
+        },
+        { // rook
+             0,  0,  0,  0,  0,  0,  0,  0,
+             5, 10, 10, 10, 10, 10, 10,  5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+             0,  0,  0,  5,  5,  0,  0,  0
+        },
+        { // queen
+            -20,-10,-10, -5, -5,-10,-10,-20,
+            -10,  0,  0,  0,  0,  0,  0,-10,
+            -10,  0,  5,  5,  5,  5,  0,-10,
+             -5,  0,  5,  5,  5,  5,  0, -5,
+              0,  0,  5,  5,  5,  5,  0, -5,
+            -10,  5,  5,  5,  5,  5,  0,-10,
+            -10,  0,  5,  0,  0,  0,  0,-10,
+            -20,-10,-10, -5, -5,-10,-10,-20
+        },
+        { // king middlegame
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -20,-30,-30,-40,-40,-30,-30,-20,
+            -10,-20,-20,-20,-20,-20,-20,-10,
+             20, 20,  0,  0,  0,  0, 20, 20,
+             20, 30, 10,  0,  0, 10, 30, 20
+        },
+        { // king endgame
+            -50,-40,-30,-20,-20,-30,-40,-50,
+            -30,-20,-10,  0,  0,-10,-20,-30,
+            -30,-10, 20, 30, 30, 20,-10,-30,
+            -30,-10, 30, 40, 40, 30,-10,-30,
+            -30,-10, 30, 40, 40, 30,-10,-30,
+            -30,-10, 20, 30, 30, 20,-10,-30,
+            -30,-30,  0,  0,  0,  0,-30,-30,
+            -50,-30,-30,-30,-30,-30,-30,-50
+        }
+    };
+
+    private final int[] params;
+
+    public Evaluation() {
+        this(defaults());
+    }
+
+    public Evaluation(int[] params) {
+        if (params.length != SIZE) {
+            throw new IllegalArgumentException("Expected " + SIZE + " evaluation parameters, got " + params.length);
+        }
+        this.params = params;
+    }
+
+    // the tuned parameters when present, the built-in defaults otherwise
+    public static Evaluation loadTunedOrDefault() {
+        Path path = Paths.get(TUNED_PATH);
+        if (Files.exists(path)) {
+            try {
+                return load(path);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Error loading " + TUNED_PATH + ": " + e.getMessage());
+            }
+        }
+        return new Evaluation();
+    }
+
+    public static int[] defaults() {
+        int[] p = new int[SIZE];
+        int[] material = {100, 320, 330, 500, 900};
+        System.arraycopy(material, 0, p, MATERIAL, material.length);
+        for (int t = 0; t < DEFAULT_TABLES.length; ++t) {
+            System.arraycopy(DEFAULT_TABLES[t], 0, p, PST + t * 64, 64);
+        }
+        p[BISHOP_PAIR] = 30;
+        p[TEMPO] = 10;
+        return p;
+    }
+
+    public int[] getParams() { return params.clone(); }
+    public int getParam(int index) { return params[index]; }
+    public void setParam(int index, int value) { params[index] = value; }
+
+    public int pieceValue(int type) {
+        return type >= Position.PAWN && type <= Position.QUEEN ? params[MATERIAL + type - 1] : 0;
+    }
+
+    // score in centipawns from the side to move's point of view
+    public int evaluate(Position pos) {
+        int phase = 0;
+        for (int type = Position.KNIGHT; type <= Position.QUEEN; ++type) {
+            phase += PHASE_WEIGHT[type] * Long.bitCount(pos.getPieces(true, type) | pos.getPieces(false, type));
+        }
+        phase = Math.min(phase, MAX_PHASE);
+
+        int score = side(pos, true, phase) - side(pos, false, phase);
+        return (pos.isWhiteToMove() ? score : -score) + params[TEMPO];
+    }
+
+    private int side(Position pos, boolean white, int phase) {
+        int score = 0;
+        int mirror = white ? 0 : 56;
+        for (int type = Position.PAWN; type <= Position.QUEEN; ++type) {
+            long bb = pos.getPieces(white, type);
+            int value = params[MATERIAL + type - 1];
+            int table = PST + (type - 1) * 64;
+            while (bb != 0) {
+                int sq = Long.numberOfTrailingZeros(bb);
+                bb &= bb - 1;
+                score += value + params[table + (sq ^ mirror)];
+            }
+        }
+        int king = pos.kingSquare(white) ^ mirror;
+        int middlegame = params[PST + 5 * 64 + king];
+        int endgame = params[PST + KING_ENDGAME * 64 + king];
+        score += (middlegame * phase + endgame * (MAX_PHASE - phase)) / MAX_PHASE;
+
+        if (Long.bitCount(pos.getPieces(white, Position.BISHOP)) >= 2) score += params[BISHOP_PAIR];
+        return score;
+    }
+
+    // The evaluation as a linear function of the parameters: evaluate(pos) from white's point of view
+    // is (up to rounding of the king taper) the sum of params[index[i]] * weight[i].
+    public record Features(int[] index, double[] weight) {}
+
+    public Features features(Position pos) {
+        Map<Integer, Double> f = new TreeMap<>();
+        int phase = 0;
+        for (int type = Position.KNIGHT; type <= Position.QUEEN; ++type) {
+            phase += PHASE_WEIGHT[type] * Long.bitCount(pos.getPieces(true, type) | pos.getPieces(false, type));
+        }
+        phase = Math.min(phase, MAX_PHASE);
+
+        for (int c = 0; c < 2; ++c) {
+            boolean white = c == 0;
+            double sign = white ? 1 : -1;
+            int mirror = white ? 0 : 56;
+            for (int type = Position.PAWN; type <= Position.QUEEN; ++type) {
+                long bb = pos.getPieces(white, type);
+                while (bb != 0) {
+                    int sq = Long.numberOfTrailingZeros(bb);
+                    bb &= bb - 1;
+                    f.merge(MATERIAL + type - 1, sign, Double::sum);
+                    f.merge(PST + (type - 1) * 64 + (sq ^ mirror), sign, Double::sum);
+                }
+            }
+            int king = pos.kingSquare(white) ^ mirror;
+            f.merge(PST + 5 * 64 + king, sign * phase / MAX_PHASE, Double::sum);
+            f.merge(PST + KING_ENDGAME * 64 + king, sign * (MAX_PHASE - phase) / MAX_PHASE, Double::sum);
+            if (Long.bitCount(pos.getPieces(white, Position.BISHOP)) >= 2) f.merge(BISHOP_PAIR, sign, Double::sum);
+        }
+        f.merge(TEMPO, pos.isWhiteToMove() ? 1.0 : -1.0, Double::sum);
+        f.values().removeIf(w -> w == 0);
+
+        int[] index = new int[f.size()];
+        double[] weight = new double[f.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Double> e : f.entrySet()) {
+            index[i] = e.getKey();
+            weight[i++] = e.getValue();
+        }
+        return new Features(index, weight);
+    }
+
+    // parameters as plain text, one value per line
+    public void save(Path path) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int p : params) lines.add(Integer.toString(p));
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        Files.write(path, lines);
+    }
+
+    public static Evaluation load(Path path) throws IOException {
+        List<String> lines = Files.readAllLines(path);
+        int[] p = new int[lines.size()];
+        for (int i = 0; i < p.length; ++i) p[i] = Integer.parseInt(lines.get(i).trim());
+        return new Evaluation(p);
+    }
+}
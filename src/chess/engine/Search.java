@@ -0,0 +1,410 @@
+package chess.engine;
+
+import chess.model.boardData.Position;
+import chess.model.pieceData.Piece.PieceType;
+import chess.model.util.EndgameBitbase;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+// Iterative deepening alpha-beta search (PVS, quiescence, null move, late move reductions).
+// Threads share the transposition table and search the same root independently (lazy SMP);
+// the main thread reports and decides. MultiPV lines are found by re-searching the root
+// with the better lines' first moves excluded.
+public class Search {
+    public static final int INFINITY = 32000;
+    public static final int MATE = 31000;
+    public static final int TB_WIN = 29000;
+    private static final int MAX_PLY = 128;
+
+    public static class Limits {
+        public int depth = MAX_PLY - 1;
+        public long movetime = 0;
+        public long wtime = 0, btime = 0, winc = 0, binc = 0;
+        public int movestogo = 0;
+        public long nodes = 0;
+        public boolean infinite = false;
+    }
+
+    public record Line(int score, int depth, int[] pv) {}
+
+    private final TranspositionTable tt;
+    private final Evaluation eval;
+    private int threads = 1;
+    private int multiPv = 1;
+    private volatile boolean stopped;
+    private long startTime, softDeadline, hardDeadline, nodeLimit;
+    private Worker[] workers = new Worker[0];
+
+    public Search(TranspositionTable tt, Evaluation eval) {
+        this.tt = tt;
+        this.eval = eval;
+    }
+
+    public void setThreads(int threads) { this.threads = Math.max(1, threads); }
+    public void setMultiPv(int multiPv) { this.multiPv = Math.max(1, multiPv); }
+    public void stop() { stopped = true; }
+
+    public long getNodes() {
+        long total = 0;
+        for (Worker w : workers) total += w.nodes;
+        return total;
+    }
+
+    // Searches until the limits are hit or stop() is called.
+    // Returns the best lines, best first; out receives UCI info lines when not null.
+    public List<Line> search(Position root, Limits limits, Consumer<String> out) {
+        stopped = false;
+        startTime = System.currentTimeMillis();
+        allocateTime(root.isWhiteToMove(), limits);
+        nodeLimit = limits.nodes;
+        tt.newSearch();
+
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; ++i) workers[i] = new Worker(i, new Position(root));
+
+        List<Thread> helpers = new ArrayList<>();
+        for (int i = 1; i < threads; ++i) {
+            Worker w = workers[i];
+            Thread t = new Thread(() -> w.iterate(limits.depth, 1, null), "search-helper-" + i);
+            t.setDaemon(true);
+            t.start();
+            helpers.add(t);
+        }
+        List<Line> lines = workers[0].iterate(limits.depth, multiPv, out);
+        stopped = true;
+        for (Thread t : helpers) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return lines;
+    }
+
+    private void allocateTime(boolean white, Limits limits) {
+        softDeadline = hardDeadline = Long.MAX_VALUE;
+        if (limits.infinite) return;
+        if (limits.movetime > 0) {
+            softDeadline = hardDeadline = startTime + limits.movetime;
+            return;
+        }
+        long remaining = white ? limits.wtime : limits.btime;
+        long increment = white ? limits.winc : limits.binc;
+        if (remaining <= 0) return;
+        int movesLeft = limits.movestogo > 0 ? limits.movestogo : 30;
+        long budget = remaining / movesLeft + increment * 3 / 4;
+        budget = Math.max(10, Math.min(budget, remaining - 50));
+        softDeadline = startTime + budget / 2;
+        hardDeadline = startTime + budget;
+    }
+
+    private static String scoreString(int score) {
+        if (Math.abs(score) >= MATE - MAX_PLY) {
+            int moves = score > 0 ? (MATE - score + 1) / 2 : -(MATE + score) / 2;
+            return "mate " + moves;
+        }
+        return "cp " + score;
+    }
+
+    private class Worker {
+        final int id;
+        final Position pos;
+        long nodes;
+        int selDepth;
+        final int[][] killers = new int[MAX_PLY][2];
+        final int[][] history = new int[64][64];
+        final int[][] pv = new int[MAX_PLY + 1][MAX_PLY + 1];
+        final int[] pvLength = new int[MAX_PLY + 1];
+        final int[][] moveBuffers = new int[MAX_PLY + 1][256];
+        final int[][] scoreBuffers = new int[MAX_PLY + 1][256];
+        final Set<Integer> excluded = new HashSet<>();
+
+        Worker(int id, Position pos) {
+            this.id = id;
+            this.pos = pos;
+        }
+
+        List<Line> iterate(int maxDepth, int lineCount, Consumer<String> out) {
+            int[] rootMoves = new int[256];
+            int legal = pos.generateLegal(rootMoves);
+            lineCount = Math.min(lineCount, legal);
+            List<Line> best = new ArrayList<>();
+            if (legal == 0) return best;
+
+            // helpers start at staggered depths so they fill the table ahead of the main thread
+            for (int depth = 1 + (id & 1); depth <= maxDepth; ++depth) {
+                List<Line> lines = new ArrayList<>();
+                excluded.clear();
+                for (int k = 0; k < lineCount; ++k) {
+                    selDepth = 0;
+                    int score = negamax(depth, -INFINITY, INFINITY, 0, false);
+                    if (stopped) break;
+                    int[] line = Arrays.copyOf(pv[0], pvLength[0]);
+                    if (line.length == 0) break;
+                    lines.add(new Line(score, depth, line));
+                    excluded.add(line[0]);
+                }
+                if (lines.isEmpty()) break;
+                lines.sort((a, b) -> Integer.compare(b.score(), a.score()));
+                // keep the previous iteration's extra lines if this one was cut short
+                for (int k = lines.size(); k < best.size(); ++k) lines.add(best.get(k));
+                best = lines;
+
+                if (out != null) report(best, depth, out);
+                if (stopped || System.currentTimeMillis() >= softDeadline) break;
+                if (Math.abs(best.get(0).score()) >= MATE - MAX_PLY && depth > 2 * (MATE - Math.abs(best.get(0).score()))) break;
+            }
+            // stopped before the first iteration finished: any legal move beats none
+            if (best.isEmpty()) best.add(new Line(0, 0, new int[]{rootMoves[0]}));
+            return best;
+        }
+
+        void report(List<Line> lines, int depth, Consumer<String> out) {
+            long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+            long total = getNodes();
+            for (int k = 0; k < lines.size(); ++k) {
+                Line line = lines.get(k);
+                StringBuilder sb = new StringBuilder("info depth ").append(line.depth())
+                    .append(" seldepth ").append(Math.max(selDepth, line.depth()))
+                    .append(" multipv ").append(k + 1)
+                    .append(" score ").append(scoreString(line.score()))
+                    .append(" nodes ").append(total)
+                    .append(" nps ").append(total * 1000 / elapsed)
+                    .append(" hashfull ").append(tt.hashfull())
+                    .append(" time ").append(elapsed)
+                    .append(" pv");
+                for (int m : line.pv()) sb.append(' ').append(Position.toUci(m));
+                out.accept(sb.toString());
+            }
+        }
+
+        boolean checkStop() {
+            if (stopped) return true;
+            if ((nodes & 2047) == 0 && id == 0) {
+                if (System.currentTimeMillis() >= hardDeadline || (nodeLimit > 0 && getNodes() >= nodeLimit)) {
+                    stopped = true;
+                }
+            }
+            return stopped;
+        }
+
+        int negamax(int depth, int alpha, int beta, int ply, boolean nullAllowed) {
+            pvLength[ply] = 0;
+            if (ply > 0) {
+                if (pos.isRepetition() || pos.getHalfmoveClock() >= 100) return 0;
+                // mate distance pruning
+                alpha = Math.max(alpha, -MATE + ply);
+                beta = Math.min(beta, MATE - ply - 1);
+                if (alpha >= beta) return alpha;
+            }
+            if (ply >= MAX_PLY - 1) return eval.evaluate(pos);
+
+            boolean inCheck = pos.inCheck();
+            if (inCheck) ++depth;
+            if (depth <= 0) return quiesce(alpha, beta, ply);
+
+            ++nodes;
+            if (checkStop()) return 0;
+            selDepth = Math.max(selDepth, ply);
+            boolean pvNode = beta - alpha > 1;
+
+            if (ply > 0) {
+                Integer tb = probeBitbase(ply);
+                if (tb != null) return tb;
+            }
+
+            long entry = tt.probe(pos.getKey());
+            int ttMove = 0;
+            if (entry != 0) {
+                ttMove = TranspositionTable.move(entry);
+                if (!pvNode && ply > 0 && TranspositionTable.depth(entry) >= depth) {
+                    int score = fromTt(TranspositionTable.score(entry), ply);
+                    int bound = TranspositionTable.bound(entry);
+                    if (bound == TranspositionTable.EXACT
+                            || (bound == TranspositionTable.LOWER && score >= beta)
+                            || (bound == TranspositionTable.UPPER && score <= alpha)) {
+                        return score;
+                    }
+                }
+            }
+
+            if (nullAllowed && !pvNode && !inCheck && depth >= 3 && hasPieces() && eval.evaluate(pos) >= beta) {
+                pos.makeNullMove();
+                int score = -negamax(depth - 3, -beta, -beta + 1, ply + 1, false);
+                pos.unmakeNullMove();
+                if (stopped) return 0;
+                if (score >= beta) return score >= MATE - MAX_PLY ? beta : score;
+            }
+
+            int[] moves = moveBuffers[ply];
+            int[] scores = scoreBuffers[ply];
+            int count = pos.generate(moves, true);
+            scoreMoves(moves, scores, count, ttMove, ply);
+
+            int bestScore = -INFINITY, bestMove = 0, legal = 0;
+            int originalAlpha = alpha;
+            for (int i = 0; i < count; ++i) {
+                int move = pickNext(moves, scores, count, i);
+                if (ply == 0 && excluded.contains(move)) continue;
+                boolean capture = pos.isCapture(move);
+                if (!pos.makeMove(move)) continue;
+                ++legal;
+
+                int score;
+                if (legal == 1) {
+                    score = -negamax(depth - 1, -beta, -alpha, ply + 1, true);
+                } else {
+                    int reduction = (depth >= 3 && legal > 3 && !capture && !inCheck && Position.promotion(move) == 0) ? 1 : 0;
+                    score = -negamax(depth - 1 - reduction, -alpha - 1, -alpha, ply + 1, true);
+                    if (score > alpha && (reduction > 0 || score < beta)) {
+                        score = -negamax(depth - 1, -beta, -alpha, ply + 1, true);
+                    }
+                }
+                pos.unmakeMove();
+                if (stopped) return 0;
+
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestMove = move;
+                    if (score > alpha) {
+                        alpha = score;
+                        pv[ply][0] = move;
+                        System.arraycopy(pv[ply + 1], 0, pv[ply], 1, pvLength[ply + 1]);
+                        pvLength[ply] = pvLength[ply + 1] + 1;
+                        if (score >= beta) {
+                            if (!capture) {
+                                if (killers[ply][0] != move) {
+                                    killers[ply][1] = killers[ply][0];
+                                    killers[ply][0] = move;
+                                }
+                                history[Position.from(move)][Position.to(move)] += depth * depth;
+                            }
+                            break;
+                        }
+                    }
+                }
+            }
+
+            if (legal == 0) {
+                if (ply == 0 && !excluded.isEmpty()) return -INFINITY;
+                return inCheck ? -MATE + ply : 0;
+            }
+
+            int bound = bestScore >= beta ? TranspositionTable.LOWER
+                : bestScore > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+            if (excluded.isEmpty() || ply > 0) {
+                tt.store(pos.getKey(), bestMove, toTt(bestScore, ply), depth, bound);
+            }
+            return bestScore;
+        }
+
+        int quiesce(int alpha, int beta, int ply) {
+            ++nodes;
+            pvLength[ply] = 0;
+            if (checkStop()) return 0;
+            selDepth = Math.max(selDepth, ply);
+            int standPat = eval.evaluate(pos);
+            if (ply >= MAX_PLY - 1 || standPat >= beta) return standPat;
+            if (standPat > alpha) alpha = standPat;
+
+            int[] moves = moveBuffers[ply];
+            int[] scores = scoreBuffers[ply];
+            int count = pos.generate(moves, false);
+            scoreMoves(moves, scores, count, 0, ply);
+            for (int i = 0; i < count; ++i) {
+                int move = pickNext(moves, scores, count, i);
+                if (!pos.makeMove(move)) continue;
+                int score = -quiesce(-beta, -alpha, ply + 1);
+                pos.unmakeMove();
+                if (stopped) return 0;
+                if (score > alpha) {
+                    alpha = score;
+                    pv[ply][0] = move;
+                    System.arraycopy(pv[ply + 1], 0, pv[ply], 1, pvLength[ply + 1]);
+                    pvLength[ply] = pvLength[ply + 1] + 1;
+                    if (score >= beta) break;
+                }
+            }
+            return alpha;
+        }
+
+        boolean hasPieces() {
+            boolean white = pos.isWhiteToMove();
+            return (pos.getColor(white) & ~pos.getPieces(white, Position.PAWN) & ~pos.getPieces(white, Position.KING)) != 0;
+        }
+
+        Integer probeBitbase(int ply) {
+            if (pos.pieceCount() > EndgameBitbase.MAX_PIECES || pos.getCastling() != 0) return null;
+            long occ = pos.getOccupied();
+            int n = Long.bitCount(occ);
+            PieceType[] types = new PieceType[n];
+            boolean[] white = new boolean[n];
+            int[] squares = new int[n];
+            for (int i = 0; occ != 0; ++i) {
+                int sq = Long.numberOfTrailingZeros(occ);
+                occ &= occ - 1;
+                int piece = pos.pieceAt(sq);
+                types[i] = Position.toPieceType(piece);
+                white[i] = (piece & Position.BLACK) == 0;
+                squares[i] = sq;
+            }
+            EndgameBitbase.Verdict verdict = EndgameBitbase.probe(types, white, squares, pos.isWhiteToMove());
+            if (verdict == null) return null;
+            switch (verdict) {
+                case WIN: return TB_WIN - ply + eval.evaluate(pos) / 10;
+                case LOSS: return -TB_WIN + ply + eval.evaluate(pos) / 10;
+                default: return 0;
+            }
+        }
+
+        void scoreMoves(int[] moves, int[] scores, int count, int ttMove, int ply) {
+            for (int i = 0; i < count; ++i) {
+                int move = moves[i];
+                if (move == ttMove) {
+                    scores[i] = 1_000_000;
+                } else if (pos.isCapture(move) || Position.promotion(move) != 0) {
+                    int victim = pos.pieceAt(Position.to(move)) & 7;
+                    int attacker = pos.pieceAt(Position.from(move)) & 7;
+                    scores[i] = 100_000 + eval.pieceValue(victim == 0 ? Position.PAWN : victim) * 10
+                        - attacker + (Position.promotion(move) == 4 ? 50_000 : 0);
+                } else if (ply < MAX_PLY && move == killers[ply][0]) {
+                    scores[i] = 90_000;
+                } else if (ply < MAX_PLY && move == killers[ply][1]) {
+                    scores[i] = 80_000;
+                } else {
+                    scores[i] = Math.min(history[Position.from(move)][Position.to(move)], 70_000);
+                }
+            }
+        }
+
+        // selection sort step: swap the best remaining move into slot i
+        int pickNext(int[] moves, int[] scores, int count, int i) {
+            int best = i;
+            for (int j = i + 1; j < count; ++j) {
+                if (scores[j] > scores[best]) best = j;
+            }
+            int move = moves[best];
+            moves[best] = moves[i];
+            moves[i] = move;
+            int score = scores[best];
+            scores[best] = scores[i];
+            scores[i] = score;
+            return move;
+        }
+    }
+
+    // mate scores are stored relative to the node, not the root
+    private static int toTt(int score, int ply) {
+        if (score >= MATE - MAX_PLY) return score + ply;
+        if (score <= -MATE + MAX_PLY) return score - ply;
+        return score;
+    }
+
+    private static int fromTt(int score, int ply) {
+        if (score >= MATE - MAX_PLY) return score - ply;
+        if (score <= -MATE + MAX_PLY) return score + ply;
+        return score;
+    }
+}
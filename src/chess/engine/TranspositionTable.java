@@ -0,0 +1,71 @@
+package chess.engine;
+
+// Shared hash table for search results. Each entry is two longs, the key xor'ed with the data
+// and the data itself, so threads can read and write without locks: a torn entry fails the key check.
+// Data layout: move (16) | score + 32768 (16) | depth (8) | bound (2) | age (6)
+public class TranspositionTable {
+    public static final int EXACT = 1, LOWER = 2, UPPER = 3;
+
+    private long[] table;
+    private int mask;
+    private int age;
+
+    public TranspositionTable(int megabytes) {
+        resize(megabytes);
+    }
+
+    public synchronized void resize(int megabytes) {
+        long entries = Math.max(1024, (long) megabytes * 1024 * 1024 / 16);
+        int size = Long.highestOneBit(entries) > (1 << 28) ? 1 << 28 : (int) Long.highestOneBit(entries);
+        table = new long[size * 2];
+        mask = size - 1;
+        age = 0;
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(table, 0L);
+        age = 0;
+    }
+
+    public void newSearch() { age = (age + 1) & 63; }
+
+    // the entry data for key, or 0 on a miss
+    public long probe(long key) {
+        int i = ((int) key & mask) << 1;
+        long data = table[i + 1];
+        return (table[i] ^ data) == key ? data : 0L;
+    }
+
+    public void store(long key, int move, int score, int depth, int bound) {
+        int i = ((int) key & mask) << 1;
+        long old = table[i + 1];
+        boolean sameKey = (table[i] ^ old) == key;
+        // keep deeper results for the same search, but always refresh stale or foreign entries
+        if (sameKey && old != 0 && age(old) == age && depth(old) > depth && bound != EXACT) return;
+        if (sameKey && move == 0) move = move(old);
+        long data = (move & 0xffffL)
+            | ((long) ((score + 32768) & 0xffff) << 16)
+            | ((long) Math.max(0, Math.min(depth, 255)) << 32)
+            | ((long) bound << 40)
+            | ((long) age << 42);
+        table[i] = key ^ data;
+        table[i + 1] = data;
+    }
+
+    public static int move(long data) { return (int) (data & 0xffff); }
+    public static int score(long data) { return (int) ((data >>> 16) & 0xffff) - 32768; }
+    public static int depth(long data) { return (int) ((data >>> 32) & 0xff); }
+    public static int bound(long data) { return (int) ((data >>> 40) & 3); }
+    private static int age(long data) { return (int) ((data >>> 42) & 63); }
+
+    // permille of sampled entries written by the current search
+    public int hashfull() {
+        int used = 0;
+        int samples = Math.min(1000, table.length / 2);
+        for (int i = 0; i < samples; ++i) {
+            long data = table[i * 2 + 1];
+            if (data != 0 && age(data) == age) ++used;
+        }
+        return used * 1000 / samples;
+    }
+}
@@ -0,0 +1,240 @@
+package chess.engine;
+
+import chess.model.ChessGame;
+import chess.model.GameLibrary;
+import chess.model.GameNode;
+import chess.model.boardData.Position;
+import chess.model.util.PgnFiles;
+import chess.model.util.PgnIndex;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+// Texel-style tuning of the evaluation against the library's own games.
+// Quiet positions from every game's main line are labelled with the game result, then the parameters
+// are adjusted by coordinate descent to minimise the squared error between the result and
+// sigmoid(eval). Each position is reduced to its sparse evaluation features once, so computing
+// the error is a dot product per position, split across a fork-join pool.
+//   java -cp bin chess.engine.Tuner [--games DIR] [--out PATH] [--passes N] [--min-ply N] [--threads N]
+public class Tuner {
+    private static final int SPLIT = 4096;
+    private static final int QUIESCE_LIMIT = 8;
+
+    private final ForkJoinPool pool;
+    private final int[] params;
+    private int[][] featureIndex;
+    private double[][] featureWeight;
+    private double[] results;
+    private double k = 1.0;
+
+    public Tuner(int[] params, int threads) {
+        this.params = params;
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path games = Paths.get("games");
+        Path out = Paths.get(Evaluation.TUNED_PATH);
+        int passes = 50, minPly = 8, threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--games": games = Paths.get(args[i + 1]); break;
+                case "--out": out = Paths.get(args[i + 1]); break;
+                case "--passes": passes = Integer.parseInt(args[i + 1]); break;
+                case "--min-ply": minPly = Integer.parseInt(args[i + 1]); break;
+                case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        Evaluation start = Evaluation.loadTunedOrDefault();
+        Tuner tuner = new Tuner(start.getParams(), threads);
+        long t0 = System.currentTimeMillis();
+        int count = tuner.loadPositions(games, minPly, start);
+        System.out.println("Extracted " + count + " quiet positions in " + (System.currentTimeMillis() - t0) + " ms");
+        if (count == 0) return;
+
+        tuner.fitK();
+        System.out.println(String.format("K = %.3f, error = %.6f", tuner.k, tuner.error()));
+        tuner.tune(passes, out);
+    }
+
+    // ---- position extraction ----
+
+    private record Sample(Evaluation.Features features, double result) {}
+
+    public int loadPositions(Path gamesDir, int minPly, Evaluation eval) throws Exception {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(gamesDir)) {
+            files = walk.filter(p -> PgnFiles.isGameFile(p.getFileName().toString())
+                    && !p.getFileName().toString().startsWith(".")).collect(Collectors.toList());
+        }
+        // split first so one large file still spreads its games over the whole pool
+        List<String> games = pool.submit(() -> files.parallelStream()
+                .flatMap(file -> splitGames(file).stream())
+                .collect(Collectors.toList())).get();
+        List<Sample> samples = pool.submit(() -> games.parallelStream()
+                .flatMap(pgn -> extract(pgn, minPly, eval).stream())
+                .collect(Collectors.toList())).get();
+
+        featureIndex = new int[samples.size()][];
+        featureWeight = new double[samples.size()][];
+        results = new double[samples.size()];
+        for (int i = 0; i < samples.size(); ++i) {
+            featureIndex[i] = samples.get(i).features().index();
+            featureWeight[i] = samples.get(i).features().weight();
+            results[i] = samples.get(i).result();
+        }
+        return samples.size();
+    }
+
+    // the text of every game in a file, located through the file's offset index
+    private static List<String> splitGames(Path file) {
+        List<String> games = new ArrayList<>();
+        try {
+            PgnIndex index = PgnIndex.forFile(file);
+            games.addAll(index.readGameTexts(0, index.size()));
+        } catch (IOException e) {
+            System.err.println("Error reading " + file + ": " + e.getMessage());
+        }
+        return games;
+    }
+
+    private static List<Sample> extract(String pgn, int minPly, Evaluation eval) {
+        List<Sample> samples = new ArrayList<>();
+        ChessGame game;
+        try {
+            game = GameLibrary.parsePgn(pgn);
+        } catch (IOException | RuntimeException e) {
+            return samples; // unparsable games are skipped
+        }
+        double result;
+        switch (String.valueOf(game.getTag("Result"))) {
+            case "1-0": result = 1.0; break;
+            case "0-1": result = 0.0; break;
+            case "1/2-1/2": result = 0.5; break;
+            default: return samples; // unfinished games have no label
+        }
+
+        int ply = 0;
+        for (GameNode node = game.getFirstPosition(); node != null; node = node.getNextChild(), ++ply) {
+            if (ply < minPly) continue;
+            Position pos = Position.fromBoardState(node);
+            if (pos.inCheck() || quiesce(pos, eval, -Search.INFINITY, Search.INFINITY, 0) != eval.evaluate(pos)) continue;
+            samples.add(new Sample(eval.features(pos), result));
+        }
+        return samples;
+    }
+
+    // a position is quiet when no capture sequence changes its static evaluation
+    private static int quiesce(Position pos, Evaluation eval, int alpha, int beta, int depth) {
+        int standPat = eval.evaluate(pos);
+        if (standPat >= beta || depth >= QUIESCE_LIMIT) return standPat;
+        alpha = Math.max(alpha, standPat);
+        int[] moves = new int[256];
+        int count = pos.generate(moves, false);
+        for (int i = 0; i < count; ++i) {
+            if (!pos.makeMove(moves[i])) continue;
+            int score = -quiesce(pos, eval, -beta, -alpha, depth + 1);
+            pos.unmakeMove();
+            if (score >= beta) return score;
+            alpha = Math.max(alpha, score);
+        }
+        return alpha;
+    }
+
+    // ---- error and optimisation ----
+
+    private double sigmoid(double score) {
+        return 1.0 / (1.0 + Math.pow(10.0, -k * score / 400.0));
+    }
+
+    private class ErrorTask extends RecursiveTask<Double> {
+        private final int from, to;
+
+        ErrorTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from <= SPLIT) {
+                double sum = 0;
+                for (int i = from; i < to; ++i) {
+                    double score = 0;
+                    int[] index = featureIndex[i];
+                    double[] weight = featureWeight[i];
+                    for (int j = 0; j < index.length; ++j) score += params[index[j]] * weight[j];
+                    double diff = results[i] - sigmoid(score);
+                    sum += diff * diff;
+                }
+                return sum;
+            }
+            int mid = (from + to) >>> 1;
+            ErrorTask left = new ErrorTask(from, mid);
+            left.fork();
+            double right = new ErrorTask(mid, to).compute();
+            return left.join() + right;
+        }
+    }
+
+    public double error() {
+        return pool.invoke(new ErrorTask(0, results.length)) / results.length;
+    }
+
+    // scaling constant that best fits the current evaluation to the results, by golden section search
+    public void fitK() {
+        double lo = 0.1, hi = 3.0;
+        double phi = (Math.sqrt(5) - 1) / 2;
+        for (int i = 0; i < 40; ++i) {
+            double a = hi - phi * (hi - lo), b = lo + phi * (hi - lo);
+            k = a;
+            double ea = error();
+            k = b;
+            double eb = error();
+            if (ea < eb) hi = b; else lo = a;
+        }
+        k = (lo + hi) / 2;
+    }
+
+    // Texel local search: nudge each parameter up or down by one while the error improves.
+    // The pawn value stays fixed as the unit, and parameters no sample uses are left alone.
+    public void tune(int passes, Path out) throws IOException {
+        boolean[] used = new boolean[params.length];
+        for (int[] index : featureIndex) {
+            for (int i : index) used[i] = true;
+        }
+        used[Evaluation.MATERIAL] = false;
+
+        double best = error();
+        for (int pass = 1; pass <= passes; ++pass) {
+            int changed = 0;
+            for (int i = 0; i < params.length; ++i) {
+                if (!used[i]) continue;
+                params[i] += 1;
+                double e = error();
+                if (e < best) {
+                    best = e;
+                    ++changed;
+                    continue;
+                }
+                params[i] -= 2;
+                e = error();
+                if (e < best) {
+                    best = e;
+                    ++changed;
+                    continue;
+                }
+                params[i] += 1;
+            }
+            System.out.println(String.format("pass %d: error %.6f, %d parameters changed", pass, best, changed));
+            new Evaluation(params.clone()).save(out);
+            if (changed == 0) break;
+        }
+        System.out.println("Saved parameters to " + out);
+    }
+}
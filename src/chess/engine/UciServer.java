@@ -0,0 +1,244 @@
+package chess.engine;
+
+import chess.model.Move;
+import chess.model.boardData.BoardState;
+import chess.model.boardData.Position;
+import chess.model.util.PolyglotBook;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Runs the built-in engine as a UCI engine over stdin/stdout, so GUIs and tools can drive it:
+//   java -cp bin chess.engine.UciServer
+// Searches run on a background thread so "stop" and "isready" are answered while thinking.
+public class UciServer {
+    private final PrintStream out;
+    private final TranspositionTable tt = new TranspositionTable(16);
+    private final Search search;
+    private final Random random = new Random();
+    private Position position = new Position();
+    private Thread searchThread;
+    private boolean ownBook = true;
+    private String bookFile = PolyglotBook.DEFAULT_PATH;
+    private PolyglotBook book;
+
+    public UciServer(PrintStream out) {
+        this.out = out;
+        this.search = new Search(tt, Evaluation.loadTunedOrDefault());
+    }
+
+    public static void main(String[] args) throws IOException {
+        new UciServer(System.out).run(new BufferedReader(new InputStreamReader(System.in)));
+    }
+
+    public void run(BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            if (!handle(line)) break;
+        }
+        stopSearch();
+    }
+
+    // returns false on quit
+    private boolean handle(String line) {
+        String[] tokens = line.split("\\s+");
+        switch (tokens[0]) {
+            case "uci":
+                send("id name chess-safe");
+                send("id author mdurc");
+                send("option name Hash type spin default 16 min 1 max 4096");
+                send("option name Threads type spin default 1 min 1 max 64");
+                send("option name MultiPV type spin default 1 min 1 max 64");
+                send("option name OwnBook type check default true");
+                send("option name BookFile type string default " + PolyglotBook.DEFAULT_PATH);
+                send("uciok");
+                break;
+            case "isready":
+                send("readyok");
+                break;
+            case "setoption":
+                setOption(line);
+                break;
+            case "ucinewgame":
+                stopSearch();
+                tt.clear();
+                position = new Position();
+                break;
+            case "position":
+                stopSearch();
+                setPosition(tokens);
+                break;
+            case "go":
+                stopSearch();
+                go(tokens);
+                break;
+            case "stop":
+                stopSearch();
+                break;
+            case "d":
+                send(position.toFen());
+                break;
+            case "quit":
+                return false;
+            default:
+                send("info string Unknown command: " + tokens[0]);
+        }
+        return true;
+    }
+
+    private void setOption(String line) {
+        int nameAt = line.indexOf(" name ");
+        int valueAt = line.indexOf(" value ");
+        if (nameAt < 0) return;
+        String name = (valueAt < 0 ? line.substring(nameAt + 6) : line.substring(nameAt + 6, valueAt)).trim();
+        String value = valueAt < 0 ? "" : line.substring(valueAt + 7).trim();
+        try {
+            switch (name.toLowerCase()) {
+                case "hash": tt.resize(Integer.parseInt(value)); break;
+                case "threads": search.setThreads(Integer.parseInt(value)); break;
+                case "multipv": search.setMultiPv(Integer.parseInt(value)); break;
+                case "ownbook": ownBook = Boolean.parseBoolean(value); break;
+                case "bookfile":
+                    bookFile = value;
+                    book = null;
+                    break;
+                default: send("info string Unknown option: " + name);
+            }
+        } catch (NumberFormatException e) {
+            send("info string Invalid value for " + name + ": " + value);
+        }
+    }
+
+    private void setPosition(String[] tokens) {
+        int i = 1;
+        Position next;
+        try {
+            if (tokens.length > 1 && tokens[1].equals("startpos")) {
+                next = new Position();
+                i = 2;
+            } else if (tokens.length > 1 && tokens[1].equals("fen")) {
+                StringBuilder fen = new StringBuilder();
+                for (i = 2; i < tokens.length && !tokens[i].equals("moves"); ++i) fen.append(tokens[i]).append(' ');
+                next = new Position(fen.toString().trim());
+            } else {
+                send("info string Expected startpos or fen");
+                return;
+            }
+            if (i < tokens.length && tokens[i].equals("moves")) {
+                for (++i; i < tokens.length; ++i) {
+                    int move = next.parseUci(tokens[i]);
+                    if (move == 0 || !next.makeMove(move)) {
+                        send("info string Illegal move: " + tokens[i]);
+                        return;
+                    }
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            send("info string " + e.getMessage());
+            return;
+        }
+        position = next;
+    }
+
+    private void go(String[] tokens) {
+        Search.Limits limits = new Search.Limits();
+        for (int i = 1; i < tokens.length; ++i) {
+            String value = i + 1 < tokens.length ? tokens[i + 1] : "0";
+            try {
+                switch (tokens[i]) {
+                    case "perft":
+                        long start = System.currentTimeMillis();
+                        long nodes = new Position(position).perft(Integer.parseInt(value));
+                        send("info string perft " + value + " nodes " + nodes + " time " + (System.currentTimeMillis() - start));
+                        return;
+                    case "depth": limits.depth = Integer.parseInt(value); ++i; break;
+                    case "movetime": limits.movetime = Long.parseLong(value); ++i; break;
+                    case "wtime": limits.wtime = Long.parseLong(value); ++i; break;
+                    case "btime": limits.btime = Long.parseLong(value); ++i; break;
+                    case "winc": limits.winc = Long.parseLong(value); ++i; break;
+                    case "binc": limits.binc = Long.parseLong(value); ++i; break;
+                    case "movestogo": limits.movestogo = Integer.parseInt(value); ++i; break;
+                    case "nodes": limits.nodes = Long.parseLong(value); ++i; break;
+                    case "infinite": limits.infinite = true; break;
+                    default: break;
+                }
+            } catch (NumberFormatException e) {
+                send("info string Invalid value for " + tokens[i] + ": " + value);
+                return;
+            }
+        }
+
+        if (ownBook && !limits.infinite) {
+            int bookMove = bookMove();
+            if (bookMove != 0) {
+                send("info string book move");
+                send("bestmove " + Position.toUci(bookMove));
+                return;
+            }
+        }
+
+        Position root = new Position(position);
+        searchThread = new Thread(() -> {
+            List<Search.Line> lines = search.search(root, limits, this::send);
+            int[] pv = lines.isEmpty() ? new int[0] : lines.get(0).pv();
+            if (pv.length == 0) {
+                send("bestmove 0000");
+            } else if (pv.length > 1) {
+                send("bestmove " + Position.toUci(pv[0]) + " ponder " + Position.toUci(pv[1]));
+            } else {
+                send("bestmove " + Position.toUci(pv[0]));
+            }
+        }, "search");
+        searchThread.start();
+    }
+
+    // weighted random pick among the book moves for the current position, 0 if out of book
+    private int bookMove() {
+        if (book == null) {
+            Path path = Paths.get(bookFile);
+            if (!Files.exists(path)) return 0;
+            try {
+                book = new PolyglotBook(path);
+            } catch (IOException e) {
+                send("info string Error opening book: " + e.getMessage());
+                return 0;
+            }
+        }
+        List<PolyglotBook.BookMove> moves = book.getMoves(new BoardState(position.toFen()));
+        int total = 0;
+        for (PolyglotBook.BookMove m : moves) total += m.weight();
+        if (total == 0) return 0;
+        int pick = random.nextInt(total);
+        for (PolyglotBook.BookMove m : moves) {
+            pick -= m.weight();
+            if (pick < 0) return toPacked(m.move());
+        }
+        return 0;
+    }
+
+    private static int toPacked(Move move) {
+        int from = move.getFrom().getY() * 8 + move.getFrom().getX();
+        int to = move.getTo().getY() * 8 + move.getTo().getX();
+        int promotion = move.getPromotionType() == null ? 0 : Position.promotionIndex(move.getPromotionType());
+        return Position.move(from, to, promotion);
+    }
+
+    private void stopSearch() {
+        if (searchThread == null) return;
+        search.stop();
+        try {
+            searchThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        searchThread = null;
+    }
+
+    private synchronized void send(String message) {
+        out.println(message);
+        out.flush();
+    }
+}
@@ -0,0 +1,317 @@
+package chess.model;
+
+import chess.model.boardData.Position;
+import chess.model.util.PgnFiles;
+import chess.model.util.PgnIndex;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Finds games that are in the library more than once, as imports from several sources leave them,
+// often with different tags. A game is reduced to a 64 bit hash of its main line's moves, mixed
+// with the players' surnames and the result when tags are to match as well, and games are
+// duplicates when their hashes are equal. Games without moves are never duplicates.
+// The sweep reads every game in parallel batches on the common fork/join pool but keeps only the
+// hashes: a long per game and an open addressing table of them, a few dozen bytes a game besides
+// its path, however long the games are. The import check reads only the imported file, and finds the library games it
+// could repeat through the PositionIndex, by the position and ply each game ends at.
+public class DuplicateFinder {
+    private static final int BATCH = 64; // games per task
+
+    // the copy of a game that is kept (the first in library order, or the one already in the
+    // library before an import), and the other copies
+    public record Group(String kept, List<String> duplicates) {}
+
+    // a game's hash, and where its main line ends
+    private record GameHash(long hash, long finalKey, int plies) {}
+
+    private static final GameHash NONE = new GameHash(0, 0, 0);
+
+    private DuplicateFinder() {}
+
+    // the duplicates among every game of files (relative to libDir), the files taken in path order
+    public static List<Group> sweep(Path libDir, Collection<String> files, boolean matchTags) throws IOException {
+        files = new TreeSet<>(files);
+        List<String> paths = new ArrayList<>();
+        List<long[]> perFile = new ArrayList<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (String file : files) {
+            PgnIndex index;
+            try {
+                index = PgnIndex.forFile(libDir.resolve(file));
+            } catch (IOException e) {
+                System.err.println("Error reading " + file + " for duplicates: " + e.getMessage());
+                continue;
+            }
+            addPaths(file, index.size(), paths);
+            long[] hashes = new long[index.size()];
+            perFile.add(hashes);
+            for (int[] range : index.batches(BATCH)) {
+                tasks.add(() -> {
+                    GameHash[] read = hashes(index, range[0], range[1], matchTags, file);
+                    for (int i = 0; i < read.length; ++i) hashes[range[0] + i] = read[i].hash();
+                    return null;
+                });
+            }
+        }
+        invokeAll(tasks);
+
+        long[] hashes = new long[paths.size()];
+        int g = 0;
+        for (long[] file : perFile) {
+            System.arraycopy(file, 0, hashes, g, file.length);
+            g += file.length;
+        }
+        perFile.clear();
+        return groups(paths, hashes);
+    }
+
+    // The games of a file just imported (relative to libDir) that were in the library already, or
+    // that the file holds more than once. The position index must be up to date with the file;
+    // until it is built, this falls back to a sweep of files, the whole library.
+    public static List<Group> checkImport(Path libDir, String filePath, PositionIndex positionIndex,
+                                          Collection<String> files, boolean matchTags) throws IOException {
+        if (!positionIndex.isBuilt()) {
+            List<Group> groups = new ArrayList<>();
+            for (Group group : sweep(libDir, files, matchTags)) {
+                if (inFile(group.kept(), filePath) || group.duplicates().stream().anyMatch(p -> inFile(p, filePath))) {
+                    groups.add(group);
+                }
+            }
+            return groups;
+        }
+
+        PgnIndex index = PgnIndex.forFile(libDir.resolve(filePath));
+        List<String> paths = new ArrayList<>();
+        addPaths(filePath, index.size(), paths);
+        GameHash[] games = new GameHash[index.size()];
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int[] range : index.batches(BATCH)) {
+            tasks.add(() -> {
+                GameHash[] read = hashes(index, range[0], range[1], matchTags, filePath);
+                System.arraycopy(read, 0, games, range[0], read.length);
+                return null;
+            });
+        }
+        invokeAll(tasks);
+
+        long[] hashes = new long[games.length];
+        for (int i = 0; i < games.length; ++i) hashes[i] = games[i].hash();
+        List<Group> groups = new ArrayList<>();
+        Map<String, Group> inFile = new HashMap<>();
+        Set<String> laterCopies = new HashSet<>();
+        for (Group group : groups(paths, hashes)) {
+            inFile.put(group.kept(), group);
+            laterCopies.addAll(group.duplicates());
+        }
+        Map<String, PgnIndex> indexes = new HashMap<>();
+        for (int i = 0; i < games.length; ++i) {
+            if (games[i].hash() == 0) continue;
+            if (laterCopies.contains(paths.get(i))) continue; // grouped with its first copy
+            Group copies = inFile.get(paths.get(i));
+
+            // a library game with the same moves ends at the same position at the same ply
+            String kept = null;
+            for (PositionIndex.Hit hit : positionIndex.lookup(games[i].finalKey())) {
+                if (hit.ply() != games[i].plies() || hit.nextMove() != 0) continue;
+                String path = positionIndex.gamePath(hit.game());
+                if (path == null || inFile(path, filePath)) continue;
+                long hash;
+                try {
+                    hash = hash(load(libDir, path, indexes), matchTags);
+                } catch (IOException | RuntimeException e) {
+                    continue;
+                }
+                if (hash == games[i].hash()) {
+                    kept = path;
+                    break;
+                }
+            }
+            if (kept != null) {
+                List<String> duplicates = new ArrayList<>();
+                duplicates.add(paths.get(i));
+                if (copies != null) duplicates.addAll(copies.duplicates());
+                groups.add(new Group(kept, duplicates));
+            } else if (copies != null) {
+                groups.add(copies);
+            }
+        }
+        return groups;
+    }
+
+    private static boolean inFile(String path, String filePath) {
+        int hash = PgnFiles.gameSeparator(path);
+        return (hash >= 0 ? path.substring(0, hash) : path).equals(filePath);
+    }
+
+    private static void addPaths(String file, int count, List<String> paths) {
+        for (int i = 0; i < count; ++i) paths.add(count > 1 ? GameLibrary.gameEntryPath(file, i + 1) : file);
+    }
+
+    private static ChessGame load(Path libDir, String path, Map<String, PgnIndex> indexes) throws IOException {
+        int hash = PgnFiles.gameSeparator(path);
+        String file = hash >= 0 ? path.substring(0, hash) : path;
+        PgnIndex index = indexes.get(file);
+        if (index == null) {
+            index = PgnIndex.forFile(libDir.resolve(file));
+            indexes.put(file, index);
+        }
+        return index.loadGame(hash >= 0 ? Integer.parseInt(path.substring(hash + 1)) - 1 : 0);
+    }
+
+    private static void invokeAll(List<Callable<Void>> tasks) throws IOException {
+        for (Future<Void> done : ForkJoinPool.commonPool().invokeAll(tasks)) {
+            try {
+                done.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Duplicate search interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Error searching for duplicates", e.getCause());
+            }
+        }
+    }
+
+    // games from to to - 1 of a file, read in one pass; a game that cannot be read is never a duplicate
+    private static GameHash[] hashes(PgnIndex index, int from, int to, boolean matchTags, String file) {
+        GameHash[] hashes = new GameHash[to - from];
+        Arrays.fill(hashes, NONE);
+        List<String> texts;
+        try {
+            texts = index.readGameTexts(from, to);
+        } catch (IOException e) {
+            System.err.println("Error reading games " + (from + 1) + " to " + to + " of " + file + ": " + e.getMessage());
+            return hashes;
+        }
+        for (int i = from; i < to; ++i) {
+            try {
+                ChessGame game = GameLibrary.parsePgn(texts.get(i - from));
+                Position position = new Position();
+                for (GameNode node = game.getFirstPosition(); !node.getChildren().isEmpty(); ) {
+                    node = node.getChildren().get(0);
+                    if (!position.makeMove(node.getPackedMove())) break;
+                }
+                hashes[i - from] = new GameHash(hash(game, matchTags), position.getKey(), position.getPly());
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error reading game " + (i + 1) + " of " + file + ": " + e.getMessage());
+            }
+        }
+        return hashes;
+    }
+
+    // the main line's moves, and the players and result when matchTags; 0 for a game without moves
+    static long hash(ChessGame game, boolean matchTags) {
+        long hash = 0;
+        int plies = 0;
+        for (GameNode node = game.getFirstPosition(); !node.getChildren().isEmpty(); ++plies) {
+            node = node.getChildren().get(0);
+            hash = mix(hash + node.getPackedMove() + 1);
+        }
+        if (plies == 0) return 0;
+        hash = mix(hash + plies);
+        if (matchTags) {
+            String tags = surname(game.getTag("White")) + "\n" + surname(game.getTag("Black")) + "\n"
+                    + Objects.requireNonNullElse(game.getTag("Result"), "*").trim();
+            hash = mix(hash ^ tags.hashCode());
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    // "Carlsen, Magnus", "Carlsen,M." and "Magnus Carlsen" all give "carlsen"
+    private static String surname(String name) {
+        if (name == null) return "";
+        int comma = name.indexOf(',');
+        List<String> words = SearchIndex.words(comma >= 0 ? name.substring(0, comma) : name);
+        if (words.isEmpty()) return "";
+        return comma >= 0 ? String.join(" ", words) : words.get(words.size() - 1);
+    }
+
+    // the splitmix64 finalizer
+    private static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
+    // Groups equal hashes through an open addressing table of (hash, first game), in library order.
+    private static List<Group> groups(List<String> paths, long[] hashes) {
+        int capacity = Integer.highestOneBit(Math.max(2, hashes.length) * 2 - 1) * 2; // at most half full
+        long[] keys = new long[capacity];
+        int[] firsts = new int[capacity];
+        int[] firstOf = new int[hashes.length];
+        Arrays.fill(firstOf, -1);
+        for (int g = 0; g < hashes.length; ++g) {
+            long hash = hashes[g];
+            if (hash == 0) continue;
+            int slot = (int) (hash >>> 32 ^ hash) & capacity - 1;
+            while (keys[slot] != 0 && keys[slot] != hash) slot = slot + 1 & capacity - 1;
+            if (keys[slot] == 0) {
+                keys[slot] = hash;
+                firsts[slot] = g;
+            } else {
+                firstOf[g] = firsts[slot];
+            }
+        }
+
+        Map<Integer, List<String>> duplicates = new TreeMap<>(); // by first game, so in library order
+        for (int g = 0; g < hashes.length; ++g) {
+            if (firstOf[g] >= 0) duplicates.computeIfAbsent(firstOf[g], k -> new ArrayList<>()).add(paths.get(g));
+        }
+        List<Group> groups = new ArrayList<>();
+        for (Map.Entry<Integer, List<String>> entry : duplicates.entrySet()) {
+            groups.add(new Group(paths.get(entry.getKey()), entry.getValue()));
+        }
+        return groups;
+    }
+
+    // Removes every duplicate from the library, keeping the first copy of each game. The kept copy
+    // takes any tag it lacks (or has as "?") from the others. Each file is rewritten only once. The
+    // games are read from their files rather than the library's cache and only the files are
+    // written (see GameLibrary.writeGames), so this can run off the event thread; it returns the
+    // files changed, to sync the library with once back on it.
+    public static Set<String> removeDuplicates(GameLibrary library, List<Group> groups) throws IOException {
+        Path libDir = Paths.get(library.getLib());
+        Map<String, PgnIndex> indexes = new HashMap<>();
+        Map<String, ChessGame> changes = new LinkedHashMap<>();
+        for (Group group : groups) {
+            ChessGame kept = load(libDir, group.kept(), indexes);
+            boolean merged = false;
+            for (String path : group.duplicates()) {
+                try {
+                    for (Map.Entry<String, String> tag : load(libDir, path, indexes).getTags().entrySet()) {
+                        if (isUnknown(kept.getTag(tag.getKey())) && !isUnknown(tag.getValue())) {
+                            kept.setTag(tag.getKey(), tag.getValue());
+                            merged = true;
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error reading duplicate " + path + ": " + e.getMessage());
+                }
+                changes.put(path, null);
+            }
+            if (merged) changes.put(group.kept(), kept);
+        }
+        return library.writeGames(changes);
+    }
+
+    private static boolean isUnknown(String value) {
+        return value == null || value.replace("?", "").replace(".", "").isBlank();
+    }
+
+    // the groups as text, for showing or saving
+    public static String format(List<Group> groups) {
+        int duplicates = 0;
+        for (Group group : groups) duplicates += group.duplicates().size();
+        StringBuilder out = new StringBuilder();
+        out.append(duplicates).append(duplicates == 1 ? " duplicate" : " duplicates").append(" of ")
+                .append(groups.size()).append(groups.size() == 1 ? " game" : " games").append('\n');
+        for (Group group : groups) {
+            out.append('\n').append(group.kept()).append('\n');
+            for (String path : group.duplicates()) out.append("  = ").append(path).append('\n');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,152 @@
+package chess.model;
+
+import chess.model.util.GameCodec;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.Predicate;
+
+// Games loaded from the library, by library path, in two tiers:
+//   resident  - the ChessGame itself, least recently used first out once the total number of
+//               nodes passes maxNodes (a game's weight is counted when it is put in)
+//   compact   - games pushed out of the resident tier, kept as their GameCodec bytes up to
+//               maxCompactBytes, so opening them again replays packed moves without touching the
+//               file or parsing PGN; past that limit the least recently used are dropped
+// The most recent resident game always stays, however large it is.
+// The default resident bound is 100,000 nodes. It was 50,000 while every loaded node carried its
+// board (about 2 KB, so about 100 MB); loaded nodes now build their boards lazily and take about
+// 250 bytes, so 100,000 of them take about 25 MB, and the boards a user actually steps through add
+// to that.
+public class GameCache {
+    public static final int DEFAULT_MAX_NODES = 100_000;
+    public static final long DEFAULT_MAX_COMPACT_BYTES = 32L << 20;
+
+    private record Resident(ChessGame game, int weight) {}
+
+    private final int maxNodes;
+    private final long maxCompactBytes;
+    private final LinkedHashMap<String, Resident> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, byte[]> compact = new LinkedHashMap<>(16, 0.75f, true);
+    private long residentNodes;
+    private long compactBytes;
+
+    private long hits, compactHits, misses, evictions, drops;
+
+    public GameCache() {
+        this(DEFAULT_MAX_NODES, DEFAULT_MAX_COMPACT_BYTES);
+    }
+
+    public GameCache(int maxNodes, long maxCompactBytes) {
+        this.maxNodes = maxNodes;
+        this.maxCompactBytes = maxCompactBytes;
+    }
+
+    public boolean contains(String path) {
+        return resident.containsKey(path) || compact.containsKey(path);
+    }
+
+    // the cached game, rebuilt from its compact form if it was evicted, or null
+    public ChessGame get(String path) {
+        Resident entry = resident.get(path);
+        if (entry != null) {
+            ++hits;
+            return entry.game();
+        }
+        byte[] bytes = compact.remove(path);
+        if (bytes == null) {
+            ++misses;
+            return null;
+        }
+        compactBytes -= bytes.length;
+        ChessGame game;
+        try {
+            game = GameCodec.decode(ByteBuffer.wrap(bytes));
+        } catch (RuntimeException e) {
+            ++misses;
+            return null; // read again from the file
+        }
+        ++compactHits;
+        game.setFilename(path);
+        put(path, game);
+        return game;
+    }
+
+    public void put(String path, ChessGame game) {
+        remove(path);
+        int weight = countNodes(game);
+        resident.put(path, new Resident(game, weight));
+        residentNodes += weight;
+        while (residentNodes > maxNodes && resident.size() > 1) {
+            Map.Entry<String, Resident> eldest = resident.entrySet().iterator().next();
+            resident.remove(eldest.getKey());
+            residentNodes -= eldest.getValue().weight();
+            demote(eldest.getKey(), eldest.getValue().game());
+        }
+    }
+
+    private void demote(String path, ChessGame game) {
+        ++evictions;
+        byte[] bytes = GameCodec.encode(game);
+        compact.put(path, bytes);
+        compactBytes += bytes.length;
+        while (compactBytes > maxCompactBytes && !compact.isEmpty()) {
+            Map.Entry<String, byte[]> eldest = compact.entrySet().iterator().next();
+            compact.remove(eldest.getKey());
+            compactBytes -= eldest.getValue().length;
+            ++drops;
+        }
+    }
+
+    public void remove(String path) {
+        Resident entry = resident.remove(path);
+        if (entry != null) residentNodes -= entry.weight();
+        byte[] bytes = compact.remove(path);
+        if (bytes != null) compactBytes -= bytes.length;
+    }
+
+    public void removeIf(Predicate<String> filter) {
+        for (String path : new ArrayList<>(resident.keySet())) {
+            if (filter.test(path)) remove(path);
+        }
+        for (String path : new ArrayList<>(compact.keySet())) {
+            if (filter.test(path)) remove(path);
+        }
+    }
+
+    public void clear() {
+        resident.clear();
+        compact.clear();
+        residentNodes = 0;
+        compactBytes = 0;
+    }
+
+    private static int countNodes(ChessGame game) {
+        int count = 0;
+        Deque<GameNode> stack = new ArrayDeque<>();
+        stack.push(game.getFirstPosition());
+        while (!stack.isEmpty()) {
+            GameNode node = stack.pop();
+            ++count;
+            for (GameNode child : node.getChildren()) stack.push(child);
+        }
+        return count;
+    }
+
+    public long getHits() { return hits; }
+    public long getCompactHits() { return compactHits; }
+    public long getMisses() { return misses; }
+    public long getEvictions() { return evictions; } // resident games demoted to their compact form
+    public long getDrops() { return drops; } // compact games dropped altogether
+    public long getResidentNodes() { return residentNodes; }
+    public long getCompactBytes() { return compactBytes; }
+    public int getResidentCount() { return resident.size(); }
+    public int getCompactCount() { return compact.size(); }
+
+    @Override
+    public String toString() {
+        return String.format("%d hits, %d compact hits, %d misses, %d evictions, %d drops; "
+                + "%d games (%d nodes) resident, %d games (%d KB) compact",
+                hits, compactHits, misses, evictions, drops,
+                resident.size(), residentNodes, compact.size(), compactBytes >> 10);
+    }
+}
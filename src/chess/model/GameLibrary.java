@@ -3,130 +3,228 @@ package chess.model;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import chess.model.util.*;
 
+// The games/ directory as a tree of GameLibraryNodes, with caches of loaded games and indexes.
+// Changes made through the library, and (once startWatching is called) changes made to the
+// directory from outside, are applied to the tree one path at a time: only the nodes and cache
+// entries of that path are replaced, and listeners are told which nodes were inserted, removed
+// or rebuilt. The position index and opening tree read the games of a changed file, so they are
+// brought up to date on a thread of their own, one change after the other.
 public class GameLibrary {
     private static final String LIB_DIR = "games/";
+
+    public interface Listener {
+        void nodeInserted(GameLibraryNode parent, int index, GameLibraryNode node);
+        void nodeRemoved(GameLibraryNode parent, int index, GameLibraryNode node);
+        // the node's children were replaced (the root after a full rescan)
+        void nodeStructureChanged(GameLibraryNode node);
+    }
+
     private final Map<String, String> gameFilePaths = new HashMap<>();  // path -> file path
-    private final Map<String, ChessGame> loadedGames = new HashMap<>(); // path -> loaded game (for caching)
+    private final GameCache loadedGames = new GameCache(); // path -> loaded game, bounded by node count
+    private final Map<String, PgnIndex> gameIndexes = new HashMap<>();  // path -> index, for files with several games, opened on first use
+    private final LibraryIndex libraryIndex;
+    private final PositionIndex positionIndex;
+    private final OpeningTree openingTree;
+    private final ExecutorService indexUpdates = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "game-index-updates");
+        thread.setDaemon(true);
+        return thread;
+    });
     private final GameLibraryNode rootNode;
+    private final List<Listener> listeners = new ArrayList<>();
+    private LibraryWatcher watcher;
 
     public GameLibrary() {
         rootNode = new GameLibraryNode("games", LIB_DIR, true);
+        libraryIndex = new LibraryIndex(Paths.get(LIB_DIR));
+        positionIndex = new PositionIndex(Paths.get(LIB_DIR));
+        openingTree = new OpeningTree(Paths.get(LIB_DIR));
         loadSavedGames();
     }
 
     public String getLib() { return LIB_DIR; }
 
-    public List<String> getSavedGames() {
-        return new ArrayList<>(gameFilePaths.keySet());
-    }
-
-    public GameLibraryNode getRootNode() { return rootNode; }
+    public void addListener(Listener listener) { listeners.add(listener); }
+    public void removeListener(Listener listener) { listeners.remove(listener); }
+
+    // Follows changes made to the library directory from outside the library, such as files copied
+    // in or finished imports. The watcher's batches are applied through executor, which should run
+    // them on the thread the tree is used on; listeners are called there too.
+    public void startWatching(Executor executor) {
+        if (watcher != null) return;
+        try {
+            watcher = new LibraryWatcher(Paths.get(LIB_DIR), new LibraryWatcher.Listener() {
+                @Override
+                public void pathsChanged(Set<String> paths) {
+                    executor.execute(() -> paths.forEach(GameLibrary.this::syncPath));
+                }
 
-    public void createDirectory(String path) throws IOException {
-        Path fullPath = Paths.get(LIB_DIR, path);
-        Files.createDirectories(fullPath);
-        updateFileTree();
+                @Override
+                public void overflow() {
+                    executor.execute(GameLibrary.this::refresh);
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Error watching the library, outside changes need a refresh: " + e.getMessage());
+        }
     }
 
-    public void saveGameToLibPath(String path, ChessGame game) throws IOException {
-        if (!path.endsWith(".pgn")) path += ".pgn";
-        Path fullPath = Paths.get(LIB_DIR, path);
-        Files.createDirectories(fullPath.getParent());
-
-        String pgn = generatePGNString(game);
-        Files.writeString(fullPath, pgn);
-
-        gameFilePaths.put(path, fullPath.toString());
-        loadedGames.put(path, game); // cache the newly saved game
-        updateFileTree();
+    public void stopWatching() {
+        if (watcher != null) watcher.close();
+        watcher = null;
     }
 
-    public static String generatePGNString(ChessGame game) {
-        StringBuilder sb = new StringBuilder();
-        appendHeaders(sb, game);
-        sb.append("\n");
-
-        GameNode root = game.getFirstPosition();
-        // not white turn, as this is acting as the root (before first move).
-        // skip the current (blank root) move
-        appendMoves(root, 1, false, sb, false, false, true);
-
-        return sb.toString();
+    // every game in the library; games inside multi-game files are named "file.pgn#n"
+    public List<String> getSavedGames() {
+        List<String> games = new ArrayList<>();
+        for (String path : gameFilePaths.keySet()) {
+            int count = libraryIndex.getGames(path).size();
+            if (count <= 1) {
+                games.add(path);
+            } else {
+                for (int i = 1; i <= count; ++i) games.add(gameEntryPath(path, i));
+            }
+        }
+        return games;
     }
 
-    private static void appendHeaders(StringBuilder sb, ChessGame game) {
-        String[] mandatoryTags = {"Event", "Site", "Date", "Round", "White", "Black", "Result"};
-        for (String tag : mandatoryTags) {
-            String value = game.getTag(tag) != null ? game.getTag(tag) : "?";
-            sb.append(String.format("[%s \"%s\"]\n", tag, value));
-        }
-        for (Map.Entry<String, String> entry : game.getTags().entrySet()) {
-            String key = entry.getKey();
-            if (!Arrays.asList(mandatoryTags).contains(key)) {
-                sb.append(String.format("[%s \"%s\"]\n", key, entry.getValue()));
+    // hit, miss and eviction counts of the loaded game cache
+    public GameCache getGameCache() { return loadedGames; }
+
+    // tags, ECO, length and result of a library game, without opening its file
+    public LibraryIndex.GameRecord getGameRecord(String path) { return libraryIndex.getGame(path); }
+
+    // Paths of the games matching a search such as "white:carlsen eco:B2*" (see SearchIndex). Two more
+    // fields search the positions of the games instead of their tags: "material:KRPvKR" for a material
+    // balance and "pawns:iqp" for a pawn structure (see PositionPattern), reached anywhere in a game.
+    public Set<String> searchGames(String query) {
+        StringBuilder text = new StringBuilder();
+        String material = null, pawns = null;
+        for (String term : query.trim().split("\\s+")) {
+            String lower = term.toLowerCase();
+            if (lower.startsWith("material:")) {
+                material = term.substring("material:".length());
+            } else if (lower.startsWith("pawns:")) {
+                pawns = term.substring("pawns:".length());
+            } else {
+                text.append(term).append(' ');
             }
         }
+        Set<String> paths = new LinkedHashSet<>();
+        if (material == null && pawns == null) {
+            for (LibraryIndex.GameRecord game : libraryIndex.search(text.toString())) paths.add(game.path());
+            return paths;
+        }
+
+        PositionPattern pattern;
+        try {
+            pattern = PositionPattern.of(material, pawns);
+        } catch (IllegalArgumentException e) {
+            return paths; // still being typed
+        }
+        Set<Integer> games = new HashSet<>();
+        for (PositionIndex.Hit hit : positionIndex.find(pattern)) {
+            if (!games.add(hit.game())) continue;
+            String path = positionIndex.gamePath(hit.game());
+            if (path != null) paths.add(path); // edited or removed since the lookup
+        }
+        if (!text.toString().isBlank()) {
+            Set<String> tagged = new HashSet<>();
+            for (LibraryIndex.GameRecord game : libraryIndex.search(text.toString())) tagged.add(game.path());
+            paths.retainAll(tagged);
+        }
+        return paths;
     }
 
-    private static void appendMoves(GameNode node, int moveNumber,
-                                    boolean isWhiteTurn, StringBuilder sb,
-                                    boolean isFirstInVariation,
-                                    boolean onlyFirstMove,
-                                    boolean skipCurrentMove) {
-        if (node == null) return;
+    // games and plies reaching a position, by its Zobrist key
+    public PositionIndex getPositionIndex() { return positionIndex; }
 
-        // add move number before white's move, or "..." for black's move in variations
-        if (!skipCurrentMove) {
-            if (isWhiteTurn) {
-                sb.append(moveNumber).append(". ");
-            } else if (isFirstInVariation) {
-                sb.append(moveNumber).append("... ");
-            }
+    // move statistics of the library's openings, by position key
+    public OpeningTree getOpeningTree() { return openingTree; }
 
-            // add the current move
-            sb.append(node.getNotation());
+    // every pgn file in the library, relative to it
+    public List<String> getGameFiles() { return new ArrayList<>(gameFilePaths.keySet()); }
 
-            // add comment if present
-            if (node.getComment() != null && !node.getComment().isEmpty()) {
-                sb.append(" {").append(node.getComment()).append("}");
-            }
+    private boolean isMultiGameFile(String path) { return libraryIndex.getGames(path).size() > 1; }
+
+    private PgnIndex gameIndex(String filePath) throws IOException {
+        PgnIndex index = gameIndexes.get(filePath);
+        if (index == null) {
+            index = PgnIndex.forFile(Paths.get(LIB_DIR, filePath));
+            gameIndexes.put(filePath, index);
         }
+        return index;
+    }
 
-        if (onlyFirstMove) return;
+    public static String gameEntryPath(String filePath, int number) {
+        return filePath + "#" + number;
+    }
 
-        List<GameNode> children = node.getChildren();
-        if (children.isEmpty()) return;
+    public GameLibraryNode getRootNode() { return rootNode; }
+
+    public void createDirectory(String path) throws IOException {
+        Path fullPath = Paths.get(LIB_DIR, path);
+        Files.createDirectories(fullPath);
+        syncPath(path);
+    }
 
-        int nextMoveNumber = isWhiteTurn ? moveNumber : moveNumber + 1;
+    public void saveGameToLibPath(String path, ChessGame game) throws IOException {
+        int hash = PgnFiles.gameSeparator(path);
+        if (hash >= 0) {
+            // one game inside a multi-game file: only its byte range is rewritten
+            String filePath = path.substring(0, hash);
+            int number = Integer.parseInt(path.substring(hash + 1));
+            PgnIndex.forFile(Paths.get(LIB_DIR, filePath)).replaceGame(number - 1, generatePGNString(game));
+            syncPath(filePath);
+            loadedGames.put(path, game);
+            return;
+        }
 
-        sb.append(" ");
-        appendMoves(children.get(0), nextMoveNumber, !isWhiteTurn, sb, false, true, false);
+        path = PgnFiles.withExtension(path);
+        Path fullPath = Paths.get(LIB_DIR, path);
+        Files.createDirectories(fullPath.getParent());
 
-        // handle variations (all children except the first one which is mainline)
-        for (int i = 1; i < children.size(); i++) {
-            sb.append(" (");
-            appendMoves(children.get(i), nextMoveNumber, !isWhiteTurn, sb, true, false, false);
-            sb.append(")");
+        try (Writer out = PgnFiles.createWriter(fullPath)) { // compressed when the name asks for it
+            new PgnWriter(out).write(game);
         }
+        writeBinary(fullPath, game);
 
-        if (children.size() > 1) sb.append(" ");
+        syncPath(path);
+        loadedGames.put(path, game); // cache the newly saved game
+    }
 
-        // continue with the main line of this branch (first child)
-        appendMoves(children.get(0), nextMoveNumber, !isWhiteTurn, sb, false, false, true);
+    public static String generatePGNString(ChessGame game) {
+        StringWriter sw = new StringWriter();
+        try {
+            new PgnWriter(sw).write(game);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a StringWriter does not throw
+        }
+        return sw.toString();
     }
 
     public ChessGame loadGame(String name) throws FileNotFoundException, IOException {
         // check if already loaded
-        if (loadedGames.containsKey(name)) {
-            return loadedGames.get(name);
+        int hash = PgnFiles.gameSeparator(name);
+        String withExtension = hash >= 0 ? name : PgnFiles.withExtension(name);
+        ChessGame cached = loadedGames.get(loadedGames.contains(name) ? name : withExtension);
+        if (cached != null) return cached;
+
+        if (hash >= 0) {
+            String filePath = name.substring(0, hash);
+            if (!isMultiGameFile(filePath)) throw new FileNotFoundException("Game not found: " + name);
+            ChessGame game = gameIndex(filePath).loadGame(Integer.parseInt(name.substring(hash + 1)) - 1);
+            game.setFilename(name);
+            loadedGames.put(name, game);
+            return game;
         }
 
-        String withExtension = name.endsWith(".pgn") ? name : name + ".pgn";
-        if (loadedGames.containsKey(withExtension)) {
-            return loadedGames.get(withExtension);
-        }
+        // a file holding several games stands for its first game
+        if (isMultiGameFile(name)) return loadGame(gameEntryPath(name, 1));
+        if (isMultiGameFile(withExtension)) return loadGame(gameEntryPath(withExtension, 1));
 
         // check if we have it in our paths
         if (gameFilePaths.containsKey(name)) {
@@ -149,26 +247,118 @@ public class GameLibrary {
         if (!file.exists()) {
             throw new FileNotFoundException("Game file not found: " + filePath);
         }
-        ChessGame game = parsePgnFile(file);
+        ChessGame game = null;
+        try {
+            game = GameCodec.read(file.toPath());
+        } catch (IOException e) {
+            System.err.println(e.getMessage() + ", reading the PGN instead");
+        }
+        if (game == null) {
+            game = parsePgnFile(file);
+            writeBinary(file.toPath(), game);
+        }
         game.setFilename(path); // set the filename so we know where to save back to
         loadedGames.put(path, game); // cache the loaded game
         return game;
     }
 
+    // The position index and opening tree, for one file or directory, on their own thread; the
+    // position index is compacted there too once its log has grown too large.
+    private void updateGameIndexes(String path) {
+        indexUpdates.execute(() -> {
+            try {
+                positionIndex.update(path);
+                if (positionIndex.needsCompacting()) positionIndex.compact();
+                openingTree.update(path);
+            } catch (IOException e) {
+                System.err.println("Error updating game indexes: " + e.getMessage());
+            }
+        });
+    }
+
+    // waits until the position index and opening tree have caught up with every change made so far
+    public void awaitGameIndexes() throws InterruptedException {
+        try {
+            indexUpdates.submit(() -> {}).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause()); // an empty task does not throw
+        }
+    }
+
+    // the binary copy only speeds up the next load, so failing to write it is not an error
+    private static void writeBinary(Path pgn, ChessGame game) {
+        try {
+            GameCodec.write(pgn, game);
+        } catch (IOException e) {
+            System.err.println("Error writing binary game for " + pgn + ": " + e.getMessage());
+        }
+    }
+
     public void deleteGame(String name) {
+        int hash = PgnFiles.gameSeparator(name);
+        if (hash >= 0) {
+            String filePath = name.substring(0, hash);
+            if (!isMultiGameFile(filePath)) return;
+            try {
+                gameIndex(filePath).replaceGame(Integer.parseInt(name.substring(hash + 1)) - 1, null);
+            } catch (IOException e) {
+                System.err.println("Error deleting game " + name + ": " + e.getMessage());
+            }
+            syncPath(filePath);
+            return;
+        }
+
         File file = new File(LIB_DIR + name);
         if (file.delete()) {
-            gameFilePaths.remove(name);
-            loadedGames.remove(name);
-            updateFileTree();
+            GameCodec.sidecarPath(file.toPath()).toFile().delete();
+            syncPath(name);
+        }
+    }
+
+    // Saves and deletes many games at once: each path maps to the game to save there, or to null to
+    // delete it. A file holding several games is rewritten once for all of its changes, so game
+    // numbers stay as they were until every change is made. Only the files are written, not the
+    // tree or the caches, so this can run off the event thread; it returns the files it changed,
+    // each to be brought into the tree with syncPath on the thread the tree is used on.
+    public Set<String> writeGames(Map<String, ChessGame> changes) throws IOException {
+        Set<String> written = new LinkedHashSet<>();
+        Map<String, SortedMap<Integer, String>> files = new HashMap<>();
+        for (Map.Entry<String, ChessGame> change : changes.entrySet()) {
+            String path = change.getKey();
+            int hash = PgnFiles.gameSeparator(path);
+            if (hash >= 0) {
+                String pgn = change.getValue() == null ? null : generatePGNString(change.getValue());
+                files.computeIfAbsent(path.substring(0, hash), k -> new TreeMap<>())
+                        .put(Integer.parseInt(path.substring(hash + 1)) - 1, pgn);
+            } else if (change.getValue() == null) {
+                Path file = Paths.get(LIB_DIR, path);
+                if (Files.deleteIfExists(file)) {
+                    Files.deleteIfExists(GameCodec.sidecarPath(file));
+                    written.add(path);
+                }
+            } else {
+                path = PgnFiles.withExtension(path);
+                Path file = Paths.get(LIB_DIR, path);
+                Files.createDirectories(file.getParent());
+                try (Writer out = PgnFiles.createWriter(file)) {
+                    new PgnWriter(out).write(change.getValue());
+                }
+                writeBinary(file, change.getValue());
+                written.add(path);
+            }
+        }
+        for (Map.Entry<String, SortedMap<Integer, String>> file : files.entrySet()) {
+            PgnIndex.forFile(Paths.get(LIB_DIR, file.getKey())).replaceGames(file.getValue());
+            written.add(file.getKey());
         }
+        return written;
     }
 
     public void deleteDirectory(String path) {
         File dir = new File(LIB_DIR + path);
         if (dir.exists() && dir.isDirectory()) {
             deleteDirectoryRecursive(dir);
-            updateFileTree();
+            syncPath(path);
         }
     }
 
@@ -193,15 +383,140 @@ public class GameLibrary {
         updateFileTree();
     }
 
+    // rescan the whole library directory, dropping every cache
+    public void refresh() {
+        updateFileTree();
+        for (Listener listener : listeners) listener.nodeStructureChanged(rootNode);
+    }
+
+    // Brings the tree, the library index and the caches in line with one file or directory (path
+    // relative to the library) as it is on disk now. A pgn file whose size and modification time
+    // did not change is left alone, so syncing the watcher's echo of our own writes costs a stat.
+    public void syncPath(String path) {
+        Path relative = Paths.get(path);
+        path = relative.toString();
+        if (path.isEmpty()) return;
+        for (Path part : relative) {
+            if (part.toString().startsWith(".")) return; // sidecars and indexes
+        }
+
+        String parentPath = relative.getParent() == null ? "" : relative.getParent().toString();
+        GameLibraryNode parent = findNode(parentPath);
+        if (parent == null) {
+            // the directory is new as well, and adding it brings this path in with it
+            syncPath(parentPath);
+            return;
+        }
+
+        File file = Paths.get(LIB_DIR, path).toFile();
+        boolean isPgn = file.isFile() && PgnFiles.isGameFile(file.getName());
+        boolean exists = isPgn || file.isDirectory();
+        GameLibraryNode node = findNode(path);
+        if (node != null && (!exists || node.isDirectory() != file.isDirectory())) {
+            removeNode(parent, node, path);
+            node = null;
+        }
+        if (!exists) return;
+
+        boolean indexChanged;
+        try {
+            indexChanged = libraryIndex.update(path);
+        } catch (IOException e) {
+            System.err.println("Error updating library index: " + e.getMessage());
+            indexChanged = true;
+        }
+        updateGameIndexes(path);
+        if (node == null) {
+            insertNode(parent, file, path);
+        } else if (isPgn && indexChanged) {
+            // the file was rewritten: its games may have moved, so all of them are read again
+            evict(path);
+            node.getChildren().clear();
+            addGameEntries(file, path, node);
+            for (Listener listener : listeners) listener.nodeStructureChanged(node);
+        }
+    }
+
+    // the node of a file or directory by path relative to the library, or null if it has none
+    private GameLibraryNode findNode(String path) {
+        GameLibraryNode node = rootNode;
+        if (path.isEmpty()) return node;
+        for (Path part : Paths.get(path)) {
+            GameLibraryNode next = null;
+            for (GameLibraryNode child : node.getChildren()) {
+                if (!child.isGameEntry() && child.getName().equals(part.toString())) {
+                    next = child;
+                    break;
+                }
+            }
+            if (next == null) return null;
+            node = next;
+        }
+        return node;
+    }
+
+    private void insertNode(GameLibraryNode parent, File file, String path) {
+        GameLibraryNode node = new GameLibraryNode(file.getName(), file.getPath(), file.isDirectory());
+        if (file.isDirectory()) {
+            buildFileTree(file, node);
+        } else {
+            gameFilePaths.put(path, file.getPath());
+            addGameEntries(file, path, node);
+        }
+        List<GameLibraryNode> siblings = parent.getChildren();
+        int index = 0;
+        while (index < siblings.size() && compareNodes(siblings.get(index), node) < 0) ++index;
+        parent.addChild(index, node);
+        for (Listener listener : listeners) listener.nodeInserted(parent, index, node);
+    }
+
+    private void removeNode(GameLibraryNode parent, GameLibraryNode node, String path) {
+        int index = parent.getChildren().indexOf(node);
+        parent.removeChild(node);
+        try {
+            libraryIndex.update(path);
+        } catch (IOException e) {
+            System.err.println("Error updating library index: " + e.getMessage());
+        }
+        updateGameIndexes(path);
+        gameFilePaths.keySet().removeIf(key -> isUnder(key, path));
+        evict(path);
+        for (Listener listener : listeners) listener.nodeRemoved(parent, index, node);
+    }
+
+    // drops the loaded games and indexes of a file, the games inside it, or everything below a directory
+    private void evict(String path) {
+        loadedGames.removeIf(key -> isUnder(key, path));
+        gameIndexes.keySet().removeIf(key -> isUnder(key, path));
+    }
+
+    static boolean isUnder(String key, String path) {
+        return path.isEmpty() || key.equals(path) || key.startsWith(path + "#") || key.startsWith(path + File.separator);
+    }
+
+    // directories first, then by name, the order buildFileTree lists them in
+    private static int compareNodes(GameLibraryNode a, GameLibraryNode b) {
+        if (a.isDirectory() != b.isDirectory()) return a.isDirectory() ? -1 : 1;
+        return a.getName().compareToIgnoreCase(b.getName());
+    }
+
     private void updateFileTree() {
         // clear existing children
         rootNode.getChildren().clear();
         gameFilePaths.clear();
         loadedGames.clear();
+        gameIndexes.clear();
 
         File dir = new File(LIB_DIR);
         if (!dir.exists()) return;
 
+        try {
+            libraryIndex.update();
+        } catch (IOException e) {
+            System.err.println("Error updating library index: " + e.getMessage());
+        }
+        updateGameIndexes("");
+
         buildFileTree(dir, rootNode);
     }
 
@@ -217,173 +532,132 @@ public class GameLibrary {
         });
 
         for (File file : files) {
+            if (file.getName().startsWith(".")) continue; // hidden files, such as pgn index sidecars
             String relativePath = file.getPath().substring(LIB_DIR.length());
             boolean isDirectory = file.isDirectory();
             GameLibraryNode node = new GameLibraryNode(file.getName(), file.getPath(), isDirectory);
             if (isDirectory) {
                 buildFileTree(file, node);
-            } else if (file.getName().toLowerCase().endsWith(".pgn")) {
+            } else if (PgnFiles.isGameFile(file.getName())) {
                 // Store file path instead of parsing the game
                 gameFilePaths.put(relativePath, file.getPath());
+                addGameEntries(file, relativePath, node);
             }
             parentNode.addChild(node);
         }
     }
 
-    public static ChessGame parsePgn(String pgn) throws IOException {
-        ChessGame game = new ChessGame(null);
-        try (BufferedReader reader = new BufferedReader(new StringReader(pgn))) {
-            String line;
-            boolean inHeaders = true;
-            StringBuilder movesText = new StringBuilder();
-
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty()) {
-                    inHeaders = false;
-                } else if (inHeaders && line.charAt(0) == '[') {
-                    parseHeaderLine(line, game);
-                } else {
-                    // stop checking for headers after starting the first move of the pgn
-                    inHeaders = false;
-                    movesText.append(line).append(" ");
-                }
-            }
-            parseMovesText(movesText.toString().trim(), game);
+    // files holding more than one game get a child node per game, from the library index
+    private void addGameEntries(File file, String relativePath, GameLibraryNode fileNode) {
+        List<LibraryIndex.GameRecord> games = libraryIndex.getGames(relativePath);
+        if (games.size() <= 1) return;
+        for (int i = 1; i <= games.size(); ++i) {
+            String label = i + ". " + PgnIndex.describe(games.get(i - 1).tags());
+            fileNode.addChild(new GameLibraryNode(label, gameEntryPath(file.getPath(), i), i));
         }
-        return game;
+    }
+
+    public static ChessGame parsePgn(String pgn) throws IOException {
+        ChessGame game = parseGame(new PgnLexer(new StringReader(pgn)));
+        return game != null ? game : new ChessGame(null);
     }
 
     private ChessGame parsePgnFile(File file) throws IOException {
-        String pgn = Files.readString(file.toPath());
-        return parsePgn(pgn);
+        try (Reader reader = PgnFiles.openReader(file.toPath())) {
+            ChessGame game = parseGame(new PgnLexer(reader));
+            return game != null ? game : new ChessGame(null);
+        }
     }
 
-    private static void parseHeaderLine(String line, ChessGame game) {
-        int spaceIndex = line.indexOf(" ");
-        String key = line.substring(1, spaceIndex);
-        String value = line.substring(spaceIndex + 2, line.length() - 2);
-        game.setTag(key, value);
+    // Parse the next game from the lexer, or null at the end of the input.
+    // A game ends at its result token, or where the next game's tags begin.
+    public static ChessGame parseGame(PgnLexer lexer) throws IOException {
+        PgnLexer.Token token = lexer.next();
+        if (token == PgnLexer.Token.EOF) return null;
+
+        ChessGame game = new ChessGame(null);
+        while (token == PgnLexer.Token.TAG) {
+            game.setTag(lexer.getTagName(), lexer.getText());
+            token = lexer.next();
+        }
+        lexer.pushBack();
+        parseMoves(lexer, game);
+        return game;
     }
 
-    private static void parseMovesText(String movesText, ChessGame game) {
+    private record Branch(GameNode node, int ply) {}
+
+    // Moves are resolved on one Position (SanResolver) and added as nodes whose boards are built
+    // only when they are first looked at. A move the resolver does not read the way parseMove
+    // would switches the rest of the game to building every board as it goes.
+    private static void parseMoves(PgnLexer lexer, ChessGame game) throws IOException {
         // game should be empty, with no children
         GameNode currentNode = game.getFirstPosition();
         assert currentNode.getNextChild() == null;
 
-        Stack<GameNode> variationStack = new Stack<>();
+        Deque<Branch> variationStack = new ArrayDeque<>();
         GameNode lastMoveNode = null;
-        StringBuilder pendingComment = new StringBuilder();
-
-        // split by space, before ( and after )
-        // "move1 (move2) move3" ==> ["move1", "(", "move2", ")", "move3"]
-        String[] tokens = movesText.split("\s|(?=[()])|(?<=[()])");
-        for (int i = 0; i < tokens.length; ++i) {
-            String token = tokens[i];
-
-            token = token.trim();
-            if (token.isEmpty()) continue;
-
-            // handle comments (they may be standalone or attached to a move)
-            if (token.startsWith("{")) {
-                StringBuilder commentBuffer = new StringBuilder();
-                while (!token.endsWith("}") && i < tokens.length - 1) {
-                    commentBuffer.append(token).append(" ");
-                    token = tokens[++i];
-                }
-                String comment = commentBuffer.append(token)
-                    .toString()
-                    .substring(1, commentBuffer.length() - 1)
-                    .trim();
-
-                if (!comment.contains("[%cal")) {
-                    pendingComment.append(comment);
-                }
-                continue;
-            } else if (token.contains("{")) {
-                // embedded comment in move+comment token
-                int start = token.indexOf("{");
-                String before = token.substring(0, start).trim();
-
-                String after = token.substring(start + 1).trim();
-                StringBuilder commentBuffer = new StringBuilder();
-                while (!after.endsWith("}") && i < tokens.length - 1) {
-                    commentBuffer.append(after).append(" ");
-                    after = tokens[++i];
-                }
-                String comment = commentBuffer.append(after)
-                    .toString()
-                    .substring(1, commentBuffer.length() - 1)
-                    .trim();
-
-                if (!comment.contains("[%cal")) {
-                    pendingComment.append(comment);
-                }
-                token = before; // keep the move part for processing
-            }
-
-            if (token.equals("(")) {
-                // new variation
-                variationStack.push(currentNode);
-                currentNode = currentNode.getParentNode();
-                continue;
-            }
-
-            if (token.equals(")")) {
-                // End variation
-                currentNode = variationStack.pop();
-                continue;
-            }
-
-            if (token.contains(".")) {
-                // Move number indicator
-                String[] parts = token.split("\\.");
-                if (parts.length > 1) {
-                    //moveNumber = Integer.parseInt(parts[0]);
-                    token = parts[1].trim();
-                } else {
-                    // skip the number and dot
-                    continue;
-                }
-            }
-
-            // Handle "..." format for black moves in variations
-            if (token.contains("...")) {
-                String[] parts = token.split("\\.\\.\\.");
-                if (parts.length > 1) {
-                    //moveNumber = Integer.parseInt(parts[0]);
-                    token = parts[1].trim();
-                } else {
-                    // skip the number and dots
-                    continue;
-                }
-            }
-
-            if (token.equals("*") || token.equals("1-0") ||
-                token.equals("0-1") || token.equals("1/2-1/2")) {
-                continue;
-            }
-
-            if (!token.isEmpty()) {
-                Move move = NotationParser.parseMove(token, currentNode);
-                if (move != null) {
-                    if (pendingComment.length() != 0) {
-                        assert lastMoveNode != null;
-                        lastMoveNode.setComment(pendingComment.toString());
-                        pendingComment.setLength(0);
+        SanResolver resolver = new SanResolver();
+
+        while (true) {
+            PgnLexer.Token token = lexer.next();
+            switch (token) {
+                case MOVE:
+                    String san = lexer.getText();
+                    int packed = resolver != null ? resolver.resolve(san) : 0;
+                    if (packed != 0) {
+                        currentNode = currentNode.addReplayedNode(packed, san, resolver.notation(packed, san.contains("x")));
+                        resolver.make(packed);
+                        lastMoveNode = currentNode;
+                        break;
                     }
-                    currentNode = currentNode.addNode(move);
-                    lastMoveNode = currentNode;
-                }
-            } else if (pendingComment != null && lastMoveNode != null) {
-                // no move parsed, attach to last valid move
-                lastMoveNode.setComment(pendingComment.toString());
-                pendingComment.setLength(0);
+                    resolver = null;
+                    Move move = NotationParser.parseMove(san, currentNode);
+                    if (move != null) {
+                        currentNode = currentNode.addNode(move);
+                        lastMoveNode = currentNode;
+                    }
+                    break;
+                case COMMENT:
+                    // comments belong to the move before them; arrow drawings are not kept
+                    String comment = lexer.getText();
+                    if (lastMoveNode != null && !comment.isEmpty() && !comment.contains("[%cal")) {
+                        String existing = lastMoveNode.getComment();
+                        lastMoveNode.setComment(existing.isEmpty() ? comment : existing + " " + comment);
+                    }
+                    break;
+                case VARIATION_START:
+                    // a variation replaces the last move, so it starts from that move's parent
+                    variationStack.push(new Branch(currentNode, resolver != null ? resolver.getPly() : 0));
+                    if (currentNode.getParentNode() != null) {
+                        currentNode = currentNode.getParentNode();
+                        if (resolver != null) resolver.unmake();
+                    }
+                    break;
+                case VARIATION_END:
+                    if (!variationStack.isEmpty()) {
+                        Branch branch = variationStack.pop();
+                        currentNode = branch.node();
+                        if (resolver != null) {
+                            // back to the position of the move the variation replaced
+                            boolean root = currentNode.getParentNode() == null;
+                            while (resolver.getPly() > branch.ply() - (root ? 0 : 1)) resolver.unmake();
+                            if (!root) resolver.make(currentNode.getPackedMove());
+                        }
+                    }
+                    break;
+                case RESULT:
+                    if (variationStack.isEmpty()) return;
+                    break;
+                case TAG:
+                    // next game started without a result
+                    lexer.pushBack();
+                    return;
+                case EOF:
+                    return;
+                default:
+                    break; // NAGs are not stored
             }
         }
-        // attach final pending comment if nothing else was done
-        if (pendingComment != null && lastMoveNode != null) {
-            lastMoveNode.setComment(pendingComment.toString());
-        }
     }
 }
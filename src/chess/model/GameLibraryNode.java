@@ -1,19 +1,32 @@
 package chess.model;
 
+import chess.model.util.PgnFiles;
+
 import java.util.ArrayList;
 import java.util.List;
 
-// Represents a node in the game library file tree, either a diretory or pgn file
+// Represents a node in the game library file tree, either a diretory, a pgn file,
+// or one game inside a pgn file that holds several (fullPath "file.pgn#n")
 public class GameLibraryNode {
     private final String name;
     private final String fullPath;
     private final boolean isDirectory;
+    private final int gameNumber; // 1-based position within its file, 0 for files and directories
     private final List<GameLibraryNode> children;
 
     public GameLibraryNode(String name, String fullPath, boolean isDirectory) {
         this.name = name;
         this.fullPath = fullPath;
         this.isDirectory = isDirectory;
+        this.gameNumber = 0;
+        this.children = new ArrayList<>();
+    }
+
+    public GameLibraryNode(String name, String fullPath, int gameNumber) {
+        this.name = name;
+        this.fullPath = fullPath;
+        this.isDirectory = false;
+        this.gameNumber = gameNumber;
         this.children = new ArrayList<>();
     }
 
@@ -24,13 +37,19 @@ public class GameLibraryNode {
     public boolean isDirectory() { return isDirectory; }
 
     public boolean isPgnFile() {
-        return !isDirectory && name.toLowerCase().endsWith(".pgn");
+        return !isDirectory && gameNumber == 0 && PgnFiles.isGameFile(name);
     }
 
+    public boolean isGameEntry() { return gameNumber > 0; }
+
+    public int getGameNumber() { return gameNumber; }
+
     public List<GameLibraryNode> getChildren() { return children; }
 
     public void addChild(GameLibraryNode child) { children.add(child); }
 
+    public void addChild(int index, GameLibraryNode child) { children.add(index, child); }
+
     public void removeChild(GameLibraryNode child) { children.remove(child); }
 
     public String getDisplayName() {
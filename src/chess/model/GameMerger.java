@@ -0,0 +1,84 @@
+package chess.model;
+
+import chess.model.boardData.Position;
+import chess.model.util.PgnFiles;
+import chess.model.util.PgnLexer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.*;
+
+// Folds the variation trees of any number of PGN files into one game, for merging overlapping
+// opening files into a single repertoire. Files are read one game at a time, so only the merged tree
+// is ever held whole. A move already in the tree is found through its node's child index by packed
+// move; a move reaching a position the tree already has by another move order is added, but what
+// follows it is folded in under the node first reaching that position, so each position's lines are
+// kept once. Comments of merged nodes are joined, each distinct comment kept once.
+public class GameMerger {
+    private record Frame(Iterator<GameNode> children, GameNode target) {}
+
+    private final ChessGame merged = new ChessGame(null);
+    private final Map<Long, GameNode> nodes = new HashMap<>(); // the first merged node reaching each position
+    private int games, addedNodes, transpositions;
+
+    public GameMerger() {
+        merged.setTag("Event", "Merged repertoire");
+        merged.setTag("Result", "*");
+        nodes.put(new Position().getKey(), merged.getFirstPosition());
+    }
+
+    public ChessGame getGame() { return merged; }
+    public int getGameCount() { return games; }
+    public int getAddedNodes() { return addedNodes; }
+    public int getTranspositions() { return transpositions; } // lines folded into another move order's node
+
+    public void addFile(Path file) throws IOException {
+        try (Reader reader = PgnFiles.openReader(file)) {
+            PgnLexer lexer = new PgnLexer(reader);
+            for (ChessGame game = GameLibrary.parseGame(lexer); game != null; game = GameLibrary.parseGame(lexer)) {
+                addGame(game);
+            }
+        }
+    }
+
+    public void addGame(ChessGame game) {
+        ++games;
+        GameNode root = game.getFirstPosition();
+        mergeComment(merged.getFirstPosition(), root.getComment());
+        Position position = new Position();
+        Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(root.getChildren().iterator(), merged.getFirstPosition()));
+        while (!stack.isEmpty()) {
+            Frame top = stack.peek();
+            if (!top.children().hasNext()) {
+                stack.pop();
+                if (!stack.isEmpty()) position.unmakeMove();
+                continue;
+            }
+            GameNode source = top.children().next();
+            if (!position.makeMove(source.getPackedMove())) continue; // a move the rules reject ends its line
+
+            GameNode target = top.target().getChild(source.getPackedMove());
+            boolean added = target == null;
+            if (added) {
+                target = top.target().addReplayedNode(source.getPackedMove(), source.getNotation(), source.getNotation());
+                ++addedNodes;
+            }
+            mergeComment(target, source.getComment());
+            // what follows goes under the first node reaching the position, whichever move order got here
+            GameNode next = nodes.putIfAbsent(position.getKey(), target);
+            if (next == null) {
+                next = target;
+            } else if (added) {
+                ++transpositions;
+            }
+            stack.push(new Frame(source.getChildren().iterator(), next));
+        }
+    }
+
+    private static void mergeComment(GameNode node, String comment) {
+        if (comment.isEmpty() || node.getComment().contains(comment)) return;
+        node.setComment(node.getComment().isEmpty() ? comment : node.getComment() + " " + comment);
+    }
+}
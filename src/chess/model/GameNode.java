@@ -1,19 +1,31 @@
 package chess.model;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import chess.model.boardData.*;
 import chess.model.util.*;
 
+// A position in a game tree. Nodes read from a PGN or binary game are built without their board:
+// the loader checks each move on a Position and keeps the packed move and its SAN, and the board and
+// Move are made from the parent's the first time anything reads them (see ensureBoard).
 public class GameNode extends BoardState {
+    // children a node has before they are also kept in a map by move; fewer are found faster by a scan
+    private static final int CHILD_INDEX_MIN = 8;
+
     private GameNode parentNode;
     private List<GameNode> children;
+    private Map<Integer, GameNode> childIndex; // children by packed move, once there are CHILD_INDEX_MIN
 
     private Move move;
     private String notation; // notation of the move field, located here because notation also revolves around the game state/current position, whether the move caused a check or checkmate, etc.
+    private int packedMove; // from | to << 6 | promotion << 12, as in Position
+    private String pendingSan; // the SAN the move was read from, until the board is built
 
     private String comment;
-    private static int nextId = 0;
+    private static final AtomicInteger nextId = new AtomicInteger(); // games are parsed on several threads during import
     private final int id;
 
     // this will only ever be used to create the root node, that has no starting position, move, or notation
@@ -24,34 +36,94 @@ public class GameNode extends BoardState {
         move = null;
         notation = null;
         comment = "";
-        id = nextId++;
+        id = nextId.getAndIncrement();
     }
 
     public GameNode(GameNode oldState, Move nextMove) {
-        super(oldState.makeNewChange(nextMove));
+        super(oldState, nextMove);
         parentNode = oldState;
         children = new ArrayList<>();
         move = nextMove;
-        notation = NotationParser.convertToNotation(move, oldState);
+        notation = NotationParser.convertToNotation(move, oldState, this);
+        packedMove = pack(nextMove);
+        comment = "";
+        id = nextId.getAndIncrement();
+    }
+
+    // a node whose move was already checked on a Position, its board is built on first use
+    private GameNode(GameNode parent, int packedMove, String san, String notation) {
+        super((Void) null);
+        parentNode = parent;
+        children = new ArrayList<>();
+        this.packedMove = packedMove;
+        this.pendingSan = san.equals(notation) ? notation : san;
+        this.notation = notation;
         comment = "";
-        id = nextId++;
+        id = nextId.getAndIncrement();
+    }
+
+    private static int pack(Move move) {
+        ImmutXY from = move.getFrom(), to = move.getTo();
+        return Position.move(AttackTables.square(from.getX(), from.getY()), AttackTables.square(to.getX(), to.getY()),
+                Position.promotionIndex(move.getPromotionType()));
+    }
+
+    // Builds the boards of this node and of any unbuilt nodes above it, top down, so a long line
+    // does not recurse. Each move is read again from its SAN, giving the same Move an eager parse would.
+    @Override
+    protected void ensureBoard() {
+        if (pendingSan == null) return;
+        List<GameNode> unbuilt = new ArrayList<>();
+        for (GameNode node = this; node.pendingSan != null; node = node.parentNode) unbuilt.add(node);
+        for (int i = unbuilt.size() - 1; i >= 0; --i) {
+            GameNode node = unbuilt.get(i);
+            Move m = NotationParser.parseMove(node.pendingSan, node.parentNode);
+            node.playFrom(node.parentNode, m);
+            node.move = m;
+            node.pendingSan = null;
+        }
     }
 
+    public boolean isBoardBuilt() { return pendingSan == null; }
+
     public String getNotation() { return notation; }
-    public Move getMove() { return move; }
+    public Move getMove() { ensureBoard(); return move; }
+    public int getPackedMove() { return packedMove; } // 0 for the first position
     public GameNode getParentNode() { return parentNode; }
     public GameNode getNextChild() { return children.isEmpty() ? null : children.get(0); }
     public List<GameNode> getChildren() { return children; }
 
-    public GameNode addNode(Move move) {
-        GameNode newNode = new GameNode(this, move);
+    // the child reached by a packed move, or null
+    public GameNode getChild(int packedMove) {
+        if (childIndex != null) return childIndex.get(packedMove);
         for (GameNode child : children) {
-            if (newNode.getNotation().equals(child.getNotation())) {
-                return child;
-            }
+            if (child.packedMove == packedMove) return child;
+        }
+        return null;
+    }
+
+    // the existing child for the move, found before a new node and its board are built, or a new one
+    public GameNode addNode(Move move) {
+        GameNode existing = getChild(pack(move));
+        return existing != null ? existing : addChild(new GameNode(this, move));
+    }
+
+    // the child for a move a loader resolved itself (see SanResolver), or the existing child with
+    // the same move; san is the text the move was read from
+    public GameNode addReplayedNode(int packedMove, String san, String notation) {
+        GameNode existing = getChild(packedMove);
+        return existing != null ? existing : addChild(new GameNode(this, packedMove, san, notation));
+    }
+
+    private GameNode addChild(GameNode child) {
+        children.add(child);
+        if (childIndex != null) {
+            childIndex.put(child.packedMove, child);
+        } else if (children.size() == CHILD_INDEX_MIN) {
+            childIndex = new HashMap<>();
+            for (GameNode c : children) childIndex.put(c.packedMove, c);
         }
-        children.add(newNode);
-        return newNode;
+        return child;
     }
 
     public String getComment() { return comment; }
@@ -0,0 +1,248 @@
+package chess.model;
+
+import chess.model.util.EcoDatabase;
+import chess.model.util.PgnFiles;
+import chess.model.util.PgnIndex;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.stream.*;
+
+// Metadata of every game in the library kept in a single file (games/.library.idx), so building
+// the tree and searching tags never opens the PGN files themselves.
+// Every PGN file is recorded with its size and modification time. update() lists the library (or
+// one file or directory in it) and only rescans files whose size or time changed (through their
+// PgnIndex); records of files that are gone are dropped. A SearchIndex over the records is kept in
+// step with them, built when the file is read.
+public class LibraryIndex {
+    private static final int MAGIC = 0x43534c49; // "CSLI"
+    private static final int VERSION = 2;
+    private static final String FILE_NAME = ".library.idx";
+
+    // path is "file.pgn", or "file.pgn#n" for a game in a file holding several;
+    // comments is the distinct lower case words of the game's comments, space separated
+    public record GameRecord(String path, Map<String, String> tags, String eco, int plies, String result, String comments) {}
+
+    private record FileRecord(long size, long modified, List<GameRecord> games) {}
+
+    private final Path libDir;
+    private final Path indexFile;
+    private final Map<String, FileRecord> files = new HashMap<>(); // relative path -> record
+    private final SearchIndex searchIndex = new SearchIndex();
+
+    public LibraryIndex(Path libDir) {
+        this.libDir = libDir;
+        this.indexFile = libDir.resolve(FILE_NAME);
+        if (Files.exists(indexFile)) {
+            try {
+                read();
+            } catch (IOException e) {
+                System.err.println("Error reading library index, rebuilding: " + e.getMessage());
+                files.clear();
+            }
+        }
+        for (FileRecord file : files.values()) file.games().forEach(searchIndex::add);
+    }
+
+    public int getGameCount() {
+        int count = 0;
+        for (FileRecord file : files.values()) count += file.games().size();
+        return count;
+    }
+
+    // the games of one PGN file, by path relative to the library
+    public List<GameRecord> getGames(String filePath) {
+        FileRecord file = files.get(filePath);
+        return file == null ? List.of() : file.games();
+    }
+
+    public GameRecord getGame(String path) {
+        int hash = PgnFiles.gameSeparator(path);
+        List<GameRecord> games = getGames(hash >= 0 ? path.substring(0, hash) : path);
+        if (hash < 0) return games.size() == 1 ? games.get(0) : null;
+        int number = Integer.parseInt(path.substring(hash + 1));
+        return number >= 1 && number <= games.size() ? games.get(number - 1) : null;
+    }
+
+    // the games matching a SearchIndex query, such as "white:carlsen eco:B2*"
+    public List<GameRecord> search(String query) {
+        List<GameRecord> result = new ArrayList<>();
+        for (String path : searchIndex.search(query)) {
+            GameRecord game = getGame(path);
+            if (game != null) result.add(game);
+        }
+        return result;
+    }
+
+    // brings the index up to date with the library directory, returns whether anything changed
+    public boolean update() throws IOException {
+        return update("");
+    }
+
+    // the same for one file or directory, by path relative to the library ("" for all of it)
+    public boolean update(String subPath) throws IOException {
+        if (!Files.isDirectory(libDir)) return false;
+        Path start = libDir.resolve(subPath);
+        Map<String, Path> present = new HashMap<>();
+        if (Files.exists(start)) {
+            try (Stream<Path> walk = Files.walk(start)) {
+                walk.filter(p -> PgnFiles.isGameFile(p.getFileName().toString())
+                                && Files.isRegularFile(p) && !isHidden(p))
+                    .forEach(p -> present.put(relative(p), p));
+            }
+        }
+
+        boolean changed = false;
+        for (String key : new ArrayList<>(files.keySet())) {
+            if (GameLibrary.isUnder(key, subPath) && !present.containsKey(key)) {
+                files.remove(key);
+                searchIndex.removeUnder(key);
+                changed = true;
+            }
+        }
+        for (Map.Entry<String, Path> entry : present.entrySet()) {
+            BasicFileAttributes attributes = Files.readAttributes(entry.getValue(), BasicFileAttributes.class);
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+            FileRecord old = files.get(entry.getKey());
+            if (old != null && old.size() == size && old.modified() == modified) continue;
+            searchIndex.removeUnder(entry.getKey());
+            try {
+                FileRecord file = scan(entry.getKey(), entry.getValue(), size, modified);
+                files.put(entry.getKey(), file);
+                file.games().forEach(searchIndex::add);
+            } catch (IOException e) {
+                System.err.println("Error indexing " + entry.getValue() + ": " + e.getMessage());
+                files.remove(entry.getKey());
+            }
+            changed = true;
+        }
+        if (changed) write();
+        return changed;
+    }
+
+    private boolean isHidden(Path p) {
+        for (Path part : libDir.relativize(p)) {
+            if (part.toString().startsWith(".")) return true;
+        }
+        return false;
+    }
+
+    private String relative(Path p) {
+        return libDir.relativize(p).toString();
+    }
+
+    private static FileRecord scan(String filePath, Path pgn, long size, long modified) throws IOException {
+        List<PgnIndex.Entry> entries = PgnIndex.forFile(pgn).getEntries();
+        List<GameRecord> games = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); ++i) {
+            PgnIndex.Entry e = entries.get(i);
+            String path = entries.size() > 1 ? GameLibrary.gameEntryPath(filePath, i + 1) : filePath;
+            games.add(record(path, e.tags(), e.plies(), e.openingMoves(), e.comments()));
+        }
+        return new FileRecord(size, modified, games);
+    }
+
+    // the ECO tag when the game has one, otherwise classified from its first moves
+    private static GameRecord record(String path, Map<String, String> tags, int plies, String openingMoves, String comments) {
+        String eco = tags.get("ECO");
+        if (eco == null || eco.isEmpty() || eco.equals("?")) eco = EcoDatabase.getEcoCode(openingMoves);
+        return new GameRecord(path, tags, eco, plies, tags.getOrDefault("Result", "*"), comments);
+    }
+
+    // ---- persistence ----
+    // Tag names, tag values and ECO codes are written once in a string table and referred to by
+    // number, since most of them (names, "?", results, players) repeat across games.
+
+    // the whole file is read at once and decoded from the buffer, which is several times faster
+    // than a DataInputStream for this many small fields
+    private void read() throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) return; // rebuilt by the next update()
+            String[] strings = new String[in.getInt()];
+            for (int i = 0; i < strings.length; ++i) strings[i] = readString(in);
+
+            int fileCount = in.getInt();
+            for (int f = 0; f < fileCount; ++f) {
+                String filePath = readString(in);
+                long size = in.getLong();
+                long modified = in.getLong();
+                int gameCount = in.getInt();
+                List<GameRecord> games = new ArrayList<>(gameCount);
+                for (int g = 0; g < gameCount; ++g) {
+                    int tagCount = in.getShort() & 0xffff;
+                    Map<String, String> tags = new LinkedHashMap<>();
+                    for (int t = 0; t < tagCount; ++t) tags.put(strings[in.getInt()], strings[in.getInt()]);
+                    int eco = in.getInt();
+                    int plies = in.getInt();
+                    String comments = readString(in);
+                    String path = gameCount > 1 ? GameLibrary.gameEntryPath(filePath, g + 1) : filePath;
+                    games.add(new GameRecord(path, tags, eco < 0 ? null : strings[eco], plies, tags.getOrDefault("Result", "*"), comments));
+                }
+                files.put(filePath, new FileRecord(size, modified, games));
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt library index", e);
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        String s = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void write() throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        for (FileRecord file : files.values()) {
+            for (GameRecord game : file.games()) {
+                for (Map.Entry<String, String> tag : game.tags().entrySet()) {
+                    strings.putIfAbsent(tag.getKey(), strings.size());
+                    strings.putIfAbsent(tag.getValue(), strings.size());
+                }
+                if (game.eco() != null) strings.putIfAbsent(game.eco(), strings.size());
+            }
+        }
+
+        Path tmp = indexFile.resolveSibling(FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(strings.size());
+            for (String string : strings.keySet()) writeString(out, string);
+
+            out.writeInt(files.size());
+            for (Map.Entry<String, FileRecord> entry : files.entrySet()) {
+                FileRecord file = entry.getValue();
+                writeString(out, entry.getKey());
+                out.writeLong(file.size());
+                out.writeLong(file.modified());
+                out.writeInt(file.games().size());
+                for (GameRecord game : file.games()) {
+                    out.writeShort(game.tags().size());
+                    for (Map.Entry<String, String> tag : game.tags().entrySet()) {
+                        out.writeInt(strings.get(tag.getKey()));
+                        out.writeInt(strings.get(tag.getValue()));
+                    }
+                    out.writeInt(game.eco() == null ? -1 : strings.get(game.eco()));
+                    out.writeInt(game.plies());
+                    writeString(out, game.comments()); // seldom shared, so not in the string table
+                }
+            }
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,122 @@
+package chess.model;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+// Watches the library directory and every directory below it on a daemon thread, and reports the
+// paths (relative to the library) of files and directories that were created, changed or deleted.
+// Events are collected until the directory has been quiet for a moment, so a file written in several
+// steps or a folder copied in arrives as one batch. Hidden names (the sidecars and indexes the
+// library writes itself) are never reported.
+class LibraryWatcher {
+    private static final long QUIET_MILLIS = 200;
+
+    interface Listener {
+        // called on the watcher thread
+        void pathsChanged(Set<String> paths);
+        // events were lost, so the whole library has to be rescanned
+        void overflow();
+    }
+
+    private final Path root;
+    private final Listener listener;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>(); // only used on the watcher thread once started
+
+    LibraryWatcher(Path root, Listener listener) throws IOException {
+        this.root = root;
+        this.listener = listener;
+        this.watchService = root.getFileSystem().newWatchService();
+        registerAll(root, null);
+        Thread thread = new Thread(this::run, "library-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            // the thread stops either way
+        }
+    }
+
+    // registers dir and every directory below it; when found is given, whatever is inside is added
+    // to it, since it may have been created before the directory was registered
+    private void registerAll(Path dir, Set<String> found) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attributes) throws IOException {
+                if (!d.equals(dir) && isHidden(d)) return FileVisitResult.SKIP_SUBTREE;
+                directories.put(d.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), d);
+                if (found != null) found.add(root.relativize(d).toString());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (found != null && !isHidden(file)) found.add(root.relativize(file).toString());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE; // deleted while walking
+            }
+        });
+    }
+
+    private static boolean isHidden(Path p) {
+        return p.getFileName().toString().startsWith(".");
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Set<String> changed = new LinkedHashSet<>();
+                boolean overflow = false;
+                while (key != null) {
+                    overflow |= drain(key, changed);
+                    key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (overflow) {
+                    listener.overflow();
+                } else if (!changed.isEmpty()) {
+                    listener.pathsChanged(changed);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    // adds the paths of the key's events to changed, returns whether events were lost
+    private boolean drain(WatchKey key, Set<String> changed) {
+        Path dir = directories.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || dir == null) {
+                overflow = true;
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            if (isHidden(child)) continue;
+            changed.add(root.relativize(child).toString());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                try {
+                    registerAll(child, changed);
+                } catch (IOException e) {
+                    overflow = true;
+                }
+            }
+        }
+        if (!key.reset()) directories.remove(key);
+        return overflow;
+    }
+}
@@ -0,0 +1,640 @@
+package chess.model;
+
+import chess.model.boardData.Position;
+import chess.model.util.PgnIndex;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Move statistics of the library's openings: for every position on the first MAX_PLY half moves of
+// a game's main line, how many games went on with each move, how they ended and how long they were.
+// Positions are told apart by Zobrist key, so transposed lines share their statistics.
+// Kept in games/.openings.tree:
+//   header   magic "CSOT", version, generation
+//   files    path, size, modification time and games of every file; a game is the hash of its text
+//            (see PgnIndex.textHashes), its result, its length in plies and the packed moves of its
+//            first MAX_PLY half moves
+//   entries  position key, move, games, white wins, draws, black wins, total plies
+// and games/.openings.log, the files changed since, replayed over the tree on open:
+//   header   the generation of the tree it follows; a log left from another is dropped
+//   'F'      a file's new size and time and its games now, as runs of its games before or new games
+//   'R'      a file removed
+// Lookups only use the entries. The lines are kept so a game that is edited, changed from outside
+// or deleted can be taken back out of them: a changed file's games are matched to the ones counted
+// by text hash, and only those that are new, edited or gone are added or taken out, and logged.
+// The whole tree is written again once the log outgrows a share of it. The entries of one position
+// are chained from a hash table on its key, so a lookup costs the same however many games there are.
+// Methods are synchronized so a build can run on another thread while lookups go on.
+public class OpeningTree {
+    private static final int MAGIC = 0x43534f54; // "CSOT"
+    private static final int VERSION = 3;
+    private static final String FILE_NAME = ".openings.tree";
+    private static final String LOG_NAME = ".openings.log";
+    // the tree is written again when the log passes a quarter of it, within these bounds
+    private static final long WRITE_MIN_BYTES = 1 << 20;
+    private static final long WRITE_MAX_BYTES = 64 << 20;
+    public static final int MAX_PLY = 40;
+    private static final int BATCH = 64; // games per build task
+    private static final byte UNKNOWN = 0, WHITE_WINS = 1, DRAW = 2, BLACK_WINS = 3;
+
+    // games that played move from a position; the score is for the side playing it
+    public record MoveStats(int move, int games, int whiteWins, int draws, int blackWins, long totalPlies) {
+        public double averagePly() { return games == 0 ? 0 : (double) totalPlies / games; }
+
+        // points per decided game in percent, or -1 when no game had a result
+        public double score(boolean white) {
+            int decided = whiteWins + draws + blackWins;
+            if (decided == 0) return -1;
+            return 100.0 * ((white ? whiteWins : blackWins) + draws / 2.0) / decided;
+        }
+    }
+
+    private record GameLine(long hash, byte result, int plies, short[] moves) {}
+
+    private record FileRecord(long size, long modified, List<GameLine> games) {}
+
+    private final Path libDir;
+    private final Path treeFile;
+    private final Path logFile;
+    private Map<String, FileRecord> files = new HashMap<>(); // relative path -> record
+    private boolean built;
+    private long generation; // of the tree file, counted up each time it is written
+    private DataOutputStream log;
+
+    // entries, chained by position
+    private int entryCount;
+    private long[] keys = new long[1024];
+    private short[] moves = new short[1024];
+    private int[] games = new int[1024], whiteWins = new int[1024], draws = new int[1024], blackWins = new int[1024];
+    private long[] plies = new long[1024];
+    private int[] next = new int[1024];
+    // open addressing on the position key, to the position's first entry (-1 for a free slot)
+    private int[] heads = newHeads(1024);
+    private int positionCount;
+
+    public OpeningTree(Path libDir) {
+        this.libDir = libDir;
+        this.treeFile = libDir.resolve(FILE_NAME);
+        this.logFile = libDir.resolve(LOG_NAME);
+        if (Files.exists(treeFile)) {
+            try {
+                read();
+                built = true;
+                if (Files.exists(logFile)) replay();
+            } catch (IOException e) {
+                System.err.println("Error reading opening tree, it needs a rebuild: " + e.getMessage());
+                clear();
+            }
+        }
+    }
+
+    private OpeningTree(Path libDir, Path treeFile, Path logFile) {
+        this.libDir = libDir;
+        this.treeFile = treeFile;
+        this.logFile = logFile;
+    }
+
+    // whether the tree was built; until then nothing is counted and update() does nothing
+    public synchronized boolean isBuilt() { return built; }
+
+    // ---- lookups ----
+
+    // the moves library games played from the position with this key, most played first
+    public synchronized List<MoveStats> getMoves(long key) {
+        List<MoveStats> result = new ArrayList<>();
+        for (int e = heads[findSlot(key)]; e >= 0; e = next[e]) {
+            if (games[e] > 0) result.add(new MoveStats(moves[e] & 0xffff, games[e], whiteWins[e], draws[e], blackWins[e], plies[e]));
+        }
+        result.sort((a, b) -> Integer.compare(b.games(), a.games()));
+        return result;
+    }
+
+    // the slot holding key's chain, or the free slot it would go in
+    private int findSlot(long key) {
+        int mask = heads.length - 1;
+        int slot = (int) (key ^ key >>> 32) * 0x9e3779b9 >>> 1 & mask;
+        while (heads[slot] >= 0 && keys[heads[slot]] != key) slot = slot + 1 & mask;
+        return slot;
+    }
+
+    // ---- changes ----
+
+    // Brings the tree in line with one file or directory (relative to the library, "" for all of
+    // it): games of files that are gone are taken out, and of files whose size or time changed the
+    // games that are new or edited are read and counted in place of the ones no longer there.
+    // Returns whether anything changed. Files are read and games parsed without holding the lock,
+    // which is only taken to count what was read and log it.
+    public boolean update(String subPath) throws IOException {
+        Map<String, Path> present = PositionIndex.listGameFiles(libDir, subPath);
+        boolean changed = false;
+        synchronized (this) {
+            if (!built) return false;
+            for (String file : new ArrayList<>(files.keySet())) {
+                if (GameLibrary.isUnder(file, subPath) && !present.containsKey(file)) {
+                    remove(file);
+                    changed = true;
+                }
+            }
+        }
+        for (Map.Entry<String, Path> entry : present.entrySet()) {
+            if (updateFile(entry.getKey(), entry.getValue())) changed = true;
+        }
+        if (changed) {
+            synchronized (this) {
+                if (log == null) return true; // written again by a build meanwhile
+                log.flush();
+                if (Files.size(logFile) > Math.min(WRITE_MAX_BYTES, Math.max(WRITE_MIN_BYTES, Files.size(treeFile) / 4))) write();
+            }
+        }
+        return changed;
+    }
+
+    // Reads the new and edited games of one file, if it changed, and counts them in place of the
+    // ones it no longer has. Should the file's record change while it was read (a build, or
+    // another update), it is read again.
+    private boolean updateFile(String file, Path path) throws IOException {
+        while (true) {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+            FileRecord old;
+            synchronized (this) {
+                if (!built) return false;
+                old = files.get(file);
+            }
+            if (old != null && old.size() == size && old.modified() == modified) return false;
+            PgnIndex index;
+            long[] hashes;
+            try {
+                index = PgnIndex.forFile(path);
+                hashes = index.textHashes();
+            } catch (IOException e) {
+                System.err.println("Error reading openings of " + path + ": " + e.getMessage());
+                return false;
+            }
+
+            // a game whose text is the same keeps its line, wherever it moved to in the file
+            List<GameLine> before = old == null ? List.of() : old.games();
+            Map<Long, Deque<Integer>> unchanged = new HashMap<>();
+            for (int i = 0; i < before.size(); ++i) unchanged.computeIfAbsent(before.get(i).hash(), k -> new ArrayDeque<>()).add(i);
+            int[] from = new int[hashes.length];
+            GameLine[] lines = new GameLine[hashes.length];
+            BitSet edited = new BitSet();
+            for (int i = 0; i < hashes.length; ++i) {
+                Deque<Integer> same = unchanged.get(hashes[i]);
+                from[i] = same == null || same.isEmpty() ? -1 : same.poll();
+                if (from[i] >= 0) {
+                    lines[i] = before.get(from[i]);
+                } else {
+                    edited.set(i);
+                }
+            }
+            for (int[] range : index.batches(BATCH)) {
+                int first = edited.nextSetBit(range[0]);
+                if (first < 0 || first >= range[1]) continue;
+                GameLine[] read = readLines(index, hashes, range[0], range[1], edited);
+                for (int i = first; i >= 0 && i < range[1]; i = edited.nextSetBit(i + 1)) lines[i] = read[i - range[0]];
+            }
+            synchronized (this) {
+                if (!built) return false;
+                if (files.get(file) == old) {
+                    setFile(file, new FileRecord(size, modified, Arrays.asList(lines)), from);
+                    return true;
+                }
+            }
+        }
+    }
+
+    // A file's games as they are now; from is the number (from 0) each had in the file before, or
+    // -1 for a new one. A run of games that were in the file before one after the other is logged
+    // as where it started and its length, so a file where one game was edited takes three runs.
+    private void setFile(String file, FileRecord record, int[] from) throws IOException {
+        applyFile(file, record, from);
+        openLog();
+        log.writeByte('F');
+        writeString(log, file);
+        log.writeLong(record.size());
+        log.writeLong(record.modified());
+        log.writeInt(from.length);
+        for (int i = 0; i < from.length; ) {
+            if (from[i] < 0) {
+                log.writeInt(-1);
+                writeLine(log, record.games().get(i++));
+                continue;
+            }
+            int length = 1;
+            while (i + length < from.length && from[i + length] == from[i] + length) ++length;
+            log.writeInt(from[i]);
+            log.writeInt(length);
+            i += length;
+        }
+    }
+
+    private void remove(String file) throws IOException {
+        for (GameLine line : files.remove(file).games()) add(line, -1);
+        openLog();
+        log.writeByte('R');
+        writeString(log, file);
+    }
+
+    // takes out the lines of the games the file no longer has and counts the new ones
+    private void applyFile(String file, FileRecord record, int[] from) {
+        FileRecord old = files.get(file);
+        boolean[] kept = new boolean[old == null ? 0 : old.games().size()];
+        for (int i = 0; i < from.length; ++i) {
+            if (from[i] >= 0) {
+                kept[from[i]] = true;
+            } else {
+                add(record.games().get(i), 1);
+            }
+        }
+        for (int i = 0; i < kept.length; ++i) {
+            if (!kept[i]) add(old.games().get(i), -1);
+        }
+        files.put(file, record);
+    }
+
+    // adds (sign 1) or takes out (sign -1) a game's line; a move repeated from a position the line
+    // already went through is counted once
+    private void add(GameLine line, int sign) {
+        Position position = new Position();
+        for (int i = 0; i < line.moves().length; ++i) {
+            int move = line.moves()[i] & 0xffff;
+            long key = position.getKey();
+            if (!position.isRepetition() || !playedBefore(line, i, position)) {
+                int e = entry(key, move);
+                games[e] += sign;
+                plies[e] += (long) sign * line.plies();
+                if (line.result() == WHITE_WINS) whiteWins[e] += sign;
+                else if (line.result() == DRAW) draws[e] += sign;
+                else if (line.result() == BLACK_WINS) blackWins[e] += sign;
+            }
+            if (!position.makeMove(move)) return;
+        }
+    }
+
+    // whether the move at index i was already played from this position earlier in the line
+    private static boolean playedBefore(GameLine line, int i, Position position) {
+        Position replay = new Position();
+        for (int j = 0; j < i; ++j) {
+            if (replay.getKey() == position.getKey() && line.moves()[j] == line.moves()[i]) return true;
+            replay.makeMove(line.moves()[j] & 0xffff);
+        }
+        return false;
+    }
+
+    // the entry for a move from a position, added if it is new
+    private int entry(long key, int move) {
+        int slot = findSlot(key);
+        for (int e = heads[slot]; e >= 0; e = next[e]) {
+            if ((moves[e] & 0xffff) == move) return e;
+        }
+        if (entryCount == keys.length) grow();
+        int e = entryCount++;
+        keys[e] = key;
+        moves[e] = (short) move;
+        games[e] = whiteWins[e] = draws[e] = blackWins[e] = 0;
+        plies[e] = 0;
+        if (heads[slot] < 0 && 2 * ++positionCount > heads.length) {
+            next[e] = -1;
+            heads[slot] = e;
+            rehash();
+        } else {
+            next[e] = heads[slot];
+            heads[slot] = e;
+        }
+        return e;
+    }
+
+    private void grow() {
+        int size = keys.length * 2;
+        keys = Arrays.copyOf(keys, size);
+        moves = Arrays.copyOf(moves, size);
+        games = Arrays.copyOf(games, size);
+        whiteWins = Arrays.copyOf(whiteWins, size);
+        draws = Arrays.copyOf(draws, size);
+        blackWins = Arrays.copyOf(blackWins, size);
+        plies = Arrays.copyOf(plies, size);
+        next = Arrays.copyOf(next, size);
+    }
+
+    // doubles the table, moving each chain by its first entry
+    private void rehash() {
+        int[] old = heads;
+        heads = newHeads(old.length * 2);
+        for (int head : old) {
+            if (head >= 0) heads[findSlot(keys[head])] = head;
+        }
+    }
+
+    private static int[] newHeads(int size) {
+        int[] heads = new int[size];
+        Arrays.fill(heads, -1);
+        return heads;
+    }
+
+    private void clear() {
+        files = new HashMap<>();
+        built = false;
+        entryCount = 0;
+        positionCount = 0;
+        heads = newHeads(1024);
+    }
+
+    // ---- game lines ----
+
+    private static GameLine line(long hash, ChessGame game) {
+        short[] line = new short[MAX_PLY];
+        int length = 0, plies = 0;
+        for (GameNode node = game.getFirstPosition().getNextChild(); node != null; node = node.getNextChild()) {
+            if (length < MAX_PLY) line[length++] = (short) node.getPackedMove();
+            ++plies;
+        }
+        return new GameLine(hash, result(game.getTag("Result")), plies, Arrays.copyOf(line, length));
+    }
+
+    private static byte result(String result) {
+        if (result == null) return UNKNOWN;
+        switch (result) {
+            case "1-0": return WHITE_WINS;
+            case "0-1": return BLACK_WINS;
+            case "1/2-1/2": return DRAW;
+            default: return UNKNOWN;
+        }
+    }
+
+    // Games from to to - 1 of a file, whose texts have these hashes, read in one pass; only the ones
+    // in wanted when it is not null. A game that cannot be read counts for nothing.
+    private static GameLine[] readLines(PgnIndex index, long[] hashes, int from, int to, BitSet wanted) {
+        GameLine[] lines = new GameLine[to - from];
+        for (int i = from; i < to; ++i) lines[i - from] = new GameLine(hashes[i], UNKNOWN, 0, new short[0]);
+        List<String> texts;
+        try {
+            texts = index.readGameTexts(from, to);
+        } catch (IOException e) {
+            System.err.println("Error reading openings of games " + (from + 1) + " to " + to + ": " + e.getMessage());
+            return lines;
+        }
+        for (int i = from; i < to; ++i) {
+            if (wanted != null && !wanted.get(i)) continue;
+            try {
+                lines[i - from] = line(hashes[i], GameLibrary.parsePgn(texts.get(i - from)));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error reading openings of game " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+        return lines;
+    }
+
+    // ---- building ----
+
+    // Counts every game of the given files (relative to the library) into a new tree, reading the
+    // games on a fork/join pool. Files changed while it ran are read again. Only the final swap
+    // holds the lock, so the tree can be used while this runs.
+    public void build(Collection<String> filePaths) throws IOException {
+        List<String> paths = new ArrayList<>();
+        List<BasicFileAttributes> stamps = new ArrayList<>();
+        List<PgnIndex> indexes = new ArrayList<>();
+        List<long[]> hashes = new ArrayList<>();
+        for (String file : filePaths) {
+            Path path = libDir.resolve(file);
+            BasicFileAttributes stamp;
+            PgnIndex index;
+            long[] fileHashes;
+            try {
+                stamp = Files.readAttributes(path, BasicFileAttributes.class);
+                index = PgnIndex.forFile(path);
+                fileHashes = index.textHashes();
+            } catch (IOException e) {
+                System.err.println("Error reading openings of " + path + ": " + e.getMessage());
+                continue;
+            }
+            paths.add(file);
+            stamps.add(stamp);
+            indexes.add(index);
+            hashes.add(fileHashes);
+        }
+
+        List<GameLine[]> lines = new ArrayList<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int f = 0; f < indexes.size(); ++f) {
+            PgnIndex index = indexes.get(f);
+            long[] fileHashes = hashes.get(f);
+            GameLine[] fileLines = new GameLine[index.getEntries().size()];
+            lines.add(fileLines);
+            for (int[] range : index.batches(BATCH)) {
+                tasks.add(() -> {
+                    GameLine[] read = readLines(index, fileHashes, range[0], range[1], null);
+                    System.arraycopy(read, 0, fileLines, range[0], read.length);
+                    return null;
+                });
+            }
+        }
+        for (Future<Void> done : ForkJoinPool.commonPool().invokeAll(tasks)) {
+            try {
+                done.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Opening tree build interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Error building opening tree", e.getCause());
+            }
+        }
+
+        // counted into a tree of its own, which then takes this one's place
+        OpeningTree fresh = new OpeningTree(libDir, treeFile, logFile);
+        for (int f = 0; f < paths.size(); ++f) {
+            List<GameLine> fileLines = new ArrayList<>(Arrays.asList(lines.get(f)));
+            for (GameLine line : fileLines) fresh.add(line, 1);
+            BasicFileAttributes stamp = stamps.get(f);
+            fresh.files.put(paths.get(f), new FileRecord(stamp.size(), stamp.lastModifiedTime().toMillis(), fileLines));
+        }
+        synchronized (this) {
+            files = fresh.files;
+            entryCount = fresh.entryCount;
+            keys = fresh.keys;
+            moves = fresh.moves;
+            games = fresh.games;
+            whiteWins = fresh.whiteWins;
+            draws = fresh.draws;
+            blackWins = fresh.blackWins;
+            plies = fresh.plies;
+            next = fresh.next;
+            heads = fresh.heads;
+            positionCount = fresh.positionCount;
+            built = true;
+            write();
+        }
+        update("");
+    }
+
+    // ---- persistence ----
+
+    private void read() throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(treeFile));
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) throw new IOException("Unknown opening tree format");
+            generation = in.getLong();
+            int fileCount = in.getInt();
+            for (int f = 0; f < fileCount; ++f) {
+                String name = readString(in);
+                long size = in.getLong();
+                long modified = in.getLong();
+                int gameCount = in.getInt();
+                List<GameLine> lines = new ArrayList<>(gameCount);
+                for (int g = 0; g < gameCount; ++g) lines.add(readLine(in));
+                files.put(name, new FileRecord(size, modified, lines));
+            }
+            int count = in.getInt();
+            for (int i = 0; i < count; ++i) {
+                int e = entry(in.getLong(), in.getShort() & 0xffff);
+                games[e] = in.getInt();
+                whiteWins[e] = in.getInt();
+                draws[e] = in.getInt();
+                blackWins[e] = in.getInt();
+                plies[e] = in.getLong();
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Corrupt opening tree", e);
+        }
+    }
+
+    // applies the log over the tree just read, up to its last whole record
+    private void replay() throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(logFile));
+        int good = 0;
+        try {
+            if (in.getLong() != generation) {
+                // left from a tree written again since, which holds its changes already
+                Files.delete(logFile);
+                return;
+            }
+            good = in.position();
+            while (in.hasRemaining()) {
+                byte type = in.get();
+                String file = readString(in);
+                if (type == 'F') {
+                    long size = in.getLong();
+                    long modified = in.getLong();
+                    FileRecord old = files.get(file);
+                    int[] from = new int[in.getInt()];
+                    List<GameLine> lines = new ArrayList<>(from.length);
+                    for (int i = 0; i < from.length; ) {
+                        int start = in.getInt();
+                        if (start < 0) {
+                            from[i++] = -1;
+                            lines.add(readLine(in));
+                            continue;
+                        }
+                        if (old == null) throw new IOException("Opening tree log keeps games of " + file + ", which the tree does not have");
+                        for (int length = in.getInt(); length > 0; --length) {
+                            from[i++] = start;
+                            lines.add(old.games().get(start++));
+                        }
+                    }
+                    applyFile(file, new FileRecord(size, modified, lines), from);
+                } else if (type == 'R') {
+                    if (files.get(file) == null) throw new IOException("Opening tree log removes " + file + ", which the tree does not have");
+                    for (GameLine line : files.remove(file).games()) add(line, -1);
+                } else {
+                    break;
+                }
+                good = in.position();
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            // a record cut short by a crash
+        }
+        if (good < in.limit()) {
+            // whatever follows the last whole record is dropped, so new records are not appended after it
+            try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+                channel.truncate(good);
+            }
+        }
+    }
+
+    // writes the whole tree, in which the log is then folded, so the log is dropped
+    private void write() throws IOException {
+        closeLog();
+        Path tmp = treeFile.resolveSibling(FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation + 1);
+            out.writeInt(files.size());
+            for (Map.Entry<String, FileRecord> entry : files.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeLong(entry.getValue().size());
+                out.writeLong(entry.getValue().modified());
+                out.writeInt(entry.getValue().games().size());
+                for (GameLine line : entry.getValue().games()) writeLine(out, line);
+            }
+            int live = 0;
+            for (int e = 0; e < entryCount; ++e) {
+                if (games[e] > 0) ++live;
+            }
+            out.writeInt(live);
+            for (int e = 0; e < entryCount; ++e) {
+                if (games[e] == 0) continue; // moves no game plays any more
+                out.writeLong(keys[e]);
+                out.writeShort(moves[e]);
+                out.writeInt(games[e]);
+                out.writeInt(whiteWins[e]);
+                out.writeInt(draws[e]);
+                out.writeInt(blackWins[e]);
+                out.writeLong(plies[e]);
+            }
+        }
+        Files.move(tmp, treeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        ++generation;
+        Files.deleteIfExists(logFile);
+    }
+
+    private void openLog() throws IOException {
+        if (log != null) return;
+        boolean fresh = !Files.exists(logFile) || Files.size(logFile) == 0;
+        log = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(logFile,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        if (fresh) log.writeLong(generation);
+    }
+
+    private void closeLog() throws IOException {
+        if (log != null) log.close();
+        log = null;
+    }
+
+    private static void writeLine(DataOutputStream out, GameLine line) throws IOException {
+        out.writeLong(line.hash());
+        out.writeByte(line.result());
+        out.writeInt(line.plies());
+        out.writeByte(line.moves().length);
+        for (short move : line.moves()) out.writeShort(move);
+    }
+
+    private static GameLine readLine(ByteBuffer in) {
+        long hash = in.getLong();
+        byte result = in.get();
+        int length = in.getInt();
+        short[] line = new short[in.get()];
+        for (int i = 0; i < line.length; ++i) line[i] = in.getShort();
+        return new GameLine(hash, result, length, line);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
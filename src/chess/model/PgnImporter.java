@@ -0,0 +1,158 @@
+package chess.model;
+
+import chess.model.util.PgnFiles;
+import chess.model.util.PgnWriter;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+// Imports a PGN collection into the library as one (multi-game) file, in three stages:
+//   splitter  - reads the source line by line and cuts it into one chunk of text per game
+//   parsers   - replay each chunk's moves into a ChessGame on a fork-join pool
+//   writer    - the calling thread, appends each game in input order to the target file
+// The splitter hands the writer parse futures through a bounded queue, so a slow writer or slow
+// parsers hold the splitter back instead of the whole collection piling up in memory. Once the
+// import is cancelled, by the user or by an error in the writer, neither side waits on the queue for
+// longer than POLL_MILLIS.
+public class PgnImporter {
+    private static final int QUEUE_CAPACITY = 64;
+    private static final long POLL_MILLIS = 100;
+
+    public interface Listener {
+        // called on the importing thread after each game is written
+        void progress(int written, int failed, long charsRead, long totalChars);
+    }
+
+    private final GameLibrary library;
+    private final int threads;
+    private volatile boolean cancelled;
+
+    public PgnImporter(GameLibrary library, int threads) {
+        this.library = library;
+        this.threads = Math.max(1, threads);
+    }
+
+    public void cancel() { cancelled = true; }
+    public boolean isCancelled() { return cancelled; }
+
+    // Imports every game read from source into the library file path (".pgn" added if missing; a
+    // ".pgn.gz" or ".zip" path is written compressed).
+    // totalChars is only used for progress and may be 0 when unknown. Returns the number of games
+    // written; nothing is written if the import is cancelled.
+    public int importGames(Reader source, long totalChars, String path, Listener listener)
+            throws IOException, InterruptedException {
+        path = PgnFiles.withExtension(path);
+        Path target = Paths.get(library.getLib(), path);
+        if (target.getParent() != null) Files.createDirectories(target.getParent());
+        Path tmp = target.resolveSibling(".importing-" + target.getFileName()); // hidden, in the target's format
+
+        BlockingQueue<Future<ChessGame>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        Future<ChessGame> end = CompletableFuture.completedFuture(null);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long[] charsRead = new long[1];
+        IOException[] splitError = new IOException[1];
+
+        Thread splitter = new Thread(() -> {
+            try {
+                split(source, pool, queue, charsRead);
+            } catch (IOException e) {
+                splitError[0] = e;
+            } catch (InterruptedException e) {
+                // cancelled
+            } finally {
+                try {
+                    put(queue, end);
+                } catch (InterruptedException e) {
+                    // cancelled, the writer no longer takes from the queue
+                }
+            }
+        }, "pgn-import-splitter");
+        splitter.setDaemon(true);
+        splitter.start();
+
+        int written = 0, failed = 0;
+        boolean finished = false;
+        try (Writer out = PgnFiles.createWriter(tmp, PgnFiles.entryName(target))) {
+            PgnWriter writer = new PgnWriter(out);
+            while (!cancelled) {
+                Future<ChessGame> next = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (next == null) continue;
+                if (next == end) break;
+                ChessGame game;
+                try {
+                    game = next.get();
+                } catch (ExecutionException e) {
+                    game = null;
+                }
+                if (game == null || game.getFirstPosition().getChildren().isEmpty()) {
+                    ++failed;
+                } else {
+                    writer.write(game);
+                    out.write('\n');
+                    ++written;
+                }
+                if (listener != null) listener.progress(written, failed, charsRead[0], totalChars);
+            }
+            finished = true;
+        } finally {
+            if (!finished) {
+                // the writer failed: stop the splitter, which may be waiting for room in the queue
+                cancelled = true;
+                splitter.interrupt();
+            }
+            pool.shutdownNow();
+            splitter.join();
+            if (cancelled || written == 0 || splitError[0] != null) Files.deleteIfExists(tmp);
+        }
+        if (splitError[0] != null) throw splitError[0];
+        if (cancelled || written == 0) return 0;
+
+        // the library picks the file up through syncPath (or its watcher) on its own thread
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        return written;
+    }
+
+    // a game starts at a tag line that follows move text; lines inside brace comments never count
+    private void split(Reader source, ForkJoinPool pool, BlockingQueue<Future<ChessGame>> queue, long[] charsRead)
+            throws IOException, InterruptedException {
+        BufferedReader reader = source instanceof BufferedReader ? (BufferedReader) source : new BufferedReader(source);
+        StringBuilder chunk = new StringBuilder();
+        boolean inMoves = false;
+        int commentDepth = 0;
+        String line;
+        while ((line = reader.readLine()) != null && !cancelled) {
+            charsRead[0] += line.length() + 1;
+            String trimmed = line.trim();
+            if (commentDepth == 0 && trimmed.startsWith("[")) {
+                if (inMoves) {
+                    submit(chunk.toString(), pool, queue);
+                    chunk.setLength(0);
+                    inMoves = false;
+                }
+            } else if (!trimmed.isEmpty() && !trimmed.startsWith("%")) {
+                inMoves = true;
+                for (int i = 0; i < line.length(); ++i) {
+                    char c = line.charAt(i);
+                    if (c == '{') ++commentDepth;
+                    else if (c == '}' && commentDepth > 0) --commentDepth;
+                    else if (c == ';' && commentDepth == 0) break; // rest of line is a comment
+                }
+            }
+            chunk.append(line).append('\n');
+        }
+        if (!cancelled && chunk.toString().trim().length() > 0) submit(chunk.toString(), pool, queue);
+    }
+
+    private void submit(String pgn, ForkJoinPool pool, BlockingQueue<Future<ChessGame>> queue)
+            throws InterruptedException {
+        put(queue, pool.submit(() -> GameLibrary.parsePgn(pgn)));
+    }
+
+    // waits for room in the queue until the import is cancelled
+    private void put(BlockingQueue<Future<ChessGame>> queue, Future<ChessGame> future) throws InterruptedException {
+        while (!queue.offer(future, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (cancelled) throw new InterruptedException("Import cancelled");
+        }
+    }
+}
@@ -0,0 +1,965 @@
+package chess.model;
+
+import chess.model.boardData.Position;
+import chess.model.util.PgnFiles;
+import chess.model.util.PgnIndex;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+// Every position reached by a library game, variations included, mapped to the games and plies
+// that reach it, so one lookup of a position's Zobrist key finds its transpositions as well.
+// Alongside, every node's material and pawns (see PositionPattern), game by game, for searches by
+// material balance or pawn structure, which scan them in one pass. And a MinHash signature of each
+// game's set of positions, with locality-sensitive hashing buckets over it, to find the games most
+// like a given one without comparing it against every game.
+//   games/.positions.idx  the base, written by build() and memory-mapped:
+//       header    magic "CSPX", version, file count, game count, key count, posting count, row count
+//       keys      the position keys, sorted as unsigned values
+//       offsets   index of each key's first posting, and the posting count at the end
+//       postings  game id, ply << 16 | the packed move played next (0 where a line ends), one per
+//                 move played from the position
+//       starts    index of each game's first row, and the row count at the end
+//       rows      material | ply << 40, white pawns, black pawns, one row per node
+//       minhashes MIN_HASHES ints a game
+//       hashes    the hash of each game's text (see PgnIndex.textHashes)
+//       bands     for each of BANDS bands of BAND_ROWS minhashes, band hash << 32 | game id of every
+//                 game, sorted, so games agreeing on a whole band are found by a binary search
+//       files     path, size, modification time and game count of every file, in game id order
+//   games/.positions.log  changes since the base was written, replayed over it on open:
+//       'G' a game indexed since: its text hash, postings, rows and minhashes; it is numbered on
+//           from the base games and the games of the 'G' records before it
+//       'F' a file's new size and time and the games it holds now, in order, as runs of numbers
+//       'R' everything under a path removed
+// A file whose size or time no longer matches is looked at again by update(), the same way
+// LibraryIndex notices changes. Its games are matched to the ones indexed by text hash, so a game
+// that was not edited keeps its number, and postings, even when games before it were added or
+// removed; only the games that are new or edited are read and logged. A base game that was edited
+// or removed since is masked out rather than rewritten, and once the log outgrows a share of the
+// base, compact() folds it into a new one.
+// Methods are synchronized so a build can run on another thread while lookups go on.
+public class PositionIndex {
+    private static final int MAGIC = 0x43535058; // "CSPX"
+    private static final int VERSION = 5;
+    private static final int HEADER = 28;
+    private static final String BASE_NAME = ".positions.idx";
+    private static final String LOG_NAME = ".positions.log";
+    private static final int BATCH = 64; // games per build task
+    // the log is folded into the base when it passes a quarter of it, within these bounds
+    private static final long COMPACT_MIN_BYTES = 1 << 20;
+    private static final long COMPACT_MAX_BYTES = 64 << 20;
+    // 16 bands of 2 make games about 25% alike likely to share a bucket, and those 50% alike near certain
+    private static final int MIN_HASHES = 32;
+    private static final int BAND_ROWS = 2;
+    private static final int BANDS = MIN_HASHES / BAND_ROWS;
+    private static final long[] HASH_MULTIPLIERS = new long[MIN_HASHES];
+    private static final long[] HASH_OFFSETS = new long[MIN_HASHES];
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EED);
+        for (int i = 0; i < MIN_HASHES; ++i) {
+            HASH_MULTIPLIERS[i] = random.nextLong() | 1;
+            HASH_OFFSETS[i] = random.nextLong();
+        }
+    }
+
+    // a library game reaching the position after ply half moves, and the move it went on with
+    public record Hit(int game, int ply, int nextMove) {}
+
+    // a library game and the estimated share of positions it has in common with another
+    public record Similar(int game, double similarity) {}
+
+    private record Stamp(long size, long modified) {}
+
+    // what is indexed of one game: pairs of (position key, ply << 16 | next move), three longs a
+    // node, material | ply << 40, white pawns, black pawns, and the minhashes of its position keys
+    record GamePositions(long[] postings, long[] rows, int[] minHashes) {
+        static final GamePositions EMPTY = new GamePositions(new long[0], new long[0], PositionIndex.minHashes(new long[0]));
+    }
+
+    private final Path libDir;
+    private final Path baseFile;
+    private final Path logFile;
+
+    // the base
+    private MappedByteBuffer base;
+    private int keyCount, postingCount, gameCount, rowCount;
+    private int offsetsAt, postingsAt, startsAt, rowsAt, minHashesAt, hashesAt, bandsAt;
+    private String[] baseFiles = new String[0];
+    private int[] firstGame = new int[0];
+    private final Map<String, Integer> baseFileIds = new HashMap<>();
+    private int[] baseNumbers = new int[0]; // each base game's number in its file now
+    private final BitSet deadBase = new BitSet();
+
+    // the log, replayed; overlay games are numbered from gameCount on
+    private final Map<Long, List<Long>> overlayPostings = new HashMap<>(); // key -> overlay game << 32 | ply << 16 | move
+    private final List<long[]> overlayRows = new ArrayList<>(); // by overlay game, null once edited or removed
+    private final List<int[]> overlayMinHashes = new ArrayList<>(); // likewise
+    private final List<Long> overlayHashes = new ArrayList<>();
+    private final List<String> overlayFiles = new ArrayList<>(); // the file holding each overlay game
+    private final List<Integer> overlayNumbers = new ArrayList<>(); // and its number there
+    private int liveOverlay;
+    private final Map<String, int[]> layouts = new HashMap<>(); // the games of each file changed since the base, in order
+    private final Map<String, Stamp> stamps = new HashMap<>(); // every indexed file
+    private DataOutputStream log;
+
+    public PositionIndex(Path libDir) {
+        this.libDir = libDir;
+        this.baseFile = libDir.resolve(BASE_NAME);
+        this.logFile = libDir.resolve(LOG_NAME);
+        try {
+            open();
+        } catch (IOException e) {
+            System.err.println("Error reading position index, it needs a rebuild: " + e.getMessage());
+            reset();
+        }
+    }
+
+    // whether a base exists; until then nothing is indexed and update() does nothing
+    public synchronized boolean isBuilt() { return base != null; }
+
+    public synchronized int getGameCount() { return gameCount - deadBase.cardinality() + liveOverlay; }
+
+    // ---- lookups ----
+
+    // every place a live game reaches the position with this key, base games first
+    public synchronized List<Hit> lookup(long key) {
+        List<Hit> hits = new ArrayList<>();
+        if (base != null) {
+            int i = lowerBound(key);
+            if (i < keyCount && base.getLong(HEADER + 8 * i) == key) {
+                int end = base.getInt(offsetsAt + 4 * (i + 1));
+                for (int p = base.getInt(offsetsAt + 4 * i); p < end; ++p) {
+                    int game = base.getInt(postingsAt + 8 * p);
+                    if (deadBase.get(game)) continue;
+                    int plyMove = base.getInt(postingsAt + 8 * p + 4);
+                    hits.add(new Hit(game, plyMove >>> 16, plyMove & 0xffff));
+                }
+            }
+        }
+        List<Long> extra = overlayPostings.get(key);
+        if (extra != null) {
+            for (long posting : extra) {
+                int game = (int) (posting >>> 32);
+                if (!filed(game)) continue;
+                hits.add(new Hit(gameCount + game, (int) posting >>> 16, (int) posting & 0xffff));
+            }
+        }
+        return hits;
+    }
+
+    // every position of a live game matching the pattern, base games first, as hits without a next move
+    public synchronized List<Hit> find(PositionPattern pattern) {
+        List<Hit> hits = new ArrayList<>();
+        for (int game = 0; game < gameCount; ++game) {
+            if (deadBase.get(game)) continue;
+            int end = base.getInt(startsAt + 4 * (game + 1));
+            for (int row = base.getInt(startsAt + 4 * game); row < end; ++row) {
+                int at = rowsAt + 24 * row;
+                long first = base.getLong(at);
+                if (pattern.matches(first & PositionPattern.MATERIAL_MASK, base.getLong(at + 8), base.getLong(at + 16))) {
+                    hits.add(new Hit(game, (int) (first >>> 40), 0));
+                }
+            }
+        }
+        for (int game = 0; game < overlayRows.size(); ++game) {
+            if (!filed(game)) continue;
+            long[] rows = overlayRows.get(game);
+            for (int i = 0; i < rows.length; i += 3) {
+                if (pattern.matches(rows[i] & PositionPattern.MATERIAL_MASK, rows[i + 1], rows[i + 2])) {
+                    hits.add(new Hit(gameCount + game, (int) (rows[i] >>> 40), 0));
+                }
+            }
+        }
+        return hits;
+    }
+
+    // The live games with the most positions in common with a game of these minhashes (see
+    // signature()), best first, up to count of them. Base games are taken from the buckets the game
+    // falls in, or all of them when the buckets hold fewer than count; the few overlay games are all
+    // compared.
+    public synchronized List<Similar> similar(int[] minHashes, int count) {
+        BitSet candidates = new BitSet();
+        for (int band = 0; band < BANDS; ++band) {
+            long hash = bandHash(minHashes, band);
+            int from = bandsAt + 8 * gameCount * band;
+            int lo = 0, hi = gameCount;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (base.getLong(from + 8 * mid) >> 32 < hash) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int i = lo; i < gameCount; ++i) {
+                long entry = base.getLong(from + 8 * i);
+                if (entry >> 32 != hash) break;
+                candidates.set((int) entry);
+            }
+        }
+        candidates.andNot(deadBase);
+        if (candidates.cardinality() < count) {
+            candidates.set(0, gameCount);
+            candidates.andNot(deadBase);
+        }
+
+        List<Similar> found = new ArrayList<>();
+        for (int game = candidates.nextSetBit(0); game >= 0; game = candidates.nextSetBit(game + 1)) {
+            int same = 0;
+            for (int i = 0; i < MIN_HASHES; ++i) {
+                if (base.getInt(minHashesAt + 4 * (MIN_HASHES * game + i)) == minHashes[i]) ++same;
+            }
+            if (same > 0) found.add(new Similar(game, (double) same / MIN_HASHES));
+        }
+        for (int game = 0; game < overlayMinHashes.size(); ++game) {
+            if (!filed(game)) continue;
+            int[] other = overlayMinHashes.get(game);
+            int same = 0;
+            for (int i = 0; i < MIN_HASHES; ++i) {
+                if (other[i] == minHashes[i]) ++same;
+            }
+            if (same > 0) found.add(new Similar(gameCount + game, (double) same / MIN_HASHES));
+        }
+        found.sort((a, b) -> Double.compare(b.similarity(), a.similarity()));
+        return found.size() > count ? new ArrayList<>(found.subList(0, count)) : found;
+    }
+
+    // keys are ordered as unsigned 64-bit values
+    private int lowerBound(long key) {
+        int lo = 0, hi = keyCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Long.compareUnsigned(base.getLong(HEADER + 8 * mid), key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // the library path of a hit's game, "file.pgn" or "file.pgn#n"; null once it was edited or removed
+    public synchronized String gamePath(int game) {
+        String file;
+        int number, count;
+        if (game >= gameCount) {
+            if (!filed(game - gameCount)) return null;
+            file = overlayFiles.get(game - gameCount);
+            number = overlayNumbers.get(game - gameCount);
+            count = layouts.get(file).length;
+        } else {
+            if (deadBase.get(game)) return null;
+            int f = baseFile(game);
+            file = baseFiles[f];
+            number = baseNumbers[game];
+            int[] games = layouts.get(file);
+            count = games != null ? games.length : baseEnd(f) - firstGame[f];
+        }
+        return count > 1 ? GameLibrary.gameEntryPath(file, number) : file;
+    }
+
+    // the base file holding a base game
+    private int baseFile(int game) {
+        int f = Arrays.binarySearch(firstGame, game);
+        if (f < 0) f = -f - 2;
+        while (f + 1 < firstGame.length && firstGame[f + 1] == game) ++f; // skip files without games
+        return f;
+    }
+
+    private int baseEnd(int f) {
+        return f + 1 < firstGame.length ? firstGame[f + 1] : gameCount;
+    }
+
+    // the games a file holds now, in order; none for a file that is not indexed
+    private int[] games(String file) {
+        int[] games = layouts.get(file);
+        if (games != null) return games;
+        Integer f = baseFileIds.get(file);
+        if (f == null) return new int[0];
+        games = new int[baseEnd(f) - firstGame[f]];
+        for (int i = 0; i < games.length; ++i) games[i] = firstGame[f] + i;
+        return games;
+    }
+
+    private long textHash(int game) {
+        return game < gameCount ? base.getLong(hashesAt + 8 * game) : overlayHashes.get(game - gameCount);
+    }
+
+    // ---- changes ----
+
+    // Brings the index in line with one file or directory (relative to the library, "" for all of
+    // it): files that are gone are dropped, and of files whose size or time changed the games that
+    // are new or edited are read. Returns whether anything changed. Files are read and games parsed
+    // without holding the lock, so lookups go on meanwhile; it is only taken to apply what was read.
+    public boolean update(String subPath) throws IOException {
+        Map<String, Path> present = listGameFiles(libDir, subPath);
+        boolean changed = false;
+        Map<String, Stamp> indexed;
+        synchronized (this) {
+            if (base == null) return false;
+            for (String file : new ArrayList<>(stamps.keySet())) {
+                if (GameLibrary.isUnder(file, subPath) && !present.containsKey(file)) {
+                    remove(file);
+                    changed = true;
+                }
+            }
+            if (log != null) log.flush();
+            indexed = new HashMap<>(stamps);
+        }
+        for (Map.Entry<String, Path> entry : present.entrySet()) {
+            Stamp stamp = stamp(entry.getValue());
+            if (stamp.equals(indexed.get(entry.getKey()))) continue;
+            if (updateFile(entry.getKey(), entry.getValue(), stamp)) changed = true;
+        }
+        return changed;
+    }
+
+    // Indexes the games of one changed file that are new or edited, reading them a batch at a time
+    // outside the lock. Should the file's games change in between (a build, or another update), the
+    // games put so far are dropped and it starts over.
+    private boolean updateFile(String file, Path path, Stamp stamp) throws IOException {
+        while (true) {
+            MappedByteBuffer seen;
+            int[] before;
+            Map<Long, Deque<Integer>> unchanged = new HashMap<>();
+            synchronized (this) {
+                if (base == null || stamp.equals(stamps.get(file))) return false;
+                seen = base;
+                before = games(file);
+                for (int game : before) unchanged.computeIfAbsent(textHash(game), k -> new ArrayDeque<>()).add(game);
+            }
+            PgnIndex index;
+            long[] hashes;
+            try {
+                index = PgnIndex.forFile(path);
+                hashes = index.textHashes();
+            } catch (IOException e) {
+                System.err.println("Error indexing positions of " + path + ": " + e.getMessage());
+                return false;
+            }
+
+            // a game whose text is the same keeps its number, wherever it moved to in the file
+            int[] games = new int[hashes.length];
+            BitSet edited = new BitSet();
+            for (int i = 0; i < hashes.length; ++i) {
+                Deque<Integer> same = unchanged.get(hashes[i]);
+                if (same == null || same.isEmpty()) {
+                    edited.set(i);
+                } else {
+                    games[i] = same.poll();
+                }
+            }
+            List<Integer> put = new ArrayList<>();
+            boolean current = true;
+            for (int[] range : index.batches(BATCH)) {
+                int first = edited.nextSetBit(range[0]);
+                if (first < 0 || first >= range[1]) continue;
+                GamePositions[] read = positions(index, range[0], range[1], edited);
+                synchronized (this) {
+                    current = base == seen && Arrays.equals(before, games(file));
+                    if (!current) break;
+                    for (int i = first; i >= 0 && i < range[1]; i = edited.nextSetBit(i + 1)) {
+                        games[i] = putGame(hashes[i], read[i - range[0]]);
+                        put.add(games[i]);
+                    }
+                }
+            }
+            synchronized (this) {
+                if (current && base == seen && Arrays.equals(before, games(file))) {
+                    setFile(file, stamp, games);
+                    log.flush();
+                    return true;
+                }
+                // put under numbers the file no longer has; a replay drops them as games without a file
+                if (base == seen) {
+                    for (int game : put) kill(game);
+                }
+            }
+        }
+    }
+
+    // Whether the log has grown past a quarter of the base (within COMPACT_MIN_BYTES and
+    // COMPACT_MAX_BYTES), so replaying it costs more than compact() would.
+    public synchronized boolean needsCompacting() throws IOException {
+        if (base == null || !Files.exists(logFile)) return false;
+        if (log != null) log.flush();
+        long limit = Math.min(COMPACT_MAX_BYTES, Math.max(COMPACT_MIN_BYTES, base.capacity() / 4));
+        return Files.size(logFile) > limit;
+    }
+
+    // folds the log into a new base by building it again from the indexed files, see build()
+    public void compact() throws IOException {
+        List<String> files;
+        synchronized (this) {
+            files = new ArrayList<>(stamps.keySet());
+        }
+        build(files);
+    }
+
+    // a game read again, numbered after every game so far
+    private int putGame(long hash, GamePositions game) throws IOException {
+        int id = applyGame(hash, game);
+        openLog();
+        log.writeByte('G');
+        log.writeLong(hash);
+        long[] postings = game.postings();
+        log.writeInt(postings.length / 2);
+        for (int i = 0; i < postings.length; i += 2) {
+            log.writeLong(postings[i]);
+            log.writeInt((int) postings[i + 1]);
+        }
+        log.writeInt(game.rows().length / 3);
+        for (long row : game.rows()) log.writeLong(row);
+        for (int minHash : game.minHashes()) log.writeInt(minHash);
+        return id;
+    }
+
+    // a file's games as they are now; a run of games numbered one after the other is logged as its
+    // first game and length, so a file where one game was edited takes three runs
+    private void setFile(String file, Stamp stamp, int[] games) throws IOException {
+        applyFile(file, games);
+        stamps.put(file, stamp);
+        List<int[]> runs = new ArrayList<>();
+        for (int i = 0; i < games.length; ++i) {
+            int[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+            if (last != null && games[i] == last[0] + last[1]) {
+                ++last[1];
+            } else {
+                runs.add(new int[] {games[i], 1});
+            }
+        }
+        openLog();
+        log.writeByte('F');
+        writeString(log, file);
+        log.writeLong(stamp.size());
+        log.writeLong(stamp.modified());
+        log.writeInt(runs.size());
+        for (int[] run : runs) {
+            log.writeInt(run[0]);
+            log.writeInt(run[1]);
+        }
+    }
+
+    private void remove(String path) throws IOException {
+        applyRemove(path);
+        openLog();
+        log.writeByte('R');
+        writeString(log, path);
+    }
+
+    private int applyGame(long hash, GamePositions game) {
+        int id = overlayRows.size();
+        overlayRows.add(game.rows());
+        overlayMinHashes.add(game.minHashes());
+        overlayHashes.add(hash);
+        overlayFiles.add(null); // until its file is set
+        overlayNumbers.add(0);
+        ++liveOverlay;
+        long[] postings = game.postings();
+        for (int i = 0; i < postings.length; i += 2) {
+            overlayPostings.computeIfAbsent(postings[i], k -> new ArrayList<>(1)).add((long) id << 32 | postings[i + 1]);
+        }
+        return gameCount + id;
+    }
+
+    // numbers a file's games as they are now, and masks out the ones it held before and not now
+    private void applyFile(String file, int[] games) {
+        BitSet kept = new BitSet();
+        for (int game : games) kept.set(game);
+        for (int game : games(file)) {
+            if (!kept.get(game)) kill(game);
+        }
+        for (int i = 0; i < games.length; ++i) {
+            if (games[i] < gameCount) {
+                baseNumbers[games[i]] = i + 1;
+            } else {
+                overlayFiles.set(games[i] - gameCount, file);
+                overlayNumbers.set(games[i] - gameCount, i + 1);
+            }
+        }
+        if (games.length > 0 || baseFileIds.containsKey(file)) {
+            layouts.put(file, games);
+        } else {
+            layouts.remove(file);
+        }
+    }
+
+    private void kill(int game) {
+        if (game < gameCount) {
+            deadBase.set(game);
+            return;
+        }
+        overlayRows.set(game - gameCount, null);
+        overlayMinHashes.set(game - gameCount, null);
+        --liveOverlay;
+    }
+
+    // an overlay game that is live and numbered in its file; an update puts a file's games before
+    // it numbers them, and one cut short leaves them without a file
+    private boolean filed(int game) {
+        return overlayRows.get(game) != null && overlayFiles.get(game) != null;
+    }
+
+    private void applyRemove(String path) {
+        for (String file : new ArrayList<>(stamps.keySet())) {
+            if (!GameLibrary.isUnder(file, path)) continue;
+            applyFile(file, new int[0]);
+            stamps.remove(file);
+        }
+    }
+
+    // ---- postings ----
+
+    // the postings and rows of every node of the game, depth first
+    static GamePositions positions(ChessGame game) {
+        long[] out = new long[64];
+        int size = 0;
+        long[] rows = new long[48];
+        int rowSize = 0;
+        Position position = new Position();
+        Deque<Iterator<GameNode>> stack = new ArrayDeque<>();
+        GameNode node = game.getFirstPosition();
+        while (true) {
+            if (size + 2 * Math.max(1, node.getChildren().size()) > out.length) {
+                out = Arrays.copyOf(out, Math.max(out.length * 2, size + 2 * node.getChildren().size()));
+            }
+            if (rowSize + 3 > rows.length) rows = Arrays.copyOf(rows, rows.length * 2);
+            rows[rowSize++] = PositionPattern.material(position) | (long) position.getPly() << 40;
+            rows[rowSize++] = position.getPieces(true, Position.PAWN);
+            rows[rowSize++] = position.getPieces(false, Position.PAWN);
+            if (node.getChildren().isEmpty()) {
+                out[size++] = position.getKey();
+                out[size++] = (long) position.getPly() << 16;
+            }
+            for (GameNode child : node.getChildren()) {
+                out[size++] = position.getKey();
+                out[size++] = (long) position.getPly() << 16 | child.getPackedMove();
+            }
+            stack.push(node.getChildren().iterator());
+
+            // on to the next node, making its move, or back up past the finished ones
+            node = null;
+            while (node == null && !stack.isEmpty()) {
+                Iterator<GameNode> siblings = stack.peek();
+                if (!siblings.hasNext()) {
+                    stack.pop();
+                    if (!stack.isEmpty()) position.unmakeMove();
+                    continue;
+                }
+                GameNode child = siblings.next();
+                if (position.makeMove(child.getPackedMove())) node = child; // a move the rules reject ends its line here
+            }
+            if (node == null) {
+                long[] postings = Arrays.copyOf(out, size);
+                return new GamePositions(postings, Arrays.copyOf(rows, rowSize), minHashes(postings));
+            }
+        }
+    }
+
+    // the minhashes of a game, to find the library games most like it with similar()
+    public static int[] signature(ChessGame game) {
+        return positions(game).minHashes();
+    }
+
+    // For each of MIN_HASHES hash functions, the least hash of any position key of the postings; two
+    // games agree on one with a chance equal to the share of their positions they have in common.
+    // A game without positions has every minhash at Integer.MAX_VALUE.
+    static int[] minHashes(long[] postings) {
+        int[] minHashes = new int[MIN_HASHES];
+        Arrays.fill(minHashes, Integer.MAX_VALUE);
+        for (int p = 0; p < postings.length; p += 2) {
+            long key = postings[p];
+            if (p > 0 && key == postings[p - 2]) continue; // the same node again, for its next child
+            for (int i = 0; i < MIN_HASHES; ++i) {
+                int hash = (int) ((key * HASH_MULTIPLIERS[i] + HASH_OFFSETS[i]) >>> 33);
+                if (hash < minHashes[i]) minHashes[i] = hash;
+            }
+        }
+        return minHashes;
+    }
+
+    private static long bandHash(int[] minHashes, int band) {
+        long rows = (long) minHashes[BAND_ROWS * band] << 32 | minHashes[BAND_ROWS * band + 1];
+        return (rows * 0x9E3779B97F4A7C15L) >> 32; // signed, to sort as the top half of a long
+    }
+
+    // Games from to to - 1 of a file, read in one pass; only the ones in wanted when it is not null,
+    // the others are left without positions, as is a game that cannot be read.
+    private static GamePositions[] positions(PgnIndex index, int from, int to, BitSet wanted) {
+        GamePositions[] games = new GamePositions[to - from];
+        Arrays.fill(games, GamePositions.EMPTY);
+        List<String> texts;
+        try {
+            texts = index.readGameTexts(from, to);
+        } catch (IOException e) {
+            System.err.println("Error indexing positions of games " + (from + 1) + " to " + to + ": " + e.getMessage());
+            return games;
+        }
+        for (int i = from; i < to; ++i) {
+            if (wanted != null && !wanted.get(i)) continue;
+            try {
+                games[i - from] = positions(GameLibrary.parsePgn(texts.get(i - from)));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error indexing positions of game " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+        return games;
+    }
+
+    // ---- building ----
+
+    // Indexes every game of the given files (relative to the library) into a new base, reading the
+    // games on a fork/join pool, and drops the log. Files changed while it ran are read again.
+    // Only the final swap holds the lock, so the index can be used while this runs.
+    public void build(Collection<String> files) throws IOException {
+        List<String> paths = new ArrayList<>();
+        List<Stamp> fileStamps = new ArrayList<>();
+        List<PgnIndex> indexes = new ArrayList<>();
+        int[] firsts = new int[files.size()];
+        int games = 0;
+        for (String file : files) {
+            Path path = libDir.resolve(file);
+            Stamp stamp;
+            PgnIndex index;
+            try {
+                stamp = stamp(path);
+                index = PgnIndex.forFile(path);
+            } catch (IOException e) {
+                System.err.println("Error indexing positions of " + path + ": " + e.getMessage());
+                continue;
+            }
+            firsts[paths.size()] = games;
+            paths.add(file);
+            fileStamps.add(stamp);
+            indexes.add(index);
+            games += index.getEntries().size();
+        }
+
+        // every game's postings and rows, and text hashes, read in parallel
+        GamePositions[] perGame = new GamePositions[games];
+        long[] hashes = new long[games];
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int f = 0; f < paths.size(); ++f) {
+            PgnIndex index = indexes.get(f);
+            int first = firsts[f];
+            tasks.add(() -> {
+                long[] read = index.textHashes();
+                System.arraycopy(read, 0, hashes, first, read.length);
+                return null;
+            });
+            for (int[] range : index.batches(BATCH)) {
+                tasks.add(() -> {
+                    GamePositions[] read = positions(index, range[0], range[1], null);
+                    System.arraycopy(read, 0, perGame, first + range[0], read.length);
+                    return null;
+                });
+            }
+        }
+        for (Future<Void> done : ForkJoinPool.commonPool().invokeAll(tasks)) {
+            try {
+                done.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Position index build interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Error building position index", e.getCause());
+            }
+        }
+
+        long total = 0, totalRows = 0;
+        for (GamePositions game : perGame) {
+            total += game.postings().length / 2;
+            totalRows += game.rows().length / 3;
+        }
+        if (total * 20 + totalRows * 24 + (long) games * (4 * MIN_HASHES + 8 + 8 * BANDS) > Integer.MAX_VALUE) throw new IOException("Too many positions for one index: " + total);
+        long[] keys = new long[(int) total];
+        long[] values = new long[(int) total];
+        long[][] rows = new long[games][];
+        int[][] minHashes = new int[games][];
+        int n = 0;
+        for (int game = 0; game < games; ++game) {
+            long[] postings = perGame[game].postings();
+            rows[game] = perGame[game].rows();
+            minHashes[game] = perGame[game].minHashes();
+            perGame[game] = null;
+            for (int i = 0; i < postings.length; i += 2) {
+                keys[n] = postings[i];
+                values[n++] = (long) game << 32 | postings[i + 1];
+            }
+        }
+        sort(keys, values, 0, n);
+
+        Path tmp = baseFile.resolveSibling(BASE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            int unique = 0;
+            for (int i = 0; i < n; ++i) {
+                if (i == 0 || keys[i] != keys[i - 1]) ++unique;
+            }
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(paths.size());
+            out.writeInt(games);
+            out.writeInt(unique);
+            out.writeInt(n);
+            out.writeInt((int) totalRows);
+            for (int i = 0; i < n; ++i) {
+                if (i == 0 || keys[i] != keys[i - 1]) out.writeLong(keys[i]);
+            }
+            for (int i = 0; i < n; ++i) {
+                if (i == 0 || keys[i] != keys[i - 1]) out.writeInt(i);
+            }
+            out.writeInt(n);
+            for (int i = 0; i < n; ++i) out.writeLong(values[i]);
+            int row = 0;
+            for (long[] gameRows : rows) {
+                out.writeInt(row);
+                row += gameRows.length / 3;
+            }
+            out.writeInt(row);
+            for (long[] gameRows : rows) {
+                for (long value : gameRows) out.writeLong(value);
+            }
+            for (int[] gameMinHashes : minHashes) {
+                for (int value : gameMinHashes) out.writeInt(value);
+            }
+            for (long hash : hashes) out.writeLong(hash);
+            long[] band = new long[games];
+            for (int b = 0; b < BANDS; ++b) {
+                for (int game = 0; game < games; ++game) band[game] = bandHash(minHashes[game], b) << 32 | game;
+                Arrays.sort(band);
+                for (long entry : band) out.writeLong(entry);
+            }
+            for (int f = 0; f < paths.size(); ++f) {
+                writeString(out, paths.get(f));
+                out.writeLong(fileStamps.get(f).size());
+                out.writeLong(fileStamps.get(f).modified());
+                out.writeInt(indexes.get(f).getEntries().size());
+            }
+        }
+
+        synchronized (this) {
+            closeLog();
+            Files.move(tmp, baseFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(logFile);
+            reset();
+            open();
+        }
+        update("");
+    }
+
+    // sorts both arrays by key (unsigned), then value
+    private static void sort(long[] keys, long[] values, int from, int to) {
+        while (to - from > 16) {
+            int mid = (from + to) >>> 1;
+            long pivotKey = keys[mid], pivotValue = values[mid];
+            int i = from, j = to - 1;
+            while (i <= j) {
+                while (compare(keys[i], values[i], pivotKey, pivotValue) < 0) ++i;
+                while (compare(keys[j], values[j], pivotKey, pivotValue) > 0) --j;
+                if (i <= j) swap(keys, values, i++, j--);
+            }
+            // recurse into the smaller side, loop on the larger
+            if (j - from < to - i) {
+                sort(keys, values, from, j + 1);
+                from = i;
+            } else {
+                sort(keys, values, i, to);
+                to = j + 1;
+            }
+        }
+        for (int i = from + 1; i < to; ++i) {
+            for (int j = i; j > from && compare(keys[j], values[j], keys[j - 1], values[j - 1]) < 0; --j) {
+                swap(keys, values, j, j - 1);
+            }
+        }
+    }
+
+    private static int compare(long key, long value, long otherKey, long otherValue) {
+        int c = Long.compareUnsigned(key, otherKey);
+        return c != 0 ? c : Long.compare(value, otherValue);
+    }
+
+    private static void swap(long[] keys, long[] values, int i, int j) {
+        long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        long value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    // ---- files ----
+
+    private void open() throws IOException {
+        if (!Files.exists(baseFile)) return;
+        try (FileChannel channel = FileChannel.open(baseFile, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Position index too large");
+            base = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (base.getInt(0) != MAGIC || base.getInt(4) != VERSION) throw new IOException("Unknown position index format");
+            int fileCount = base.getInt(8);
+            gameCount = base.getInt(12);
+            keyCount = base.getInt(16);
+            postingCount = base.getInt(20);
+            rowCount = base.getInt(24);
+            offsetsAt = HEADER + 8 * keyCount;
+            postingsAt = offsetsAt + 4 * (keyCount + 1);
+            startsAt = postingsAt + 8 * postingCount;
+            rowsAt = startsAt + 4 * (gameCount + 1);
+            minHashesAt = rowsAt + 24 * rowCount;
+            hashesAt = minHashesAt + 4 * MIN_HASHES * gameCount;
+            bandsAt = hashesAt + 8 * gameCount;
+
+            channel.position(bandsAt + 8L * BANDS * gameCount);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            baseFiles = new String[fileCount];
+            firstGame = new int[fileCount];
+            baseNumbers = new int[gameCount];
+            int game = 0;
+            for (int f = 0; f < fileCount; ++f) {
+                baseFiles[f] = readString(in);
+                stamps.put(baseFiles[f], new Stamp(in.readLong(), in.readLong()));
+                firstGame[f] = game;
+                for (int count = in.readInt(), n = 1; n <= count; ++n) baseNumbers[game++] = n;
+                baseFileIds.put(baseFiles[f], f);
+            }
+        } catch (IndexOutOfBoundsException | EOFException e) {
+            throw new IOException("Corrupt position index", e);
+        }
+        if (Files.exists(logFile)) replay();
+    }
+
+    private void replay() throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(logFile));
+        int good = 0;
+        try {
+            while (in.hasRemaining()) {
+                byte type = in.get();
+                if (type == 'G') {
+                    long hash = in.getLong();
+                    long[] postings = new long[2 * in.getInt()];
+                    for (int i = 0; i < postings.length; i += 2) {
+                        postings[i] = in.getLong();
+                        postings[i + 1] = in.getInt() & 0xffffffffL;
+                    }
+                    long[] rows = new long[3 * in.getInt()];
+                    for (int i = 0; i < rows.length; ++i) rows[i] = in.getLong();
+                    int[] minHashes = new int[MIN_HASHES];
+                    for (int i = 0; i < MIN_HASHES; ++i) minHashes[i] = in.getInt();
+                    applyGame(hash, new GamePositions(postings, rows, minHashes));
+                } else if (type == 'F') {
+                    String file = readString(in);
+                    Stamp stamp = new Stamp(in.getLong(), in.getLong());
+                    List<Integer> games = new ArrayList<>();
+                    for (int runs = in.getInt(); runs > 0; --runs) {
+                        int first = in.getInt(), length = in.getInt();
+                        for (int i = 0; i < length; ++i) games.add(first + i);
+                    }
+                    for (int game : games) {
+                        if (game < 0 || game >= gameCount + overlayRows.size()) throw new IndexOutOfBoundsException("No game " + game);
+                    }
+                    applyFile(file, games.stream().mapToInt(Integer::intValue).toArray());
+                    stamps.put(file, stamp);
+                } else if (type == 'R') {
+                    applyRemove(readString(in));
+                } else {
+                    break;
+                }
+                good = in.position();
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            // a record cut short by a crash
+        }
+        // games read by an update that never got to number them in their file
+        for (int game = 0; game < overlayRows.size(); ++game) {
+            if (overlayRows.get(game) != null && overlayFiles.get(game) == null) kill(gameCount + game);
+        }
+        if (good < in.limit()) {
+            // whatever follows the last whole record is dropped, so new records are not appended after it
+            try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+                channel.truncate(good);
+            }
+        }
+    }
+
+    private void reset() {
+        base = null;
+        keyCount = postingCount = gameCount = rowCount = 0;
+        baseFiles = new String[0];
+        firstGame = new int[0];
+        baseFileIds.clear();
+        baseNumbers = new int[0];
+        deadBase.clear();
+        overlayPostings.clear();
+        overlayRows.clear();
+        overlayMinHashes.clear();
+        overlayHashes.clear();
+        overlayFiles.clear();
+        overlayNumbers.clear();
+        liveOverlay = 0;
+        layouts.clear();
+        stamps.clear();
+    }
+
+    private void openLog() throws IOException {
+        if (log == null) {
+            log = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(logFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        }
+    }
+
+    private void closeLog() throws IOException {
+        if (log != null) log.close();
+        log = null;
+    }
+
+    // the game files (see PgnFiles) under a file or directory of the library, by path relative to it
+    static Map<String, Path> listGameFiles(Path libDir, String subPath) throws IOException {
+        Path start = libDir.resolve(subPath);
+        Map<String, Path> present = new HashMap<>();
+        if (!Files.exists(start)) return present;
+        try (Stream<Path> walk = Files.walk(start)) {
+            walk.filter(p -> PgnFiles.isGameFile(p.getFileName().toString()) && Files.isRegularFile(p))
+                .forEach(p -> {
+                    String relative = libDir.relativize(p).toString();
+                    for (Path part : Paths.get(relative)) {
+                        if (part.toString().startsWith(".")) return;
+                    }
+                    present.put(relative, p);
+                });
+        }
+        return present;
+    }
+
+    private static Stamp stamp(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return new Stamp(attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
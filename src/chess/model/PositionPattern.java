@@ -0,0 +1,119 @@
+package chess.model;
+
+import chess.model.boardData.Position;
+
+import java.util.Locale;
+
+// A search over the shape of positions rather than their exact placement: a material balance such
+// as "KRP vs KR" and/or a named pawn structure such as "iqp", either one matched for both colours.
+// A position is described by three longs, which the PositionIndex stores for every node:
+//   material  four bits per piece count: white pawns, knights, bishops, rooks, queens from bit 0,
+//             then black's from bit 20 (kings are not counted)
+//   pawns     the white pawns' squares, then the black pawns' squares, as Position bitboards
+public class PositionPattern {
+    private static final String PIECES = "pnbrq";
+    private static final int SIDE_BITS = 20;
+    static final long MATERIAL_MASK = (1L << 2 * SIDE_BITS) - 1;
+
+    private static final long FILE_A = 0x0101010101010101L;
+    private static final long FILE_B = FILE_A << 1, FILE_C = FILE_A << 2, FILE_D = FILE_A << 3, FILE_E = FILE_A << 4;
+
+    // Pawns one side must have: a pawn on each of "ours" files or squares and none on "ourNone",
+    // and likewise for the other side.
+    private record Structure(long[] ours, long ourNone, long[] theirs, long theirNone) {
+        boolean matches(long us, long them) {
+            if ((us & ourNone) != 0 || (them & theirNone) != 0) return false;
+            for (long mask : ours) {
+                if ((us & mask) == 0) return false;
+            }
+            for (long mask : theirs) {
+                if ((them & mask) == 0) return false;
+            }
+            return true;
+        }
+    }
+
+    private static Structure structure(String name) {
+        switch (name) {
+            case "iqp": // isolated queen's pawn: a d-pawn with no c- or e-pawn beside it
+                return new Structure(new long[] {FILE_D}, FILE_C | FILE_E, new long[0], 0);
+            case "hanging": // hanging pawns: c- and d-pawns with no b- or e-pawn
+                return new Structure(new long[] {FILE_C, FILE_D}, FILE_B | FILE_E, new long[0], 0);
+            case "carlsbad": // d-pawn and e-pawn without the c-pawn, facing c- and d-pawns without the e-pawn
+                return new Structure(new long[] {FILE_D, FILE_E}, FILE_C, new long[] {FILE_C, FILE_D}, FILE_E);
+            default:
+                throw new IllegalArgumentException("Unknown pawn structure: " + name
+                        + " (try iqp, hanging or carlsbad)");
+        }
+    }
+
+    private final long material; // -1 for any
+    private final Structure structure; // null for any
+
+    private PositionPattern(long material, Structure structure) {
+        this.material = material;
+        this.structure = structure;
+    }
+
+    // A pattern from a material balance such as "KRP vs KR", "R+2P v R" or "rpvr" (kings optional,
+    // sides split by "vs", "v" or "-"), a pawn structure name, or either one left null.
+    public static PositionPattern of(String materialText, String structureName) {
+        long material = materialText == null ? -1 : parseMaterial(materialText);
+        Structure structure = structureName == null ? null : structure(structureName.trim().toLowerCase(Locale.ROOT));
+        return new PositionPattern(material, structure);
+    }
+
+    private static long parseMaterial(String text) {
+        String[] sides = text.trim().toLowerCase(Locale.ROOT).split("\\s*(?:vs\\.?|v|-)\\s*", -1);
+        if (sides.length != 2) throw new IllegalArgumentException("Expected material like \"KRP vs KR\": " + text);
+        return side(sides[0], text) | side(sides[1], text) << SIDE_BITS;
+    }
+
+    private static long side(String side, String text) {
+        long counts = 0;
+        int count = -1;
+        for (char c : side.toCharArray()) {
+            int piece = PIECES.indexOf(c);
+            if (Character.isDigit(c)) {
+                count = Math.max(count, 0) * 10 + (c - '0');
+                continue;
+            }
+            if (piece >= 0) {
+                int shift = 4 * piece;
+                long total = (counts >>> shift & 15) + (count < 0 ? 1 : count);
+                if (total > 15) throw new IllegalArgumentException("Too many pieces: " + text);
+                counts = counts & ~(15L << shift) | total << shift;
+            } else if (c != 'k' && c != '+' && c != ' ' || count >= 0) {
+                throw new IllegalArgumentException("Unexpected '" + c + "' in " + text);
+            }
+            count = -1;
+        }
+        if (count >= 0) throw new IllegalArgumentException("A count without a piece: " + text);
+        return counts;
+    }
+
+    // the material of a position, packed as above; counts past 15 (not reachable in a game) are capped
+    public static long material(Position position) {
+        long material = 0;
+        for (int type = Position.PAWN; type <= Position.QUEEN; ++type) {
+            int shift = 4 * (type - Position.PAWN);
+            material |= (long) Math.min(15, Long.bitCount(position.getPieces(true, type))) << shift;
+            material |= (long) Math.min(15, Long.bitCount(position.getPieces(false, type))) << shift + SIDE_BITS;
+        }
+        return material;
+    }
+
+    private static long swapColors(long material) {
+        return material >>> SIDE_BITS | (material & (1L << SIDE_BITS) - 1) << SIDE_BITS;
+    }
+
+    // whether a position matches, with white as the pattern's first side or with the colours swapped
+    public boolean matches(long material, long whitePawns, long blackPawns) {
+        return matchesAs(material, whitePawns, blackPawns) || matchesAs(swapColors(material), blackPawns, whitePawns);
+    }
+
+    private boolean matchesAs(long material, long ours, long theirs) {
+        return (this.material < 0 || this.material == material)
+                && (structure == null || structure.matches(ours, theirs));
+    }
+}
@@ -0,0 +1,213 @@
+package chess.model;
+
+import chess.model.boardData.Position;
+import chess.model.util.PgnIndex;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Joins repertoire files against played games by position key. For every game it finds the ply where
+// the game left the repertoire for good, and it ranks the positions games most often reached by
+// leaving it where it had moves prepared. A game counts as in the repertoire wherever it reaches one of
+// its positions, so a move order that leaves it and transposes back in is covered. Games are read in
+// parallel on the common fork/join pool.
+public class RepertoireReport {
+    private static final int BATCH = 64; // games per task
+    private static final int SHOWN_UNCOVERED = 50;
+
+    // How a game's main line left the repertoire: the ply of the first position outside it after the
+    // last one inside it, the move reaching that position, and whether the repertoire had moves
+    // prepared before it (a gap) or the game went on past one of its ends. leftAt is -1 for a game
+    // that ended in the repertoire, and 0 for one never in it.
+    public record GameResult(String path, int leftAt, String move, boolean prepared) {}
+
+    // a position games reached by leaving the repertoire where it had moves prepared, how many games
+    // reached it so, and the moves that led there in the first of them
+    public record Uncovered(long key, int games, String line) {}
+
+    private final List<String> repertoireFiles;
+    private final int repertoirePositions;
+    private final List<GameResult> games;
+    private final List<Uncovered> uncovered;
+
+    private RepertoireReport(List<String> repertoireFiles, int repertoirePositions,
+                             List<GameResult> games, List<Uncovered> uncovered) {
+        this.repertoireFiles = repertoireFiles;
+        this.repertoirePositions = repertoirePositions;
+        this.games = games;
+        this.uncovered = uncovered;
+    }
+
+    public List<GameResult> getGames() { return games; }
+    public List<Uncovered> getUncovered() { return uncovered; }
+    public int getRepertoirePositions() { return repertoirePositions; }
+
+    // Reads the repertoire files, every variation of them, then checks the main line of every game in
+    // gameFiles (relative to libDir) against them.
+    public static RepertoireReport run(List<Path> repertoire, Path libDir, Collection<String> gameFiles) throws IOException {
+        // every repertoire position, and whether the repertoire goes on from it
+        Map<Long, Boolean> prepared = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        for (Path file : repertoire) {
+            names.add(file.getFileName().toString());
+            PgnIndex index = PgnIndex.forFile(file);
+            for (String text : index.readGameTexts(0, index.size())) {
+                long[] postings = PositionIndex.positions(GameLibrary.parsePgn(text)).postings();
+                for (int p = 0; p < postings.length; p += 2) {
+                    prepared.merge(postings[p], (postings[p + 1] & 0xffff) != 0, Boolean::logicalOr);
+                }
+            }
+        }
+
+        List<String> paths = new ArrayList<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        List<Line> lines = new ArrayList<>();
+        for (String file : gameFiles) {
+            PgnIndex index;
+            try {
+                index = PgnIndex.forFile(libDir.resolve(file));
+            } catch (IOException e) {
+                System.err.println("Error reading " + file + " for the repertoire report: " + e.getMessage());
+                continue;
+            }
+            int count = index.getEntries().size(), first = paths.size();
+            for (int i = 0; i < count; ++i) {
+                paths.add(count > 1 ? GameLibrary.gameEntryPath(file, i + 1) : file);
+                lines.add(null);
+            }
+            for (int[] range : index.batches(BATCH)) {
+                int from = range[0], to = range[1];
+                tasks.add(() -> {
+                    List<String> texts;
+                    try {
+                        texts = index.readGameTexts(from, to);
+                    } catch (IOException e) {
+                        System.err.println("Error reading games " + (from + 1) + " to " + to + " of " + file + ": " + e.getMessage());
+                        return null;
+                    }
+                    for (int i = from; i < to; ++i) {
+                        Line line;
+                        try {
+                            line = leave(GameLibrary.parsePgn(texts.get(i - from)), prepared);
+                        } catch (IOException | RuntimeException e) {
+                            System.err.println("Error reading game " + (i + 1) + " of " + file + ": " + e.getMessage());
+                            line = null;
+                        }
+                        lines.set(first + i, line);
+                    }
+                    return null;
+                });
+            }
+        }
+        for (Future<Void> done : ForkJoinPool.commonPool().invokeAll(tasks)) {
+            try {
+                done.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Repertoire report interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Error building repertoire report", e.getCause());
+            }
+        }
+
+        // per game results in library order, and the gaps counted by position
+        List<GameResult> results = new ArrayList<>();
+        Map<Long, int[]> counts = new LinkedHashMap<>();
+        Map<Long, String> firstLines = new HashMap<>();
+        for (int g = 0; g < paths.size(); ++g) {
+            Line line = lines.get(g);
+            if (line == null) continue;
+            results.add(new GameResult(paths.get(g), line.leftAt(), line.move(), line.prepared()));
+            if (!line.prepared()) continue;
+            counts.computeIfAbsent(line.key(), k -> new int[1])[0]++;
+            firstLines.putIfAbsent(line.key(), line.moves());
+        }
+        List<Uncovered> uncovered = new ArrayList<>();
+        for (Map.Entry<Long, int[]> entry : counts.entrySet()) {
+            uncovered.add(new Uncovered(entry.getKey(), entry.getValue()[0], firstLines.get(entry.getKey())));
+        }
+        uncovered.sort((a, b) -> Integer.compare(b.games(), a.games())); // stable, so ties stay in library order
+        return new RepertoireReport(names, prepared.size(), results, uncovered);
+    }
+
+    // where one game left the repertoire; key and moves are those of the first position outside it
+    private record Line(int leftAt, String move, boolean prepared, long key, String moves) {}
+
+    private static Line leave(ChessGame game, Map<Long, Boolean> repertoire) {
+        Position position = new Position();
+        Boolean prepared = repertoire.get(position.getKey()); // null while outside the repertoire
+        Line left = prepared == null ? new Line(0, null, false, position.getKey(), "") : null;
+        int leftLength = 0;
+        StringBuilder moves = new StringBuilder();
+        GameNode node = game.getFirstPosition();
+        while (!node.getChildren().isEmpty()) {
+            GameNode next = node.getChildren().get(0);
+            if (!position.makeMove(next.getPackedMove())) break; // a move the rules reject ends the game here
+            if (position.getPly() % 2 == 1) moves.append(moves.length() > 0 ? " " : "").append((position.getPly() + 1) / 2).append('.');
+            moves.append(' ').append(next.getNotation());
+            Boolean after = repertoire.get(position.getKey());
+            if (after == null && prepared != null) {
+                left = new Line(position.getPly(), next.getNotation(), prepared, position.getKey(), null);
+                leftLength = moves.length();
+            } else if (after != null) {
+                left = null; // back in, by transposition
+            }
+            prepared = after;
+            node = next;
+        }
+        if (left == null) return new Line(-1, null, false, 0, null);
+        return new Line(left.leftAt(), left.move(), left.prepared(), left.key(), moves.substring(0, leftLength));
+    }
+
+    // the report as text: a summary, the most frequent gaps, then every game
+    public String format() {
+        int gaps = 0, ends = 0, outside = 0, stayed = 0;
+        long gapPlies = 0;
+        for (GameResult game : games) {
+            if (game.leftAt() < 0) {
+                ++stayed;
+            } else if (game.leftAt() == 0) {
+                ++outside;
+            } else if (game.prepared()) {
+                ++gaps;
+                gapPlies += game.leftAt();
+            } else {
+                ++ends;
+            }
+        }
+        StringBuilder out = new StringBuilder();
+        out.append("Repertoire: ").append(String.join(", ", repertoireFiles))
+                .append(" (").append(repertoirePositions).append(" positions)\n");
+        out.append("Games: ").append(games.size()).append('\n');
+        out.append("  left it where it had a move prepared: ").append(gaps);
+        if (gaps > 0) out.append(String.format(" (at ply %.1f on average)", (double) gapPlies / gaps));
+        out.append('\n');
+        out.append("  went on past its end: ").append(ends).append('\n');
+        out.append("  stayed in it to the last move: ").append(stayed).append('\n');
+        out.append("  never in it: ").append(outside).append('\n');
+
+        out.append("\nUncovered positions, most frequent first:\n");
+        for (int i = 0; i < Math.min(SHOWN_UNCOVERED, uncovered.size()); ++i) {
+            out.append(String.format("%6d  %s%n", uncovered.get(i).games(), uncovered.get(i).line()));
+        }
+        if (uncovered.size() > SHOWN_UNCOVERED) out.append("  and ").append(uncovered.size() - SHOWN_UNCOVERED).append(" more\n");
+
+        out.append("\nGames:\n");
+        for (GameResult game : games) {
+            out.append("  ").append(game.path()).append(": ");
+            if (game.leftAt() < 0) {
+                out.append("in the repertoire throughout");
+            } else if (game.leftAt() == 0) {
+                out.append("not in the repertoire");
+            } else {
+                out.append(game.prepared() ? "left it" : "past its end").append(" at ply ").append(game.leftAt())
+                        .append(" (").append((game.leftAt() + 1) / 2).append(game.leftAt() % 2 == 1 ? ". " : "... ")
+                        .append(game.move()).append(')');
+            }
+            out.append('\n');
+        }
+        return out.toString();
+    }
+}
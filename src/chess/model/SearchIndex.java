@@ -0,0 +1,206 @@
+package chess.model;
+
+import java.util.*;
+
+// Inverted index over the games of the LibraryIndex: every header tag (by lower case name), the ECO
+// code and the words of the move comments, each to the games holding it.
+// A tag value is indexed both whole and word by word, so "date:2023.05" and "white:carlsen" both
+// find "Carlsen, Magnus" playing on 2023.05.01.
+// A query is a list of terms that must all match, each "field:prefix" or a bare prefix matching any
+// field; a trailing '*' is allowed and means the same. For example "white:carlsen eco:B2*".
+// Games are numbered as they are added; a game added again or removed is masked out, and its number
+// is not reused. Once masked out numbers pass a quarter of all of them (and COMPACT_MIN), the index
+// is compacted: their postings are dropped and the live games numbered again from 0, so a library
+// whose files keep being rescanned does not keep every earlier scan of them.
+public class SearchIndex {
+    public static final String ECO = "eco";
+    public static final String COMMENT = "comment";
+    private static final int COMPACT_MIN = 1024;
+
+    private static final class Postings {
+        int[] games = new int[2];
+        int size;
+
+        void add(int game) {
+            if (size > 0 && games[size - 1] == game) return; // a word twice in one game
+            if (size == games.length) games = Arrays.copyOf(games, size * 2);
+            games[size++] = game;
+        }
+    }
+
+    private final List<String> paths = new ArrayList<>(); // null once masked out
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final BitSet live = new BitSet();
+    private int dead;
+    private final Map<String, Postings> postings = new HashMap<>(); // "field:term"
+    private final NavigableMap<String, Postings> sorted = new TreeMap<>(); // the same, for prefixes
+    private final Set<String> fields = new HashSet<>();
+    // the postings of every term of a tag value, by field and value, since names, events, dates and
+    // results repeat across many games
+    private final Map<String, Postings[]> valueTerms = new HashMap<>();
+
+    public int size() { return live.cardinality(); }
+
+    public void add(LibraryIndex.GameRecord game) {
+        remove(game.path());
+        int id = paths.size();
+        paths.add(game.path());
+        ids.put(game.path(), id);
+        live.set(id);
+        for (Map.Entry<String, String> tag : game.tags().entrySet()) {
+            String field = tag.getKey().toLowerCase();
+            if (field.equals(ECO)) continue; // indexed from the record, which also has classified codes
+            addValue(field, tag.getValue(), id);
+        }
+        if (game.eco() != null) addValue(ECO, game.eco(), id);
+        for (String word : game.comments().split(" ")) {
+            if (!word.isEmpty()) addTerm(COMMENT, word, id);
+        }
+    }
+
+    public void remove(String path) {
+        Integer id = ids.remove(path);
+        if (id == null) return;
+        kill(id);
+        compactIfNeeded();
+    }
+
+    // removes a file's games, or every game under a directory
+    public void removeUnder(String path) {
+        for (Iterator<Map.Entry<String, Integer>> it = ids.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Integer> entry = it.next();
+            if (!GameLibrary.isUnder(entry.getKey(), path)) continue;
+            kill(entry.getValue());
+            it.remove();
+        }
+        compactIfNeeded();
+    }
+
+    private void kill(int id) {
+        live.clear(id);
+        paths.set(id, null);
+        ++dead;
+    }
+
+    // Numbers the live games again from 0, in the same order, so every postings list only loses its
+    // dead games and stays sorted. Lists left empty are dropped, and with them the cached terms of
+    // tag values, which are found again as games are added.
+    private void compactIfNeeded() {
+        if (dead < COMPACT_MIN || dead * 4L < paths.size()) return;
+        int[] renumbered = new int[paths.size()];
+        List<String> kept = new ArrayList<>(paths.size() - dead);
+        for (int id = 0; id < paths.size(); ++id) {
+            renumbered[id] = kept.size();
+            if (paths.get(id) != null) kept.add(paths.get(id));
+        }
+        for (Iterator<Map.Entry<String, Postings>> it = postings.entrySet().iterator(); it.hasNext(); ) {
+            Postings list = it.next().getValue();
+            int size = 0;
+            for (int i = 0; i < list.size; ++i) {
+                if (live.get(list.games[i])) list.games[size++] = renumbered[list.games[i]];
+            }
+            list.size = size;
+            if (size == 0) {
+                it.remove();
+            } else if (size < list.games.length / 4) {
+                list.games = Arrays.copyOf(list.games, Math.max(2, size));
+            }
+        }
+        sorted.keySet().retainAll(postings.keySet());
+        fields.clear();
+        for (String key : postings.keySet()) fields.add(key.substring(0, key.indexOf(':')));
+        valueTerms.clear();
+        ids.replaceAll((path, id) -> renumbered[id]);
+        paths.clear();
+        paths.addAll(kept);
+        live.clear();
+        live.set(0, kept.size());
+        dead = 0;
+    }
+
+    private void addValue(String field, String value, int id) {
+        Postings[] terms = valueTerms.get(field + "\n" + value);
+        if (terms == null) {
+            String lower = value.toLowerCase().trim();
+            List<Postings> lists = new ArrayList<>();
+            if (!lower.isEmpty() && !lower.equals("?")) {
+                lists.add(postings(field, lower));
+                for (String word : words(lower)) {
+                    if (!word.equals(lower)) lists.add(postings(field, word));
+                }
+            }
+            terms = lists.toArray(new Postings[0]);
+            valueTerms.put(field + "\n" + value, terms);
+        }
+        for (Postings list : terms) list.add(id);
+    }
+
+    private void addTerm(String field, String term, int id) {
+        postings(field, term).add(id);
+    }
+
+    private Postings postings(String field, String term) {
+        String key = field + ":" + term;
+        Postings list = postings.get(key);
+        if (list == null) {
+            list = new Postings();
+            postings.put(key, list);
+            sorted.put(key, list);
+            fields.add(field);
+        }
+        return list;
+    }
+
+    // the lower case words of a text, split at anything that is not a letter or digit
+    public static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); ++i) {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    // the paths of the games matching every term of the query; an empty query matches nothing
+    public Set<String> search(String query) {
+        BitSet result = null;
+        for (String part : query.trim().split("\\s+")) {
+            if (part.isEmpty()) continue;
+            String field = null, prefix = part.toLowerCase();
+            int colon = prefix.indexOf(':');
+            if (colon > 0) {
+                field = prefix.substring(0, colon);
+                prefix = prefix.substring(colon + 1);
+            }
+            while (prefix.endsWith("*")) prefix = prefix.substring(0, prefix.length() - 1);
+            if (prefix.isEmpty() && field == null) continue; // a lone '*'; "white:" matches any game with the field
+
+            BitSet matches = new BitSet();
+            for (String f : field != null ? List.of(field) : fields) matchPrefix(f + ":" + prefix, matches);
+            if (result == null) {
+                result = matches;
+            } else {
+                result.and(matches);
+            }
+            if (result.isEmpty()) break;
+        }
+
+        Set<String> paths = new LinkedHashSet<>();
+        if (result == null) return paths;
+        result.and(live);
+        for (int id = result.nextSetBit(0); id >= 0; id = result.nextSetBit(id + 1)) paths.add(this.paths.get(id));
+        return paths;
+    }
+
+    private void matchPrefix(String prefix, BitSet matches) {
+        for (Postings list : sorted.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+            for (int i = 0; i < list.size; ++i) matches.set(list.games[i]);
+        }
+    }
+}
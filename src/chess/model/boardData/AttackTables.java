@@ -0,0 +1,94 @@
+package chess.model.boardData;
+
+import chess.model.pieceData.Piece.PieceType;
+
+// Precomputed attack sets for a 64-square board.
+// Squares are indexed row * 8 + col to match BoardState, so row 0 is black's back rank
+// and white pawns move towards lower indices.
+public class AttackTables {
+    public static final long[] KNIGHT = new long[64];
+    public static final long[] KING = new long[64];
+    public static final long[] WHITE_PAWN = new long[64]; // squares a white pawn on sq attacks
+    public static final long[] BLACK_PAWN = new long[64];
+
+    // {dx, dy}: the first four are rook directions, the last four bishop directions
+    private static final int[][] DIRECTIONS = {{0,1}, {1,0}, {0,-1}, {-1,0}, {1,1}, {1,-1}, {-1,1}, {-1,-1}};
+    private static final long[][] RAYS = new long[8][64];
+
+    static {
+        int[][] knightOffsets = {{2,1}, {1,2}, {-1,2}, {-2,1}, {-2,-1}, {-1,-2}, {1,-2}, {2,-1}};
+        int[][] kingOffsets = {{-1,-1}, {0,-1}, {1,-1}, {-1,0}, {1,0}, {-1,1}, {0,1}, {1,1}};
+        for (int sq = 0; sq < 64; ++sq) {
+            int x = col(sq), y = row(sq);
+            KNIGHT[sq] = offsetMask(x, y, knightOffsets);
+            KING[sq] = offsetMask(x, y, kingOffsets);
+            WHITE_PAWN[sq] = offsetMask(x, y, new int[][]{{-1,-1}, {1,-1}});
+            BLACK_PAWN[sq] = offsetMask(x, y, new int[][]{{-1,1}, {1,1}});
+            for (int d = 0; d < 8; ++d) {
+                long ray = 0L;
+                int rx = x + DIRECTIONS[d][0], ry = y + DIRECTIONS[d][1];
+                while (BoardState.isWithinBounds(rx, ry)) {
+                    ray |= 1L << square(rx, ry);
+                    rx += DIRECTIONS[d][0];
+                    ry += DIRECTIONS[d][1];
+                }
+                RAYS[d][sq] = ray;
+            }
+        }
+    }
+
+    private static long offsetMask(int x, int y, int[][] offsets) {
+        long mask = 0L;
+        for (int[] offset : offsets) {
+            if (BoardState.isWithinBounds(x + offset[0], y + offset[1])) {
+                mask |= 1L << square(x + offset[0], y + offset[1]);
+            }
+        }
+        return mask;
+    }
+
+    public static int square(int x, int y) { return y * 8 + x; }
+    public static int col(int sq) { return sq & 7; }
+    public static int row(int sq) { return sq >>> 3; }
+
+    public static long pawnAttacks(boolean white, int sq) {
+        return white ? WHITE_PAWN[sq] : BLACK_PAWN[sq];
+    }
+
+    public static long rookAttacks(int sq, long occupied) {
+        return slide(sq, occupied, 0) | slide(sq, occupied, 1) | slide(sq, occupied, 2) | slide(sq, occupied, 3);
+    }
+
+    public static long bishopAttacks(int sq, long occupied) {
+        return slide(sq, occupied, 4) | slide(sq, occupied, 5) | slide(sq, occupied, 6) | slide(sq, occupied, 7);
+    }
+
+    public static long queenAttacks(int sq, long occupied) {
+        return rookAttacks(sq, occupied) | bishopAttacks(sq, occupied);
+    }
+
+    // squares attacked by a piece of the given type standing on sq
+    public static long attacks(PieceType type, boolean white, int sq, long occupied) {
+        switch (type) {
+            case PAWN: return pawnAttacks(white, sq);
+            case KNIGHT: return KNIGHT[sq];
+            case BISHOP: return bishopAttacks(sq, occupied);
+            case ROOK: return rookAttacks(sq, occupied);
+            case QUEEN: return queenAttacks(sq, occupied);
+            case KING: return KING[sq];
+        }
+        throw new IllegalArgumentException("Invalid piece type: " + type);
+    }
+
+    // ray in direction d up to and including the first blocker
+    private static long slide(int sq, long occupied, int d) {
+        long ray = RAYS[d][sq];
+        long blockers = ray & occupied;
+        if (blockers == 0) return ray;
+        int dx = DIRECTIONS[d][0], dy = DIRECTIONS[d][1];
+        // rays growing towards higher indices meet their nearest blocker at the lowest bit
+        boolean increasing = dy > 0 || (dy == 0 && dx > 0);
+        int blocker = increasing ? Long.numberOfTrailingZeros(blockers) : 63 - Long.numberOfLeadingZeros(blockers);
+        return ray ^ RAYS[d][blocker];
+    }
+}
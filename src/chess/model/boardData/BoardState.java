@@ -30,6 +30,19 @@ public class BoardState {
 
     // copy into this board
     public BoardState(BoardState other) {
+        copyFrom(other);
+    }
+
+    // an empty board, for a subclass that builds it with playFrom the first time ensureBoard is called
+    protected BoardState(Void unbuilt) {
+    }
+
+    // called before any of the board is read; a subclass whose board is built on demand builds it here
+    protected void ensureBoard() {
+    }
+
+    private void copyFrom(BoardState other) {
+        other.ensureBoard();
         boardState = new Piece[8][8];
         for (int i=0; i<8; ++i) {
             for (int j=0; j<8; ++j) {
@@ -42,6 +55,74 @@ public class BoardState {
         verifier = new ChessVerifier(this);
     }
 
+    // build a position from FEN, castling rights are kept through the hasMoved flags of kings and rooks
+    public BoardState(String fen) {
+        String[] fields = fen.trim().split("\\s+");
+        if (fields.length < 2) {
+            throw new IllegalArgumentException("Invalid FEN: " + fen);
+        }
+        boardState = new Piece[8][8];
+        String[] rows = fields[0].split("/");
+        if (rows.length != 8) {
+            throw new IllegalArgumentException("Invalid FEN board: " + fields[0]);
+        }
+        for (int y = 0; y < 8; ++y) {
+            int x = 0;
+            for (char c : rows[y].toCharArray()) {
+                if (Character.isDigit(c)) {
+                    x += c - '0';
+                    continue;
+                }
+                if (x >= 8) throw new IllegalArgumentException("Invalid FEN row: " + rows[y]);
+                boardState[y][x] = Piece.makeNewPiece(Character.isUpperCase(c), fenPieceType(c), y, x);
+                ++x;
+            }
+        }
+        whiteToPlay = fields[1].equals("w");
+
+        String castling = fields.length > 2 ? fields[2] : "-";
+        markCastlingRights(true, castling.indexOf('K') != -1, castling.indexOf('Q') != -1);
+        markCastlingRights(false, castling.indexOf('k') != -1, castling.indexOf('q') != -1);
+
+        enPassantTarget = null;
+        if (fields.length > 3 && !fields[3].equals("-")) {
+            enPassantTarget = Move.getPos(fields[3]);
+        }
+        findKings();
+        verifier = new ChessVerifier(this);
+    }
+
+    private static PieceType fenPieceType(char c) {
+        switch (Character.toLowerCase(c)) {
+            case 'p': return PieceType.PAWN;
+            case 'n': return PieceType.KNIGHT;
+            case 'b': return PieceType.BISHOP;
+            case 'r': return PieceType.ROOK;
+            case 'q': return PieceType.QUEEN;
+            case 'k': return PieceType.KING;
+            default: throw new IllegalArgumentException("Invalid FEN piece: " + c);
+        }
+    }
+
+    private void markCastlingRights(boolean isWhite, boolean kingside, boolean queenside) {
+        int row = isWhite ? 7 : 0;
+        Piece king = boardState[row][4];
+        if (king == null || king.getType() != PieceType.KING || king.isWhite() != isWhite || (!kingside && !queenside)) {
+            // rights are lost through the king, wherever it stands
+            for (int y = 0; y < 8; ++y) {
+                for (int x = 0; x < 8; ++x) {
+                    Piece p = boardState[y][x];
+                    if (p != null && p.getType() == PieceType.KING && p.isWhite() == isWhite) p.markAsMoved();
+                }
+            }
+            return;
+        }
+        Piece kingsideRook = boardState[row][7];
+        Piece queensideRook = boardState[row][0];
+        if (!kingside && kingsideRook != null) kingsideRook.markAsMoved();
+        if (!queenside && queensideRook != null) queensideRook.markAsMoved();
+    }
+
     private void initializeBoard() {
         for (int i = 2; i < 6; i++) {
             for (int j = 0; j < 8; j++) {
@@ -62,24 +143,36 @@ public class BoardState {
     }
 
     public boolean isEmpty(int x, int y) {
+        ensureBoard();
         if (x < 0 || x >= 8 || y < 0 || y >= 8) return false;
         return boardState[y][x] == null;
     }
 
     public Piece getPieceAt(int row, int col) {
+        ensureBoard();
         if (row < 0 || row >= 8 || col < 0 || col >= 8) return null;
         return boardState[row][col];
     }
 
     public BoardState makeNewChange(Move move) {
-        BoardState newBoard = new BoardState(this);
+        return new BoardState(this, move);
+    }
+
+    // the position after a move is played from before, built with a single copy of the board
+    protected BoardState(BoardState before, Move move) {
+        playFrom(before, move);
+    }
+
+    protected final void playFrom(BoardState before, Move move) {
+        copyFrom(before);
+        BoardState newBoard = this;
 
         Piece originalPiece = move.getPiece();
         if (originalPiece == null) {
             throw new IllegalArgumentException("Move has a null piece");
         }
 
-        newBoard.whiteToPlay = !this.whiteToPlay;
+        newBoard.whiteToPlay = !before.whiteToPlay;
         newBoard.enPassantTarget = null;
 
         if (originalPiece.getType() == PieceType.KING) {
@@ -138,24 +231,21 @@ public class BoardState {
         newBoard.boardState[to.getY()][to.getX()] = movedPiece;
 
         newBoard.findKings();
-        return newBoard;
     }
 
     public ImmutXY getEnPassantTarget() {
         // if the last move was a pawn move forward twice, then we can mark that as possible target
+        ensureBoard();
         return enPassantTarget;
     }
 
     // can black or white castle, despite whose turn it is
     public boolean canCastle(boolean isWhite, boolean kingside) {
-        if ((isWhite && whiteKing.hasMoved()) || (!isWhite && blackKing.hasMoved())) return false;
-
-        int row = isWhite ? 7 : 0;
-        int col = kingside ? 7 : 0;
-        Piece rook = boardState[row][col];
-        if (rook == null || rook.getType() != PieceType.ROOK || rook.hasMoved()) return false;
+        ensureBoard();
+        if (!hasCastlingRight(isWhite, kingside)) return false;
         if (isKingInCheck(isWhite)) return false;
 
+        int row = isWhite ? 7 : 0;
         int dir = kingside ? 1 : -1;
         int kingCol = isWhite ? whiteKing.getPos().getX() : blackKing.getPos().getX();
         if (verifier.isSquareUnderAttack(new ImmutXY(kingCol + dir, row), isWhite) ||
@@ -165,9 +255,21 @@ public class BoardState {
         return true;
     }
 
-    public boolean isWhiteToPlay() { return whiteToPlay; }
+    // castling rights alone, without the check and attacked-square conditions of canCastle
+    public boolean hasCastlingRight(boolean isWhite, boolean kingside) {
+        ensureBoard();
+        if ((isWhite && whiteKing.hasMoved()) || (!isWhite && blackKing.hasMoved())) return false;
+
+        int row = isWhite ? 7 : 0;
+        int col = kingside ? 7 : 0;
+        Piece rook = boardState[row][col];
+        return rook != null && rook.getType() == PieceType.ROOK && rook.isWhite() == isWhite && !rook.hasMoved();
+    }
+
+    public boolean isWhiteToPlay() { ensureBoard(); return whiteToPlay; }
 
     public ImmutXY getKingPos(boolean isWhite) {
+        ensureBoard();
         if (isWhite) {
             return whiteKing.getPos();
         }
@@ -195,6 +297,7 @@ public class BoardState {
 
     // is black/white's king in check
     public boolean isKingInCheck(boolean isWhite) {
+        ensureBoard();
         return verifier.isSquareUnderAttack(isWhite ? whiteKing.getPos() : blackKing.getPos(), isWhite);
     }
 
@@ -204,6 +307,7 @@ public class BoardState {
 
 
     public List<Piece> getPossiblePieces(ImmutXY to, boolean isWhite) {
+        ensureBoard();
         List<Piece> l = new ArrayList<>();
         for (int i=0; i<8; ++i) {
             for (int j=0; j<8; ++j) {
@@ -219,8 +323,139 @@ public class BoardState {
         return l;
     }
 
+    // Pieces of one type that can legally move to a square. Candidates are found by looking back
+    // from the destination through the attack tables, and only those are tested for leaving the
+    // king in check, instead of generating every move of every piece like getPossiblePieces.
+    public List<Piece> getPiecesReaching(ImmutXY to, PieceType type, boolean isWhite) {
+        ensureBoard();
+        List<Piece> l = new ArrayList<>();
+        Piece target = boardState[to.getY()][to.getX()];
+        if (target != null && (target.isWhite() == isWhite || target.getType() == PieceType.KING)) return l;
+
+        long occupied = 0L, own = 0L;
+        for (int i=0; i<8; ++i) {
+            for (int j=0; j<8; ++j) {
+                Piece p = boardState[i][j];
+                if (p == null) continue;
+                long bit = 1L << AttackTables.square(j, i);
+                occupied |= bit;
+                if (p.isWhite() == isWhite && p.getType() == type) own |= bit;
+            }
+        }
+
+        int toSq = AttackTables.square(to.getX(), to.getY());
+        long origins;
+        if (type != PieceType.PAWN) {
+            origins = AttackTables.attacks(type, isWhite, toSq, occupied) & own;
+        } else if (target != null || to.equals(enPassantTarget)) {
+            // a pawn attacking this square stands where an enemy pawn on it would attack
+            origins = AttackTables.pawnAttacks(!isWhite, toSq) & own;
+        } else {
+            // pushes: one square back, or two back from the start row over an empty square
+            int back = isWhite ? 8 : -8;
+            int doublePushRow = isWhite ? 4 : 3;
+            int from = toSq + back;
+            origins = 0L;
+            if (from >= 0 && from < 64) {
+                if ((own & (1L << from)) != 0) {
+                    origins = 1L << from;
+                } else if ((occupied & (1L << from)) == 0 && to.getY() == doublePushRow) {
+                    origins = own & (1L << (from + back));
+                }
+            }
+        }
+
+        while (origins != 0) {
+            int sq = Long.numberOfTrailingZeros(origins);
+            origins &= origins - 1;
+            Piece p = boardState[AttackTables.row(sq)][AttackTables.col(sq)];
+            if (!leavesKingInCheck(p, to)) l.add(p);
+        }
+        return l;
+    }
+
+    // plays p to the square in place, asks whether its own king is attacked, and puts everything back
+    private boolean leavesKingInCheck(Piece p, ImmutXY to) {
+        ImmutXY from = p.getPos();
+        boolean isWhite = p.isWhite();
+        Piece captured = boardState[to.getY()][to.getX()];
+        Piece enPassantVictim = null;
+        int victimY = to.getY() + (isWhite ? 1 : -1);
+        if (p.getType() == PieceType.PAWN && captured == null && from.getX() != to.getX()) {
+            enPassantVictim = boardState[victimY][to.getX()];
+            boardState[victimY][to.getX()] = null;
+        }
+        boardState[from.getY()][from.getX()] = null;
+        boardState[to.getY()][to.getX()] = p;
+
+        ImmutXY king = p.getType() == PieceType.KING ? to : getKingPos(isWhite);
+        boolean inCheck = verifier.isSquareUnderAttack(king, isWhite);
+
+        boardState[to.getY()][to.getX()] = captured;
+        boardState[from.getY()][from.getX()] = p;
+        if (enPassantVictim != null) boardState[victimY][to.getX()] = enPassantVictim;
+        return inCheck;
+    }
+
+    // whether the side to move has any legal move, stopping at the first one found; castling is
+    // skipped since this is only asked to tell mate from check, and a king in check cannot castle
+    public boolean hasLegalMove() {
+        ensureBoard();
+        long occupied = 0L, own = 0L;
+        for (int i=0; i<8; ++i) {
+            for (int j=0; j<8; ++j) {
+                Piece p = boardState[i][j];
+                if (p == null) continue;
+                long bit = 1L << AttackTables.square(j, i);
+                occupied |= bit;
+                if (p.isWhite() == whiteToPlay) own |= bit;
+            }
+        }
+        // the king first, it is the most likely piece to have a way out
+        ImmutXY kingPos = getKingPos(whiteToPlay);
+        if (hasLegalMove(boardState[kingPos.getY()][kingPos.getX()], occupied, own)) return true;
+        for (int i=0; i<8; ++i) {
+            for (int j=0; j<8; ++j) {
+                Piece p = boardState[i][j];
+                if (p == null || p.isWhite() != whiteToPlay || p.getType() == PieceType.KING) continue;
+                if (hasLegalMove(p, occupied, own)) return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasLegalMove(Piece p, long occupied, long own) {
+        int sq = AttackTables.square(p.getPos().getX(), p.getPos().getY());
+        long targets;
+        if (p.getType() == PieceType.PAWN) {
+            targets = AttackTables.pawnAttacks(p.isWhite(), sq) & occupied & ~own;
+            if (enPassantTarget != null) {
+                targets |= AttackTables.pawnAttacks(p.isWhite(), sq)
+                        & (1L << AttackTables.square(enPassantTarget.getX(), enPassantTarget.getY()));
+            }
+            int push = sq + (p.isWhite() ? -8 : 8);
+            if (push >= 0 && push < 64 && (occupied & (1L << push)) == 0) {
+                targets |= 1L << push;
+                int startRow = p.isWhite() ? 6 : 1;
+                int doublePush = push + (p.isWhite() ? -8 : 8);
+                if (AttackTables.row(sq) == startRow && (occupied & (1L << doublePush)) == 0) targets |= 1L << doublePush;
+            }
+        } else {
+            targets = AttackTables.attacks(p.getType(), p.isWhite(), sq, occupied) & ~own;
+        }
+        while (targets != 0) {
+            int to = Long.numberOfTrailingZeros(targets);
+            targets &= targets - 1;
+            Piece target = boardState[AttackTables.row(to)][AttackTables.col(to)];
+            if (target != null && target.getType() == PieceType.KING) continue;
+            if (!leavesKingInCheck(p, new ImmutXY(AttackTables.col(to), AttackTables.row(to)))) return true;
+        }
+        return false;
+    }
+
     // used to see if there are any legal moves
     public List<Move> getLegalMoves() {
+        ensureBoard();
         List<Move> legalMoves = new ArrayList<>();
         for (int y = 0; y < 8; y++) {
             for (int x = 0; x < 8; x++) {
@@ -234,6 +469,7 @@ public class BoardState {
     }
 
     public Move getMoveIfValid(ImmutXY from, ImmutXY to) {
+        ensureBoard();
         Piece p = boardState[from.getY()][from.getX()];
         if (p == null || p.isWhite() != whiteToPlay) return null;
 
@@ -246,6 +482,7 @@ public class BoardState {
     }
 
     public void printBoard() {
+        ensureBoard();
         for (int y = 0; y < 8; y++) {
             for (int x = 0; x < 8; x++) {
                 if (boardState[y][x] != null) {
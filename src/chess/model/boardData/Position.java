@@ -0,0 +1,566 @@
+package chess.model.boardData;
+
+import chess.model.pieceData.Piece;
+import chess.model.pieceData.Piece.PieceType;
+
+import java.util.Arrays;
+
+// Mutable bitboard position with make/unmake, used where BoardState's immutable
+// piece objects are too slow (search, bulk replay).
+// Squares follow AttackTables: row * 8 + col, row 0 is rank 8.
+// Moves are packed ints: from | to << 6 | promotion << 12, promotion 0 none, 1-4 knight..queen.
+// The hash key matches Zobrist.hash of the equivalent BoardState.
+public class Position {
+    public static final int EMPTY = 0, PAWN = 1, KNIGHT = 2, BISHOP = 3, ROOK = 4, QUEEN = 5, KING = 6;
+    public static final int BLACK = 8; // piece code = type | BLACK for black pieces
+    public static final int WHITE_SHORT = 1, WHITE_LONG = 2, BLACK_SHORT = 4, BLACK_LONG = 8;
+    public static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    private static final int[] PROMOTION_TYPES = {EMPTY, KNIGHT, BISHOP, ROOK, QUEEN};
+    private static final int[] CASTLE_MASK = new int[64];
+    private static final long[][] PIECE_KEYS = new long[16][64];
+
+    static {
+        Arrays.fill(CASTLE_MASK, 15);
+        CASTLE_MASK[63] &= ~WHITE_SHORT;
+        CASTLE_MASK[56] &= ~WHITE_LONG;
+        CASTLE_MASK[60] &= ~(WHITE_SHORT | WHITE_LONG);
+        CASTLE_MASK[7] &= ~BLACK_SHORT;
+        CASTLE_MASK[0] &= ~BLACK_LONG;
+        CASTLE_MASK[4] &= ~(BLACK_SHORT | BLACK_LONG);
+        for (int type = PAWN; type <= KING; ++type) {
+            for (int sq = 0; sq < 64; ++sq) {
+                int row = AttackTables.row(sq), col = AttackTables.col(sq);
+                PIECE_KEYS[type][sq] = Zobrist.pieceKey(Zobrist.pieceKind(toPieceType(type), true), row, col);
+                PIECE_KEYS[type | BLACK][sq] = Zobrist.pieceKey(Zobrist.pieceKind(toPieceType(type), false), row, col);
+            }
+        }
+    }
+
+    private final int[] board = new int[64];
+    private final long[][] pieces = new long[2][7]; // [0 white, 1 black][type]
+    private final long[] colors = new long[2];
+    private boolean whiteToMove;
+    private int castling;
+    private int epSquare = -1;
+    private int halfmoveClock;
+    private int fullmove = 1;
+    private long key;
+
+    // undo stack, indexed by the number of moves made since setup
+    private int ply = 0;
+    private int[] moveHistory = new int[256];
+    private int[] capturedHistory = new int[256];
+    private int[] stateHistory = new int[256]; // castling | (ep + 1) << 4 | halfmove << 11
+    private long[] keyHistory = new long[256];
+
+    public Position() {
+        this(START_FEN);
+    }
+
+    public Position(String fen) {
+        setFen(fen);
+    }
+
+    public Position(Position other) {
+        System.arraycopy(other.board, 0, board, 0, 64);
+        for (int c = 0; c < 2; ++c) pieces[c] = other.pieces[c].clone();
+        System.arraycopy(other.colors, 0, colors, 0, 2);
+        whiteToMove = other.whiteToMove;
+        castling = other.castling;
+        epSquare = other.epSquare;
+        halfmoveClock = other.halfmoveClock;
+        fullmove = other.fullmove;
+        key = other.key;
+        ply = other.ply;
+        moveHistory = other.moveHistory.clone();
+        capturedHistory = other.capturedHistory.clone();
+        stateHistory = other.stateHistory.clone();
+        keyHistory = other.keyHistory.clone();
+    }
+
+    public static Position fromBoardState(BoardState state) {
+        return new Position(toFen(state));
+    }
+
+    // ---- packed moves ----
+
+    public static int move(int from, int to, int promotion) { return from | to << 6 | promotion << 12; }
+    public static int from(int move) { return move & 63; }
+    public static int to(int move) { return (move >>> 6) & 63; }
+    public static int promotion(int move) { return (move >>> 12) & 7; }
+    public static int promotionType(int move) { return PROMOTION_TYPES[promotion(move)]; }
+
+    public static int promotionIndex(PieceType type) {
+        if (type == null) return 0;
+        switch (type) {
+            case KNIGHT: return 1;
+            case BISHOP: return 2;
+            case ROOK: return 3;
+            case QUEEN: return 4;
+            default: return 0;
+        }
+    }
+
+    public static PieceType toPieceType(int type) {
+        switch (type & 7) {
+            case PAWN: return PieceType.PAWN;
+            case KNIGHT: return PieceType.KNIGHT;
+            case BISHOP: return PieceType.BISHOP;
+            case ROOK: return PieceType.ROOK;
+            case QUEEN: return PieceType.QUEEN;
+            case KING: return PieceType.KING;
+            default: return null;
+        }
+    }
+
+    public static int fromPieceType(PieceType type) {
+        switch (type) {
+            case PAWN: return PAWN;
+            case KNIGHT: return KNIGHT;
+            case BISHOP: return BISHOP;
+            case ROOK: return ROOK;
+            case QUEEN: return QUEEN;
+            default: return KING;
+        }
+    }
+
+    public static String toUci(int move) {
+        StringBuilder sb = new StringBuilder(5);
+        sb.append(squareName(from(move))).append(squareName(to(move)));
+        if (promotion(move) != 0) sb.append("nbrq".charAt(promotion(move) - 1));
+        return sb.toString();
+    }
+
+    public static String squareName(int sq) {
+        return "" + (char) ('a' + AttackTables.col(sq)) + (8 - AttackTables.row(sq));
+    }
+
+    public static int parseSquare(String s) {
+        return AttackTables.square(s.charAt(0) - 'a', 8 - (s.charAt(1) - '0'));
+    }
+
+    // the legal move written in long algebraic notation, or 0
+    public int parseUci(String uci) {
+        int[] moves = new int[256];
+        int count = generateLegal(moves);
+        for (int i = 0; i < count; ++i) {
+            if (toUci(moves[i]).equals(uci)) return moves[i];
+        }
+        return 0;
+    }
+
+    // ---- accessors ----
+
+    public int pieceAt(int sq) { return board[sq]; }
+    public boolean isWhiteToMove() { return whiteToMove; }
+    public int getCastling() { return castling; }
+    public int getEpSquare() { return epSquare; }
+    public int getHalfmoveClock() { return halfmoveClock; }
+    public int getPly() { return ply; }
+    public long getKey() { return key; }
+    public long getPieces(boolean white, int type) { return pieces[white ? 0 : 1][type]; }
+    public long getColor(boolean white) { return colors[white ? 0 : 1]; }
+    public long getOccupied() { return colors[0] | colors[1]; }
+    public int getLastMove() { return ply == 0 ? 0 : moveHistory[ply - 1]; }
+
+    public int kingSquare(boolean white) {
+        return Long.numberOfTrailingZeros(pieces[white ? 0 : 1][KING]);
+    }
+
+    public boolean inCheck() {
+        return isAttacked(kingSquare(whiteToMove), !whiteToMove);
+    }
+
+    public boolean isAttacked(int sq, boolean byWhite) {
+        int c = byWhite ? 0 : 1;
+        long[] p = pieces[c];
+        long occ = getOccupied();
+        if ((AttackTables.pawnAttacks(!byWhite, sq) & p[PAWN]) != 0) return true;
+        if ((AttackTables.KNIGHT[sq] & p[KNIGHT]) != 0) return true;
+        if ((AttackTables.KING[sq] & p[KING]) != 0) return true;
+        if ((AttackTables.bishopAttacks(sq, occ) & (p[BISHOP] | p[QUEEN])) != 0) return true;
+        return (AttackTables.rookAttacks(sq, occ) & (p[ROOK] | p[QUEEN])) != 0;
+    }
+
+    // all pieces of either color attacking sq given an occupancy
+    public long attackersTo(int sq, long occ) {
+        return (AttackTables.pawnAttacks(false, sq) & pieces[0][PAWN])
+            | (AttackTables.pawnAttacks(true, sq) & pieces[1][PAWN])
+            | (AttackTables.KNIGHT[sq] & (pieces[0][KNIGHT] | pieces[1][KNIGHT]))
+            | (AttackTables.KING[sq] & (pieces[0][KING] | pieces[1][KING]))
+            | (AttackTables.bishopAttacks(sq, occ) & (pieces[0][BISHOP] | pieces[1][BISHOP] | pieces[0][QUEEN] | pieces[1][QUEEN]))
+            | (AttackTables.rookAttacks(sq, occ) & (pieces[0][ROOK] | pieces[1][ROOK] | pieces[0][QUEEN] | pieces[1][QUEEN]));
+    }
+
+    // repetition of the current position since the last irreversible move
+    public boolean isRepetition() {
+        for (int i = ply - 2; i >= 0 && i >= ply - halfmoveClock; i -= 2) {
+            if (keyHistory[i] == key) return true;
+        }
+        return false;
+    }
+
+    public int pieceCount() {
+        return Long.bitCount(getOccupied());
+    }
+
+    // ---- setup ----
+
+    public void setFen(String fen) {
+        String[] fields = fen.trim().split("\\s+");
+        Arrays.fill(board, EMPTY);
+        for (long[] p : pieces) Arrays.fill(p, 0L);
+        colors[0] = colors[1] = 0L;
+        String[] rows = fields[0].split("/");
+        if (rows.length != 8) throw new IllegalArgumentException("Invalid FEN board: " + fields[0]);
+        for (int y = 0; y < 8; ++y) {
+            int x = 0;
+            for (char c : rows[y].toCharArray()) {
+                if (Character.isDigit(c)) {
+                    x += c - '0';
+                } else {
+                    int type = "pnbrqk".indexOf(Character.toLowerCase(c)) + 1;
+                    if (type == 0 || x >= 8) throw new IllegalArgumentException("Invalid FEN row: " + rows[y]);
+                    put(AttackTables.square(x++, y), type | (Character.isUpperCase(c) ? 0 : BLACK));
+                }
+            }
+        }
+        whiteToMove = fields.length < 2 || fields[1].equals("w");
+        castling = 0;
+        String rights = fields.length > 2 ? fields[2] : "-";
+        if (rights.indexOf('K') != -1) castling |= WHITE_SHORT;
+        if (rights.indexOf('Q') != -1) castling |= WHITE_LONG;
+        if (rights.indexOf('k') != -1) castling |= BLACK_SHORT;
+        if (rights.indexOf('q') != -1) castling |= BLACK_LONG;
+        epSquare = fields.length > 3 && !fields[3].equals("-") ? parseSquare(fields[3]) : -1;
+        halfmoveClock = fields.length > 4 ? Integer.parseInt(fields[4]) : 0;
+        fullmove = fields.length > 5 ? Integer.parseInt(fields[5]) : 1;
+        ply = 0;
+        key = computeKey();
+    }
+
+    private long computeKey() {
+        long k = 0L;
+        for (int sq = 0; sq < 64; ++sq) {
+            if (board[sq] != EMPTY) k ^= PIECE_KEYS[board[sq]][sq];
+        }
+        for (int right = 0; right < 4; ++right) {
+            if ((castling & (1 << right)) != 0) k ^= Zobrist.castleKey(right);
+        }
+        if (epCapturable()) k ^= Zobrist.enPassantKey(AttackTables.col(epSquare));
+        if (whiteToMove) k ^= Zobrist.turnKey();
+        return k;
+    }
+
+    // Polyglot only hashes the en passant file when a pawn of the side to move can capture
+    private boolean epCapturable() {
+        if (epSquare < 0) return false;
+        return (AttackTables.pawnAttacks(!whiteToMove, epSquare) & pieces[whiteToMove ? 0 : 1][PAWN]) != 0;
+    }
+
+    public String toFen() {
+        StringBuilder sb = new StringBuilder();
+        for (int y = 0; y < 8; ++y) {
+            int empty = 0;
+            for (int x = 0; x < 8; ++x) {
+                int p = board[AttackTables.square(x, y)];
+                if (p == EMPTY) { ++empty; continue; }
+                if (empty > 0) { sb.append(empty); empty = 0; }
+                char c = "pnbrqk".charAt((p & 7) - 1);
+                sb.append((p & BLACK) != 0 ? c : Character.toUpperCase(c));
+            }
+            if (empty > 0) sb.append(empty);
+            if (y < 7) sb.append('/');
+        }
+        sb.append(whiteToMove ? " w " : " b ");
+        if (castling == 0) sb.append('-');
+        if ((castling & WHITE_SHORT) != 0) sb.append('K');
+        if ((castling & WHITE_LONG) != 0) sb.append('Q');
+        if ((castling & BLACK_SHORT) != 0) sb.append('k');
+        if ((castling & BLACK_LONG) != 0) sb.append('q');
+        sb.append(' ').append(epSquare < 0 ? "-" : squareName(epSquare));
+        sb.append(' ').append(halfmoveClock).append(' ').append(fullmove);
+        return sb.toString();
+    }
+
+    public static String toFen(BoardState state) {
+        StringBuilder sb = new StringBuilder();
+        for (int y = 0; y < 8; ++y) {
+            int empty = 0;
+            for (int x = 0; x < 8; ++x) {
+                Piece p = state.getPieceAt(y, x);
+                if (p == null) { ++empty; continue; }
+                if (empty > 0) { sb.append(empty); empty = 0; }
+                char c = "pnbrqk".charAt(fromPieceType(p.getType()) - 1);
+                sb.append(p.isWhite() ? Character.toUpperCase(c) : c);
+            }
+            if (empty > 0) sb.append(empty);
+            if (y < 7) sb.append('/');
+        }
+        sb.append(state.isWhiteToPlay() ? " w " : " b ");
+        StringBuilder rights = new StringBuilder();
+        if (state.hasCastlingRight(true, true)) rights.append('K');
+        if (state.hasCastlingRight(true, false)) rights.append('Q');
+        if (state.hasCastlingRight(false, true)) rights.append('k');
+        if (state.hasCastlingRight(false, false)) rights.append('q');
+        sb.append(rights.length() == 0 ? "-" : rights);
+        sb.append(' ').append(state.getEnPassantTarget() == null ? "-" : state.getEnPassantTarget().toAlgebraic());
+        return sb.append(" 0 1").toString();
+    }
+
+    private void put(int sq, int piece) {
+        board[sq] = piece;
+        int c = (piece & BLACK) != 0 ? 1 : 0;
+        pieces[c][piece & 7] |= 1L << sq;
+        colors[c] |= 1L << sq;
+    }
+
+    private void remove(int sq) {
+        int piece = board[sq];
+        int c = (piece & BLACK) != 0 ? 1 : 0;
+        pieces[c][piece & 7] &= ~(1L << sq);
+        colors[c] &= ~(1L << sq);
+        board[sq] = EMPTY;
+    }
+
+    // ---- make / unmake ----
+
+    private void ensureHistory() {
+        if (ply < moveHistory.length) return;
+        int size = moveHistory.length * 2;
+        moveHistory = Arrays.copyOf(moveHistory, size);
+        capturedHistory = Arrays.copyOf(capturedHistory, size);
+        stateHistory = Arrays.copyOf(stateHistory, size);
+        keyHistory = Arrays.copyOf(keyHistory, size);
+    }
+
+    // Plays a pseudo-legal move. Returns false (with the move already taken back) when it
+    // leaves the mover's king in check.
+    public boolean makeMove(int move) {
+        ensureHistory();
+        int from = from(move), to = to(move);
+        int piece = board[from];
+        int type = piece & 7;
+        int captured = board[to];
+        int captureSq = to;
+        if (type == PAWN && to == epSquare) {
+            captureSq = to + (whiteToMove ? 8 : -8);
+            captured = board[captureSq];
+        }
+
+        moveHistory[ply] = move;
+        capturedHistory[ply] = captured;
+        stateHistory[ply] = castling | (epSquare + 1) << 4 | halfmoveClock << 11;
+        keyHistory[ply] = key;
+        ++ply;
+
+        long k = key;
+        if (epCapturable()) k ^= Zobrist.enPassantKey(AttackTables.col(epSquare));
+        if (captured != EMPTY) {
+            k ^= PIECE_KEYS[captured][captureSq];
+            remove(captureSq);
+        }
+        k ^= PIECE_KEYS[piece][from];
+        remove(from);
+        int placed = promotion(move) != 0 ? promotionType(move) | (piece & BLACK) : piece;
+        put(to, placed);
+        k ^= PIECE_KEYS[placed][to];
+
+        if (type == KING && Math.abs(to - from) == 2) {
+            int rookFrom = to > from ? from + 3 : from - 4;
+            int rookTo = to > from ? from + 1 : from - 1;
+            int rook = board[rookFrom];
+            k ^= PIECE_KEYS[rook][rookFrom] ^ PIECE_KEYS[rook][rookTo];
+            remove(rookFrom);
+            put(rookTo, rook);
+        }
+
+        int newCastling = castling & CASTLE_MASK[from] & CASTLE_MASK[to];
+        for (int right = 0; right < 4; ++right) {
+            if (((castling ^ newCastling) & (1 << right)) != 0) k ^= Zobrist.castleKey(right);
+        }
+        castling = newCastling;
+
+        halfmoveClock = (type == PAWN || captured != EMPTY) ? 0 : halfmoveClock + 1;
+        epSquare = (type == PAWN && Math.abs(to - from) == 16) ? (from + to) / 2 : -1;
+        if (!whiteToMove) ++fullmove;
+        whiteToMove = !whiteToMove;
+        k ^= Zobrist.turnKey();
+        if (epCapturable()) k ^= Zobrist.enPassantKey(AttackTables.col(epSquare));
+        key = k;
+
+        if (isAttacked(kingSquare(!whiteToMove), whiteToMove)) {
+            unmakeMove();
+            return false;
+        }
+        return true;
+    }
+
+    public void unmakeMove() {
+        --ply;
+        int move = moveHistory[ply];
+        int captured = capturedHistory[ply];
+        int state = stateHistory[ply];
+        whiteToMove = !whiteToMove;
+        if (!whiteToMove) --fullmove;
+
+        int from = from(move), to = to(move);
+        int placed = board[to];
+        int piece = promotion(move) != 0 ? PAWN | (placed & BLACK) : placed;
+        remove(to);
+        put(from, piece);
+
+        if ((piece & 7) == KING && Math.abs(to - from) == 2) {
+            int rookFrom = to > from ? from + 3 : from - 4;
+            int rookTo = to > from ? from + 1 : from - 1;
+            int rook = board[rookTo];
+            remove(rookTo);
+            put(rookFrom, rook);
+        }
+
+        castling = state & 15;
+        epSquare = ((state >>> 4) & 127) - 1;
+        halfmoveClock = state >>> 11;
+        if (captured != EMPTY) {
+            int captureSq = ((piece & 7) == PAWN && to == epSquare) ? to + (whiteToMove ? 8 : -8) : to;
+            put(captureSq, captured);
+        }
+        key = keyHistory[ply];
+    }
+
+    // passes the turn, for null-move pruning
+    public void makeNullMove() {
+        ensureHistory();
+        moveHistory[ply] = 0;
+        capturedHistory[ply] = EMPTY;
+        stateHistory[ply] = castling | (epSquare + 1) << 4 | halfmoveClock << 11;
+        keyHistory[ply] = key;
+        ++ply;
+        if (epCapturable()) key ^= Zobrist.enPassantKey(AttackTables.col(epSquare));
+        epSquare = -1;
+        whiteToMove = !whiteToMove;
+        key ^= Zobrist.turnKey();
+        ++halfmoveClock;
+    }
+
+    public void unmakeNullMove() {
+        --ply;
+        int state = stateHistory[ply];
+        whiteToMove = !whiteToMove;
+        epSquare = ((state >>> 4) & 127) - 1;
+        halfmoveClock = state >>> 11;
+        key = keyHistory[ply];
+    }
+
+    // ---- move generation ----
+
+    // pseudo-legal moves, captures and promotions only when quiet is false
+    public int generate(int[] moves, boolean quiet) {
+        int count = 0;
+        int us = whiteToMove ? 0 : 1;
+        long own = colors[us];
+        long enemy = colors[us ^ 1];
+        long occ = own | enemy;
+        long targets = quiet ? ~own : enemy;
+
+        long pawns = pieces[us][PAWN];
+        int push = whiteToMove ? -8 : 8;
+        int startRow = whiteToMove ? 6 : 1;
+        while (pawns != 0) {
+            int from = Long.numberOfTrailingZeros(pawns);
+            pawns &= pawns - 1;
+            int one = from + push;
+            if ((occ & (1L << one)) == 0) {
+                int row = AttackTables.row(one);
+                if (row == 0 || row == 7) {
+                    count = addPromotions(moves, count, from, one);
+                } else if (quiet) {
+                    moves[count++] = move(from, one, 0);
+                    int two = one + push;
+                    if (AttackTables.row(from) == startRow && (occ & (1L << two)) == 0) {
+                        moves[count++] = move(from, two, 0);
+                    }
+                }
+            }
+            long attacks = AttackTables.pawnAttacks(whiteToMove, from);
+            long captures = attacks & enemy;
+            if (epSquare >= 0 && (attacks & (1L << epSquare)) != 0) captures |= 1L << epSquare;
+            while (captures != 0) {
+                int to = Long.numberOfTrailingZeros(captures);
+                captures &= captures - 1;
+                int row = AttackTables.row(to);
+                if (row == 0 || row == 7) {
+                    count = addPromotions(moves, count, from, to);
+                } else {
+                    moves[count++] = move(from, to, 0);
+                }
+            }
+        }
+
+        for (int type = KNIGHT; type <= KING; ++type) {
+            long bb = pieces[us][type];
+            while (bb != 0) {
+                int from = Long.numberOfTrailingZeros(bb);
+                bb &= bb - 1;
+                long attacks = AttackTables.attacks(toPieceType(type), whiteToMove, from, occ) & targets;
+                while (attacks != 0) {
+                    int to = Long.numberOfTrailingZeros(attacks);
+                    attacks &= attacks - 1;
+                    moves[count++] = move(from, to, 0);
+                }
+            }
+        }
+
+        if (quiet) {
+            int kingSq = whiteToMove ? 60 : 4;
+            int shortRight = whiteToMove ? WHITE_SHORT : BLACK_SHORT;
+            int longRight = whiteToMove ? WHITE_LONG : BLACK_LONG;
+            boolean them = !whiteToMove;
+            if ((castling & shortRight) != 0 && (occ & (3L << (kingSq + 1))) == 0
+                    && !isAttacked(kingSq, them) && !isAttacked(kingSq + 1, them)) {
+                moves[count++] = move(kingSq, kingSq + 2, 0);
+            }
+            if ((castling & longRight) != 0 && (occ & (7L << (kingSq - 3))) == 0
+                    && !isAttacked(kingSq, them) && !isAttacked(kingSq - 1, them)) {
+                moves[count++] = move(kingSq, kingSq - 2, 0);
+            }
+        }
+        return count;
+    }
+
+    private static int addPromotions(int[] moves, int count, int from, int to) {
+        for (int p = 4; p >= 1; --p) moves[count++] = move(from, to, p);
+        return count;
+    }
+
+    public int generateLegal(int[] moves) {
+        int[] pseudo = new int[256];
+        int n = generate(pseudo, true);
+        int count = 0;
+        for (int i = 0; i < n; ++i) {
+            if (makeMove(pseudo[i])) {
+                unmakeMove();
+                moves[count++] = pseudo[i];
+            }
+        }
+        return count;
+    }
+
+    public boolean isCapture(int move) {
+        return board[to(move)] != EMPTY || ((board[from(move)] & 7) == PAWN && to(move) == epSquare);
+    }
+
+    public long perft(int depth) {
+        if (depth == 0) return 1;
+        int[] moves = new int[256];
+        int n = generate(moves, true);
+        long nodes = 0;
+        for (int i = 0; i < n; ++i) {
+            if (!makeMove(moves[i])) continue;
+            nodes += depth == 1 ? 1 : perft(depth - 1);
+            unmakeMove();
+        }
+        return nodes;
+    }
+}
@@ -68,8 +68,7 @@ public abstract class Piece {
         boolean isCheck = newState.isKingInCheck(newState.isWhiteToPlay());
 
         if (isCheck) {
-            List<Move> legalMoves = newState.getLegalMoves();
-            boolean isCheckmate = isCheck && legalMoves.isEmpty();
+            boolean isCheckmate = !newState.hasLegalMove();
             List<Move.MoveType> newTypes = new ArrayList<>(move.getTypes());
             if (isCheckmate) {
                 newTypes.add(Move.MoveType.CHECKMATE);
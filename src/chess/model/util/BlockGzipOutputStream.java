@@ -0,0 +1,81 @@
+package chess.model.util;
+
+import java.io.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Writes gzip data as a series of members of BLOCK bytes of text each (the last one shorter). Any
+// gzip reader reads the members as one stream, and a reader that knows where they start can begin
+// at any of them, see GzipMemberInputStream.
+class BlockGzipOutputStream extends OutputStream {
+    static final int BLOCK = 64 << 10;
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final OutputStream out;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] block = new byte[BLOCK];
+    private final byte[] compressed = new byte[BLOCK];
+    private int blockLen;
+    private boolean written;
+
+    BlockGzipOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (blockLen == BLOCK) writeMember();
+        block[blockLen++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (blockLen == BLOCK) writeMember();
+            int n = Math.min(len, BLOCK - blockLen);
+            System.arraycopy(b, off, block, blockLen, n);
+            blockLen += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void writeMember() throws IOException {
+        out.write(HEADER);
+        deflater.reset();
+        deflater.setInput(block, 0, blockLen);
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(compressed);
+            out.write(compressed, 0, n);
+        }
+        crc.reset();
+        crc.update(block, 0, blockLen);
+        writeInt((int) crc.getValue());
+        writeInt(blockLen);
+        blockLen = 0;
+        written = true;
+    }
+
+    private void writeInt(int value) throws IOException {
+        for (int i = 0; i < 4; ++i) out.write(value >>> 8 * i);
+    }
+
+    // writes the text so far as the last member, leaving the underlying stream open; an empty text
+    // is still one (empty) member, so the result is a valid gzip file
+    void finish() throws IOException {
+        if (blockLen > 0 || !written) writeMember();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,743 @@
+package chess.model.util;
+
+import chess.model.boardData.AttackTables;
+import chess.model.boardData.BoardState;
+import chess.model.pieceData.Piece;
+import chess.model.pieceData.Piece.PieceType;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+// Win/draw/loss bitbases for endgames with up to 4 pieces (kings included), generated in process
+// by retrograde analysis and probed through memory-mapped files stored in bitbases/.
+//
+// Every table is stored from the point of view of the "strong" side (the first half of the
+// signature, e.g. KR in KRKP), which is laid out as white. Positions with black as the strong side
+// are mirrored vertically before probing. Castling and en passant rights are not indexed.
+public class EndgameBitbase {
+    public enum Verdict { WIN, DRAW, LOSS } // for the side to move
+
+    // told on the generator thread when a table scheduled by probe() is ready to be probed
+    public interface Listener {
+        void tableGenerated(String signature);
+    }
+
+    public static final int MAX_PIECES = 4;
+    private static final String BITBASE_DIR = "bitbases/";
+    private static final int MAGIC = 0x43534242; // "CSBB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    // random positions a new table is checked on before it is kept, and the mate search depth
+    private static final int VERIFY_SAMPLES = 512;
+    private static final int VERIFY_DEPTH = 3;
+
+    // 2-bit table values, UNKNOWN only exists while generating
+    private static final byte DRAW = 0, WIN = 1, LOSS = 2, ILLEGAL = 3, UNKNOWN = 4;
+
+    private static final PieceType[] PROMOTIONS = {PieceType.QUEEN, PieceType.ROOK, PieceType.BISHOP, PieceType.KNIGHT};
+    private static final String PIECE_ORDER = "QRBNP";
+
+    private static final Map<String, EndgameBitbase> LOADED = new ConcurrentHashMap<>();
+    private static final Set<String> PENDING = ConcurrentHashMap.newKeySet();
+    private static final List<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+    private static final ExecutorService GEN_POOL = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "bitbase-generator");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String signature;
+    private final ByteBuffer data;
+
+    private EndgameBitbase(String signature, ByteBuffer data) {
+        this.signature = signature;
+        this.data = data;
+    }
+
+    public String getSignature() { return signature; }
+
+    public static void addListener(Listener listener) { LISTENERS.add(listener); }
+    public static void removeListener(Listener listener) { LISTENERS.remove(listener); }
+
+    private int get(int index) {
+        return (data.get(HEADER_SIZE + (index >>> 2)) >>> ((index & 3) << 1)) & 3;
+    }
+
+    // Probe a game position. Returns null when the position has too many pieces or the table
+    // is not on disk yet, in which case it is scheduled for generation in the background.
+    public static Verdict probe(BoardState board) {
+        List<PieceType> types = new ArrayList<>();
+        List<Boolean> colors = new ArrayList<>();
+        List<Integer> squares = new ArrayList<>();
+        for (int y = 0; y < 8; ++y) {
+            for (int x = 0; x < 8; ++x) {
+                Piece p = board.getPieceAt(y, x);
+                if (p == null) continue;
+                if (types.size() == MAX_PIECES) return null;
+                types.add(p.getType());
+                colors.add(p.isWhite());
+                squares.add(AttackTables.square(x, y));
+            }
+        }
+        int n = types.size();
+        boolean[] w = new boolean[n];
+        int[] sq = new int[n];
+        for (int i = 0; i < n; ++i) {
+            w[i] = colors.get(i);
+            sq[i] = squares.get(i);
+        }
+        return probe(types.toArray(new PieceType[0]), w, sq, board.isWhiteToPlay());
+    }
+
+    // Probe a position given as parallel arrays of pieces, squares indexed like AttackTables
+    public static Verdict probe(PieceType[] types, boolean[] white, int[] squares, boolean whiteToMove) {
+        if (types.length > MAX_PIECES) return null;
+        Lookup lookup = canonicalize(types, white, squares, whiteToMove);
+        if (lookup == null) return Verdict.DRAW; // bare kings
+
+        EndgameBitbase table = LOADED.get(lookup.signature);
+        if (table == null) {
+            if (PENDING.contains(lookup.signature)) return null; // still generating
+            table = loadIfPresent(lookup.signature);
+            if (table == null) {
+                scheduleGeneration(lookup.signature);
+                return null;
+            }
+        }
+        return toVerdict(table.get(lookup.index));
+    }
+
+    private static Verdict toVerdict(int value) {
+        switch (value) {
+            case WIN: return Verdict.WIN;
+            case LOSS: return Verdict.LOSS;
+            case DRAW: return Verdict.DRAW;
+            default: return null; // illegal positions (e.g. side not to move in check)
+        }
+    }
+
+    // a failed generation leaves the signature unscheduled again, so a later probe retries it
+    private static void scheduleGeneration(String signature) {
+        if (!PENDING.add(signature)) return;
+        GEN_POOL.execute(() -> {
+            try {
+                forSignature(signature);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error generating bitbase " + signature + ": " + e.getMessage());
+                return;
+            } finally {
+                PENDING.remove(signature);
+            }
+            for (Listener listener : LISTENERS) listener.tableGenerated(signature);
+        });
+    }
+
+    // tables only appear on disk once complete, so mapping them never waits for a running generation
+    private static EndgameBitbase loadIfPresent(String signature) {
+        Path path = Paths.get(BITBASE_DIR, signature + ".bb");
+        if (!Files.exists(path)) return null;
+        try {
+            return map(signature, path);
+        } catch (IOException e) {
+            System.err.println("Error loading bitbase " + signature + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // load a table from disk, generating it (and every table it converts into) when missing
+    public static synchronized EndgameBitbase forSignature(String signature) throws IOException {
+        EndgameBitbase table = LOADED.get(signature);
+        if (table != null) return table;
+
+        Path path = Paths.get(BITBASE_DIR, signature + ".bb");
+        if (!Files.exists(path)) {
+            generate(signature, path);
+        }
+        return map(signature, path);
+    }
+
+    private static EndgameBitbase map(String signature, Path path) throws IOException {
+        EndgameBitbase table;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            int pieces = parseSignature(signature).types.length;
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != pieces) {
+                throw new IOException("Bad bitbase header in " + path);
+            }
+            table = new EndgameBitbase(signature, buffer);
+        }
+        EndgameBitbase existing = LOADED.putIfAbsent(signature, table);
+        return existing != null ? existing : table;
+    }
+
+    // ---- material layout ----
+
+    // pieces in table order: strong king, weak king, strong extras, weak extras
+    private static class Layout {
+        final PieceType[] types;
+        final boolean[] strong;
+
+        Layout(PieceType[] types, boolean[] strong) {
+            this.types = types;
+            this.strong = strong;
+        }
+    }
+
+    private record Lookup(String signature, int index) {}
+
+    private static Layout parseSignature(String signature) {
+        int second = signature.indexOf('K', 1);
+        if (!signature.startsWith("K") || second == -1) {
+            throw new IllegalArgumentException("Invalid material signature: " + signature);
+        }
+        String strongExtras = signature.substring(1, second);
+        String weakExtras = signature.substring(second + 1);
+        int n = 2 + strongExtras.length() + weakExtras.length();
+        if (n > MAX_PIECES) {
+            throw new IllegalArgumentException("Bitbases support at most " + MAX_PIECES + " pieces: " + signature);
+        }
+        PieceType[] types = new PieceType[n];
+        boolean[] strong = new boolean[n];
+        types[0] = types[1] = PieceType.KING;
+        strong[0] = true;
+        int i = 2;
+        for (char c : strongExtras.toCharArray()) { types[i] = letterType(c); strong[i++] = true; }
+        for (char c : weakExtras.toCharArray()) { types[i] = letterType(c); strong[i++] = false; }
+        return new Layout(types, strong);
+    }
+
+    private static PieceType letterType(char c) {
+        switch (c) {
+            case 'Q': return PieceType.QUEEN;
+            case 'R': return PieceType.ROOK;
+            case 'B': return PieceType.BISHOP;
+            case 'N': return PieceType.KNIGHT;
+            case 'P': return PieceType.PAWN;
+            default: throw new IllegalArgumentException("Invalid piece letter: " + c);
+        }
+    }
+
+    private static char typeLetter(PieceType type) {
+        switch (type) {
+            case QUEEN: return 'Q';
+            case ROOK: return 'R';
+            case BISHOP: return 'B';
+            case KNIGHT: return 'N';
+            case PAWN: return 'P';
+            default: return 'K';
+        }
+    }
+
+    private static int letterValue(char c) {
+        switch (c) {
+            case 'Q': return 9;
+            case 'R': return 5;
+            case 'B': case 'N': return 3;
+            case 'P': return 1;
+            default: return 0;
+        }
+    }
+
+    // positive when side a should be the strong side of the table
+    private static int compareSides(String a, String b) {
+        int va = 0, vb = 0;
+        for (char c : a.toCharArray()) va += letterValue(c);
+        for (char c : b.toCharArray()) vb += letterValue(c);
+        if (va != vb) return va - vb;
+        if (a.length() != b.length()) return a.length() - b.length();
+        for (int i = 0; i < a.length(); ++i) {
+            int diff = PIECE_ORDER.indexOf(b.charAt(i)) - PIECE_ORDER.indexOf(a.charAt(i));
+            if (diff != 0) return diff;
+        }
+        return 0;
+    }
+
+    // Map an arbitrary set of pieces (white = true) onto its table and index.
+    // Returns null for bare kings.
+    private static Lookup canonicalize(PieceType[] types, boolean[] white, int[] squares, boolean whiteToMove) {
+        int whiteKing = -1, blackKing = -1;
+        List<Integer> whiteExtras = new ArrayList<>();
+        List<Integer> blackExtras = new ArrayList<>();
+        for (int i = 0; i < types.length; ++i) {
+            if (squares[i] < 0) continue; // captured
+            if (types[i] == PieceType.KING) {
+                if (white[i]) whiteKing = i; else blackKing = i;
+            } else if (white[i]) {
+                whiteExtras.add(i);
+            } else {
+                blackExtras.add(i);
+            }
+        }
+        if (whiteExtras.isEmpty() && blackExtras.isEmpty()) return null;
+
+        Comparator<Integer> order = Comparator.comparingInt(i -> PIECE_ORDER.indexOf(typeLetter(types[i])));
+        whiteExtras.sort(order);
+        blackExtras.sort(order);
+        String whiteSide = sideString(types, whiteExtras);
+        String blackSide = sideString(types, blackExtras);
+        boolean whiteStrong = compareSides(whiteSide, blackSide) >= 0;
+
+        List<Integer> ordered = new ArrayList<>();
+        ordered.add(whiteStrong ? whiteKing : blackKing);
+        ordered.add(whiteStrong ? blackKing : whiteKing);
+        ordered.addAll(whiteStrong ? whiteExtras : blackExtras);
+        ordered.addAll(whiteStrong ? blackExtras : whiteExtras);
+
+        int stm = (whiteToMove == whiteStrong) ? 0 : 1;
+        int index = stm;
+        for (int i : ordered) {
+            int sq = whiteStrong ? squares[i] : squares[i] ^ 56; // flip rows when black is strong
+            index = (index << 6) | sq;
+        }
+        String signature = whiteStrong ? "K" + whiteSide + "K" + blackSide : "K" + blackSide + "K" + whiteSide;
+        return new Lookup(signature, index);
+    }
+
+    private static String sideString(PieceType[] types, List<Integer> pieces) {
+        StringBuilder sb = new StringBuilder();
+        for (int i : pieces) sb.append(typeLetter(types[i]));
+        return sb.toString();
+    }
+
+    // ---- small board used for generation and verification ----
+
+    // Pieces are referenced by their index in the layout, captured pieces have square -1.
+    // The strong side plays as white (pawns move towards row 0).
+    // Moves are packed as piece | to << 3 | (captured + 1) << 9 | promotion << 12.
+    private static class Board {
+        final PieceType[] types;
+        final boolean[] strong;
+        final int[] squares;
+
+        Board(Layout layout) {
+            types = layout.types.clone();
+            strong = layout.strong;
+            squares = new int[types.length];
+        }
+
+        long occupancy() {
+            long occ = 0L;
+            for (int sq : squares) if (sq >= 0) occ |= 1L << sq;
+            return occ;
+        }
+
+        int pieceAt(int sq) {
+            for (int i = 0; i < squares.length; ++i) if (squares[i] == sq) return i;
+            return -1;
+        }
+
+        boolean attacked(int target, boolean byStrong, long occ) {
+            for (int i = 0; i < squares.length; ++i) {
+                if (squares[i] < 0 || strong[i] != byStrong) continue;
+                if ((AttackTables.attacks(types[i], byStrong, squares[i], occ) & (1L << target)) != 0) return true;
+            }
+            return false;
+        }
+
+        boolean inCheck(boolean strongSide) {
+            return attacked(squares[strongSide ? 0 : 1], !strongSide, occupancy());
+        }
+
+        // validity of the decoded position, with stmStrong to move
+        boolean isValid(boolean stmStrong) {
+            long occ = 0L;
+            for (int i = 0; i < squares.length; ++i) {
+                int sq = squares[i];
+                if ((occ & (1L << sq)) != 0) return false;
+                occ |= 1L << sq;
+                if (types[i] == PieceType.PAWN && (AttackTables.row(sq) == 0 || AttackTables.row(sq) == 7)) return false;
+            }
+            return !attacked(squares[stmStrong ? 1 : 0], stmStrong, occ);
+        }
+
+        // fills moves with every legal move for the side to move and returns the count
+        int generate(boolean stmStrong, int[] moves) {
+            int count = 0;
+            long occ = occupancy();
+            for (int i = 0; i < squares.length; ++i) {
+                int from = squares[i];
+                if (from < 0 || strong[i] != stmStrong) continue;
+                if (types[i] == PieceType.PAWN) {
+                    count = generatePawn(i, from, stmStrong, occ, moves, count);
+                    continue;
+                }
+                long targets = AttackTables.attacks(types[i], stmStrong, from, occ);
+                while (targets != 0) {
+                    int to = Long.numberOfTrailingZeros(targets);
+                    targets &= targets - 1;
+                    int captured = pieceAt(to);
+                    if (captured >= 0 && strong[captured] == stmStrong) continue;
+                    count = addIfLegal(i | to << 3 | (captured + 1) << 9, stmStrong, moves, count);
+                }
+            }
+            return count;
+        }
+
+        private int generatePawn(int i, int from, boolean stmStrong, long occ, int[] moves, int count) {
+            int dir = stmStrong ? -8 : 8;
+            int startRow = stmStrong ? 6 : 1;
+            int one = from + dir;
+            if ((occ & (1L << one)) == 0) {
+                count = addPawnMove(i, one, -1, stmStrong, moves, count);
+                int two = one + dir;
+                if (AttackTables.row(from) == startRow && (occ & (1L << two)) == 0) {
+                    count = addIfLegal(i | two << 3, stmStrong, moves, count);
+                }
+            }
+            long captures = AttackTables.pawnAttacks(stmStrong, from);
+            while (captures != 0) {
+                int to = Long.numberOfTrailingZeros(captures);
+                captures &= captures - 1;
+                int captured = pieceAt(to);
+                if (captured >= 0 && strong[captured] != stmStrong) {
+                    count = addPawnMove(i, to, captured, stmStrong, moves, count);
+                }
+            }
+            return count;
+        }
+
+        private int addPawnMove(int i, int to, int captured, boolean stmStrong, int[] moves, int count) {
+            int row = AttackTables.row(to);
+            int base = i | to << 3 | (captured + 1) << 9;
+            if (row != 0 && row != 7) return addIfLegal(base, stmStrong, moves, count);
+            for (int p = 1; p <= PROMOTIONS.length; ++p) {
+                count = addIfLegal(base | p << 12, stmStrong, moves, count);
+            }
+            return count;
+        }
+
+        private int addIfLegal(int move, boolean stmStrong, int[] moves, int count) {
+            int from = make(move);
+            boolean legal = !inCheck(stmStrong);
+            unmake(move, from);
+            if (legal) moves[count++] = move;
+            return count;
+        }
+
+        // returns the origin square for unmake
+        int make(int move) {
+            int piece = move & 7;
+            int captured = ((move >>> 9) & 7) - 1;
+            int promotion = (move >>> 12) & 7;
+            int from = squares[piece];
+            if (captured >= 0) squares[captured] = -1;
+            squares[piece] = (move >>> 3) & 63;
+            if (promotion != 0) types[piece] = PROMOTIONS[promotion - 1];
+            return from;
+        }
+
+        void unmake(int move, int from) {
+            int piece = move & 7;
+            int captured = ((move >>> 9) & 7) - 1;
+            if (captured >= 0) squares[captured] = (move >>> 3) & 63;
+            squares[piece] = from;
+            if (((move >>> 12) & 7) != 0) types[piece] = PieceType.PAWN;
+        }
+
+        // current position with the strong side as white
+        Lookup lookup(boolean stmStrong) {
+            return canonicalize(types, strong, squares, stmStrong);
+        }
+    }
+
+    private static boolean decode(int index, Board board) {
+        int n = board.squares.length;
+        for (int i = n - 1; i >= 0; --i) {
+            board.squares[i] = index & 63;
+            index >>>= 6;
+        }
+        return index == 0; // true when the strong side is to move
+    }
+
+    private static int encode(Board board, boolean stmStrong) {
+        int index = stmStrong ? 0 : 1;
+        for (int sq : board.squares) index = (index << 6) | sq;
+        return index;
+    }
+
+    // ---- generation ----
+
+    // every table reachable from this one by a capture or promotion
+    private static Set<String> conversions(Layout layout) {
+        Set<String> result = new HashSet<>();
+        Board board = new Board(layout);
+        int n = layout.types.length;
+        for (int i = 0; i < n; ++i) board.squares[i] = i; // squares are irrelevant, only material is
+        for (int i = 2; i < n; ++i) {
+            int saved = board.squares[i];
+            board.squares[i] = -1;
+            addSignature(board, result);
+            board.squares[i] = saved;
+            if (layout.types[i] == PieceType.PAWN) {
+                for (PieceType promotion : PROMOTIONS) {
+                    board.types[i] = promotion;
+                    addSignature(board, result);
+                    board.types[i] = PieceType.PAWN;
+                    // promotion with capture
+                    for (int j = 2; j < n; ++j) {
+                        if (j == i || layout.strong[j] == layout.strong[i]) continue;
+                        board.squares[j] = -1;
+                        board.types[i] = promotion;
+                        addSignature(board, result);
+                        board.types[i] = PieceType.PAWN;
+                        board.squares[j] = j;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void addSignature(Board board, Set<String> result) {
+        List<PieceType> types = new ArrayList<>();
+        List<Boolean> strong = new ArrayList<>();
+        List<Integer> squares = new ArrayList<>();
+        for (int i = 0; i < board.squares.length; ++i) {
+            if (board.squares[i] < 0) continue;
+            types.add(board.types[i]);
+            strong.add(board.strong[i]);
+            squares.add(board.squares[i]);
+        }
+        boolean[] s = new boolean[types.size()];
+        int[] sq = new int[types.size()];
+        for (int i = 0; i < s.length; ++i) { s[i] = strong.get(i); sq[i] = squares.get(i); }
+        Lookup lookup = canonicalize(types.toArray(new PieceType[0]), s, sq, true);
+        if (lookup != null) result.add(lookup.signature);
+    }
+
+    private static void generate(String signature, Path path) throws IOException {
+        Layout layout = parseSignature(signature);
+        Map<String, EndgameBitbase> children = new HashMap<>();
+        for (String child : conversions(layout)) {
+            children.put(child, forSignature(child));
+        }
+
+        int n = layout.types.length;
+        int size = 2 << (6 * n);
+        byte[] table = new byte[size];
+        byte[] remaining = new byte[size]; // legal moves whose outcome is not yet known as a win for the opponent
+
+        // initial pass: illegal positions, mates, stalemates and conversions into smaller tables
+        int chunk = 1 << 12;
+        IntStream.range(0, (size + chunk - 1) / chunk).parallel().forEach(c -> {
+            Board board = new Board(layout);
+            int[] moves = new int[256];
+            int end = Math.min(size, (c + 1) * chunk);
+            for (int index = c * chunk; index < end; ++index) {
+                table[index] = initialValue(index, board, moves, children, remaining);
+            }
+        });
+
+        // retrograde propagation from every decided position to its predecessors
+        int[] queue = new int[1024];
+        int head = 0, tail = 0;
+        for (int index = 0; index < size; ++index) {
+            if (table[index] == WIN || table[index] == LOSS) {
+                if (tail == queue.length) queue = Arrays.copyOf(queue, queue.length * 2);
+                queue[tail++] = index;
+            }
+        }
+        Board board = new Board(layout);
+        int[] predecessors = new int[256];
+        while (head < tail) {
+            int index = queue[head++];
+            boolean stmStrong = decode(index, board);
+            byte value = table[index];
+            int count = unmoves(board, !stmStrong, predecessors);
+            for (int k = 0; k < count; ++k) {
+                int pred = predecessors[k];
+                if (table[pred] != UNKNOWN) continue;
+                if (value == LOSS) {
+                    table[pred] = WIN;
+                } else if (--remaining[pred] == 0) {
+                    table[pred] = LOSS;
+                } else {
+                    continue;
+                }
+                if (tail == queue.length) {
+                    // compact the processed prefix before growing
+                    System.arraycopy(queue, head, queue, 0, tail - head);
+                    tail -= head;
+                    head = 0;
+                    if (tail == queue.length) queue = Arrays.copyOf(queue, queue.length * 2);
+                }
+                queue[tail++] = pred;
+            }
+        }
+
+        Files.createDirectories(path.getParent());
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + (size + 3) / 4).order(ByteOrder.BIG_ENDIAN);
+        out.putInt(MAGIC).putInt(VERSION).putInt(n);
+        for (int index = 0; index < size; ++index) {
+            int value = table[index] == UNKNOWN ? DRAW : table[index];
+            int pos = HEADER_SIZE + (index >>> 2);
+            out.put(pos, (byte) (out.get(pos) | value << ((index & 3) << 1)));
+        }
+        // the table only gets its real name once it passes verification, so a bad one is never probed
+        // and is generated again next time
+        EndgameBitbase generated = new EndgameBitbase(signature, out);
+        int mismatches = verify(generated, layout, VERIFY_SAMPLES, VERIFY_DEPTH, signature.hashCode());
+        if (mismatches > 0) {
+            throw new IOException("Generated bitbase " + signature + " failed verification with " + mismatches + " mismatches");
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tmp, out.array());
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static byte initialValue(int index, Board board, int[] moves, Map<String, EndgameBitbase> children, byte[] remaining) {
+        boolean stmStrong = decode(index, board);
+        if (!board.isValid(stmStrong)) return ILLEGAL;
+
+        int count = board.generate(stmStrong, moves);
+        if (count == 0) {
+            return board.inCheck(stmStrong) ? LOSS : DRAW;
+        }
+        int open = 0;
+        boolean drawn = false;
+        for (int k = 0; k < count; ++k) {
+            int move = moves[k];
+            if ((move >>> 9) == 0) {
+                ++open; // stays inside this table, resolved by propagation
+                continue;
+            }
+            int from = board.make(move);
+            Lookup child = board.lookup(!stmStrong);
+            board.unmake(move, from);
+            int value = child == null ? DRAW : children.get(child.signature).get(child.index);
+            if (value == LOSS) return WIN;
+            if (value != WIN) drawn = true;
+        }
+        if (open == 0) return drawn ? DRAW : LOSS;
+        // a conversion into a draw means this position can never be lost, keep the counter from reaching zero
+        remaining[index] = (byte) Math.min(open + (drawn ? 1 : 0), 127);
+        return UNKNOWN;
+    }
+
+    // positions with the mover (moverStrong) to play that reach the current position by a quiet move
+    private static int unmoves(Board board, boolean moverStrong, int[] out) {
+        int count = 0;
+        long occ = board.occupancy();
+        for (int i = 0; i < board.squares.length; ++i) {
+            int to = board.squares[i];
+            if (board.strong[i] != moverStrong) continue;
+            long origins;
+            if (board.types[i] == PieceType.PAWN) {
+                int dir = moverStrong ? 8 : -8; // backwards for the mover
+                int one = to + dir;
+                origins = 0L;
+                if (one >= 0 && one < 64 && (occ & (1L << one)) == 0) {
+                    int row = AttackTables.row(one);
+                    if (row != 0 && row != 7) origins |= 1L << one;
+                    int two = one + dir;
+                    int startRow = moverStrong ? 6 : 1;
+                    if (two >= 0 && two < 64 && AttackTables.row(two) == startRow && (occ & (1L << two)) == 0) {
+                        origins |= 1L << two;
+                    }
+                }
+            } else {
+                origins = AttackTables.attacks(board.types[i], moverStrong, to, occ) & ~occ;
+            }
+            while (origins != 0) {
+                int from = Long.numberOfTrailingZeros(origins);
+                origins &= origins - 1;
+                board.squares[i] = from;
+                out[count++] = encode(board, moverStrong);
+                board.squares[i] = to;
+            }
+        }
+        return count;
+    }
+
+    // ---- verification ----
+
+    // Cross-checks a table on random positions: the generator's move counts against BoardState's
+    // legal moves (perft at depth 1), and the stored verdicts against a brute-force search of the
+    // given depth. Returns the number of mismatches found.
+    // Every table is checked this way by generate() before it is written.
+    public static int verify(String signature, int samples, int depth, long seed) throws IOException {
+        return verify(forSignature(signature), parseSignature(signature), samples, depth, seed);
+    }
+
+    private static int verify(EndgameBitbase table, Layout layout, int samples, int depth, long seed) {
+        Board board = new Board(layout);
+        int size = 2 << (6 * layout.types.length);
+        int[] moves = new int[256];
+        Random random = new Random(seed);
+        int mismatches = 0;
+
+        for (int checked = 0; checked < samples; ) {
+            int index = random.nextInt(size);
+            if (table.get(index) == ILLEGAL) continue;
+            ++checked;
+            boolean stmStrong = decode(index, board);
+
+            BoardState state = new BoardState(toFen(board, stmStrong));
+            Set<Integer> distinct = new HashSet<>();
+            int count = board.generate(stmStrong, moves);
+            for (int k = 0; k < count; ++k) {
+                distinct.add(moves[k] & 0x1ff); // BoardState only generates one promotion per square
+            }
+            if (distinct.size() != state.getLegalMoves().size()) {
+                System.err.println("Move count mismatch in " + toFen(board, stmStrong));
+                ++mismatches;
+            }
+
+            int searched = search(board, stmStrong, depth);
+            int stored = table.get(index);
+            if ((searched > 0 && stored != WIN) || (searched < 0 && stored != LOSS)) {
+                System.err.println("Verdict mismatch in " + toFen(board, stmStrong) + ": table " + toVerdict(stored));
+                ++mismatches;
+            }
+        }
+        return mismatches;
+    }
+
+    // +1 forced mate for the side to move, -1 forced mate against it, 0 unresolved within depth
+    private static int search(Board board, boolean stmStrong, int depth) {
+        int[] moves = new int[256];
+        int count = board.generate(stmStrong, moves);
+        if (count == 0) return board.inCheck(stmStrong) ? -1 : 0;
+        if (depth == 0) return 0;
+        int best = -1;
+        for (int k = 0; k < count && best < 1; ++k) {
+            int from = board.make(moves[k]);
+            best = Math.max(best, -search(board, !stmStrong, depth - 1));
+            board.unmake(moves[k], from);
+        }
+        return best;
+    }
+
+    private static String toFen(Board board, boolean stmStrong) {
+        char[][] grid = new char[8][8];
+        for (int i = 0; i < board.squares.length; ++i) {
+            int sq = board.squares[i];
+            if (sq < 0) continue;
+            char letter = typeLetter(board.types[i]);
+            grid[AttackTables.row(sq)][AttackTables.col(sq)] = board.strong[i] ? letter : Character.toLowerCase(letter);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int y = 0; y < 8; ++y) {
+            int empty = 0;
+            for (int x = 0; x < 8; ++x) {
+                if (grid[y][x] == 0) { ++empty; continue; }
+                if (empty > 0) { sb.append(empty); empty = 0; }
+                sb.append(grid[y][x]);
+            }
+            if (empty > 0) sb.append(empty);
+            if (y < 7) sb.append('/');
+        }
+        return sb.append(stmStrong ? " w - - 0 1" : " b - - 0 1").toString();
+    }
+}
@@ -0,0 +1,249 @@
+package chess.model.util;
+
+import chess.model.ChessGame;
+import chess.model.GameNode;
+import chess.model.Move;
+import chess.model.boardData.Position;
+import chess.model.pieceData.Piece;
+import chess.model.pieceData.Piece.PieceType;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Compact binary form of a game, kept in a hidden sidecar (.name.pgn.bin) next to a single-game
+// PGN file so loading it replays packed moves instead of lexing and resolving SAN.
+//   header   magic "CSGB", format version, size and modification time of the PGN it was made from
+//   strings  varint count, then varint byte length + UTF-8 bytes for every tag and comment
+//   tags     varint count, then (name, value) string indices
+//   tree     varint child count of the start position, then for each child, depth first:
+//            two move bytes, varint (child count << 2 | written as a capture << 1 | has comment),
+//            varint comment string index
+// A move is from square | check << 6 | mate << 7, then to square | promotion << 6 where the promotion
+// (knight, bishop, rook, queen) only counts for a pawn reaching the last rank. Whether the move was
+// written as a capture is kept as recorded, not as the board sees it: a PGN's "e4d5" for exd5 reads
+// back with the notation the parser gave it.
+// A sidecar with another version or a stale header is ignored, and the caller falls back to the PGN.
+public class GameCodec {
+    private static final int MAGIC = 0x43534742; // "CSGB"
+    private static final int VERSION = 2;
+    private static final int CHECK = 1 << 6, MATE = 1 << 7;
+    private static final PieceType[] PROMOTIONS = {PieceType.KNIGHT, PieceType.BISHOP, PieceType.ROOK, PieceType.QUEEN};
+
+    public static Path sidecarPath(Path pgn) {
+        return pgn.resolveSibling("." + pgn.getFileName() + ".bin");
+    }
+
+    // the game stored next to pgn, or null when there is no up to date sidecar
+    public static ChessGame read(Path pgn) throws IOException {
+        Path sidecar = sidecarPath(pgn);
+        if (!Files.exists(sidecar)) return null;
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(sidecar));
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) return null;
+            if (in.getLong() != Files.size(pgn) || in.getLong() != Files.getLastModifiedTime(pgn).toMillis()) return null;
+            return decode(in);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException | IllegalArgumentException e) {
+            throw new IOException("Corrupt game file " + sidecar + ": " + e.getMessage(), e);
+        }
+    }
+
+    // stores game as the binary form of pgn, which must already be written
+    public static void write(Path pgn, ChessGame game) throws IOException {
+        byte[] body = encode(game);
+        Path sidecar = sidecarPath(pgn);
+        Path tmp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(Files.size(pgn));
+            out.writeLong(Files.getLastModifiedTime(pgn).toMillis());
+            out.write(body);
+        }
+        Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // ---- encoding ----
+
+    public static byte[] encode(ChessGame game) {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        Map<String, String> tags = game.getTags();
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            intern(strings, tag.getKey());
+            intern(strings, tag.getValue());
+        }
+
+        // the tree is written first so its comments are interned, then placed after the string table
+        ByteArrayOutputStream tree = new ByteArrayOutputStream();
+        GameNode root = game.getFirstPosition();
+        writeVarint(tree, root.getChildren().size());
+        Deque<Iterator<GameNode>> stack = new ArrayDeque<>();
+        stack.push(root.getChildren().iterator());
+        while (!stack.isEmpty()) {
+            Iterator<GameNode> siblings = stack.peek();
+            if (!siblings.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            GameNode node = siblings.next();
+            writeMove(tree, node);
+            String comment = node.getComment();
+            boolean hasComment = comment != null && !comment.isEmpty();
+            boolean capture = node.getNotation().contains("x");
+            writeVarint(tree, node.getChildren().size() << 2 | (capture ? 2 : 0) | (hasComment ? 1 : 0));
+            if (hasComment) writeVarint(tree, intern(strings, comment));
+            stack.push(node.getChildren().iterator());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, strings.size());
+        for (String s : strings.keySet()) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        writeVarint(out, tags.size());
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            writeVarint(out, strings.get(tag.getKey()));
+            writeVarint(out, strings.get(tag.getValue()));
+        }
+        out.writeBytes(tree.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static int intern(Map<String, Integer> strings, String s) {
+        return strings.computeIfAbsent(s, k -> strings.size());
+    }
+
+    // from the packed move, so nodes whose boards were never built stay that way
+    private static void writeMove(ByteArrayOutputStream out, GameNode node) {
+        int packed = node.getPackedMove();
+        int from = Position.from(packed);
+        int to = Position.to(packed);
+        String notation = node.getNotation();
+        if (notation.endsWith("#")) from |= MATE;
+        else if (notation.endsWith("+")) from |= CHECK;
+        if (Position.promotion(packed) != 0) to |= (Position.promotion(packed) - 1) << 6;
+        out.write(from);
+        out.write(to);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    // ---- decoding ----
+
+    private record Frame(GameNode node, int remaining, int ply) {}
+
+    // Moves are checked on one Position and added as nodes whose boards are built on first use,
+    // like a parsed PGN; a move the resolver cannot replay switches the rest of the game to readMove.
+
+    public static ChessGame decode(ByteBuffer in) {
+        String[] strings = new String[readVarint(in)];
+        for (int i = 0; i < strings.length; ++i) {
+            byte[] bytes = new byte[readVarint(in)];
+            in.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        ChessGame game = new ChessGame(null);
+        int tagCount = readVarint(in);
+        for (int i = 0; i < tagCount; ++i) {
+            String name = strings[readVarint(in)];
+            game.setTag(name, strings[readVarint(in)]);
+        }
+
+        SanResolver resolver = new SanResolver();
+        Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(game.getFirstPosition(), readVarint(in), 0));
+        while (!stack.isEmpty()) {
+            Frame top = stack.pop();
+            if (top.remaining() == 0) continue;
+            stack.push(new Frame(top.node(), top.remaining() - 1, top.ply()));
+
+            int from = in.get() & 0xff, to = in.get() & 0xff;
+            int children = readVarint(in);
+            boolean capture = (children & 2) != 0;
+            GameNode child = null;
+            if (resolver != null) {
+                while (resolver.getPly() > top.ply()) resolver.unmake();
+                int packed = replayMove(resolver, from, to);
+                if (packed != 0) {
+                    String notation = resolver.notation(packed, capture);
+                    child = top.node().addReplayedNode(packed, notation, notation);
+                    resolver.make(packed);
+                } else {
+                    resolver = null;
+                }
+            }
+            if (child == null) child = top.node().addNode(readMove(from, to, capture, top.node()));
+            if ((children & 1) != 0) child.setComment(strings[readVarint(in)]);
+            stack.push(new Frame(child, children >>> 2, top.ply() + 1));
+        }
+        return game;
+    }
+
+    // the packed move for the stored bytes when it is legal in the resolver's position, or 0
+    private static int replayMove(SanResolver resolver, int from, int to) {
+        int promotion = 0;
+        if (resolver.isPromotion(from & 63, to & 63)) promotion = (to >>> 6) + 1;
+        int packed = Position.move(from & 63, to & 63, promotion);
+        return resolver.isLegalMove(packed) ? packed : 0;
+    }
+
+    // rebuilds the Move parseMove would have produced for the same SAN, checking it is legal; like
+    // parseMove, it only takes a move as a capture (or en passant) when it was written as one
+    private static Move readMove(int from, int to, boolean capture, GameNode node) {
+        ImmutXY fromPos = new ImmutXY(from & 7, (from >>> 3) & 7);
+        ImmutXY toPos = new ImmutXY(to & 7, (to >>> 3) & 7);
+        Piece piece = node.getPieceAt(fromPos.getY(), fromPos.getX());
+        if (piece == null || piece.isWhite() != node.isWhiteToPlay()) {
+            throw new IllegalArgumentException("No piece to move from " + fromPos.toAlgebraic());
+        }
+
+        // castling is taken as it was recorded, the same as parseMove does
+        if (piece.getType() == PieceType.KING && Math.abs(toPos.getX() - fromPos.getX()) == 2) {
+            boolean kingside = toPos.getX() > fromPos.getX();
+            return new Move(piece, fromPos, toPos, List.of(kingside ? Move.MoveType.CASTLE_SHORT : Move.MoveType.CASTLE_LONG), null);
+        }
+        if (!node.getPiecesReaching(toPos, piece.getType(), piece.isWhite()).contains(piece)) {
+            throw new IllegalArgumentException("Illegal move " + fromPos.toAlgebraic() + toPos.toAlgebraic());
+        }
+
+        List<Move.MoveType> types = new ArrayList<>();
+        if ((from & MATE) != 0) types.add(Move.MoveType.CHECKMATE);
+        else if ((from & CHECK) != 0) types.add(Move.MoveType.CHECK);
+        PieceType promotion = null;
+        if (piece.getType() == PieceType.PAWN && (toPos.getY() == 0 || toPos.getY() == 7)) {
+            promotion = PROMOTIONS[to >>> 6];
+            types.add(Move.MoveType.PROMOTION);
+        }
+
+        if (capture) types.add(Move.MoveType.CAPTURE);
+        if (capture && piece.getType() == PieceType.PAWN && toPos.equals(node.getEnPassantTarget())) {
+            types.add(Move.MoveType.EN_PASSANT);
+        }
+        if (piece.getType() == PieceType.PAWN && Math.abs(toPos.getY() - fromPos.getY()) == 2) {
+            types.add(Move.MoveType.DOUBLE_PAWN);
+        }
+        if (types.isEmpty()) types.add(Move.MoveType.REGULAR);
+        return new Move(piece, fromPos, toPos, types, promotion);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.get() & 0xff;
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
@@ -0,0 +1,151 @@
+package chess.model.util;
+
+import java.io.*;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+// Reads gzip data of one or more members as one stream, like GZIPInputStream, but from the start of
+// any member, and notes where each member begins: its byte position in the file and the offset of
+// its first byte in the inflated text. Member headers are parsed here and the deflate data inflated
+// raw, so the byte counts are known exactly. Each member's CRC and length are checked.
+class GzipMemberInputStream extends InputStream {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final List<long[]> members; // (position, text offset) pairs are added here, when not null
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPos, bufferLen;
+    private long bufferStart;  // file position of buffer[0]
+    private long textPosition; // text offset of the next byte read
+    private long memberText;   // text offset where the current member began
+    private boolean inMember, eof, first = true;
+
+    // in is positioned at the start of a member, at file position position and text offset textPosition
+    GzipMemberInputStream(InputStream in, long position, long textPosition, List<long[]> members) {
+        this.in = in;
+        this.bufferStart = position;
+        this.textPosition = textPosition;
+        this.members = members;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        while (!eof) {
+            if (!inMember && !startMember()) {
+                eof = true;
+                break;
+            }
+            int n;
+            try {
+                n = inflater.inflate(b, off, len);
+            } catch (DataFormatException e) {
+                throw new ZipException("Corrupt gzip data: " + e.getMessage());
+            }
+            if (n > 0) {
+                crc.update(b, off, n);
+                textPosition += n;
+                return n;
+            }
+            if (inflater.finished()) {
+                finishMember();
+            } else if (inflater.needsDictionary()) {
+                throw new ZipException("Corrupt gzip data: a preset dictionary");
+            } else if (inflater.needsInput()) {
+                if (bufferPos == bufferLen && !fill()) throw new EOFException("Unexpected end of gzip data");
+                inflater.setInput(buffer, bufferPos, bufferLen - bufferPos);
+                bufferPos = bufferLen; // handed to the inflater; what it leaves is given back at the member's end
+            }
+        }
+        return -1;
+    }
+
+    // reads a member header, or returns false at the end of the data
+    private boolean startMember() throws IOException {
+        long position = bufferStart + bufferPos;
+        int id1 = readByte();
+        if (id1 < 0) return false;
+        int id2 = readByte();
+        if (id1 != 0x1f || id2 != 0x8b) {
+            if (first) throw new ZipException("Not in gzip format");
+            return false; // padding after the last member, as some tools write
+        }
+        if (readByte() != 8) throw new ZipException("Unsupported gzip compression method");
+        int flags = readByte();
+        skip(6); // modification time, extra flags, operating system
+        if ((flags & 4) != 0) skip(readByte() | readByte() << 8); // extra field
+        if ((flags & 8) != 0) skipString(); // file name
+        if ((flags & 16) != 0) skipString(); // comment
+        if ((flags & 2) != 0) skip(2); // header CRC
+        if (members != null) members.add(new long[] {position, textPosition});
+        first = false;
+        inflater.reset();
+        crc.reset();
+        memberText = textPosition;
+        inMember = true;
+        return true;
+    }
+
+    private void finishMember() throws IOException {
+        bufferPos = bufferLen - inflater.getRemaining();
+        long storedCrc = readInt(), storedSize = readInt();
+        if (storedCrc != crc.getValue() || storedSize != ((textPosition - memberText) & 0xffffffffL)) {
+            throw new ZipException("Corrupt gzip data: checksum mismatch");
+        }
+        inMember = false;
+    }
+
+    private boolean fill() throws IOException {
+        bufferStart += bufferLen;
+        bufferPos = bufferLen = 0;
+        int n = in.read(buffer);
+        if (n <= 0) return false;
+        bufferLen = n;
+        return true;
+    }
+
+    private int readByte() throws IOException {
+        if (bufferPos == bufferLen && !fill()) return -1;
+        return buffer[bufferPos++] & 0xff;
+    }
+
+    private long readInt() throws IOException {
+        long value = 0;
+        for (int i = 0; i < 4; ++i) {
+            int b = readByte();
+            if (b < 0) throw new EOFException("Unexpected end of gzip data");
+            value |= (long) b << 8 * i;
+        }
+        return value;
+    }
+
+    private void skip(int count) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            if (readByte() < 0) throw new EOFException("Unexpected end of gzip data");
+        }
+    }
+
+    private void skipString() throws IOException {
+        int b;
+        while ((b = readByte()) != 0) {
+            if (b < 0) throw new EOFException("Unexpected end of gzip data");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+}
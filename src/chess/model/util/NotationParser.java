@@ -17,6 +17,11 @@ public class NotationParser {
     // Encode a move object into algebraic notation String
     public static String convertToNotation(Move move, GameNode currentNode) {
         if (move == null || currentNode == null) return "";
+        return convertToNotation(move, currentNode, currentNode.makeNewChange(move));
+    }
+
+    // same, for a caller that already holds the board after the move (a new GameNode passes itself)
+    public static String convertToNotation(Move move, BoardState currentNode, BoardState newState) {
 
         StringBuilder notation = new StringBuilder();
 
@@ -49,12 +54,7 @@ public class NotationParser {
             } else {
                 notation.append(getPieceSymbol(type));
 
-                List<Piece> candidates = new ArrayList<>();
-                for (Piece p: currentNode.getPossiblePieces(to, movingPiece.isWhite())) {
-                    if (p.getType() == type) {
-                        candidates.add(p);
-                    }
-                }
+                List<Piece> candidates = currentNode.getPiecesReaching(to, type, movingPiece.isWhite());
 
                 if (candidates.size() > 1) {
                     String disambig = getDisambiguation(movingPiece, candidates);
@@ -68,10 +68,8 @@ public class NotationParser {
             }
         }
 
-        BoardState newState = currentNode.makeNewChange(move);
         boolean isCheck = newState.isKingInCheck(newState.isWhiteToPlay());
-        List<Move> legalMoves = newState.getLegalMoves();
-        boolean isCheckmate = isCheck && legalMoves.isEmpty();
+        boolean isCheckmate = isCheck && !newState.hasLegalMove();
 
         if (isCheckmate) {
             notation.append("#");
@@ -95,43 +93,56 @@ public class NotationParser {
     }
 
     private static String getDisambiguation(Piece movingPiece, List<Piece> candidates) {
+        int[] files = new int[candidates.size()];
+        int[] ranks = new int[candidates.size()];
+        for (int i = 0; i < candidates.size(); ++i) {
+            files[i] = candidates.get(i).getPos().getX();
+            ranks[i] = candidates.get(i).getPos().getY();
+        }
         ImmutXY pos = movingPiece.getPos();
-        int fromX = pos.getX();
-        int fromY = pos.getY();
+        return getDisambiguation(pos.getX(), pos.getY(), files, ranks, candidates.size());
+    }
+
+    // the same from board coordinates (x file, y row) alone; the moving piece is one of the candidates
+    public static String getDisambiguation(int fromX, int fromY, int[] xs, int[] ys, int count) {
+        String file = String.valueOf((char) ('a' + fromX));
+        String rank = String.valueOf(8 - fromY);
 
         Set<Integer> candidateFiles = new HashSet<>();
         Set<Integer> candidateRanks = new HashSet<>();
-        for (Piece p : candidates) {
-            candidateFiles.add(p.getPos().getX());
-            candidateRanks.add(p.getPos().getY());
+        for (int i = 0; i < count; ++i) {
+            candidateFiles.add(xs[i]);
+            candidateRanks.add(ys[i]);
         }
 
-        if (candidateFiles.size() == candidates.size()) {
-            return pos.getAlgebraicFile();
-        } else if (candidateRanks.size() == candidates.size()) {
-            return String.valueOf(8 - fromY);
+        if (candidateFiles.size() == count) {
+            return file;
+        } else if (candidateRanks.size() == count) {
+            return rank;
         } else {
             boolean fileUnique = true;
-            for (Piece p : candidates) {
-                if (p != movingPiece && p.getPos().getX() == fromX) {
+            for (int i = 0; i < count; ++i) {
+                boolean other = xs[i] != fromX || ys[i] != fromY;
+                if (other && xs[i] == fromX) {
                     fileUnique = false;
                     break;
                 }
             }
             if (fileUnique) {
-                return pos.getAlgebraicFile();
+                return file;
             } else {
                 boolean rankUnique = true;
-                for (Piece p : candidates) {
-                    if (p != movingPiece && p.getPos().getY() == fromY) {
+                for (int i = 0; i < count; ++i) {
+                    boolean other = xs[i] != fromX || ys[i] != fromY;
+                    if (other && ys[i] == fromY) {
                         rankUnique = false;
                         break;
                     }
                 }
                 if (rankUnique) {
-                    return String.valueOf(8 - fromY);
+                    return rank;
                 } else {
-                    return pos.getAlgebraicFile() + (8 - fromY);
+                    return file + rank;
                 }
             }
         }
@@ -233,15 +244,8 @@ public class NotationParser {
             disambig = remainingAfterDest.isEmpty() ? "" : remainingAfterDest;
         }
 
-        // find all possible pieces that could have reached the destination square
-        List<Piece> allPossiblePieces = currentNode.getPossiblePieces(to, wtm);
-
-        List<Piece> candidates = new ArrayList<>();
-        for (Piece p: allPossiblePieces) {
-            if (p.getType() == pieceType) {
-                candidates.add(p);
-            }
-        }
+        // only pieces of the moving type are looked up, back from the destination square
+        List<Piece> candidates = currentNode.getPiecesReaching(to, pieceType, wtm);
 
         List<Piece> filtered = new ArrayList<>();
         for (Piece p : candidates) {
@@ -272,10 +276,10 @@ public class NotationParser {
         }
 
         if (filtered.isEmpty()) {
-            if (allPossiblePieces.isEmpty()) {
+            if (candidates.isEmpty()) {
                 throw new IllegalArgumentException("Absolutely no matching pieces from this move: " + originalNotation);
             } else {
-                System.out.println("Possible moves are not empty, but we can't find the desired notation: " + allPossiblePieces);
+                System.out.println("Possible moves are not empty, but we can't find the desired notation: " + candidates);
             }
             throw new IllegalArgumentException("Error: No matching pieces for filtered move: " + originalNotation);
         } else if (filtered.size() > 1) {
@@ -0,0 +1,179 @@
+package chess.model.util;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+// The forms a file of PGN games can take: plain ".pgn", gzip compressed ".pgn.gz", and ".zip"
+// archives of PGN files. Compressed files are read and written as streams through java.util.zip,
+// never extracted to disk.
+// The text of a zip archive is its ".pgn" entries in archive order, each followed by a newline.
+// A ".pgn.gz" is written as gzip members of BlockGzipOutputStream.BLOCK bytes of text each; any
+// gzip file reads, but one written here can also be read from any member on. Both kinds of file are
+// read in "members": gzip members, or the archive's PGN entries, which a reader can start at without
+// inflating what comes before. A member is located by a (position, text offset) pair: the gzip
+// member's byte position in the file, or the entry's number among the PGN entries, and the offset
+// of its first byte in the file's text.
+public final class PgnFiles {
+    public enum Format { PGN, GZIP, ZIP }
+
+    private PgnFiles() {}
+
+    // the format of a file by its name, or null for a file that is not one of games
+    public static Format format(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".pgn")) return Format.PGN;
+        if (lower.endsWith(".pgn.gz")) return Format.GZIP;
+        if (lower.endsWith(".zip")) return Format.ZIP;
+        return null;
+    }
+
+    public static Format format(Path file) {
+        return format(file.getFileName().toString());
+    }
+
+    public static boolean isGameFile(String name) {
+        return format(name) != null;
+    }
+
+    // where a game path such as "folder/file.pgn.gz#3" splits into the file and the game number: the
+    // index of its '#', or -1 for the path of a whole file
+    public static int gameSeparator(String path) {
+        int hash = path.lastIndexOf('#');
+        return hash >= 0 && isGameFile(path.substring(0, hash)) ? hash : -1;
+    }
+
+    // a file name given without a games extension gets ".pgn"
+    public static String withExtension(String name) {
+        return isGameFile(name) ? name : name + ".pgn";
+    }
+
+    // The text of a file as bytes, from the start. Each member met is added to members when it is
+    // not null; a plain file has none.
+    public static InputStream openText(Path file, List<long[]> members) throws IOException {
+        return openText(file, 0, 0, members);
+    }
+
+    // the same from the member at position, whose text starts at textOffset
+    static InputStream openText(Path file, long position, long textOffset, List<long[]> members) throws IOException {
+        Format format = format(file);
+        if (format == Format.GZIP) {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            channel.position(position);
+            return new GzipMemberInputStream(Channels.newInputStream(channel), position, textOffset, members);
+        }
+        if (format == Format.ZIP) return new ZipTextInputStream(new ZipFile(file.toFile()), (int) position, textOffset, members);
+        return new BufferedInputStream(Files.newInputStream(file));
+    }
+
+    public static Reader openReader(Path file) throws IOException {
+        return new BufferedReader(new InputStreamReader(openText(file, null), StandardCharsets.UTF_8));
+    }
+
+    // A new file's text, written in the format its name asks for. A zip archive gets one entry,
+    // named after it: "games.zip" holds "games.pgn".
+    public static OutputStream createText(Path file) throws IOException {
+        return createText(file, entryName(file));
+    }
+
+    // the same with the archive's entry named entryName, for a file written under another name
+    // (a temporary one) and moved into place after
+    public static OutputStream createText(Path file, String entryName) throws IOException {
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(file));
+        Format format = format(file);
+        if (format == Format.GZIP) return new BlockGzipOutputStream(out);
+        if (format == Format.ZIP) {
+            ZipOutputStream zip = new ZipOutputStream(out);
+            zip.putNextEntry(new ZipEntry(entryName));
+            return zip;
+        }
+        return out;
+    }
+
+    public static Writer createWriter(Path file) throws IOException {
+        return createWriter(file, entryName(file));
+    }
+
+    public static Writer createWriter(Path file, String entryName) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(createText(file, entryName), StandardCharsets.UTF_8));
+    }
+
+    // the entry a zip archive written here holds: "games.zip" holds "games.pgn"
+    public static String entryName(Path archive) {
+        String name = archive.getFileName().toString();
+        return name.toLowerCase(Locale.ROOT).endsWith(".zip") ? name.substring(0, name.length() - ".zip".length()) + ".pgn" : name;
+    }
+
+    // the PGN entries of an archive, in archive order
+    static List<ZipEntry> pgnEntries(ZipFile zip) {
+        List<ZipEntry> entries = new ArrayList<>();
+        for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+            ZipEntry entry = e.nextElement();
+            if (!entry.isDirectory() && entry.getName().toLowerCase(Locale.ROOT).endsWith(".pgn")) entries.add(entry);
+        }
+        return entries;
+    }
+
+    // an archive's PGN entries one after another, each followed by a newline so that the last game
+    // of one entry and the first tags of the next are apart
+    private static class ZipTextInputStream extends InputStream {
+        private final ZipFile zip;
+        private final List<ZipEntry> entries;
+        private final List<long[]> members;
+        private int next;
+        private InputStream current;
+        private boolean newline; // the current entry ended and its newline is still to come
+        private long textPosition;
+
+        ZipTextInputStream(ZipFile zip, int first, long textOffset, List<long[]> members) {
+            this.zip = zip;
+            this.entries = pgnEntries(zip);
+            this.next = first;
+            this.textPosition = textOffset;
+            this.members = members;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (true) {
+                if (newline) {
+                    newline = false;
+                    b[off] = '\n';
+                    ++textPosition;
+                    return 1;
+                }
+                if (current == null) {
+                    if (next >= entries.size()) return -1;
+                    if (members != null) members.add(new long[] {next, textPosition});
+                    current = new BufferedInputStream(zip.getInputStream(entries.get(next++)));
+                }
+                int n = current.read(b, off, len);
+                if (n > 0) {
+                    textPosition += n;
+                    return n;
+                }
+                current.close();
+                current = null;
+                newline = true;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.close();
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package chess.model.util;
+
+import chess.model.ChessGame;
+import chess.model.GameLibrary;
+import chess.model.SearchIndex;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+// Byte offsets, header tags, mainline length, first moves and comment words of every game in a
+// (multi-game) PGN file.
+// The scan only tokenizes, no moves are played, and the result is kept in a hidden sidecar file
+// (.name.pgn.idx) next to the PGN so reopening is a single small read. The sidecar records the
+// PGN's size and modification time and is rebuilt when either changes.
+// A game is only parsed when asked for, by reading its byte range.
+// For a compressed file (see PgnFiles) offsets are into its inflated text, and the sidecar also
+// keeps where each member starts, so a game is read by inflating from the member holding it.
+public class PgnIndex {
+    private static final int MAGIC = 0x43535049; // "CSPI"
+    private static final int VERSION = 4;
+    private static final int OPENING_PLIES = 12; // enough for the longest EcoDatabase line
+
+    // plies counts the mainline only; openingMoves is the mainline's first moves as SAN, space separated;
+    // comments is every distinct lower case word of the game's comments, space separated
+    public record Entry(long offset, long length, Map<String, String> tags, int plies, String openingMoves, String comments) {}
+
+    private final Path file;
+    private final List<Entry> entries;
+    private final long[] members; // (position, text offset) pairs, see PgnFiles; none for a plain file
+
+    private PgnIndex(Path file, List<Entry> entries, long[] members) {
+        this.file = file;
+        this.entries = entries;
+        this.members = members;
+    }
+
+    public int size() { return entries.size(); }
+    public Entry getEntry(int i) { return entries.get(i); }
+    public List<Entry> getEntries() { return Collections.unmodifiableList(entries); }
+
+    public static Path sidecarPath(Path pgn) {
+        return pgn.resolveSibling("." + pgn.getFileName() + ".idx");
+    }
+
+    // the index for a PGN file, from its sidecar when up to date, otherwise scanned and saved
+    public static PgnIndex forFile(Path pgn) throws IOException {
+        long size = Files.size(pgn);
+        long modified = Files.getLastModifiedTime(pgn).toMillis();
+        Path sidecar = sidecarPath(pgn);
+        if (Files.exists(sidecar)) {
+            try {
+                PgnIndex index = readSidecar(pgn, sidecar, size, modified);
+                if (index != null) return index;
+            } catch (IOException e) {
+                // corrupt sidecar, rescan below
+            }
+        }
+        PgnIndex index = scan(pgn);
+        try {
+            index.writeSidecar(sidecar, size, modified);
+        } catch (IOException e) {
+            System.err.println("Error writing PGN index " + sidecar + ": " + e.getMessage());
+        }
+        return index;
+    }
+
+    // Latin-1 maps every byte to one char, so lexer offsets are byte offsets;
+    // tag values are turned back into UTF-8 afterwards
+    private static PgnIndex scan(Path pgn) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        List<long[]> members = new ArrayList<>();
+        try (Reader reader = new InputStreamReader(PgnFiles.openText(pgn, members), StandardCharsets.ISO_8859_1)) {
+            PgnLexer lexer = new PgnLexer(reader);
+            long start = -1;
+            boolean inMoves = false;
+            Map<String, String> tags = new LinkedHashMap<>();
+            int plies = 0, depth = 0;
+            StringBuilder opening = new StringBuilder();
+            Set<String> comments = new LinkedHashSet<>();
+            PgnLexer.Token token;
+            while ((token = lexer.next()) != PgnLexer.Token.EOF) {
+                if (token == PgnLexer.Token.TAG) {
+                    if (inMoves || start < 0) {
+                        if (start >= 0) entries.add(new Entry(start, lexer.getTokenStart() - start, tags, plies, opening.toString(), String.join(" ", comments)));
+                        start = lexer.getTokenStart();
+                        tags = new LinkedHashMap<>();
+                        inMoves = false;
+                        plies = depth = 0;
+                        opening.setLength(0);
+                        comments.clear();
+                    }
+                    tags.put(lexer.getTagName(), utf8(lexer.getText()));
+                } else if (token == PgnLexer.Token.MOVE || token == PgnLexer.Token.RESULT) {
+                    if (start < 0) start = lexer.getTokenStart(); // game without tags
+                    inMoves = true;
+                    if (token == PgnLexer.Token.MOVE && depth == 0) {
+                        if (plies < OPENING_PLIES) {
+                            if (opening.length() > 0) opening.append(' ');
+                            opening.append(stripCheck(lexer.getText()));
+                        }
+                        ++plies;
+                    }
+                } else if (token == PgnLexer.Token.COMMENT) {
+                    // embedded commands such as [%clk 0:05:00] are not words of the comment
+                    comments.addAll(SearchIndex.words(utf8(lexer.getText()).replaceAll("\\[%[^\\]]*\\]", " ")));
+                } else if (token == PgnLexer.Token.VARIATION_START) {
+                    ++depth;
+                } else if (token == PgnLexer.Token.VARIATION_END && depth > 0) {
+                    --depth;
+                }
+            }
+            if (start >= 0) entries.add(new Entry(start, lexer.getOffset() - start, tags, plies, opening.toString(), String.join(" ", comments)));
+        }
+        long[] table = new long[2 * members.size()];
+        for (int m = 0; m < members.size(); ++m) {
+            table[2 * m] = members.get(m)[0];
+            table[2 * m + 1] = members.get(m)[1];
+        }
+        return new PgnIndex(pgn, entries, table);
+    }
+
+    private static String stripCheck(String san) {
+        int end = san.length();
+        while (end > 0 && (san.charAt(end - 1) == '+' || san.charAt(end - 1) == '#')) --end;
+        return san.substring(0, end);
+    }
+
+    private static String utf8(String latin1) {
+        return new String(latin1.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+    }
+
+    private static PgnIndex readSidecar(Path pgn, Path sidecar, long size, long modified) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            if (in.readLong() != size || in.readLong() != modified) return null;
+            int count = in.readInt();
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                long offset = in.readLong();
+                long length = in.readLong();
+                int tagCount = in.readUnsignedShort();
+                Map<String, String> tags = new LinkedHashMap<>();
+                for (int t = 0; t < tagCount; ++t) tags.put(in.readUTF(), in.readUTF());
+                int plies = in.readInt();
+                String openingMoves = in.readUTF();
+                byte[] comments = new byte[in.readInt()];
+                in.readFully(comments);
+                entries.add(new Entry(offset, length, tags, plies, openingMoves, new String(comments, StandardCharsets.UTF_8)));
+            }
+            long[] members = new long[2 * in.readInt()];
+            for (int m = 0; m < members.length; ++m) members[m] = in.readLong();
+            return new PgnIndex(pgn, entries, members);
+        }
+    }
+
+    private void writeSidecar(Path sidecar, long size, long modified) throws IOException {
+        Path tmp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(size);
+            out.writeLong(modified);
+            out.writeInt(entries.size());
+            for (Entry e : entries) {
+                out.writeLong(e.offset());
+                out.writeLong(e.length());
+                out.writeShort(e.tags().size());
+                for (Map.Entry<String, String> tag : e.tags().entrySet()) {
+                    out.writeUTF(tag.getKey());
+                    out.writeUTF(tag.getValue());
+                }
+                out.writeInt(e.plies());
+                out.writeUTF(e.openingMoves());
+                byte[] comments = e.comments().getBytes(StandardCharsets.UTF_8); // may be longer than writeUTF allows
+                out.writeInt(comments.length);
+                out.write(comments);
+            }
+            out.writeInt(members.length / 2);
+            for (long value : members) out.writeLong(value);
+        }
+        Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // the raw PGN text of game i
+    public String readGameText(int i) throws IOException {
+        return readGameTexts(i, i + 1).get(0);
+    }
+
+    // The raw PGN text of games from to to - 1, read in one pass: a compressed file is inflated once
+    // from the member holding the first of them, rather than once per game.
+    public List<String> readGameTexts(int from, int to) throws IOException {
+        List<String> texts = new ArrayList<>(Math.max(0, to - from));
+        if (from >= to) return texts;
+        if (members.length == 0) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                for (int i = from; i < to; ++i) {
+                    Entry e = entries.get(i);
+                    ByteBuffer buffer = ByteBuffer.allocate((int) e.length());
+                    channel.position(e.offset());
+                    while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                        // keep reading until the range is filled
+                    }
+                    texts.add(new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8));
+                }
+            }
+            return texts;
+        }
+        int m = member(entries.get(from).offset());
+        try (InputStream in = PgnFiles.openText(file, members[2 * m], members[2 * m + 1], null)) {
+            long position = members[2 * m + 1];
+            for (int i = from; i < to; ++i) {
+                Entry e = entries.get(i);
+                in.skipNBytes(e.offset() - position);
+                byte[] text = in.readNBytes((int) e.length());
+                position = e.offset() + text.length;
+                texts.add(new String(text, StandardCharsets.UTF_8));
+            }
+        }
+        return texts;
+    }
+
+    // A 64-bit hash (FNV-1a) of every game's raw text, read in one pass. Indexes over the file keep
+    // them to tell which games a rewrite left as they were, wherever they moved to. A run of
+    // whitespace counts as one space and whitespace at either end not at all, so the game that was
+    // last does not change when another is appended after the blank line it ended with.
+    public long[] textHashes() throws IOException {
+        long[] hashes = new long[entries.size()];
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = PgnFiles.openText(file, null)) {
+            long position = 0;
+            for (int i = 0; i < hashes.length; ++i) {
+                Entry e = entries.get(i);
+                in.skipNBytes(e.offset() - position);
+                long hash = 0xcbf29ce484222325L;
+                boolean started = false, space = false;
+                for (long left = e.length(); left > 0; ) {
+                    int read = in.readNBytes(buffer, 0, (int) Math.min(left, buffer.length));
+                    if (read == 0) throw new EOFException("Game " + (i + 1) + " of " + file + " is cut short");
+                    for (int b = 0; b < read; ++b) {
+                        int c = buffer[b] & 0xff;
+                        if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                            space = started;
+                            continue;
+                        }
+                        if (space) hash = (hash ^ ' ') * 0x100000001b3L;
+                        hash = (hash ^ c) * 0x100000001b3L;
+                        started = true;
+                        space = false;
+                    }
+                    left -= read;
+                }
+                hashes[i] = hash;
+                position = e.offset() + e.length();
+            }
+        }
+        return hashes;
+    }
+
+    // the member whose text holds offset
+    private int member(long offset) {
+        int low = 0, high = members.length / 2 - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (members[2 * mid + 1] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // Ranges {from, to} of about size games each, covering every game, for reading in parallel with
+    // readGameTexts. In a compressed file a range only starts with a game that starts in another
+    // member than the game before it, so no member is inflated by two ranges; a file of one member
+    // is one range.
+    public List<int[]> batches(int size) {
+        List<int[]> ranges = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i <= entries.size(); ++i) {
+            if (i < entries.size() && (i - start < size || members.length > 0
+                    && member(entries.get(i).offset()) == member(entries.get(i - 1).offset()))) continue;
+            ranges.add(new int[] {start, i});
+            start = i;
+        }
+        return ranges;
+    }
+
+    public ChessGame loadGame(int i) throws IOException {
+        return GameLibrary.parsePgn(readGameText(i));
+    }
+
+    // Replace game i with new PGN text, or remove it when pgn is null. The file is rewritten
+    // through a temporary copy; the sidecar goes stale and is rebuilt on the next forFile().
+    public void replaceGame(int i, String pgn) throws IOException {
+        SortedMap<Integer, String> games = new TreeMap<>();
+        games.put(i, pgn);
+        replaceGames(games);
+    }
+
+    // The same for several games in one rewrite: each game number (from 0) maps to its new text, or
+    // to null to remove it. Of a .pgn.gz only the members from the first game to the last are
+    // inflated and written again, the others are copied as they are; a zip archive is written
+    // again whole.
+    public void replaceGames(SortedMap<Integer, String> games) throws IOException {
+        if (games.isEmpty()) return;
+        long[] cuts = new long[2 * games.size()]; // the (start, end) of every game replaced, in file order
+        byte[][] texts = new byte[games.size()][];
+        int c = 0;
+        for (Map.Entry<Integer, String> game : games.entrySet()) {
+            Entry e = entries.get(game.getKey());
+            cuts[2 * c] = e.offset();
+            cuts[2 * c + 1] = e.offset() + e.length();
+            texts[c++] = game.getValue() == null ? new byte[0] : (game.getValue().trim() + "\n\n").getBytes(StandardCharsets.UTF_8);
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        PgnFiles.Format format = PgnFiles.format(file);
+        if (format == PgnFiles.Format.GZIP && members.length > 0) {
+            rewriteGzip(cuts, texts, tmp);
+        } else if (format == PgnFiles.Format.ZIP) {
+            rewriteZip(cuts, texts, tmp);
+        } else {
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                         StandardOpenOption.TRUNCATE_EXISTING)) {
+                long position = 0;
+                for (c = 0; c < texts.length; ++c) {
+                    transfer(in, position, cuts[2 * c] - position, out);
+                    ByteBuffer buffer = ByteBuffer.wrap(texts[c]);
+                    while (buffer.hasRemaining()) out.write(buffer);
+                    position = cuts[2 * c + 1];
+                }
+                transfer(in, position, in.size() - position, out);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void rewriteGzip(long[] cuts, byte[][] texts, Path tmp) throws IOException {
+        int first = member(cuts[0]);
+        int after = member(Math.max(cuts[cuts.length - 2], cuts[cuts.length - 1] - 1)) + 1; // the first member left as it is
+        long firstText = members[2 * first + 1];
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+             FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING);
+             BlockGzipOutputStream out = new BlockGzipOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            transfer(in, 0, members[2 * first], channel);
+            try (InputStream old = PgnFiles.openText(file, members[2 * first], firstText, null)) {
+                long position = firstText;
+                for (int c = 0; c < texts.length; ++c) {
+                    copy(old, cuts[2 * c] - position, out);
+                    out.write(texts[c]);
+                    old.skipNBytes(cuts[2 * c + 1] - cuts[2 * c]);
+                    position = cuts[2 * c + 1];
+                }
+                copy(old, after < members.length / 2 ? members[2 * after + 1] - position : Long.MAX_VALUE, out);
+            }
+            out.finish();
+            if (after < members.length / 2) transfer(in, members[2 * after], in.size() - members[2 * after], channel);
+        }
+    }
+
+    // a game's range is cut from the text of every entry it overlaps (it can take in the newline
+    // after an entry), and its new text goes where it started
+    private void rewriteZip(long[] cuts, byte[][] texts, Path tmp) throws IOException {
+        try (ZipFile zip = new ZipFile(file.toFile());
+             ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            int m = 0, c = 0;
+            for (Enumeration<? extends ZipEntry> it = zip.entries(); it.hasMoreElements(); ) {
+                ZipEntry entry = it.nextElement();
+                ZipEntry copy = new ZipEntry(entry.getName());
+                copy.setTime(entry.getTime());
+                copy.setComment(entry.getComment());
+                out.putNextEntry(copy);
+                try (InputStream in = new BufferedInputStream(zip.getInputStream(entry))) {
+                    if (!entry.isDirectory() && PgnFiles.format(entry.getName()) == PgnFiles.Format.PGN) {
+                        long start = members[2 * m++ + 1], position = start;
+                        while (c < texts.length && cuts[2 * c + 1] <= position) ++c;
+                        for (int k = c; k < texts.length; ++k) {
+                            long from = cuts[2 * k], to = cuts[2 * k + 1];
+                            if (from > position) {
+                                position += copy(in, from - position, out);
+                                if (position < from) break; // the entry ends before this game
+                            }
+                            if (from >= start) out.write(texts[k]);
+                            position += skip(in, to - position);
+                            if (position < to) break; // the game goes on into the next entry
+                        }
+                    }
+                    in.transferTo(out);
+                }
+                out.closeEntry();
+            }
+        }
+    }
+
+    // copies count bytes, or up to the end of in, and returns how many
+    private static long copy(InputStream in, long count, OutputStream out) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        long copied = 0;
+        while (copied < count) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, count - copied));
+            if (n < 0) break;
+            out.write(buffer, 0, n);
+            copied += n;
+        }
+        return copied;
+    }
+
+    private static long skip(InputStream in, long count) throws IOException {
+        long skipped = 0;
+        while (skipped < count) {
+            long n = in.skip(count - skipped);
+            if (n <= 0) {
+                if (in.read() < 0) break;
+                n = 1;
+            }
+            skipped += n;
+        }
+        return skipped;
+    }
+
+    private static void transfer(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        while (count > 0) {
+            long n = in.transferTo(position, count, out);
+            if (n <= 0) break;
+            position += n;
+            count -= n;
+        }
+    }
+
+    // short label for a game, e.g. "Carlsen - Nakamura 1-0"
+    public static String describe(Map<String, String> tags) {
+        String white = tags.getOrDefault("White", "?");
+        String black = tags.getOrDefault("Black", "?");
+        String result = tags.getOrDefault("Result", "*");
+        if (white.equals("?") && black.equals("?")) {
+            String event = tags.getOrDefault("Event", "?");
+            return event.equals("?") ? result : event;
+        }
+        return white + " - " + black + " " + result;
+    }
+}
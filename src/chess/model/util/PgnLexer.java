@@ -0,0 +1,269 @@
+package chess.model.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+// Single pass character level tokenizer for PGN text.
+// Reads from a Reader through a fixed buffer, or straight out of a (memory-mapped) ByteBuffer as UTF-8,
+// so memory use does not grow with the input. Handles tag pairs with escaped strings, brace and
+// semicolon comments, % escape lines, NAGs and suffix annotations (!, ?!, ...), nested variations,
+// move numbers and game results.
+public class PgnLexer {
+    public enum Token { TAG, MOVE, COMMENT, NAG, VARIATION_START, VARIATION_END, RESULT, EOF }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final ByteBuffer bytes;
+    private final char[] buffer;
+    private int bufferPos, bufferLen;
+    private int pendingLowSurrogate = -1;
+
+    private int peeked = -2; // -2 = nothing peeked
+    private int peekedSize, rawSize;
+    private long offset;     // bytes (ByteBuffer) or chars (Reader) consumed, excluding a peeked char
+    private boolean lineStart = true;
+
+    private Token token;
+    private Token pushedBack;
+    private long tokenStart;
+    private final StringBuilder text = new StringBuilder();
+    private String tagName;
+    private int nag;
+
+    public PgnLexer(Reader reader) {
+        this.reader = reader;
+        this.bytes = null;
+        this.buffer = new char[BUFFER_SIZE];
+    }
+
+    // reads from the buffer's position to its limit
+    public PgnLexer(ByteBuffer bytes) {
+        this.reader = null;
+        this.bytes = bytes;
+        this.buffer = null;
+        this.offset = bytes.position();
+    }
+
+    public Token getToken() { return token; }
+    // move text, comment text, tag value or result
+    public String getText() { return text.toString(); }
+    public String getTagName() { return tagName; }
+    public int getNag() { return nag; }
+    // offset of the first character of the current token (bytes for a ByteBuffer source)
+    public long getTokenStart() { return tokenStart; }
+    // offset just past the last character consumed
+    public long getOffset() { return offset; }
+
+    // makes the next call to next() return the current token again
+    public void pushBack() { pushedBack = token; }
+
+    public Token next() throws IOException {
+        if (pushedBack != null) {
+            pushedBack = null;
+            return token;
+        }
+        text.setLength(0);
+        while (true) {
+            int c = skipWhitespace();
+            tokenStart = offset;
+            if (c < 0) return token = Token.EOF;
+            read();
+
+            switch (c) {
+                case '[': return readTag();
+                case '{': return readBraceComment();
+                case ';': return readLineComment();
+                case '(': return token = Token.VARIATION_START;
+                case ')': return token = Token.VARIATION_END;
+                case '*':
+                    text.append('*');
+                    return token = Token.RESULT;
+                case '$':
+                    nag = readNumber();
+                    return token = Token.NAG;
+                case '!': case '?':
+                    return readSuffixAnnotation((char) c);
+                default:
+                    if (Character.isLetterOrDigit(c)) {
+                        Token t = readSymbol((char) c);
+                        if (t != null) return token = t;
+                    }
+                    // stray characters ('.', ']', '<', ...) are skipped
+            }
+        }
+    }
+
+    private Token readTag() throws IOException {
+        skipWhitespace();
+        StringBuilder name = new StringBuilder();
+        int c;
+        while ((c = peek()) >= 0 && (Character.isLetterOrDigit(c) || c == '_')) name.append((char) read());
+        tagName = name.toString();
+        skipWhitespace();
+        if (peek() == '"') {
+            read();
+            while ((c = read()) >= 0 && c != '"') {
+                if (c == '\\') {
+                    int escaped = read();
+                    if (escaped < 0) break;
+                    c = escaped;
+                }
+                text.append((char) c);
+            }
+        }
+        while ((c = read()) >= 0 && c != ']' && c != '\n') {
+            // skip to the end of the tag pair
+        }
+        return token = Token.TAG;
+    }
+
+    private Token readBraceComment() throws IOException {
+        int c;
+        while ((c = read()) >= 0 && c != '}') text.append((char) c);
+        trimText();
+        return token = Token.COMMENT;
+    }
+
+    private Token readLineComment() throws IOException {
+        int c;
+        while ((c = peek()) >= 0 && c != '\n') text.append((char) read());
+        trimText();
+        return token = Token.COMMENT;
+    }
+
+    private Token readSuffixAnnotation(char first) throws IOException {
+        int second = peek();
+        String suffix = String.valueOf(first);
+        if (second == '!' || second == '?') suffix += (char) read();
+        switch (suffix) {
+            case "!": nag = 1; break;
+            case "?": nag = 2; break;
+            case "!!": nag = 3; break;
+            case "??": nag = 4; break;
+            case "!?": nag = 5; break;
+            default: nag = 6; break; // ?!
+        }
+        return token = Token.NAG;
+    }
+
+    // moves, move numbers ("12." and "12..." are skipped) and results
+    private Token readSymbol(char first) throws IOException {
+        text.append(first);
+        int c;
+        while ((c = peek()) >= 0 && isSymbolChar(c)) text.append((char) read());
+
+        String s = text.toString();
+        if (s.equals("1-0") || s.equals("0-1") || s.equals("1/2-1/2")) return Token.RESULT;
+        if (allDigits(s)) {
+            while (peek() == '.') read();
+            text.setLength(0);
+            return null;
+        }
+        // castling written with zeros
+        if (s.startsWith("0-0")) {
+            for (int i = 0; i < text.length(); ++i) {
+                if (text.charAt(i) == '0') text.setCharAt(i, 'O');
+            }
+        }
+        return Token.MOVE;
+    }
+
+    private static boolean isSymbolChar(int c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '+' || c == '#' || c == '=' || c == ':' || c == '-' || c == '/';
+    }
+
+    private static boolean allDigits(String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            if (!Character.isDigit(s.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private int readNumber() throws IOException {
+        int value = 0;
+        while (peek() >= '0' && peek() <= '9') value = value * 10 + (read() - '0');
+        return value;
+    }
+
+    private void trimText() {
+        int start = 0, end = text.length();
+        while (start < end && Character.isWhitespace(text.charAt(start))) ++start;
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) --end;
+        text.setLength(end);
+        text.delete(0, start);
+    }
+
+    // skips whitespace and % escape lines, returns the next character without consuming it
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c < 0) return c;
+            if (c == '%' && lineStart) {
+                while ((c = peek()) >= 0 && c != '\n') read();
+            } else if (Character.isWhitespace(c) || c == '\uFEFF') {
+                read();
+            } else {
+                return c;
+            }
+        }
+    }
+
+    // ---- character source ----
+
+    private int peek() throws IOException {
+        if (peeked == -2) {
+            peeked = rawRead();
+            peekedSize = rawSize;
+        }
+        return peeked;
+    }
+
+    private int read() throws IOException {
+        int c = peek();
+        peeked = -2;
+        if (c >= 0) {
+            offset += peekedSize;
+            lineStart = c == '\n';
+        }
+        return c;
+    }
+
+    // next character from the source, setting rawSize to the bytes (or chars) it took up
+    private int rawRead() throws IOException {
+        rawSize = 1;
+        if (bytes == null) {
+            if (bufferPos == bufferLen) {
+                bufferLen = reader.read(buffer, 0, buffer.length);
+                bufferPos = 0;
+                if (bufferLen <= 0) {
+                    bufferLen = 0;
+                    return -1;
+                }
+            }
+            return buffer[bufferPos++];
+        }
+        if (pendingLowSurrogate >= 0) {
+            int low = pendingLowSurrogate;
+            pendingLowSurrogate = -1;
+            rawSize = 2;
+            return low;
+        }
+        if (!bytes.hasRemaining()) return -1;
+        int b = bytes.get() & 0xff;
+        if (b < 0x80) return b;
+        // multi-byte UTF-8; malformed sequences decode as their lead byte
+        int extra = b >= 0xf0 ? 3 : b >= 0xe0 ? 2 : b >= 0xc0 ? 1 : 0;
+        if (extra == 0 || bytes.remaining() < extra) return b;
+        int cp = b & (0x3f >> extra);
+        for (int i = 0; i < extra; ++i) cp = (cp << 6) | (bytes.get() & 0x3f);
+        rawSize = extra + 1;
+        if (cp >= 0x10000) {
+            // 4 byte sequence: two bytes counted for each half of the surrogate pair
+            pendingLowSurrogate = Character.lowSurrogate(cp);
+            rawSize = 2;
+            return Character.highSurrogate(cp);
+        }
+        return cp;
+    }
+}
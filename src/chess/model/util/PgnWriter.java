@@ -0,0 +1,217 @@
+package chess.model.util;
+
+import chess.model.ChessGame;
+import chess.model.GameNode;
+
+import java.io.*;
+import java.util.*;
+
+// Writes games as PGN text straight to a Writer, wrapping movetext at 80 columns.
+// The move tree is walked with an explicit stack holding one frame per open variation, so the
+// depth of the mainline does not matter, and nothing is allocated per move.
+// Black's move gets its number ("12... Nf6") at the start of a variation and after a variation
+// or comment interrupts the line.
+public class PgnWriter {
+    private static final int LINE_WIDTH = 80;
+    private static final String[] MANDATORY_TAGS = {"Event", "Site", "Date", "Round", "White", "Black", "Result"};
+
+    // frame state before its variations: the mainline move from the frame's position is not written yet
+    private static final int MAINLINE = 0;
+
+    private final Writer out;
+    private final char[] digits = new char[11];
+    private int column;
+
+    private GameNode[] nodes = new GameNode[16];
+    private int[] states = new int[16];
+    private int[] plies = new int[16];
+    private int depth;
+
+    public PgnWriter(Writer out) {
+        this.out = out;
+    }
+
+    // the game's tags, a blank line, then its movetext ending in the result and a newline
+    public void write(ChessGame game) throws IOException {
+        writeTags(game);
+        out.write('\n');
+        column = 0;
+        writeMoves(game.getFirstPosition());
+        String result = game.getTag("Result");
+        writeToken(result == null || result.isEmpty() ? "*" : result);
+        out.write('\n');
+        column = 0;
+    }
+
+    private void writeTags(ChessGame game) throws IOException {
+        Map<String, String> tags = game.getTags();
+        for (String tag : MANDATORY_TAGS) {
+            String value = tags.get(tag);
+            writeTag(tag, value != null ? value : tag.equals("Result") ? "*" : "?");
+        }
+        for (Map.Entry<String, String> entry : tags.entrySet()) {
+            if (!Arrays.asList(MANDATORY_TAGS).contains(entry.getKey())) {
+                writeTag(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void writeTag(String name, String value) throws IOException {
+        out.write('[');
+        out.write(name);
+        out.write(" \"");
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') out.write('\\');
+            out.write(c);
+        }
+        out.write("\"]\n");
+    }
+
+    // Each frame is a position whose children still have to be written. A frame first writes its
+    // mainline move, then opens one variation at a time (pushing a frame for the position after
+    // that variation's first move), and finally becomes the position after its mainline move.
+    private void writeMoves(GameNode root) throws IOException {
+        depth = 0;
+        push(root, 0);
+        boolean numberBlack = true;
+        while (depth > 0) {
+            int top = depth - 1;
+            GameNode node = nodes[top];
+            List<GameNode> children = node.getChildren();
+            if (children.isEmpty()) {
+                nodes[top] = null;
+                --depth;
+                if (depth > 0) {
+                    writeClose();
+                    numberBlack = true;
+                }
+                continue;
+            }
+
+            int state = states[top];
+            if (state == MAINLINE) {
+                numberBlack = writeMove(children.get(0), plies[top], numberBlack, false);
+                states[top] = 1;
+            } else if (state < children.size()) {
+                states[top] = state + 1;
+                GameNode variation = children.get(state);
+                numberBlack = writeMove(variation, plies[top], true, true);
+                push(variation, plies[top] + 1);
+            } else {
+                // back from the variations; a black reply needs its number again if there were any
+                if (children.size() > 1) numberBlack = true;
+                nodes[top] = children.get(0);
+                states[top] = MAINLINE;
+                plies[top] += 1;
+            }
+        }
+    }
+
+    private void push(GameNode node, int ply) {
+        if (depth == nodes.length) {
+            nodes = Arrays.copyOf(nodes, depth * 2);
+            states = Arrays.copyOf(states, depth * 2);
+            plies = Arrays.copyOf(plies, depth * 2);
+        }
+        nodes[depth] = node;
+        states[depth] = MAINLINE;
+        plies[depth] = ply;
+        ++depth;
+    }
+
+    private static boolean hasComment(GameNode node) {
+        return node.getComment() != null && !node.getComment().isEmpty();
+    }
+
+    // writes "12. e4" or (when numberBlack) "12... e5" plus the move's comment, opening a variation
+    // first when asked; returns whether the next move needs its number because a comment came in between
+    private boolean writeMove(GameNode node, int ply, boolean numberBlack, boolean open) throws IOException {
+        boolean white = ply % 2 == 0;
+        String notation = node.getNotation();
+        int numberLength = 0, dots = 0;
+        if (white || numberBlack) {
+            numberLength = formatNumber(ply / 2 + 1);
+            dots = white ? 1 : 3;
+        }
+        int length = (open ? 1 : 0) + (numberLength > 0 ? numberLength + dots + 1 : 0) + notation.length();
+        startToken(length);
+        if (open) out.write('(');
+        if (numberLength > 0) {
+            out.write(digits, digits.length - numberLength, numberLength);
+            out.write("...", 0, dots);
+            out.write(' ');
+        }
+        out.write(notation);
+        column += length;
+        if (!hasComment(node)) return false;
+        writeComment(node.getComment());
+        return true;
+    }
+
+    // comment words are wrapped like any other token, so its own whitespace is not kept
+    private void writeComment(String comment) throws IOException {
+        int length = comment.length();
+        int i = 0;
+        boolean first = true;
+        while (true) {
+            while (i < length && Character.isWhitespace(comment.charAt(i))) ++i;
+            int end = i;
+            while (end < length && !Character.isWhitespace(comment.charAt(end))) ++end;
+            boolean last = true;
+            for (int j = end; j < length; ++j) {
+                if (!Character.isWhitespace(comment.charAt(j))) {
+                    last = false;
+                    break;
+                }
+            }
+            int tokenLength = (end - i) + (first ? 1 : 0) + (last ? 1 : 0);
+            startToken(tokenLength);
+            if (first) out.write('{');
+            out.write(comment, i, end - i);
+            if (last) out.write('}');
+            column += tokenLength;
+            if (last) return;
+            first = false;
+            i = end;
+        }
+    }
+
+    // a closing parenthesis sits against the move before it
+    private void writeClose() throws IOException {
+        if (column + 1 > LINE_WIDTH) {
+            out.write('\n');
+            column = 0;
+        }
+        out.write(')');
+        ++column;
+    }
+
+    private void writeToken(String token) throws IOException {
+        startToken(token.length());
+        out.write(token);
+        column += token.length();
+    }
+
+    // separates the next token from the last one by a space, or a line break if it would not fit
+    private void startToken(int length) throws IOException {
+        if (column == 0) return;
+        if (column + 1 + length > LINE_WIDTH) {
+            out.write('\n');
+            column = 0;
+        } else {
+            out.write(' ');
+            ++column;
+        }
+    }
+
+    // the number right aligned at the end of digits, returns how many characters it took
+    private int formatNumber(int n) {
+        int pos = digits.length;
+        do {
+            digits[--pos] = (char) ('0' + n % 10);
+            n /= 10;
+        } while (n > 0);
+        return digits.length - pos;
+    }
+}
@@ -0,0 +1,189 @@
+package chess.model.util;
+
+import chess.model.ChessGame;
+import chess.model.GameLibrary;
+import chess.model.GameNode;
+import chess.model.Move;
+import chess.model.boardData.BoardState;
+import chess.model.boardData.Zobrist;
+import chess.model.pieceData.Piece;
+import chess.model.pieceData.Piece.PieceType;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+// Reader and builder for Polyglot opening books (.bin).
+// A book is a sorted array of 16-byte big-endian entries: key (8), move (2), weight (2), learn (4).
+// Lookups binary search the memory-mapped file, so nothing is loaded up front.
+public class PolyglotBook {
+    public static final String DEFAULT_PATH = "books/library.bin";
+    private static final int ENTRY_SIZE = 16;
+    private static final int BATCH = 64; // games read at a time
+    private static final PieceType[] PROMOTIONS = {null, PieceType.KNIGHT, PieceType.BISHOP, PieceType.ROOK, PieceType.QUEEN};
+
+    private final MappedByteBuffer data;
+    private final int entries;
+
+    public record BookMove(Move move, int weight) {}
+
+    public PolyglotBook(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            data.order(ByteOrder.BIG_ENDIAN);
+            entries = (int) (channel.size() / ENTRY_SIZE);
+        }
+    }
+
+    public int size() { return entries; }
+
+    // book moves for a position, highest weight first
+    public List<BookMove> getMoves(BoardState board) {
+        long key = Zobrist.hash(board);
+        List<BookMove> moves = new ArrayList<>();
+        for (int i = lowerBound(key); i < entries && data.getLong(i * ENTRY_SIZE) == key; ++i) {
+            int offset = i * ENTRY_SIZE;
+            Move move = decodeMove(data.getShort(offset + 8) & 0xffff, board);
+            if (move != null) {
+                moves.add(new BookMove(move, data.getShort(offset + 10) & 0xffff));
+            }
+        }
+        moves.sort((a, b) -> Integer.compare(b.weight(), a.weight()));
+        return moves;
+    }
+
+    // keys are ordered as unsigned 64-bit values
+    private int lowerBound(long key) {
+        int lo = 0, hi = entries;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Long.compareUnsigned(data.getLong(mid * ENTRY_SIZE), key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Polyglot moves: to file (3), to rank (3), from file (3), from rank (3), promotion (3).
+    // Castling is stored as the king capturing its own rook.
+    private static Move decodeMove(int encoded, BoardState board) {
+        int toX = encoded & 7;
+        int toY = 7 - ((encoded >>> 3) & 7);
+        int fromX = (encoded >>> 6) & 7;
+        int fromY = 7 - ((encoded >>> 9) & 7);
+        PieceType promotion = PROMOTIONS[Math.min((encoded >>> 12) & 7, 4)];
+
+        Piece piece = board.getPieceAt(fromY, fromX);
+        Piece target = board.getPieceAt(toY, toX);
+        if (piece != null && piece.getType() == PieceType.KING && target != null
+                && target.getType() == PieceType.ROOK && target.isWhite() == piece.isWhite()) {
+            toX = toX > fromX ? 6 : 2;
+        }
+
+        Move move = board.getMoveIfValid(new ImmutXY(fromX, fromY), new ImmutXY(toX, toY));
+        if (move == null || promotion == null || promotion == move.getPromotionType()) return move;
+        return new Move(move.getPiece(), move.getFrom(), move.getTo(), move.getTypes(), promotion);
+    }
+
+    private static int encodeMove(Move move) {
+        ImmutXY from = move.getFrom();
+        ImmutXY to = move.getTo();
+        int toX = to.getX();
+        List<Move.MoveType> types = move.getTypes();
+        if (types.contains(Move.MoveType.CASTLE_SHORT)) toX = 7;
+        if (types.contains(Move.MoveType.CASTLE_LONG)) toX = 0;
+
+        int promotion = 0;
+        if (move.getPromotionType() != null) {
+            promotion = Arrays.asList(PROMOTIONS).indexOf(move.getPromotionType());
+        }
+        return toX | (7 - to.getY()) << 3 | from.getX() << 6 | (7 - from.getY()) << 9 | promotion << 12;
+    }
+
+    // Build a book from every game (mainlines and variations) of the given library files (relative
+    // to libDir), read a batch of raw texts at a time. Each occurrence of a move counts once, plus 2
+    // when the mover won the game and 1 for a draw, so unfinished repertoire files are weighted by
+    // frequency alone. The book is written beside out and moved over it, so a book still mapped
+    // from out keeps reading the old file.
+    public static int build(Path libDir, List<String> files, Path out) throws IOException {
+        Map<Long, Map<Integer, Long>> weights = new HashMap<>();
+        for (String file : files) {
+            PgnIndex index;
+            try {
+                index = PgnIndex.forFile(libDir.resolve(file));
+            } catch (IOException e) {
+                System.err.println("Error reading " + file + " for the book: " + e.getMessage());
+                continue;
+            }
+            for (int[] range : index.batches(BATCH)) {
+                for (String text : index.readGameTexts(range[0], range[1])) {
+                    ChessGame game;
+                    try {
+                        game = GameLibrary.parsePgn(text);
+                    } catch (IOException | RuntimeException e) {
+                        System.err.println("Error reading a game of " + file + " for the book: " + e.getMessage());
+                        continue;
+                    }
+                    count(game, weights);
+                }
+            }
+        }
+
+        long max = 1;
+        for (Map<Integer, Long> moves : weights.values()) {
+            for (long w : moves.values()) max = Math.max(max, w);
+        }
+
+        List<Long> keys = new ArrayList<>(weights.keySet());
+        keys.sort(Long::compareUnsigned);
+        int written = 0;
+        if (out.getParent() != null) Files.createDirectories(out.getParent());
+        Path tmp = out.resolveSibling(out.getFileName() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            for (long key : keys) {
+                List<Map.Entry<Integer, Long>> moves = new ArrayList<>(weights.get(key).entrySet());
+                moves.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+                for (Map.Entry<Integer, Long> entry : moves) {
+                    // scale into the 16-bit weight field only when some weight overflows it
+                    long weight = max > 0xffff ? Math.max(1, entry.getValue() * 0xffff / max) : entry.getValue();
+                    dos.writeLong(key);
+                    dos.writeShort(entry.getKey());
+                    dos.writeShort((int) weight);
+                    dos.writeInt(0);
+                    ++written;
+                }
+            }
+        }
+        Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    // adds the weight of every move of the game to those of its position
+    private static void count(ChessGame game, Map<Long, Map<Integer, Long>> weights) {
+        String result = game.getTag("Result");
+        Deque<GameNode> stack = new ArrayDeque<>();
+        stack.push(game.getFirstPosition());
+        while (!stack.isEmpty()) {
+            GameNode node = stack.pop();
+            if (node.getChildren().isEmpty()) continue;
+            long key = Zobrist.hash(node);
+            Map<Integer, Long> moves = weights.computeIfAbsent(key, k -> new HashMap<>());
+            for (GameNode child : node.getChildren()) {
+                moves.merge(encodeMove(child.getMove()), 1L + resultBonus(result, node.isWhiteToPlay()), Long::sum);
+                stack.push(child);
+            }
+        }
+    }
+
+    private static int resultBonus(String result, boolean whiteMoved) {
+        if ("1/2-1/2".equals(result)) return 1;
+        if ("1-0".equals(result)) return whiteMoved ? 2 : 0;
+        if ("0-1".equals(result)) return whiteMoved ? 0 : 2;
+        return 0;
+    }
+}
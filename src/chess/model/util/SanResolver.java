@@ -0,0 +1,203 @@
+package chess.model.util;
+
+import chess.model.boardData.AttackTables;
+import chess.model.boardData.Position;
+
+// Replays a game's moves on one mutable Position, so a loader can check a whole variation tree with
+// make/unmake instead of building a BoardState per move. resolve() reads SAN the way
+// NotationParser.parseMove does and notation() writes what NotationParser.convertToNotation would
+// give for the same move, so the nodes built from them match eagerly parsed ones.
+// resolve() returns 0 for any move the eager parser would read differently from the rules
+// (castling without the right, a pawn reaching the last rank without promoting, en passant
+// written without 'x', ...); the loader then falls back to parseMove for the rest of the game.
+public class SanResolver {
+    private static final char[] SYMBOLS = {' ', ' ', 'N', 'B', 'R', 'Q', 'K'};
+
+    private final Position position;
+    private final int[] moves = new int[256];
+    private final int[] files = new int[64];
+    private final int[] ranks = new int[64];
+    private final StringBuilder notation = new StringBuilder();
+
+    public SanResolver() {
+        this(new Position());
+    }
+
+    // replays from the given position, which the resolver then owns
+    public SanResolver(Position position) {
+        this.position = position;
+    }
+
+    public int getPly() { return position.getPly(); }
+    public void make(int move) { position.makeMove(move); }
+    public void unmake() { position.unmakeMove(); }
+
+    // the legal move the SAN stands for in the current position, or 0
+    public int resolve(String san) {
+        if (san == null || san.isEmpty()) return 0;
+        boolean white = position.isWhiteToMove();
+
+        if (san.lastIndexOf('O') != -1) {
+            int king = position.kingSquare(white);
+            int castle = Position.move(king, king - AttackTables.col(king) + (san.lastIndexOf('O') == 2 ? 6 : 2), 0);
+            int count = position.generate(moves, true);
+            for (int i = 0; i < count; ++i) {
+                if (moves[i] == castle && Math.abs(Position.to(castle) - king) == 2 && isLegal(castle)) return castle;
+            }
+            return 0;
+        }
+
+        String text = san;
+        char end = text.charAt(text.length() - 1);
+        if (end == '+' || end == '#') text = text.substring(0, text.length() - 1);
+        int promotion = 0;
+        int eq = text.indexOf('=');
+        if (eq != -1) {
+            promotion = promotionIndex(text.substring(eq + 1));
+            if (promotion == 0) return 0;
+            text = text.substring(0, eq);
+        }
+        boolean capture = text.contains("x");
+        if (capture) text = text.replace("x", "");
+        if (text.isEmpty()) return 0;
+
+        int type;
+        switch (text.charAt(0)) {
+            case 'R': type = Position.ROOK; break;
+            case 'N': type = Position.KNIGHT; break;
+            case 'B': type = Position.BISHOP; break;
+            case 'Q': type = Position.QUEEN; break;
+            case 'K': type = Position.KING; break;
+            default: type = Position.PAWN; break;
+        }
+
+        int destStart = -1;
+        for (int i = text.length() - 1; i >= 1; --i) {
+            char c = text.charAt(i), prev = text.charAt(i - 1);
+            if (prev >= 'a' && prev <= 'h' && c >= '1' && c <= '8') {
+                destStart = i - 1;
+                break;
+            }
+        }
+        if (destStart < 0) return 0;
+        int to = Position.parseSquare(text.substring(destStart, destStart + 2));
+        String before = text.substring(0, destStart);
+        String disambig = type != Position.PAWN ? (before.length() > 1 ? before.substring(1) : "")
+                : capture ? before : "";
+
+        int found = 0, from = -1;
+        int count = position.generate(moves, true);
+        for (int i = 0; i < count; ++i) {
+            int move = moves[i];
+            int f = Position.from(move);
+            if (Position.to(move) != to || (position.pieceAt(f) & 7) != type || f == from) continue;
+            if (type == Position.KING && Math.abs(to - f) == 2) continue; // castling is only read from O-O
+            if (!matches(f, disambig) || !isLegal(move)) continue;
+            ++found;
+            from = f;
+        }
+        if (found != 1) return 0;
+
+        boolean lastRank = AttackTables.row(to) == 0 || AttackTables.row(to) == 7;
+        if (type == Position.PAWN) {
+            if (lastRank != (promotion != 0)) return 0;
+            if (to == position.getEpSquare() && !capture) return 0;
+        } else if (promotion != 0) {
+            return 0;
+        }
+        return Position.move(from, to, promotion);
+    }
+
+    private static int promotionIndex(String piece) {
+        switch (piece) {
+            case "N": return 1;
+            case "B": return 2;
+            case "R": return 3;
+            case "Q": return 4;
+            default: return 0;
+        }
+    }
+
+    private static boolean matches(int sq, String disambig) {
+        for (int i = 0; i < disambig.length(); ++i) {
+            char c = disambig.charAt(i);
+            if (Character.isLetter(c)) {
+                if (AttackTables.col(sq) != c - 'a') return false;
+            } else if (Character.isDigit(c)) {
+                if (AttackTables.row(sq) != 8 - Character.getNumericValue(c)) return false;
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // whether the packed move is one of the legal moves of the current position
+    public boolean isLegalMove(int move) {
+        int count = position.generate(moves, true);
+        for (int i = 0; i < count; ++i) {
+            if (moves[i] == move) return isLegal(move);
+        }
+        return false;
+    }
+
+    // whether a move between the squares is a pawn reaching the last rank
+    public boolean isPromotion(int from, int to) {
+        return (position.pieceAt(from) & 7) == Position.PAWN && (AttackTables.row(to) == 0 || AttackTables.row(to) == 7);
+    }
+
+    private boolean isLegal(int move) {
+        if (!position.makeMove(move)) return false;
+        position.unmakeMove();
+        return true;
+    }
+
+    // The move's notation, from the position before it is made. Whether a capture is written is
+    // up to the caller, since an eagerly parsed move writes 'x' exactly when its SAN had one.
+    public String notation(int move, boolean capture) {
+        int from = Position.from(move), to = Position.to(move);
+        int type = position.pieceAt(from) & 7;
+        notation.setLength(0);
+        if (type == Position.KING && Math.abs(to - from) == 2) {
+            notation.append(to > from ? "O-O" : "O-O-O");
+        } else if (type == Position.PAWN) {
+            if (capture) notation.append((char) ('a' + AttackTables.col(from))).append('x');
+            notation.append(Position.squareName(to));
+            if (Position.promotion(move) != 0) notation.append('=').append(SYMBOLS[Position.promotionType(move)]);
+        } else {
+            notation.append(SYMBOLS[type]);
+            int count = position.generate(moves, true), candidates = 0;
+            for (int i = 0; i < count; ++i) {
+                int f = Position.from(moves[i]);
+                if (Position.to(moves[i]) != to || (position.pieceAt(f) & 7) != type) continue;
+                if (type == Position.KING && Math.abs(to - f) == 2) continue;
+                if (!isLegal(moves[i])) continue;
+                files[candidates] = AttackTables.col(f);
+                ranks[candidates] = AttackTables.row(f);
+                ++candidates;
+            }
+            if (candidates > 1) {
+                notation.append(NotationParser.getDisambiguation(AttackTables.col(from), AttackTables.row(from), files, ranks, candidates));
+            }
+            if (capture) notation.append('x');
+            notation.append(Position.squareName(to));
+        }
+
+        position.makeMove(move);
+        if (position.inCheck()) notation.append(hasLegalMove() ? '+' : '#');
+        position.unmakeMove();
+        return notation.toString();
+    }
+
+    // whether the move captures, the way the board sees it (en passant included)
+    public boolean isCapture(int move) { return position.isCapture(move); }
+
+    private boolean hasLegalMove() {
+        int[] replies = new int[256];
+        int count = position.generate(replies, true);
+        for (int i = 0; i < count; ++i) {
+            if (isLegal(replies[i])) return true;
+        }
+        return false;
+    }
+}
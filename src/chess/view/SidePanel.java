@@ -11,12 +11,14 @@ import javax.swing.*;
 public class SidePanel extends JPanel {
     private final GameLibraryPanel libraryPanel;
     private final MoveHistoryPanel historyPanel;
+    private final OpeningExplorerPanel explorerPanel;
 
     public SidePanel(ChessController controller, boolean isHistoryPanel) {
         super(new BorderLayout());
 
         libraryPanel = new GameLibraryPanel(controller);
         historyPanel = new MoveHistoryPanel(controller);
+        explorerPanel = new OpeningExplorerPanel(controller);
 
         JTabbedPane tabbedPane = new JTabbedPane();
         if (isHistoryPanel) {
@@ -28,6 +30,7 @@ public class SidePanel extends JPanel {
             tabbedPane.addTab("Library", libraryPanel);
             tabbedPane.addTab("History", historyPanel);
         }
+        tabbedPane.addTab("Explorer", explorerPanel);
 
         add(tabbedPane, BorderLayout.CENTER);
         setPreferredSize(new Dimension(400, 400));
@@ -35,6 +38,7 @@ public class SidePanel extends JPanel {
 
     public void updateHistory() {
         historyPanel.update();
+        explorerPanel.update();
     }
 
     public void updateLibrary() {
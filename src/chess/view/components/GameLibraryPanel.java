@@ -1,22 +1,43 @@
 package chess.view.components;
 
 import chess.controller.ChessController;
-import chess.model.ChessGame;
+import chess.model.DuplicateFinder;
 import chess.model.GameLibrary;
 import chess.model.GameLibraryNode;
+import chess.model.GameMerger;
+import chess.model.PgnImporter;
+import chess.model.RepertoireReport;
+import chess.model.util.PgnFiles;
+import chess.model.util.PolyglotBook;
 
 import javax.swing.*;
 import javax.swing.tree.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// The library tree follows GameLibrary's node events: a saved, imported or deleted game only
+// inserts, removes or rebuilds its own rows.
+public class GameLibraryPanel extends JPanel implements GameLibrary.Listener {
+    private static final int SIMILAR_GAMES = 10;
 
-public class GameLibraryPanel extends JPanel {
     private final ChessController controller;
     private final DefaultTreeModel treeModel;
     private final JTree libraryTree;
     private final DefaultMutableTreeNode rootTreeNode;
+    private final Map<GameLibraryNode, DefaultMutableTreeNode> treeNodes = new HashMap<>();
     private JTextField searchField;
+    private SearchDocumentListener searchListener;
 
     public GameLibraryPanel(ChessController controller) {
         this.controller = controller;
@@ -32,15 +53,22 @@ public class GameLibraryPanel extends JPanel {
         // distinguish file/directory icons in the library based on tree nodes
         libraryTree.setCellRenderer(new GameLibraryTreeCellRenderer());
 
-        JPanel buttonPanel = new JPanel(new GridLayout(2, 3, 5, 5));
+        JPanel buttonPanel = new JPanel(new GridLayout(4, 3, 5, 5));
         buttonPanel.add(createButton("Load", this::loadGame));
         buttonPanel.add(createButton("Delete", this::deleteGame));
         buttonPanel.add(createButton("New Folder", this::createFolder));
         buttonPanel.add(createButton("Import", this::importPgn));
+        buttonPanel.add(createButton("Build Book", this::buildOpeningBook));
+        buttonPanel.add(createButton("Find Position", e -> searchListener.showGames(controller.findLibraryGamesWithPosition())));
+        buttonPanel.add(createButton("Similar Games", e -> searchListener.showGames(controller.findSimilarLibraryGames(SIMILAR_GAMES).keySet())));
+        buttonPanel.add(createButton("Repertoire", this::runRepertoireReport));
+        buttonPanel.add(createButton("Merge Files", this::mergePgnFiles));
+        buttonPanel.add(createButton("Duplicates", this::findDuplicates));
 
         JPanel searchPanel = new JPanel(new BorderLayout());
         searchField = new JTextField();
-        searchField.getDocument().addDocumentListener(new SearchDocumentListener());
+        searchListener = new SearchDocumentListener();
+        searchField.getDocument().addDocumentListener(searchListener);
         searchPanel.add(new JLabel("Search:"), BorderLayout.WEST);
         searchPanel.add(searchField, BorderLayout.CENTER);
 
@@ -49,6 +77,7 @@ public class GameLibraryPanel extends JPanel {
         add(buttonPanel, BorderLayout.SOUTH);
 
         refreshLibraryTree();
+        controller.addLibraryListener(this);
     }
 
     private JButton createButton(String text, ActionListener listener) {
@@ -58,9 +87,15 @@ public class GameLibraryPanel extends JPanel {
     }
 
     public void refreshLibraryTree() {
+        treeNodes.clear();
+        treeNodes.put(controller.getLibraryRootNode(), rootTreeNode);
         rootTreeNode.removeAllChildren();
         buildTreeFromNode(controller.getLibraryRootNode(), rootTreeNode);
-        treeModel.reload();
+        if (isFiltering()) {
+            searchListener.filterTree();
+        } else {
+            treeModel.reload();
+        }
         // Expand all directories
         //for (int i = 0; i < libraryTree.getRowCount(); i++) {
         //    libraryTree.expandRow(i);
@@ -71,9 +106,64 @@ public class GameLibraryPanel extends JPanel {
         for (GameLibraryNode child : node.getChildren()) {
             DefaultMutableTreeNode childTreeNode = new DefaultMutableTreeNode(child);
             treeNode.add(childTreeNode);
-            if (child.isDirectory()) {
-                buildTreeFromNode(child, childTreeNode);
-            }
+            treeNodes.put(child, childTreeNode);
+            // directories, and files that hold several games
+            buildTreeFromNode(child, childTreeNode);
+        }
+    }
+
+    private void forgetTreeNodes(DefaultMutableTreeNode treeNode) {
+        for (int i = 0; i < treeNode.getChildCount(); ++i) {
+            DefaultMutableTreeNode child = (DefaultMutableTreeNode) treeNode.getChildAt(i);
+            treeNodes.remove(child.getUserObject());
+            forgetTreeNodes(child);
+        }
+    }
+
+    // while a search is shown the model holds the filtered copy, which is simply built again
+    private boolean isFiltering() {
+        return treeModel.getRoot() != rootTreeNode;
+    }
+
+    @Override
+    public void nodeInserted(GameLibraryNode parent, int index, GameLibraryNode node) {
+        DefaultMutableTreeNode parentTreeNode = treeNodes.get(parent);
+        if (parentTreeNode == null) return;
+        DefaultMutableTreeNode treeNode = new DefaultMutableTreeNode(node);
+        treeNodes.put(node, treeNode);
+        buildTreeFromNode(node, treeNode);
+        if (isFiltering()) {
+            parentTreeNode.insert(treeNode, index);
+            searchListener.filterTree();
+        } else {
+            treeModel.insertNodeInto(treeNode, parentTreeNode, index);
+        }
+    }
+
+    @Override
+    public void nodeRemoved(GameLibraryNode parent, int index, GameLibraryNode node) {
+        DefaultMutableTreeNode treeNode = treeNodes.remove(node);
+        if (treeNode == null) return;
+        forgetTreeNodes(treeNode);
+        if (isFiltering()) {
+            treeNode.removeFromParent();
+            searchListener.filterTree();
+        } else {
+            treeModel.removeNodeFromParent(treeNode);
+        }
+    }
+
+    @Override
+    public void nodeStructureChanged(GameLibraryNode node) {
+        DefaultMutableTreeNode treeNode = treeNodes.get(node);
+        if (treeNode == null) return;
+        forgetTreeNodes(treeNode);
+        treeNode.removeAllChildren();
+        buildTreeFromNode(node, treeNode);
+        if (isFiltering()) {
+            searchListener.filterTree();
+        } else {
+            treeModel.nodeStructureChanged(treeNode);
         }
     }
 
@@ -89,7 +179,10 @@ public class GameLibraryPanel extends JPanel {
 
     private void loadGame(ActionEvent e) {
         GameLibraryNode selected = getSelectedNode();
-        if (selected != null && selected.isPgnFile()) {
+        if (selected != null && selected.isPgnFile() && !selected.getChildren().isEmpty()) {
+            // a file holding several games opens its first one
+            controller.loadGameFromLibrary(selected.getChildren().get(0).getRelativePath());
+        } else if (selected != null && (selected.isPgnFile() || selected.isGameEntry())) {
             controller.loadGameFromLibrary(selected.getRelativePath());
         } else {
             JOptionPane.showMessageDialog(this,
@@ -110,7 +203,6 @@ public class GameLibraryPanel extends JPanel {
                 } else {
                     controller.deleteGameFromLibrary(selected.getRelativePath());
                 }
-                refreshLibraryTree();
             }
         } else {
             JOptionPane.showMessageDialog(this,
@@ -129,7 +221,6 @@ public class GameLibraryPanel extends JPanel {
         if (folderName != null && !folderName.trim().isEmpty()) {
             try {
                 controller.createDirectoryInLibrary(parentPath + folderName);
-                refreshLibraryTree();
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(this,
                         "Error creating folder: " + ex.getMessage(),
@@ -157,41 +248,47 @@ public class GameLibraryPanel extends JPanel {
         namePanel.add(new JLabel("Game Name:"), BorderLayout.WEST);
         namePanel.add(nameField, BorderLayout.CENTER);
 
+        File[] sourceFile = new File[1];
+        JButton fileButton = new JButton("From File...");
+        fileButton.addActionListener(ev -> {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("PGN files", "pgn", "gz", "zip"));
+            if (chooser.showOpenDialog(importDialog) == JFileChooser.APPROVE_OPTION) {
+                sourceFile[0] = chooser.getSelectedFile();
+                pgnTextArea.setText("");
+                pgnTextArea.setEnabled(false);
+                String fileName = sourceFile[0].getName();
+                nameField.setText(fileName.toLowerCase().endsWith(".pgn") ? fileName.substring(0, fileName.length() - 4) : fileName);
+                fileButton.setText(fileName);
+            }
+        });
+
         JButton importButton = new JButton("Import");
         importButton.addActionListener(ev -> {
-            try {
-                String targetPath = "";
-                if (selected != null && selected.isDirectory()) {
-                    targetPath = selected.getRelativePath() + "/";
-                }
-                String pgn = pgnTextArea.getText().trim();
-                String name = nameField.getText().trim();
-
-                if (pgn.isEmpty()) {
-                    JOptionPane.showMessageDialog(importDialog,
-                        "Please enter PGN text", "Error", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
+            String targetPath = "";
+            if (selected != null && selected.isDirectory()) {
+                targetPath = selected.getRelativePath() + "/";
+            }
+            String pgn = pgnTextArea.getText().trim();
+            String name = nameField.getText().trim();
 
-                if (name.isEmpty()) {
-                    JOptionPane.showMessageDialog(importDialog,
-                        "Please enter a game name", "Error", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
+            if (pgn.isEmpty() && sourceFile[0] == null) {
+                JOptionPane.showMessageDialog(importDialog,
+                    "Please enter PGN text", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
 
-                ChessGame importedGame = GameLibrary.parsePgn(pgn);
-                importedGame.setFilename(name);
-                controller.saveToLibrary(targetPath + name, importedGame);
-                refreshLibraryTree();
-                importDialog.dispose();
-            } catch (Exception ex) {
+            if (name.isEmpty()) {
                 JOptionPane.showMessageDialog(importDialog,
-                    "Error importing PGN: " + ex.getMessage(),
-                    "Import Error", JOptionPane.ERROR_MESSAGE);
+                    "Please enter a game name", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
             }
-        });
 
+            importDialog.dispose();
+            runImport(sourceFile[0], pgn, targetPath + name);
+        });
         JPanel buttonPanel = new JPanel();
+        buttonPanel.add(fileButton);
         buttonPanel.add(importButton);
 
         importDialog.add(inputPanel, BorderLayout.CENTER);
@@ -202,8 +299,305 @@ public class GameLibraryPanel extends JPanel {
         importDialog.setVisible(true);
     }
 
+    // runs the import pipeline off the EDT with a progress dialog that can cancel it
+    private void runImport(File sourceFile, String pgnText, String path) {
+        PgnImporter importer = controller.createImporter();
+        JDialog progressDialog = new JDialog((Frame) SwingUtilities.getWindowAncestor(this), "Importing", false);
+        JProgressBar progressBar = new JProgressBar(0, 1000);
+        progressBar.setStringPainted(true);
+        JLabel statusLabel = new JLabel("Starting...");
+        JButton cancelButton = new JButton("Cancel");
+        cancelButton.addActionListener(ev -> {
+            importer.cancel();
+            cancelButton.setEnabled(false);
+            statusLabel.setText("Cancelling...");
+        });
+
+        JPanel content = new JPanel(new BorderLayout(5, 5));
+        content.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        content.add(statusLabel, BorderLayout.NORTH);
+        content.add(progressBar, BorderLayout.CENTER);
+        content.add(cancelButton, BorderLayout.SOUTH);
+        progressDialog.add(content);
+        progressDialog.setSize(350, 130);
+        progressDialog.setLocationRelativeTo(this);
+        progressDialog.setVisible(true);
+
+        new SwingWorker<Integer, int[]>() {
+            @Override
+            protected Integer doInBackground() throws Exception {
+                // a compressed file's text is longer than the file, so its progress is unknown
+                long total = sourceFile == null ? pgnText.length()
+                        : PgnFiles.format(sourceFile.getName()) == PgnFiles.Format.PGN ? sourceFile.length() : 0;
+                try (Reader reader = sourceFile != null
+                        ? PgnFiles.openReader(sourceFile.toPath())
+                        : new StringReader(pgnText)) {
+                    return importer.importGames(reader, total, path, (written, failed, read, size) -> {
+                        int permille = size > 0 ? (int) Math.min(1000, read * 1000 / size) : 0;
+                        publish(new int[]{written, failed, permille});
+                    });
+                }
+            }
+
+            @Override
+            protected void process(java.util.List<int[]> chunks) {
+                int[] latest = chunks.get(chunks.size() - 1);
+                progressBar.setValue(latest[2]);
+                if (!importer.isCancelled()) {
+                    statusLabel.setText(latest[0] + " games imported" + (latest[1] > 0 ? ", " + latest[1] + " skipped" : ""));
+                }
+            }
+
+            @Override
+            protected void done() {
+                progressDialog.dispose();
+                int written = 0;
+                try {
+                    written = get();
+                    if (!importer.isCancelled() && written == 0) {
+                        JOptionPane.showMessageDialog(GameLibraryPanel.this,
+                            "No games could be read from the PGN", "Import Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(GameLibraryPanel.this,
+                        "Error importing PGN: " + cause.getMessage(),
+                        "Import Error", JOptionPane.ERROR_MESSAGE);
+                }
+                String filePath = PgnFiles.withExtension(path);
+                controller.syncLibraryPath(filePath);
+                if (written > 0) checkImportedGames(filePath);
+            }
+        }.execute();
+    }
+
+    // builds the opening book from the library's games off the EDT
+    private void buildOpeningBook(ActionEvent e) {
+        List<String> libraryFiles = controller.getLibraryGameFiles();
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+
+        new SwingWorker<Integer, Void>() {
+            @Override
+            protected Integer doInBackground() throws Exception {
+                return controller.buildOpeningBook(libraryFiles);
+            }
+
+            @Override
+            protected void done() {
+                setCursor(Cursor.getDefaultCursor());
+                try {
+                    int entries = get();
+                    controller.openingBookBuilt();
+                    JOptionPane.showMessageDialog(GameLibraryPanel.this,
+                        "Wrote " + entries + " book entries to " + PolyglotBook.DEFAULT_PATH,
+                        "Opening Book", JOptionPane.INFORMATION_MESSAGE);
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(GameLibraryPanel.this,
+                        "Error building book: " + cause.getMessage(),
+                        "Book Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    // checks the library's games against repertoire files chosen by the user, off the EDT, and shows
+    // the report
+    private void runRepertoireReport(ActionEvent e) {
+        JFileChooser chooser = new JFileChooser(controller.getLibPath());
+        chooser.setDialogTitle("Choose Repertoire Files");
+        chooser.setMultiSelectionEnabled(true);
+        chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("PGN files", "pgn", "gz", "zip"));
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        List<File> repertoire = Arrays.asList(chooser.getSelectedFiles());
+        List<String> libraryFiles = controller.getLibraryGameFiles();
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+
+        new SwingWorker<RepertoireReport, Void>() {
+            @Override
+            protected RepertoireReport doInBackground() throws Exception {
+                return controller.buildRepertoireReport(repertoire, libraryFiles);
+            }
+
+            @Override
+            protected void done() {
+                setCursor(Cursor.getDefaultCursor());
+                try {
+                    showReport(get().format());
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(GameLibraryPanel.this,
+                        "Error building repertoire report: " + cause.getMessage(),
+                        "Repertoire Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    // merges PGN files chosen by the user into one game off the EDT, and opens it on the board
+    private void mergePgnFiles(ActionEvent e) {
+        JFileChooser chooser = new JFileChooser(controller.getLibPath());
+        chooser.setDialogTitle("Choose Files to Merge");
+        chooser.setMultiSelectionEnabled(true);
+        chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("PGN files", "pgn", "gz", "zip"));
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        List<File> files = Arrays.asList(chooser.getSelectedFiles());
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+
+        new SwingWorker<GameMerger, Void>() {
+            @Override
+            protected GameMerger doInBackground() throws Exception {
+                return controller.mergePgnFiles(files);
+            }
+
+            @Override
+            protected void done() {
+                setCursor(Cursor.getDefaultCursor());
+                try {
+                    GameMerger merger = get();
+                    controller.openGame(merger.getGame());
+                    JOptionPane.showMessageDialog(GameLibraryPanel.this,
+                        "Merged " + merger.getGameCount() + " games from " + files.size() + " files into "
+                            + merger.getAddedNodes() + " moves, " + merger.getTranspositions() + " of them transpositions",
+                        "Merge Files", JOptionPane.INFORMATION_MESSAGE);
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(GameLibraryPanel.this,
+                        "Error merging files: " + cause.getMessage(),
+                        "Merge Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    // looks for games the import brought in that the library already had, off the EDT
+    private void checkImportedGames(String filePath) {
+        List<String> libraryFiles = controller.getLibraryGameFiles();
+        new SwingWorker<List<DuplicateFinder.Group>, Void>() {
+            @Override
+            protected List<DuplicateFinder.Group> doInBackground() throws Exception {
+                return controller.checkImportedGames(filePath, libraryFiles);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    List<DuplicateFinder.Group> groups = get();
+                    if (!groups.isEmpty()) offerToRemoveDuplicates(groups, "Imported Duplicates");
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    System.err.println("Error checking imported games for duplicates: " + cause.getMessage());
+                }
+            }
+        }.execute();
+    }
+
+    // sweeps the whole library for games it holds more than once, off the EDT
+    private void findDuplicates(ActionEvent e) {
+        JCheckBox matchTags = new JCheckBox("Players and result must match as well");
+        int choice = JOptionPane.showConfirmDialog(this,
+            new Object[] {"Find games the library holds more than once, by their moves.", matchTags},
+            "Find Duplicates", JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE);
+        if (choice != JOptionPane.OK_OPTION) return;
+        boolean byTags = matchTags.isSelected();
+        List<String> libraryFiles = controller.getLibraryGameFiles();
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+
+        new SwingWorker<List<DuplicateFinder.Group>, Void>() {
+            @Override
+            protected List<DuplicateFinder.Group> doInBackground() throws Exception {
+                return controller.findDuplicateGames(libraryFiles, byTags);
+            }
+
+            @Override
+            protected void done() {
+                setCursor(Cursor.getDefaultCursor());
+                try {
+                    List<DuplicateFinder.Group> groups = get();
+                    if (groups.isEmpty()) {
+                        JOptionPane.showMessageDialog(GameLibraryPanel.this,
+                            "No duplicate games found", "Find Duplicates", JOptionPane.INFORMATION_MESSAGE);
+                    } else {
+                        offerToRemoveDuplicates(groups, "Find Duplicates");
+                    }
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(GameLibraryPanel.this,
+                        "Error finding duplicates: " + cause.getMessage(),
+                        "Duplicates Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    // lists the duplicates and removes them off the EDT if asked to, keeping the first copy of each game
+    private void offerToRemoveDuplicates(List<DuplicateFinder.Group> groups, String title) {
+        JTextArea listArea = new JTextArea(DuplicateFinder.format(groups), 20, 60);
+        listArea.setEditable(false);
+        listArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        listArea.setCaretPosition(0);
+        Object[] options = {"Remove Duplicates", "Keep All"};
+        int choice = JOptionPane.showOptionDialog(this, new JScrollPane(listArea), title,
+            JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[1]);
+        if (choice != 0) return;
+        int count = groups.stream().mapToInt(group -> group.duplicates().size()).sum();
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+
+        new SwingWorker<Set<String>, Void>() {
+            @Override
+            protected Set<String> doInBackground() throws Exception {
+                return controller.removeDuplicateGames(groups);
+            }
+
+            @Override
+            protected void done() {
+                setCursor(Cursor.getDefaultCursor());
+                try {
+                    for (String file : get()) controller.syncLibraryPath(file);
+                    JOptionPane.showMessageDialog(GameLibraryPanel.this,
+                        "Removed " + count + " duplicate games", title, JOptionPane.INFORMATION_MESSAGE);
+                } catch (Exception ex) {
+                    // files already rewritten reach the tree through the library's watcher
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    JOptionPane.showMessageDialog(GameLibraryPanel.this,
+                        "Error removing duplicates: " + cause.getMessage(), "Duplicates Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    private void showReport(String text) {
+        JDialog dialog = new JDialog((Frame) SwingUtilities.getWindowAncestor(this), "Repertoire Report", false);
+        JTextArea reportArea = new JTextArea(text, 30, 80);
+        reportArea.setEditable(false);
+        reportArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        reportArea.setCaretPosition(0);
+
+        JButton saveButton = new JButton("Save...");
+        saveButton.addActionListener(ev -> {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setSelectedFile(new File("repertoire-report.txt"));
+            if (chooser.showSaveDialog(dialog) != JFileChooser.APPROVE_OPTION) return;
+            try {
+                Files.writeString(chooser.getSelectedFile().toPath(), text, StandardCharsets.UTF_8);
+            } catch (java.io.IOException ex) {
+                JOptionPane.showMessageDialog(dialog,
+                    "Error saving report: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+        JPanel buttonPanel = new JPanel();
+        buttonPanel.add(saveButton);
+
+        dialog.add(new JScrollPane(reportArea), BorderLayout.CENTER);
+        dialog.add(buttonPanel, BorderLayout.SOUTH);
+        dialog.pack();
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+
     private class SearchDocumentListener implements javax.swing.event.DocumentListener {
         private javax.swing.Timer searchTimer;
+        private Set<String> positionGames; // games shown by Find Position, until the search text changes
 
         public SearchDocumentListener() {
             searchTimer = new javax.swing.Timer(300, e -> filterTree());
@@ -211,23 +605,35 @@ public class GameLibraryPanel extends JPanel {
         }
 
         @Override
-        public void insertUpdate(javax.swing.event.DocumentEvent e) { searchTimer.restart(); }
+        public void insertUpdate(javax.swing.event.DocumentEvent e) { positionGames = null; searchTimer.restart(); }
         @Override
-        public void removeUpdate(javax.swing.event.DocumentEvent e) { searchTimer.restart(); }
+        public void removeUpdate(javax.swing.event.DocumentEvent e) { positionGames = null; searchTimer.restart(); }
         @Override
-        public void changedUpdate(javax.swing.event.DocumentEvent e) { searchTimer.restart(); }
+        public void changedUpdate(javax.swing.event.DocumentEvent e) { positionGames = null; searchTimer.restart(); }
+
+        // shows only the given games (library paths), in place of the search results
+        void showGames(Set<String> games) {
+            searchTimer.stop();
+            positionGames = games;
+            filterTree();
+        }
 
         private void filterTree() {
             String searchText = searchField.getText().toLowerCase().trim();
-            if (searchText.isEmpty()) {
+            if (searchText.isEmpty() && positionGames == null) {
                 treeModel.setRoot(rootTreeNode);
                 treeModel.reload();
                 return;
             }
 
+            // the matching games come from the library's search index; a search without field filters
+            // also matches file and folder names
+            Set<String> games = positionGames != null ? positionGames : controller.searchLibrary(searchText);
+            String nameText = positionGames == null && !searchText.contains(":") ? searchText : null;
+
             // create a filtered tree
             DefaultMutableTreeNode filteredRoot = new DefaultMutableTreeNode(controller.getLibPath());
-            filterNodeRecursively(controller.getLibraryRootNode(), filteredRoot, searchText);
+            filterNodeRecursively(controller.getLibraryRootNode(), filteredRoot, games, nameText);
 
             // update the tree model
             treeModel.setRoot(filteredRoot);
@@ -237,25 +643,26 @@ public class GameLibraryPanel extends JPanel {
             expandAllForSearch(libraryTree, new TreePath(filteredRoot));
         }
 
-        private boolean filterNodeRecursively(GameLibraryNode sourceNode, DefaultMutableTreeNode targetNode, String searchText) {
+        private boolean filterNodeRecursively(GameLibraryNode sourceNode, DefaultMutableTreeNode targetNode,
+                                              Set<String> games, String nameText) {
             boolean hasMatch = false;
             for (GameLibraryNode child : sourceNode.getChildren()) {
-                boolean childMatches = false;
-                // check if this node matches the search
-                if (child.getName().toLowerCase().contains(searchText)) {
-                    childMatches = true;
-                }
-                // for directories, check if any children match
-                if (child.isDirectory()) {
+                // check if this node matches the search, by name or as one of the matching games
+                boolean childMatches = (nameText != null && child.getName().toLowerCase().contains(nameText))
+                        || (!child.isDirectory() && games.contains(child.getRelativePath()));
+                // for directories and multi-game files, check if any children match
+                if (child.isDirectory() || (!childMatches && !child.getChildren().isEmpty())) {
                     DefaultMutableTreeNode childTreeNode = new DefaultMutableTreeNode(child);
-                    boolean childrenMatch = filterNodeRecursively(child, childTreeNode, searchText);
+                    boolean childrenMatch = filterNodeRecursively(child, childTreeNode, games, nameText);
                     if (childrenMatch) {
                         targetNode.add(childTreeNode);
                         hasMatch = true;
                     }
                 } else if (childMatches) {
-                    // for files, add if they match
-                    targetNode.add(new DefaultMutableTreeNode(child));
+                    // for files and games, add if they match
+                    DefaultMutableTreeNode childTreeNode = new DefaultMutableTreeNode(child);
+                    buildTreeFromNode(child, childTreeNode);
+                    targetNode.add(childTreeNode);
                     hasMatch = true;
                 }
             }
@@ -285,7 +692,7 @@ public class GameLibraryPanel extends JPanel {
                     setText(gameNode.getDisplayName());
                     if (gameNode.isDirectory()) {
                         setIcon(UIManager.getIcon("FileView.directoryIcon"));
-                    } else if (gameNode.isPgnFile()) {
+                    } else if (gameNode.isPgnFile() || gameNode.isGameEntry()) {
                         setIcon(UIManager.getIcon("FileView.fileIcon"));
                     }
                 }
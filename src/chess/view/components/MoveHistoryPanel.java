@@ -275,6 +275,26 @@ public class MoveHistoryPanel extends JPanel {
             info.append("<br>Event: ").append(event);
         }
 
+        List<String> bookMoves = controller.getBookMoves();
+        if (!bookMoves.isEmpty()) {
+            info.append("<br>Book: ").append(String.join(", ", bookMoves));
+        }
+
+        String library = controller.getLibraryContinuations();
+        if (library != null) {
+            info.append("<br>Library: ").append(library);
+        }
+
+        String evaluation = controller.getCachedEvaluation();
+        if (evaluation != null) {
+            info.append("<br>Analysis: ").append(evaluation);
+        }
+
+        String endgame = controller.getEndgameVerdict();
+        if (endgame != null) {
+            info.append("<br>Endgame: ").append(endgame);
+        }
+
         info.append("</html>");
 
         gameInfoLabel.setText(info.toString());
@@ -326,7 +346,7 @@ public class MoveHistoryPanel extends JPanel {
     private void traverseGame(GameNode node, int depth, int moveNumber, boolean isWhiteTurn) {
         if (node == null) return;
 
-        if (node.getMove() != null) {
+        if (node.getParentNode() != null) { // every position but the first has a move
             String prefix = createMovePrefix(moveNumber, isWhiteTurn);
             listModel.addElement(new MoveEntry(node, prefix + node.getNotation(), depth, node.getComment()));
             if (isWhiteTurn) {
@@ -0,0 +1,70 @@
+package chess.view.components;
+
+import chess.controller.ChessController;
+import chess.model.OpeningTree;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.Map;
+
+// Every move library games played from the current position, with how many games played it, how
+// they scored for the side playing it and how long they lasted. Double clicking a move plays it.
+public class OpeningExplorerPanel extends JPanel {
+    private static final String[] COLUMNS = {"Move", "Games", "Score", "Avg Ply"};
+
+    private final ChessController controller;
+    private final DefaultTableModel tableModel;
+    private final JTable moveTable;
+    private final JLabel summaryLabel;
+
+    public OpeningExplorerPanel(ChessController controller) {
+        this.controller = controller;
+        setLayout(new BorderLayout());
+
+        tableModel = new DefaultTableModel(COLUMNS, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) { return false; }
+        };
+        moveTable = new JTable(tableModel);
+        moveTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        moveTable.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int row = moveTable.rowAtPoint(e.getPoint());
+                if (e.getClickCount() == 2 && row >= 0) {
+                    controller.playMove((String) tableModel.getValueAt(row, 0));
+                    controller.focusBoard();
+                }
+            }
+        });
+
+        summaryLabel = new JLabel();
+        summaryLabel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+
+        add(summaryLabel, BorderLayout.NORTH);
+        add(new JScrollPane(moveTable), BorderLayout.CENTER);
+        update();
+    }
+
+    public void update() {
+        tableModel.setRowCount(0);
+        Map<String, OpeningTree.MoveStats> moves = controller.getOpeningMoves();
+        boolean white = controller.getCurrentPosition().isWhiteToPlay();
+        int total = 0;
+        for (Map.Entry<String, OpeningTree.MoveStats> entry : moves.entrySet()) {
+            OpeningTree.MoveStats stats = entry.getValue();
+            double score = stats.score(white);
+            tableModel.addRow(new Object[] {
+                    entry.getKey(),
+                    stats.games(),
+                    score < 0 ? "-" : String.format("%.0f%%", score),
+                    String.format("%.0f", stats.averagePly())});
+            total += stats.games();
+        }
+        summaryLabel.setText(moves.isEmpty() ? "No library games from this position"
+                : total + (total == 1 ? " game" : " games") + " from this position");
+    }
+}
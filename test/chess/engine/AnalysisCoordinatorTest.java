@@ -0,0 +1,94 @@
+package chess.engine;
+
+import chess.model.boardData.Position;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.*;
+import java.util.List;
+
+// Recovery from a worker that crashes holding jobs and from one that stalls without heartbeats: their
+// jobs must be requeued and finished by a healthy worker. Takes a little over TIMEOUT_MILLIS, the
+// time the stalled worker needs to be noticed.
+public class AnalysisCoordinatorTest {
+    private static final List<String> FENS = List.of(
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1",
+            "rnbqkbnr/pppp1ppp/8/4p3/4P3/8/PPPP1PPP/RNBQKBNR w KQkq e6 0 2",
+            "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3",
+            "8/8/8/4k3/8/8/4P3/4K3 w - - 0 1",
+            "6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1");
+
+    public static void main(String[] args) throws Exception {
+        Path cachePath = Files.createTempFile("analysis-test", ".cache");
+        EvalCache cache = new EvalCache();
+        AnalysisCoordinator coordinator = new AnalysisCoordinator(cache, cachePath);
+        for (String fen : FENS) coordinator.addJob(fen, 2, 0);
+        coordinator.start(new InetSocketAddress("127.0.0.1", 0));
+        int port = coordinator.getPort();
+
+        // takes two jobs and dies without a result
+        try (Socket crashed = connect(port)) {
+            takeJobs(crashed, 2);
+        }
+        // takes two jobs and then neither answers nor heartbeats, but keeps its socket open
+        Socket stalled = connect(port);
+        takeJobs(stalled, 2);
+
+        Thread healthy = new Thread(() -> {
+            try {
+                new AnalysisWorker("127.0.0.1", port, 1).run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, "healthy-worker");
+        healthy.setDaemon(true);
+        healthy.start();
+
+        Thread waiter = new Thread(() -> {
+            try {
+                coordinator.awaitCompletion();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        waiter.join(AnalysisProtocol.TIMEOUT_MILLIS * 4);
+        check(!waiter.isAlive(), "every job finishes after a crash and a stall");
+        coordinator.shutdown();
+        stalled.close();
+
+        for (String fen : FENS) {
+            check(cache.get(new Position(fen).getKey()) != null, "cached result for " + fen);
+        }
+        check(EvalCache.load(cachePath).get(new Position(FENS.get(0)).getKey()) != null, "checkpointed cache");
+        Files.deleteIfExists(cachePath);
+        System.out.println("AnalysisCoordinatorTest passed");
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeByte(AnalysisProtocol.HELLO);
+        out.writeInt(AnalysisProtocol.VERSION);
+        out.flush();
+        return socket;
+    }
+
+    private static void takeJobs(Socket socket, int count) throws IOException {
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out.writeByte(AnalysisProtocol.REQUEST);
+        out.writeByte(count);
+        out.flush();
+        for (int i = 0; i < count; ++i) {
+            check(in.readByte() == AnalysisProtocol.JOB, "a job is handed out");
+            AnalysisProtocol.readJob(in);
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,41 @@
+package chess.model.boardData;
+
+// The reference keys from the Polyglot book format specification, through both the BoardState hash
+// and Position's incrementally updated key.
+public class ZobristTest {
+    private static final String[][] REFERENCE = {
+        {"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1", "463b96181691fc9c", ""},
+        {"rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1", "823c9b50fd114196", "e2e4"},
+        {"rnbqkbnr/ppp1pppp/8/3p4/4P3/8/PPPP1PPP/RNBQKBNR w KQkq d6 0 2", "0756b94461c50fb0", "d7d5"},
+        {"rnbqkbnr/ppp1pppp/8/3pP3/8/8/PPPP1PPP/RNBQKBNR b KQkq - 0 2", "662fafb965db29d4", "e4e5"},
+        {"rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3", "22a48b5a8e47ff78", "f7f5"},
+        {"rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPPKPPP/RNBQ1BNR b kq - 0 3", "652a607ca3f242c1", "e1e2"},
+        {"rnbq1bnr/ppp1pkpp/8/3pPp2/8/8/PPPPKPPP/RNBQ1BNR w - - 0 4", "00fdd303c946bdd9", "e8f7"},
+    };
+    private static final String[][] REFERENCE_2 = {
+        {"rnbqkbnr/p1pppppp/8/8/PpP4P/8/1P1PPPP1/RNBQKBNR b KQkq c3 0 3", "3c8123ea7b067637", "a2a4 b7b5 h2h4 b5b4 c2c4"},
+        {"rnbqkbnr/p1pppppp/8/8/P6P/R1p5/1P1PPPP1/1NBQKBNR b Kkq - 0 4", "5c3f9b829b279560", "b4c3 a1a3"},
+    };
+
+    public static void main(String[] args) {
+        for (String[][] line : new String[][][] {REFERENCE, REFERENCE_2}) {
+            Position played = new Position();
+            for (String[] ref : line) {
+                long expected = Long.parseUnsignedLong(ref[1], 16);
+                check(Zobrist.hash(new BoardState(ref[0])) == expected, "BoardState hash of " + ref[0]);
+                check(new Position(ref[0]).getKey() == expected, "Position key of " + ref[0]);
+                for (String move : ref[2].split(" ")) {
+                    if (move.isEmpty()) continue;
+                    int m = Position.move(Position.parseSquare(move.substring(0, 2)), Position.parseSquare(move.substring(2)), 0);
+                    check(played.makeMove(m), "legal move " + move);
+                }
+                check(played.getKey() == expected, "incremental key after " + ref[2]);
+            }
+        }
+        System.out.println("ZobristTest passed");
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,59 @@
+package chess.model.util;
+
+import chess.model.ChessGame;
+import chess.model.GameLibrary;
+import chess.model.GameNode;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+// A game decoded from its binary form must give back the PGN it was parsed from, with the same
+// notation and the same Moves once the boards are built, including captures written without an 'x'.
+public class GameCodecTest {
+    private static final List<String> GAMES = List.of(
+            // captures recorded without 'x'
+            "[Event \"nox\"]\n\n1. e4 d5 2. e4d5 Qd5 3. Nc3 Qa5 4. d4 c6 5. Nf3 Bg4 *",
+            // variations, comments, castling and checks
+            "[White \"A\"]\n[Black \"B\"]\n\n1. e4 e5 {open} 2. Nf3 (2. f4 exf4 3. Nf3 g5) 2... Nc6 3. Bb5 a6 "
+                    + "4. Ba4 Nf6 5. O-O Be7 6. Re1 b5 7. Bb3 d6 8. c3 O-O 9. h3 Na5 10. Bc2 c5 11. d4 Qc7 1-0",
+            // en passant, promotion and mate
+            "[Event \"ep\"]\n\n1. e4 a6 2. e5 d5 3. exd6 e6 4. dxc7 Qe7 5. cxb8=Q Rxb8 6. Qh5 g6 7. Qe5 f6 "
+                    + "8. Qxb8 Qd7 9. Bb5 axb5 10. Qxc8+ Qd8 11. Qxd8+ Kxd8 *",
+            "[Event \"mate\"]\n\n1. f3 e5 2. g4 Qh4# 0-1");
+
+    public static void main(String[] args) throws Exception {
+        for (String pgn : GAMES) {
+            ChessGame parsed = GameLibrary.parsePgn(pgn);
+            ChessGame decoded = GameCodec.decode(ByteBuffer.wrap(GameCodec.encode(parsed)));
+            String expected = GameLibrary.generatePGNString(parsed);
+            check(GameLibrary.generatePGNString(decoded).equals(expected), "PGN round trip of\n" + expected);
+            compareTrees(parsed.getFirstPosition(), decoded.getFirstPosition());
+        }
+        System.out.println("GameCodecTest passed");
+    }
+
+    private static void compareTrees(GameNode expectedRoot, GameNode actualRoot) {
+        Deque<GameNode[]> stack = new ArrayDeque<>();
+        stack.push(new GameNode[] {expectedRoot, actualRoot});
+        while (!stack.isEmpty()) {
+            GameNode[] pair = stack.pop();
+            GameNode expected = pair[0], actual = pair[1];
+            check(expected.getChildren().size() == actual.getChildren().size(), "children of " + expected.getNotation());
+            if (expected.getParentNode() != null) {
+                check(expected.getNotation().equals(actual.getNotation()), "notation " + expected.getNotation() + " vs " + actual.getNotation());
+                check(expected.getPackedMove() == actual.getPackedMove(), "move " + expected.getNotation());
+                check(expected.getMove().getTypes().equals(actual.getMove().getTypes()), "move types of " + expected.getNotation());
+                check(expected.getComment().equals(actual.getComment()), "comment after " + expected.getNotation());
+            }
+            for (int i = 0; i < expected.getChildren().size(); ++i) {
+                stack.push(new GameNode[] {expected.getChildren().get(i), actual.getChildren().get(i)});
+            }
+        }
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) throw new AssertionError(what);
+    }
+}